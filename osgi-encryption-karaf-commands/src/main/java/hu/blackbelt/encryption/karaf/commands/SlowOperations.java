@@ -0,0 +1,96 @@
+package hu.blackbelt.encryption.karaf.commands;
+
+/*-
+ * #%L
+ * OSGi encryption Karaf commands
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.SlowOperation;
+import hu.blackbelt.encryption.services.metrics.SlowOperationLog;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Apache Karaf command to list the slowest recent operations of encryption services.
+ */
+@Command(scope = "jasypt", name = "slow-operations", description = "List the slowest recent operations of encryptors and digesters.")
+@Service
+public class SlowOperations implements Action {
+
+    @Option(name = "--count", description = "Maximum number of operations listed, all operations are listed if negative", required = false, multiValued = false)
+    private int count = 10;
+
+    @Option(name = "--alias", description = "Alias of encryptor/digester", required = false, multiValued = false)
+    private String alias;
+
+    @Reference
+    private BundleContext bundleContext;
+
+    @Override
+    public Object execute() throws InvalidSyntaxException {
+        final List<SlowOperation> operations = new ArrayList<>();
+        for (final ServiceReference<SlowOperationLog> reference : bundleContext.getServiceReferences(SlowOperationLog.class, alias != null ? "(alias=" + escape(alias) + ")" : null)) {
+            final SlowOperationLog slowOperationLog = bundleContext.getService(reference);
+            if (slowOperationLog != null) {
+                try {
+                    operations.addAll(slowOperationLog.getSlowOperations());
+                } finally {
+                    bundleContext.ungetService(reference);
+                }
+            }
+        }
+        operations.sort(Comparator.comparingLong(SlowOperation::getDuration).reversed());
+
+        if (operations.isEmpty()) {
+            System.out.println("No slow operations recorded.");
+        }
+        for (final SlowOperation operation : operations.subList(0, count >= 0 ? Math.min(count, operations.size()) : operations.size())) {
+            System.out.println(String.format(Locale.ROOT, "%s %-15s %-20s %-30s %10.3f ms  size=%d  thread=%s", Instant.ofEpochMilli(operation.getTimestamp()), operation.getType(),
+                    operation.getAlias(), operation.getAlgorithm(), operation.getDuration() / 1_000_000.0, operation.getInputSize(), operation.getThread()));
+        }
+
+        return null;
+    }
+
+    /**
+     * Escape value of LDAP filter (RFC 1960), so alias cannot change the filter.
+     */
+    private static String escape(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '*' || c == '(' || c == ')') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,151 @@
+package hu.blackbelt.encryption.jmx;
+
+
+/*-
+ * #%L
+ * OSGi encryption metrics
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class AggregateStats implements AggregateStatsMBean {
+
+    private static final String[] ITEM_NAMES = {
+            "alias", "type", "algorithm", "consumer",
+            "totalProcessingTime", "requestCounter", "errorCounter", "queuedRequests", "activeRequests",
+            "latencyMin", "latencyMax", "latencyMean", "latencyP50", "latencyP90", "latencyP99", "latencyP999",
+            "requestRate", "requestRate1m", "requestRate5m", "requestRate15m",
+            "errorRate", "errorRate1m", "errorRate5m", "errorRate15m",
+            "inputBytes", "outputBytes", "inputSizeP50", "inputSizeP99", "outputSizeP50", "outputSizeP99", "inputByteRate1m", "outputByteRate1m"
+    };
+
+    private static final OpenType<?>[] ITEM_TYPES = {
+            SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING,
+            SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.INTEGER, SimpleType.INTEGER,
+            SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+            SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE,
+            SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE,
+            SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE
+    };
+
+    private static final String[] INDEX_NAMES = {"alias", "type", "consumer"};
+
+    private final Map<OperationStats, Map<String, Object>> registry;
+
+    private final Map<OperationStats, OperationStatsSnapshot> baselines = new ConcurrentHashMap<>();
+
+    private final Map<OperationStats, OperationStatsSnapshot> lastReads = new ConcurrentHashMap<>();
+
+    private final CompositeType rowType;
+
+    private final TabularType tableType;
+
+    /**
+     * Create aggregate MBean.
+     *
+     * @param registry registered operation statistics and their service properties
+     * @throws OpenDataException if open types cannot be created
+     */
+    public AggregateStats(final Map<OperationStats, Map<String, Object>> registry) throws OpenDataException {
+        this.registry = registry;
+        rowType = new CompositeType("OperationStats", "Operation statistics of an alias", ITEM_NAMES, ITEM_NAMES, ITEM_TYPES);
+        tableType = new TabularType("OperationStatsTable", "Operation statistics by alias, type and consumer", rowType, INDEX_NAMES);
+    }
+
+    @Override
+    public TabularData getStats() throws OpenDataException {
+        return read(false);
+    }
+
+    @Override
+    public synchronized TabularData readDelta() throws OpenDataException {
+        return read(true);
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (final OperationStats operationStats : registry.keySet()) {
+            final OperationStatsSnapshot snapshot = operationStats.snapshot();
+            baselines.put(operationStats, snapshot);
+            lastReads.put(operationStats, snapshot);
+        }
+    }
+
+    /**
+     * Remove state of unregistered operation statistics.
+     *
+     * @param operationStats operation statistics
+     */
+    public void remove(final OperationStats operationStats) {
+        baselines.remove(operationStats);
+        lastReads.remove(operationStats);
+    }
+
+    private TabularData read(final boolean delta) throws OpenDataException {
+        final TabularDataSupport table = new TabularDataSupport(tableType);
+        for (final Map.Entry<OperationStats, Map<String, Object>> entry : registry.entrySet()) {
+            final OperationStats operationStats = entry.getKey();
+            final OperationStatsSnapshot snapshot = operationStats.snapshot();
+            final OperationStatsSnapshot base;
+            if (delta) {
+                base = lastReads.put(operationStats, snapshot);
+            } else {
+                base = baselines.get(operationStats);
+            }
+            final CompositeDataSupport row = toCompositeData(entry.getValue(), snapshot, base);
+            // services with the same alias, type and consumer (i.e. multiple versions of encryption services) are returned once
+            if (!table.containsKey(table.calculateIndex(row))) {
+                table.put(row);
+            }
+        }
+
+        return table;
+    }
+
+    private CompositeDataSupport toCompositeData(final Map<String, Object> props, final OperationStatsSnapshot snapshot, final OperationStatsSnapshot base) throws OpenDataException {
+        final Object[] values = {
+                String.valueOf(props.get("alias")), String.valueOf(props.get("type")), String.valueOf(props.get("algorithm")),
+                props.get("consumer") != null ? String.valueOf(props.get("consumer")) : "",
+                snapshot.getTotalProcessingTime() - (base != null ? base.getTotalProcessingTime() : 0L),
+                snapshot.getRequestCounter() - (base != null ? base.getRequestCounter() : 0L),
+                snapshot.getErrorCounter() - (base != null ? base.getErrorCounter() : 0L),
+                snapshot.getQueuedRequests(), snapshot.getActiveRequests(),
+                snapshot.getLatencyMin(), snapshot.getLatencyMax(), snapshot.getLatencyMean(),
+                snapshot.getLatencyP50(), snapshot.getLatencyP90(), snapshot.getLatencyP99(), snapshot.getLatencyP999(),
+                snapshot.getRequestRate(), snapshot.getRequestRate1m(), snapshot.getRequestRate5m(), snapshot.getRequestRate15m(),
+                snapshot.getErrorRate(), snapshot.getErrorRate1m(), snapshot.getErrorRate5m(), snapshot.getErrorRate15m(),
+                snapshot.getInputBytes() - (base != null ? base.getInputBytes() : 0L),
+                snapshot.getOutputBytes() - (base != null ? base.getOutputBytes() : 0L),
+                snapshot.getInputSizeP50(), snapshot.getInputSizeP99(), snapshot.getOutputSizeP50(), snapshot.getOutputSizeP99(),
+                snapshot.getInputByteRate1m(), snapshot.getOutputByteRate1m()
+        };
+        return new CompositeDataSupport(rowType, ITEM_NAMES, values);
+    }
+}
@@ -0,0 +1,54 @@
+package hu.blackbelt.encryption.jmx;
+
+
+/*-
+ * #%L
+ * OSGi encryption metrics
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Statistics of all operation types of all aliases, values are returned by a single call.
+ */
+public interface AggregateStatsMBean {
+
+    /**
+     * Get statistics of all aliases and operation types. Counters are relative to the last reset, latency values,
+     * gauges and rates are current.
+     *
+     * @return statistics indexed by alias, type and consumer (empty for statistics of all consumers)
+     * @throws OpenDataException if statistics cannot be converted to open data
+     */
+    TabularData getStats() throws OpenDataException;
+
+    /**
+     * Get statistics of all aliases and operation types, counters are relative to the previous call of this
+     * operation (or the last reset).
+     *
+     * @return statistics indexed by alias, type and consumer (empty for statistics of all consumers)
+     * @throws OpenDataException if statistics cannot be converted to open data
+     */
+    TabularData readDelta() throws OpenDataException;
+
+    /**
+     * Reset counters of all aliases and operation types.
+     */
+    void reset();
+}
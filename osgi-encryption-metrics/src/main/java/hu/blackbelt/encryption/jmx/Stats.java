@@ -20,28 +20,310 @@ package hu.blackbelt.encryption.jmx;
  * #L%
  */
 
+import hu.blackbelt.encryption.services.metrics.ErrorCategory;
+import hu.blackbelt.encryption.services.metrics.OperationPhase;
 import hu.blackbelt.encryption.services.metrics.OperationStats;
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+import hu.blackbelt.encryption.services.metrics.PhaseStatsSnapshot;
 
-public class Stats implements StatsMBean {
+import javax.management.AttributeList;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.Map;
+
+public class Stats extends StandardMBean implements StatsMBean {
+
+    private static final String[] CLASS_ITEM_NAMES = {"exceptionClass", "errors"};
+
+    private static final OpenType<?>[] CLASS_ITEM_TYPES = {SimpleType.STRING, SimpleType.LONG};
+
+    private static final String[] CATEGORY_ITEM_NAMES = {"category", "errors", "lastError"};
+
+    private static final OpenType<?>[] CATEGORY_ITEM_TYPES = {SimpleType.STRING, SimpleType.LONG, SimpleType.LONG};
+
+    private static final String[] PHASE_ITEM_NAMES = {"phase", "count", "totalTime", "latencyMean", "latencyP50", "latencyP90", "latencyP99", "latencyMax"};
+
+    private static final OpenType<?>[] PHASE_ITEM_TYPES = {
+            SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG
+    };
 
     private final OperationStats stats;
 
-    public Stats(final OperationStats stats) {
+    /**
+     * Snapshot of the current {@link #getAttributes(String[])} call, attributes read together are consistent and
+     * statistics are aggregated once.
+     */
+    private final ThreadLocal<OperationStatsSnapshot> attributesSnapshot = new ThreadLocal<>();
+
+    public Stats(final OperationStats stats) throws NotCompliantMBeanException {
+        super(StatsMBean.class);
         this.stats = stats;
     }
 
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+        attributesSnapshot.set(stats.snapshot());
+        try {
+            return super.getAttributes(attributes);
+        } finally {
+            attributesSnapshot.remove();
+        }
+    }
+
+    private OperationStatsSnapshot snapshot() {
+        final OperationStatsSnapshot snapshot = attributesSnapshot.get();
+        return snapshot != null ? snapshot : stats.snapshot();
+    }
+
     @Override
     public long getTotalProcessingTime() {
-        return stats.getTotalProcessingTime();
+        return snapshot().getTotalProcessingTime();
+    }
+
+    @Override
+    public long getRequestCounter() {
+        return snapshot().getRequestCounter();
+    }
+
+    @Override
+    public long getErrorCounter() {
+        return snapshot().getErrorCounter();
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return snapshot().getQueuedRequests();
+    }
+
+    @Override
+    public int getActiveRequests() {
+        return snapshot().getActiveRequests();
+    }
+
+    @Override
+    public long getLatencyMin() {
+        return snapshot().getLatencyMin();
+    }
+
+    @Override
+    public long getLatencyMax() {
+        return snapshot().getLatencyMax();
+    }
+
+    @Override
+    public double getLatencyMean() {
+        return snapshot().getLatencyMean();
+    }
+
+    @Override
+    public long getLatencyP50() {
+        return snapshot().getLatencyP50();
+    }
+
+    @Override
+    public long getLatencyP90() {
+        return snapshot().getLatencyP90();
+    }
+
+    @Override
+    public long getLatencyP99() {
+        return snapshot().getLatencyP99();
+    }
+
+    @Override
+    public long getLatencyP999() {
+        return snapshot().getLatencyP999();
+    }
+
+    @Override
+    public double getRequestRate() {
+        return snapshot().getRequestRate();
+    }
+
+    @Override
+    public double getRequestRate1m() {
+        return snapshot().getRequestRate1m();
+    }
+
+    @Override
+    public double getRequestRate5m() {
+        return snapshot().getRequestRate5m();
+    }
+
+    @Override
+    public double getRequestRate15m() {
+        return snapshot().getRequestRate15m();
+    }
+
+    @Override
+    public double getErrorRate() {
+        return snapshot().getErrorRate();
+    }
+
+    @Override
+    public double getErrorRate1m() {
+        return snapshot().getErrorRate1m();
+    }
+
+    @Override
+    public double getErrorRate5m() {
+        return snapshot().getErrorRate5m();
+    }
+
+    @Override
+    public double getErrorRate15m() {
+        return snapshot().getErrorRate15m();
     }
 
     @Override
-    public int getRequestCounter() {
-        return stats.getRequestCounter();
+    public long getInputBytes() {
+        return snapshot().getInputBytes();
     }
 
     @Override
-    public int getErrorCounter() {
-        return stats.getErrorCounter();
+    public long getOutputBytes() {
+        return snapshot().getOutputBytes();
+    }
+
+    @Override
+    public long getInputSizeP50() {
+        return snapshot().getInputSizeP50();
+    }
+
+    @Override
+    public long getInputSizeP90() {
+        return snapshot().getInputSizeP90();
+    }
+
+    @Override
+    public long getInputSizeP99() {
+        return snapshot().getInputSizeP99();
+    }
+
+    @Override
+    public long getInputSizeMax() {
+        return snapshot().getInputSizeMax();
+    }
+
+    @Override
+    public long getOutputSizeP50() {
+        return snapshot().getOutputSizeP50();
+    }
+
+    @Override
+    public long getOutputSizeP90() {
+        return snapshot().getOutputSizeP90();
+    }
+
+    @Override
+    public long getOutputSizeP99() {
+        return snapshot().getOutputSizeP99();
+    }
+
+    @Override
+    public long getOutputSizeMax() {
+        return snapshot().getOutputSizeMax();
+    }
+
+    @Override
+    public double getInputByteRate() {
+        return snapshot().getInputByteRate();
+    }
+
+    @Override
+    public double getInputByteRate1m() {
+        return snapshot().getInputByteRate1m();
+    }
+
+    @Override
+    public double getInputByteRate5m() {
+        return snapshot().getInputByteRate5m();
+    }
+
+    @Override
+    public double getInputByteRate15m() {
+        return snapshot().getInputByteRate15m();
+    }
+
+    @Override
+    public double getOutputByteRate() {
+        return snapshot().getOutputByteRate();
+    }
+
+    @Override
+    public double getOutputByteRate1m() {
+        return snapshot().getOutputByteRate1m();
+    }
+
+    @Override
+    public double getOutputByteRate5m() {
+        return snapshot().getOutputByteRate5m();
+    }
+
+    @Override
+    public double getOutputByteRate15m() {
+        return snapshot().getOutputByteRate15m();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return snapshot().getCacheHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return snapshot().getCacheMisses();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return snapshot().getCacheEvictions();
+    }
+
+    @Override
+    public TabularData getErrorsByClass() throws OpenDataException {
+        final CompositeType rowType = new CompositeType("ErrorsByClass", "Number of errors of an exception class", CLASS_ITEM_NAMES, CLASS_ITEM_NAMES, CLASS_ITEM_TYPES);
+        final TabularDataSupport table = new TabularDataSupport(new TabularType("ErrorsByClassTable", "Number of errors by exception class", rowType, new String[]{"exceptionClass"}));
+        for (final Map.Entry<String, Long> entry : snapshot().getErrorsByClass().entrySet()) {
+            table.put(new CompositeDataSupport(rowType, CLASS_ITEM_NAMES, new Object[]{entry.getKey(), entry.getValue()}));
+        }
+
+        return table;
+    }
+
+    @Override
+    public TabularData getErrorsByCategory() throws OpenDataException {
+        final CompositeType rowType = new CompositeType("ErrorsByCategory", "Number of errors of a category", CATEGORY_ITEM_NAMES, CATEGORY_ITEM_NAMES, CATEGORY_ITEM_TYPES);
+        final TabularDataSupport table = new TabularDataSupport(new TabularType("ErrorsByCategoryTable", "Number of errors by category", rowType, new String[]{"category"}));
+        final OperationStatsSnapshot snapshot = snapshot();
+        for (final Map.Entry<ErrorCategory, Long> entry : snapshot.getErrorsByCategory().entrySet()) {
+            final Long lastError = snapshot.getLastErrorTimestamps().get(entry.getKey());
+            table.put(new CompositeDataSupport(rowType, CATEGORY_ITEM_NAMES, new Object[]{entry.getKey().name(), entry.getValue(), lastError != null ? lastError : 0L}));
+        }
+
+        return table;
+    }
+
+    @Override
+    public TabularData getPhases() throws OpenDataException {
+        final CompositeType rowType = new CompositeType("PhaseStats", "Statistics of an operation phase", PHASE_ITEM_NAMES, PHASE_ITEM_NAMES, PHASE_ITEM_TYPES);
+        final TabularDataSupport table = new TabularDataSupport(new TabularType("PhaseStatsTable", "Statistics by operation phase", rowType, new String[]{"phase"}));
+        for (final Map.Entry<OperationPhase, PhaseStatsSnapshot> entry : snapshot().getPhases().entrySet()) {
+            final PhaseStatsSnapshot phase = entry.getValue();
+            table.put(new CompositeDataSupport(rowType, PHASE_ITEM_NAMES, new Object[]{
+                    entry.getKey().name(), phase.getCount(), phase.getTotalTime(), phase.getLatencyMean(),
+                    phase.getLatencyP50(), phase.getLatencyP90(), phase.getLatencyP99(), phase.getLatencyMax()
+            }));
+        }
+
+        return table;
     }
 }
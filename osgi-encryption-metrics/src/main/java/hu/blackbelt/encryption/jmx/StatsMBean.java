@@ -20,11 +20,114 @@ package hu.blackbelt.encryption.jmx;
  * #L%
  */
 
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
 public interface StatsMBean {
 
     long getTotalProcessingTime();
 
-    int getRequestCounter();
+    long getRequestCounter();
+
+    long getErrorCounter();
+
+    int getQueuedRequests();
+
+    int getActiveRequests();
+
+    long getLatencyMin();
+
+    long getLatencyMax();
+
+    double getLatencyMean();
+
+    long getLatencyP50();
+
+    long getLatencyP90();
+
+    long getLatencyP99();
+
+    long getLatencyP999();
+
+    double getRequestRate();
+
+    double getRequestRate1m();
+
+    double getRequestRate5m();
+
+    double getRequestRate15m();
+
+    double getErrorRate();
+
+    double getErrorRate1m();
+
+    double getErrorRate5m();
+
+    double getErrorRate15m();
+
+    long getInputBytes();
+
+    long getOutputBytes();
+
+    long getInputSizeP50();
+
+    long getInputSizeP90();
+
+    long getInputSizeP99();
+
+    long getInputSizeMax();
+
+    long getOutputSizeP50();
+
+    long getOutputSizeP90();
+
+    long getOutputSizeP99();
+
+    long getOutputSizeMax();
+
+    double getInputByteRate();
+
+    double getInputByteRate1m();
+
+    double getInputByteRate5m();
+
+    double getInputByteRate15m();
+
+    double getOutputByteRate();
+
+    double getOutputByteRate1m();
+
+    double getOutputByteRate5m();
+
+    double getOutputByteRate15m();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheEvictions();
+
+    /**
+     * Get number of errors by class name of root cause exception.
+     *
+     * @return table of exception class and number of errors
+     * @throws OpenDataException if open data cannot be created
+     */
+    TabularData getErrorsByClass() throws OpenDataException;
+
+    /**
+     * Get number of errors and time of the last error (epoch milliseconds, 0 if no error occurred) by category.
+     *
+     * @return table of error category, number of errors and time of the last error
+     * @throws OpenDataException if open data cannot be created
+     */
+    TabularData getErrorsByCategory() throws OpenDataException;
 
-    int getErrorCounter();
+    /**
+     * Get statistics of operation phases (key derivation, cipher, encoding), latency values are in nanoseconds.
+     *
+     * @return table of phase statistics
+     * @throws OpenDataException if open data cannot be created
+     */
+    TabularData getPhases() throws OpenDataException;
 }
@@ -20,6 +20,7 @@ package hu.blackbelt.encryption.metrics;
  * #L%
  */
 
+import hu.blackbelt.encryption.jmx.AggregateStats;
 import hu.blackbelt.encryption.jmx.Stats;
 import hu.blackbelt.encryption.services.metrics.OperationStats;
 import lombok.extern.slf4j.Slf4j;
@@ -29,9 +30,10 @@ import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
 import javax.management.*;
+import javax.management.openmbean.OpenDataException;
 import java.lang.management.ManagementFactory;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component(immediate = true, service = JmxOperationStatsProvider.class, reference = {
         @Reference(name = "operationStats", service = OperationStats.class, policy = ReferencePolicy.DYNAMIC, cardinality = ReferenceCardinality.MULTIPLE, policyOption = ReferencePolicyOption.GREEDY, bind = "registerStats", unbind = "unregisterStats")
@@ -48,8 +50,14 @@ public class JmxOperationStatsProvider {
         String jmx_package() default DEFAULT_PACKAGE_NAME;
     }
 
-    private Map<OperationStats, Map<String, Object>> mbeans = new HashMap<>();
-    private MBeanServer mbs;
+    private final Map<OperationStats, Map<String, Object>> mbeans = new ConcurrentHashMap<>();
+    private volatile MBeanServer mbs;
+
+    /**
+     * Type of MBean returning statistics of all aliases and operation types.
+     */
+    public static final String AGGREGATE_TYPE = "AggregateStats";
+    private volatile AggregateStats aggregateStats;
 
     public static final String DEFAULT_PACKAGE_NAME = "hu.blackbelt.encryption";
     private String packageName;
@@ -62,6 +70,15 @@ public class JmxOperationStatsProvider {
         for (final OperationStats os : mbeans.keySet()) {
             register(os);
         }
+
+        try {
+            aggregateStats = new AggregateStats(mbeans);
+            mbs.registerMBean(aggregateStats, getAggregateObjectName());
+        } catch (OpenDataException | MalformedObjectNameException | MBeanRegistrationException | NotCompliantMBeanException ex) {
+            log.error("Unable to register aggregate JMX MBean", ex);
+        } catch (InstanceAlreadyExistsException ex) {
+            log.warn("Aggregate JMX bean is already registered", ex);
+        }
     }
 
     @Deactivate
@@ -70,6 +87,17 @@ public class JmxOperationStatsProvider {
             unregister(os);
         }
 
+        if (aggregateStats != null) {
+            try {
+                mbs.unregisterMBean(getAggregateObjectName());
+            } catch (MalformedObjectNameException | MBeanRegistrationException ex) {
+                log.error("Unable to unregister aggregate JMX MBean", ex);
+            } catch (InstanceNotFoundException ex) {
+                log.warn("Aggregate JMX bean is not registered", ex);
+            }
+            aggregateStats = null;
+        }
+
         mbs = null;
     }
 
@@ -87,22 +115,59 @@ public class JmxOperationStatsProvider {
         unregister(operationStats);
 
         mbeans.remove(operationStats);
+        final AggregateStats aggregate = aggregateStats;
+        if (aggregate != null) {
+            aggregate.remove(operationStats);
+        }
     }
 
     private ObjectName getObjectName(final Map<String, Object> props) throws MalformedObjectNameException {
+        return getObjectName(packageName, props);
+    }
+
+    /**
+     * Get name of MBean of operation statistics. Alias and consumer are quoted if they contain characters that are not
+     * allowed in unquoted values, so names of plain aliases are not changed.
+     */
+    static ObjectName getObjectName(final String packageName, final Map<String, Object> props) throws MalformedObjectNameException {
         final String type = String.valueOf(props.get("type"));
         final String alias = String.valueOf(props.get("alias"));
-        return new ObjectName(packageName + ":type=" + type + ",name=" + alias);
+        final Object consumer = props.get("consumer");
+        return new ObjectName(packageName + ":type=" + type + ",name=" + quote(alias) + (consumer != null ? ",consumer=" + quote(String.valueOf(consumer)) : ""));
+    }
+
+    private static String quote(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            switch (value.charAt(i)) {
+                case ',':
+                case '=':
+                case ':':
+                case '"':
+                case '*':
+                case '?':
+                case '\\':
+                case '\n':
+                    return ObjectName.quote(value);
+                default:
+                    break;
+            }
+        }
+        return value.isEmpty() ? ObjectName.quote(value) : value;
+    }
+
+    private ObjectName getAggregateObjectName() throws MalformedObjectNameException {
+        return new ObjectName(packageName + ":type=" + AGGREGATE_TYPE);
     }
 
     private void register(final OperationStats operationStats) {
-        if (mbs != null) {
+        final MBeanServer server = mbs;
+        if (server != null) {
             try {
                 final ObjectName name = getObjectName(mbeans.get(operationStats));
                 if (log.isDebugEnabled()) {
                     log.debug("Registering JMX MBean: " + name);
                 }
-                mbs.registerMBean(new Stats(operationStats), name);
+                server.registerMBean(new Stats(operationStats), name);
             } catch (MalformedObjectNameException | MBeanRegistrationException | NotCompliantMBeanException ex) {
                 log.error("Unable to register JMX MBean", ex);
             } catch (InstanceAlreadyExistsException ex) {
@@ -112,13 +177,14 @@ public class JmxOperationStatsProvider {
     }
 
     private void unregister(final OperationStats operationStats) {
-        if (mbs != null) {
+        final MBeanServer server = mbs;
+        if (server != null) {
             try {
                 final ObjectName name = getObjectName(mbeans.get(operationStats));
                 if (log.isDebugEnabled()) {
                     log.debug("Unregistering JMX MBean: " + name);
                 }
-                mbs.unregisterMBean(name);
+                server.unregisterMBean(name);
             } catch (MalformedObjectNameException | MBeanRegistrationException ex) {
                 log.error("Unable to unregister JMX MBean", ex);
             } catch (InstanceNotFoundException ex) {
@@ -0,0 +1,177 @@
+package hu.blackbelt.encryption.metrics;
+
+
+/*-
+ * #%L
+ * OSGi encryption metrics
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import lombok.extern.slf4j.Slf4j;
+import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Component(immediate = true, service = PrometheusOperationStatsExporter.class, configurationPolicy = ConfigurationPolicy.REQUIRE, reference = {
+        @Reference(name = "operationStats", service = OperationStats.class, policy = ReferencePolicy.DYNAMIC, cardinality = ReferenceCardinality.MULTIPLE, policyOption = ReferencePolicyOption.GREEDY, bind = "registerStats", updated = "updateStats", unbind = "unregisterStats")
+})
+@Designate(ocd = PrometheusOperationStatsExporter.Config.class)
+@Slf4j
+public class PrometheusOperationStatsExporter {
+
+    @SuppressWarnings("checkstyle:JavadocMethod")
+    @ObjectClassDefinition(name = "Prometheus exporter of operation statistics for encryption services")
+    public @interface Config {
+
+        @AttributeDefinition(required = false, name = "Metric name prefix")
+        String prometheus_prefix() default DEFAULT_PREFIX;
+
+        @AttributeDefinition(required = false, name = "HTTP host", description = "Host name or address of HTTP endpoint")
+        String prometheus_host() default DEFAULT_HOST;
+
+        @AttributeDefinition(required = false, name = "HTTP port", description = "Port of HTTP endpoint, HTTP endpoint is disabled if not positive", type = AttributeType.INTEGER)
+        int prometheus_port() default DEFAULT_PORT;
+
+        @AttributeDefinition(required = false, name = "HTTP path")
+        String prometheus_path() default DEFAULT_PATH;
+
+        @AttributeDefinition(required = false, name = "Output file", description = "File metrics are written to periodically (i.e. for node exporter textfile collector)")
+        String prometheus_file();
+
+        @AttributeDefinition(required = false, name = "File update interval", description = "Interval of writing output file in seconds", type = AttributeType.INTEGER)
+        int prometheus_fileInterval() default DEFAULT_FILE_INTERVAL;
+    }
+
+    public static final String DEFAULT_PREFIX = "encryption";
+    public static final String DEFAULT_HOST = "127.0.0.1";
+    public static final int DEFAULT_PORT = 9779;
+    public static final String DEFAULT_PATH = "/metrics";
+    public static final int DEFAULT_FILE_INTERVAL = 15;
+
+    private final Map<OperationStats, Map<String, Object>> stats = new ConcurrentHashMap<>();
+
+    private volatile PrometheusTextFormat format;
+
+    private PrometheusHttpEndpoint endpoint;
+
+    private ScheduledExecutorService fileWriter;
+
+    @Activate
+    void start(final Config config) throws IOException {
+        format = new PrometheusTextFormat(config.prometheus_prefix());
+
+        if (config.prometheus_port() > 0) {
+            try {
+                endpoint = new PrometheusHttpEndpoint(config.prometheus_host(), config.prometheus_port(), config.prometheus_path(), this::render);
+                log.info("Prometheus metrics of encryption services are available on http://" + config.prometheus_host() + ":" + config.prometheus_port() + config.prometheus_path());
+            } catch (NoClassDefFoundError ex) {
+                log.error("JDK HTTP server is not available (com.sun.net.httpserver package is not exported by system bundle), use output file instead", ex);
+            }
+        }
+
+        if (config.prometheus_file() != null && !config.prometheus_file().trim().isEmpty()) {
+            final Path file = Paths.get(config.prometheus_file());
+            fileWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "encryption-prometheus-exporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long interval = Math.max(1, config.prometheus_fileInterval());
+            fileWriter.scheduleWithFixedDelay(() -> write(file), 0L, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Deactivate
+    void stop() {
+        if (endpoint != null) {
+            endpoint.stop();
+            endpoint = null;
+        }
+        if (fileWriter != null) {
+            fileWriter.shutdownNow();
+            fileWriter = null;
+        }
+    }
+
+    void registerStats(final OperationStats operationStats, final Map<String, Object> props) {
+        stats.put(operationStats, props);
+    }
+
+    void updateStats(final OperationStats operationStats, final Map<String, Object> props) {
+        stats.put(operationStats, props);
+    }
+
+    void unregisterStats(final OperationStats operationStats, final Map<String, Object> props) {
+        stats.remove(operationStats);
+    }
+
+    /**
+     * Render all registered statistics in Prometheus text exposition format.
+     *
+     * @return metrics
+     */
+    public String render() {
+        final List<PrometheusTextFormat.Sample> samples = new ArrayList<>();
+        for (final Map.Entry<OperationStats, Map<String, Object>> entry : stats.entrySet()) {
+            final Map<String, Object> props = entry.getValue();
+            samples.add(new PrometheusTextFormat.Sample(asString(props.get("alias")), asString(props.get("type")), asString(props.get("algorithm")), asString(props.get("consumer")),
+                    entry.getKey().snapshot()));
+        }
+        return format.render(samples);
+    }
+
+    private static String asString(final Object value) {
+        return value != null ? String.valueOf(value) : null;
+    }
+
+    private void write(final Path file) {
+        try {
+            final Path parent = file.toAbsolutePath().getParent();
+            final Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(tmp, render().getBytes(StandardCharsets.UTF_8));
+                try {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.error("Unable to write Prometheus metrics to " + file, ex);
+        }
+    }
+}
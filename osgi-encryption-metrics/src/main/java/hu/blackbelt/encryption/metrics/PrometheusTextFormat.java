@@ -0,0 +1,215 @@
+package hu.blackbelt.encryption.metrics;
+
+
+/*-
+ * #%L
+ * OSGi encryption metrics
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationPhase;
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+import hu.blackbelt.encryption.services.metrics.PhaseStatsSnapshot;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * Render snapshots of operation statistics in Prometheus text exposition format (version 0.0.4).
+ */
+class PrometheusTextFormat {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final String prefix;
+
+    PrometheusTextFormat(final String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Statistics of an operation type of a service and its labels.
+     */
+    static final class Sample {
+
+        private final String labels;
+
+        private final OperationStatsSnapshot snapshot;
+
+        Sample(final String alias, final String type, final String algorithm, final String consumer, final OperationStatsSnapshot snapshot) {
+            this.labels = "alias=\"" + escape(alias) + "\",type=\"" + escape(type) + "\",algorithm=\"" + escape(algorithm) + "\",consumer=\"" + escape(consumer) + "\"";
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Render samples.
+     *
+     * @param samples statistics to render
+     * @return metrics in text exposition format
+     */
+    String render(final List<Sample> samples) {
+        final StringBuilder sb = new StringBuilder();
+
+        family(sb, "requests_total", "counter", "Number of requests", samples, s -> (double) s.getRequestCounter());
+        family(sb, "errors_total", "counter", "Number of failed requests", samples, s -> (double) s.getErrorCounter());
+        family(sb, "input_bytes_total", "counter", "Number of input bytes of successful requests", samples, s -> (double) s.getInputBytes());
+        family(sb, "output_bytes_total", "counter", "Number of output bytes of successful requests", samples, s -> (double) s.getOutputBytes());
+        family(sb, "cache_hits_total", "counter", "Number of requests served by verification cache", samples, s -> (double) s.getCacheHits());
+        family(sb, "cache_misses_total", "counter", "Number of requests not found in verification cache", samples, s -> (double) s.getCacheMisses());
+        family(sb, "cache_evictions_total", "counter", "Number of evicted or expired verification cache entries", samples, s -> (double) s.getCacheEvictions());
+        family(sb, "queued_requests", "gauge", "Number of asynchronous requests waiting for executor", samples, s -> (double) s.getQueuedRequests());
+        family(sb, "active_requests", "gauge", "Number of asynchronous requests being processed", samples, s -> (double) s.getActiveRequests());
+
+        header(sb, "request_rate", "gauge", "Moving average of requests per second");
+        for (final Sample sample : samples) {
+            rate(sb, "request_rate", sample, "1s", sample.snapshot.getRequestRate());
+            rate(sb, "request_rate", sample, "1m", sample.snapshot.getRequestRate1m());
+            rate(sb, "request_rate", sample, "5m", sample.snapshot.getRequestRate5m());
+            rate(sb, "request_rate", sample, "15m", sample.snapshot.getRequestRate15m());
+        }
+        header(sb, "error_rate", "gauge", "Moving average of failed requests per second");
+        for (final Sample sample : samples) {
+            rate(sb, "error_rate", sample, "1s", sample.snapshot.getErrorRate());
+            rate(sb, "error_rate", sample, "1m", sample.snapshot.getErrorRate1m());
+            rate(sb, "error_rate", sample, "5m", sample.snapshot.getErrorRate5m());
+            rate(sb, "error_rate", sample, "15m", sample.snapshot.getErrorRate15m());
+        }
+
+        header(sb, "latency_seconds", "histogram", "Latency of requests");
+        for (final Sample sample : samples) {
+            histogram(sb, "latency_seconds", sample.labels, sample.snapshot.getLatencyBuckets(), bound -> format(bound / NANOS_PER_SECOND),
+                    sample.snapshot.getLatencySum() / NANOS_PER_SECOND);
+        }
+
+        header(sb, "byte_rate", "gauge", "Moving average of bytes per second");
+        for (final Sample sample : samples) {
+            byteRate(sb, sample, "input", "1s", sample.snapshot.getInputByteRate());
+            byteRate(sb, sample, "input", "1m", sample.snapshot.getInputByteRate1m());
+            byteRate(sb, sample, "input", "5m", sample.snapshot.getInputByteRate5m());
+            byteRate(sb, sample, "input", "15m", sample.snapshot.getInputByteRate15m());
+            byteRate(sb, sample, "output", "1s", sample.snapshot.getOutputByteRate());
+            byteRate(sb, sample, "output", "1m", sample.snapshot.getOutputByteRate1m());
+            byteRate(sb, sample, "output", "5m", sample.snapshot.getOutputByteRate5m());
+            byteRate(sb, sample, "output", "15m", sample.snapshot.getOutputByteRate15m());
+        }
+
+        header(sb, "input_size_bytes", "histogram", "Input size of successful requests");
+        for (final Sample sample : samples) {
+            histogram(sb, "input_size_bytes", sample.labels, sample.snapshot.getInputSizeBuckets(), Long::toString, sample.snapshot.getInputBytes());
+        }
+        header(sb, "output_size_bytes", "histogram", "Output size of successful requests");
+        for (final Sample sample : samples) {
+            histogram(sb, "output_size_bytes", sample.labels, sample.snapshot.getOutputSizeBuckets(), Long::toString, sample.snapshot.getOutputBytes());
+        }
+
+        header(sb, "latency_quantile_seconds", "gauge", "Latency of requests by quantile");
+        for (final Sample sample : samples) {
+            quantile(sb, sample, "0.5", sample.snapshot.getLatencyP50());
+            quantile(sb, sample, "0.9", sample.snapshot.getLatencyP90());
+            quantile(sb, sample, "0.99", sample.snapshot.getLatencyP99());
+            quantile(sb, sample, "0.999", sample.snapshot.getLatencyP999());
+        }
+
+        header(sb, "phase_seconds", "summary", "Time spent in phases of requests (key derivation, cipher, encoding)");
+        for (final Sample sample : samples) {
+            if (sample.snapshot.getPhases() == null) {
+                continue;
+            }
+            for (final Map.Entry<OperationPhase, PhaseStatsSnapshot> entry : sample.snapshot.getPhases().entrySet()) {
+                final String labels = sample.labels + ",phase=\"" + entry.getKey().name().toLowerCase(Locale.ROOT) + "\"";
+                final PhaseStatsSnapshot phase = entry.getValue();
+                line(sb, "phase_seconds", labels + ",quantile=\"0.5\"", phase.getLatencyP50() / NANOS_PER_SECOND);
+                line(sb, "phase_seconds", labels + ",quantile=\"0.9\"", phase.getLatencyP90() / NANOS_PER_SECOND);
+                line(sb, "phase_seconds", labels + ",quantile=\"0.99\"", phase.getLatencyP99() / NANOS_PER_SECOND);
+                line(sb, "phase_seconds_sum", labels, phase.getTotalTime() / NANOS_PER_SECOND);
+                line(sb, "phase_seconds_count", labels, phase.getCount());
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private void family(final StringBuilder sb, final String name, final String type, final String help, final List<Sample> samples,
+                        final Function<OperationStatsSnapshot, Double> value) {
+        header(sb, name, type, help);
+        for (final Sample sample : samples) {
+            line(sb, name, sample.labels, value.apply(sample.snapshot));
+        }
+    }
+
+    /**
+     * Render a histogram of a sample. Count and <code>+Inf</code> bucket are taken from the same cumulative buckets as
+     * finite buckets, so buckets never exceed count.
+     */
+    private void histogram(final StringBuilder sb, final String name, final String labels, final SortedMap<Long, Long> buckets,
+                           final LongFunction<String> bound, final double sum) {
+        long count = 0L;
+        if (buckets != null) {
+            for (final Map.Entry<Long, Long> bucket : buckets.entrySet()) {
+                count = bucket.getValue();
+                if (bucket.getKey() != OperationStatsSnapshot.INFINITE_BOUND) {
+                    line(sb, name + "_bucket", labels + ",le=\"" + bound.apply(bucket.getKey()) + "\"", count);
+                }
+            }
+        }
+        line(sb, name + "_bucket", labels + ",le=\"+Inf\"", count);
+        line(sb, name + "_sum", labels, sum);
+        line(sb, name + "_count", labels, count);
+    }
+
+    private void byteRate(final StringBuilder sb, final Sample sample, final String direction, final String window, final double value) {
+        line(sb, "byte_rate", sample.labels + ",direction=\"" + direction + "\",window=\"" + window + "\"", value);
+    }
+
+    private void rate(final StringBuilder sb, final String name, final Sample sample, final String window, final double value) {
+        line(sb, name, sample.labels + ",window=\"" + window + "\"", value);
+    }
+
+    private void quantile(final StringBuilder sb, final Sample sample, final String quantile, final long nanos) {
+        line(sb, "latency_quantile_seconds", sample.labels + ",quantile=\"" + quantile + "\"", nanos / NANOS_PER_SECOND);
+    }
+
+    private void header(final StringBuilder sb, final String name, final String type, final String help) {
+        sb.append("# HELP ").append(prefix).append('_').append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(prefix).append('_').append(name).append(' ').append(type).append('\n');
+    }
+
+    private void line(final StringBuilder sb, final String name, final String labels, final double value) {
+        sb.append(prefix).append('_').append(name).append('{').append(labels).append("} ").append(format(value)).append('\n');
+    }
+
+    private static String format(final double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String escape(final String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,80 @@
+package hu.blackbelt.encryption.jmx;
+
+/*-
+ * #%L
+ * OSGi encryption metrics
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+import org.junit.jupiter.api.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class StatsTest {
+
+    private final AtomicInteger snapshots = new AtomicInteger();
+
+    private final OperationStats operationStats = new OperationStats() {
+        @Override
+        public OperationStatsSnapshot snapshot() {
+            final int n = snapshots.incrementAndGet();
+            return OperationStatsSnapshot.builder()
+                    .requestCounter(n)
+                    .errorCounter(n)
+                    .totalProcessingTime(n)
+                    .requestRate(n)
+                    .build();
+        }
+    };
+
+    @Test
+    void attributesReadTogetherUseSingleSnapshot() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = new ObjectName("hu.blackbelt.encryption.test:type=Stats");
+        server.registerMBean(new Stats(operationStats), name);
+
+        final AttributeList attributes = server.getAttributes(name, new String[]{"RequestCounter", "ErrorCounter", "TotalProcessingTime", "RequestRate"});
+
+        assertThat(snapshots.get(), is(1));
+        assertThat(attributes.size(), is(4));
+        assertThat(((Attribute) attributes.get(0)).getValue(), is(1L));
+        assertThat(((Attribute) attributes.get(1)).getValue(), is(1L));
+        assertThat(((Attribute) attributes.get(2)).getValue(), is(1L));
+        assertThat(((Attribute) attributes.get(3)).getValue(), is(1.0));
+    }
+
+    @Test
+    void singleAttributeTakesNewSnapshot() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = new ObjectName("hu.blackbelt.encryption.test:type=Stats");
+        server.registerMBean(new Stats(operationStats), name);
+
+        assertThat(server.getAttribute(name, "RequestCounter"), is(1L));
+        assertThat(server.getAttribute(name, "RequestCounter"), is(2L));
+    }
+}
@@ -0,0 +1,66 @@
+package hu.blackbelt.encryption.metrics;
+
+
+/*-
+ * #%L
+ * OSGi encryption metrics
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class JmxOperationStatsProviderTest {
+
+    private static Map<String, Object> props(final String alias, final String consumer) {
+        final Map<String, Object> props = new HashMap<>();
+        props.put("type", "ENCRYPTION");
+        props.put("alias", alias);
+        if (consumer != null) {
+            props.put("consumer", consumer);
+        }
+        return props;
+    }
+
+    @Test
+    void plainValuesAreNotQuoted() throws MalformedObjectNameException {
+        final ObjectName name = JmxOperationStatsProvider.getObjectName("hu.blackbelt.encryption", props("default", null));
+
+        assertThat(name, equalTo(new ObjectName("hu.blackbelt.encryption:type=ENCRYPTION,name=default")));
+        assertThat(name.getKeyProperty("consumer"), nullValue());
+    }
+
+    @Test
+    void specialCharactersAreQuoted() throws MalformedObjectNameException {
+        final ObjectName name = JmxOperationStatsProvider.getObjectName("hu.blackbelt.encryption", props("a,b=c:*", "bundle:1.0.0?\"x\""));
+
+        assertThat(name.isPattern(), is(false));
+        assertThat(name.getKeyPropertyList().size(), is(3));
+        assertThat(ObjectName.unquote(name.getKeyProperty("name")), equalTo("a,b=c:*"));
+        assertThat(ObjectName.unquote(name.getKeyProperty("consumer")), equalTo("bundle:1.0.0?\"x\""));
+        assertThat(ObjectName.unquote(JmxOperationStatsProvider.getObjectName("hu.blackbelt.encryption", props("", null)).getKeyProperty("name")), equalTo(""));
+    }
+}
@@ -0,0 +1,200 @@
+package hu.blackbelt.encryption.metrics;
+
+
+/*-
+ * #%L
+ * OSGi encryption metrics
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationPhase;
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+import hu.blackbelt.encryption.services.metrics.PhaseStatsSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.startsWith;
+
+class PrometheusTextFormatTest {
+
+    private static final String PREFIX = "encryption";
+
+    private final PrometheusTextFormat format = new PrometheusTextFormat(PREFIX);
+
+    private static SortedMap<Long, Long> buckets(final long... boundsAndCounts) {
+        final SortedMap<Long, Long> buckets = new TreeMap<>();
+        for (int i = 0; i < boundsAndCounts.length; i += 2) {
+            buckets.put(boundsAndCounts[i], boundsAndCounts[i + 1]);
+        }
+        return buckets;
+    }
+
+    private static OperationStatsSnapshot snapshot() {
+        return OperationStatsSnapshot.builder()
+                .requestCounter(9L)
+                .errorCounter(1L)
+                .latencySum(4_000_000L)
+                .latencyBuckets(buckets(1_000_000L, 2L, 2_500_000L, 5L, 5_000_000L, 7L, OperationStatsSnapshot.INFINITE_BOUND, 7L))
+                .sizeCounter(3L)
+                .inputBytes(40L)
+                .outputBytes(90L)
+                .inputSizeBuckets(buckets(1L, 0L, 2L, 1L, 4L, 1L, 8L, 2L, 16L, 3L, OperationStatsSnapshot.INFINITE_BOUND, 3L))
+                .outputSizeBuckets(buckets(1L, 0L, 32L, 3L, OperationStatsSnapshot.INFINITE_BOUND, 3L))
+                .phases(Collections.singletonMap(OperationPhase.CIPHER, PhaseStatsSnapshot.builder().count(7L).totalTime(1_500_000_000L).build()))
+                .build();
+    }
+
+    /**
+     * Parse samples of rendered metrics.
+     *
+     * @return value by metric name and labels
+     */
+    private static Map<String, String> values(final String text) {
+        final Map<String, String> values = new LinkedHashMap<>();
+        for (final String line : text.split("\n")) {
+            if (!line.startsWith("#")) {
+                final int separator = line.lastIndexOf(' ');
+                values.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+        return values;
+    }
+
+    private static double bound(final String le) {
+        return "+Inf".equals(le) ? Double.POSITIVE_INFINITY : Double.parseDouble(le);
+    }
+
+    private static String name(final String line) {
+        final int end = line.indexOf('{');
+        return end >= 0 ? line.substring(0, end) : line.substring(0, line.indexOf(' '));
+    }
+
+    @Test
+    void labelValuesAreEscaped() {
+        final String text = format.render(Collections.singletonList(
+                new PrometheusTextFormat.Sample("a\"b\\c\nd", "ENCRYPTION", "PBEWithMD5AndDES", null, snapshot())));
+
+        assertThat(text, containsString("encryption_requests_total{alias=\"a\\\"b\\\\c\\nd\",type=\"ENCRYPTION\",algorithm=\"PBEWithMD5AndDES\",consumer=\"\"} 9\n"));
+        for (final String line : text.split("\n")) {
+            assertThat(line, line.isEmpty(), is(false));
+        }
+    }
+
+    @Test
+    void samplesAreGroupedByFamily() {
+        final String text = format.render(Arrays.asList(
+                new PrometheusTextFormat.Sample("first", "ENCRYPTION", "alg", "", snapshot()),
+                new PrometheusTextFormat.Sample("second", "DECRYPTION", "alg", "bundle", snapshot())));
+
+        final Set<String> families = new HashSet<>();
+        final Set<String> types = new HashSet<>();
+        String family = null;
+        String type = null;
+        for (final String line : text.split("\n")) {
+            if (line.startsWith("# HELP ")) {
+                family = line.split(" ")[2];
+                // each family has a single header, samples of a family are not split
+                assertThat(families.add(family), is(true));
+            } else if (line.startsWith("# TYPE ")) {
+                assertThat(line.split(" ")[2], is(family));
+                type = line.split(" ")[3];
+                assertThat(types.add(family), is(true));
+            } else {
+                final String name = name(line);
+                assertThat(name, startsWith(PREFIX + "_"));
+                if ("histogram".equals(type)) {
+                    assertThat(Arrays.asList(family + "_bucket", family + "_sum", family + "_count"), hasItem(name));
+                } else if ("summary".equals(type)) {
+                    assertThat(Arrays.asList(family, family + "_sum", family + "_count"), hasItem(name));
+                } else {
+                    assertThat(name, is(family));
+                }
+            }
+        }
+        assertThat(families, hasItem(PREFIX + "_latency_seconds"));
+        assertThat(families, hasItem(PREFIX + "_phase_seconds"));
+    }
+
+    @Test
+    void histogramBucketsAreCumulativeUpToCount() {
+        final String text = format.render(Collections.singletonList(new PrometheusTextFormat.Sample("alias", "ENCRYPTION", "alg", "", snapshot())));
+        final Map<String, String> values = values(text);
+        final String labels = "{alias=\"alias\",type=\"ENCRYPTION\",algorithm=\"alg\",consumer=\"\"";
+
+        for (final String histogram : Arrays.asList("latency_seconds", "input_size_bytes", "output_size_bytes")) {
+            final List<Long> buckets = new ArrayList<>();
+            String previousBound = null;
+            for (final Map.Entry<String, String> entry : values.entrySet()) {
+                if (entry.getKey().startsWith(PREFIX + "_" + histogram + "_bucket" + labels)) {
+                    final String bound = entry.getKey().substring(entry.getKey().indexOf("le=\"") + 4, entry.getKey().lastIndexOf('"'));
+                    if (previousBound != null) {
+                        assertThat(bound(bound), greaterThanOrEqualTo(bound(previousBound)));
+                    }
+                    previousBound = bound;
+                    if (!buckets.isEmpty()) {
+                        assertThat(Long.parseLong(entry.getValue()), greaterThanOrEqualTo(buckets.get(buckets.size() - 1)));
+                    }
+                    buckets.add(Long.parseLong(entry.getValue()));
+                }
+            }
+            assertThat(previousBound, is("+Inf"));
+            final long count = Long.parseLong(values.get(PREFIX + "_" + histogram + "_count" + labels + "}"));
+            assertThat(buckets.get(buckets.size() - 1), is(count));
+            for (final long bucket : buckets) {
+                assertThat(bucket, lessThanOrEqualTo(count));
+            }
+        }
+
+        // count of latency is the total of buckets even if request counter was read separately
+        assertThat(values.get(PREFIX + "_latency_seconds_count" + labels + "}"), is("7"));
+        assertThat(values.get(PREFIX + "_latency_seconds_bucket" + labels + ",le=\"0.001\"}"), is("2"));
+        assertThat(values.get(PREFIX + "_latency_seconds_bucket" + labels + ",le=\"0.0025\"}"), is("5"));
+        assertThat(values.get(PREFIX + "_latency_seconds_sum" + labels + "}"), is("0.004"));
+        assertThat(values.get(PREFIX + "_input_size_bytes_bucket" + labels + ",le=\"16\"}"), is("3"));
+        assertThat(values.get(PREFIX + "_input_size_bytes_sum" + labels + "}"), is("40"));
+        assertThat(values.get(PREFIX + "_phase_seconds_sum" + labels + ",phase=\"cipher\"}"), is("1.5"));
+        assertThat(values.get(PREFIX + "_phase_seconds_count" + labels + ",phase=\"cipher\"}"), is("7"));
+    }
+
+    @Test
+    void histogramsWithoutBucketsAreEmpty() {
+        final String text = format.render(Collections.singletonList(
+                new PrometheusTextFormat.Sample("alias", "DIGEST", "alg", "", OperationStatsSnapshot.builder().build())));
+        final Map<String, String> values = values(text);
+        final String labels = "{alias=\"alias\",type=\"DIGEST\",algorithm=\"alg\",consumer=\"\"";
+
+        assertThat(values.get(PREFIX + "_latency_seconds_bucket" + labels + ",le=\"+Inf\"}"), is("0"));
+        assertThat(values.get(PREFIX + "_latency_seconds_count" + labels + "}"), is("0"));
+        assertThat(values.get(PREFIX + "_input_size_bytes_count" + labels + "}"), is("0"));
+    }
+}
@@ -0,0 +1,54 @@
+package hu.blackbelt.encryption.services;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Common interface for all digesters which process String messages asynchronously on a dedicated executor.
+ */
+public interface AsyncDigester {
+
+    /**
+     * Return alias of digester.
+     *
+     * @return alias
+     */
+    String getAlias();
+
+    /**
+     * Create a digest of the input message asynchronously.
+     *
+     * @param data the message to be digested
+     * @return future of the digest
+     */
+    CompletableFuture<String> digestAsync(String data);
+
+    /**
+     * Check whether a message matches a digest asynchronously.
+     *
+     * @param data the message to check
+     * @param digest the digest to check
+     * @return future of the result, TRUE if the message matches the digest, FALSE if not.
+     */
+    CompletableFuture<Boolean> matchesAsync(String data, String digest);
+}
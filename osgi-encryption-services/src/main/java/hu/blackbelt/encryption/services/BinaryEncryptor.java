@@ -0,0 +1,78 @@
+package hu.blackbelt.encryption.services;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * Common interface for all Encryptors which receive a binary message and return a binary result. Encryptors of the
+ * same alias use the same keys as the String {@link Encryptor}, without encoding results as text.
+ */
+public interface BinaryEncryptor {
+
+    /**
+     * Return alias of encryptor.
+     *
+     * @return alias
+     */
+    String getAlias();
+
+    /**
+     * Encrypt the input message
+     *
+     * @param data the message to be encrypted
+     * @return the result of encryption
+     */
+    byte[] encrypt(byte[] data);
+
+    /**
+     * Decrypt an encrypted message
+     *
+     * @param encryptedMessage the encrypted message to be decrypted
+     * @return the result of decryption
+     */
+    byte[] decrypt(byte[] encryptedMessage);
+
+    /**
+     * Encrypt remaining bytes of source buffer into destination buffer. Position of source buffer is set to its limit,
+     * position of destination buffer is advanced by the number of written bytes.
+     *
+     * @param src the message to be encrypted
+     * @param dst buffer receiving the result of encryption
+     * @return number of bytes written into destination buffer
+     * @throws java.nio.BufferOverflowException if there is not enough space in destination buffer, positions of buffers
+     *                                          are not changed in that case
+     */
+    int encrypt(ByteBuffer src, ByteBuffer dst);
+
+    /**
+     * Decrypt remaining bytes of source buffer into destination buffer. Position of source buffer is set to its limit,
+     * position of destination buffer is advanced by the number of written bytes.
+     *
+     * @param src the encrypted message to be decrypted
+     * @param dst buffer receiving the result of decryption
+     * @return number of bytes written into destination buffer
+     * @throws java.nio.BufferOverflowException if there is not enough space in destination buffer, positions of buffers
+     *                                          are not changed in that case
+     */
+    int decrypt(ByteBuffer src, ByteBuffer dst);
+}
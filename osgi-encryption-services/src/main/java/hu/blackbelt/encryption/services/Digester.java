@@ -20,6 +20,11 @@ package hu.blackbelt.encryption.services;
  * #L%
  */
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * Common interface for all digesters which receive a String message and return a String digest.
  */
@@ -50,4 +55,87 @@ public interface Digester {
      * @return TRUE if the message matches the digest, FALSE if not.
      */
     boolean matches(String data, String digest);
+
+    /**
+     * Check whether a message matches any of the candidate digests (ie. digests of old and new secrets during
+     * rotation). Implementations may check candidates in parallel and stop at the first match, each candidate is
+     * compared in constant time.
+     *
+     * @param data    the message to check
+     * @param digests the candidate digests
+     * @return TRUE if the message matches at least one digest, FALSE if not.
+     */
+    default boolean matchesAny(final String data, final Collection<String> digests) {
+        for (final String digest : digests) {
+            if (matches(data, digest)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create digests of a batch of messages. Implementations may process messages in parallel.
+     *
+     * @param data the messages to be digested
+     * @return the digests, in order of input messages
+     */
+    default List<String> digestAll(final Collection<String> data) {
+        final List<String> result = new ArrayList<>(data.size());
+        for (final String message : data) {
+            result.add(digest(message));
+        }
+        return result;
+    }
+
+    /**
+     * Create digests of a batch of messages. Implementations may process messages in parallel.
+     *
+     * @param data the messages to be digested
+     * @return the digests, in order of input messages
+     */
+    default String[] digestAll(final String[] data) {
+        final String[] result = new String[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = digest(data[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Check whether messages match digests of the same position. Implementations may process messages in parallel.
+     *
+     * @param data    the messages to check
+     * @param digests the digests to check, must have the same size as messages
+     * @return results of matching, in order of input messages
+     */
+    default List<Boolean> matchesAll(final List<String> data, final List<String> digests) {
+        if (data.size() != digests.size()) {
+            throw new IllegalArgumentException("Number of messages and digests must be equal");
+        }
+        final List<Boolean> result = new ArrayList<>(data.size());
+        final Iterator<String> digestIterator = digests.iterator();
+        for (final String message : data) {
+            result.add(matches(message, digestIterator.next()));
+        }
+        return result;
+    }
+
+    /**
+     * Check whether messages match digests of the same position. Implementations may process messages in parallel.
+     *
+     * @param data    the messages to check
+     * @param digests the digests to check, must have the same length as messages
+     * @return results of matching, in order of input messages
+     */
+    default boolean[] matchesAll(final String[] data, final String[] digests) {
+        if (data.length != digests.length) {
+            throw new IllegalArgumentException("Number of messages and digests must be equal");
+        }
+        final boolean[] result = new boolean[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = matches(data[i], digests[i]);
+        }
+        return result;
+    }
 }
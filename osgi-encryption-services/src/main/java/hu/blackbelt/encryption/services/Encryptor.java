@@ -20,6 +20,10 @@ package hu.blackbelt.encryption.services;
  * #L%
  */
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Common interface for all Encryptors which receive a String message and return a String result.
  */
@@ -48,4 +52,60 @@ public interface Encryptor {
      * @return the result of decryption
      */
     String decrypt(String encryptedMessage);
+
+    /**
+     * Encrypt a batch of messages. Implementations may process messages in parallel.
+     *
+     * @param data the messages to be encrypted
+     * @return the results of encryption, in order of input messages
+     */
+    default List<String> encryptAll(final Collection<String> data) {
+        final List<String> result = new ArrayList<>(data.size());
+        for (final String message : data) {
+            result.add(encrypt(message));
+        }
+        return result;
+    }
+
+    /**
+     * Encrypt a batch of messages. Implementations may process messages in parallel.
+     *
+     * @param data the messages to be encrypted
+     * @return the results of encryption, in order of input messages
+     */
+    default String[] encryptAll(final String[] data) {
+        final String[] result = new String[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = encrypt(data[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Decrypt a batch of encrypted messages. Implementations may process messages in parallel.
+     *
+     * @param encryptedMessages the encrypted messages to be decrypted
+     * @return the results of decryption, in order of input messages
+     */
+    default List<String> decryptAll(final Collection<String> encryptedMessages) {
+        final List<String> result = new ArrayList<>(encryptedMessages.size());
+        for (final String encryptedMessage : encryptedMessages) {
+            result.add(decrypt(encryptedMessage));
+        }
+        return result;
+    }
+
+    /**
+     * Decrypt a batch of encrypted messages. Implementations may process messages in parallel.
+     *
+     * @param encryptedMessages the encrypted messages to be decrypted
+     * @return the results of decryption, in order of input messages
+     */
+    default String[] decryptAll(final String[] encryptedMessages) {
+        final String[] result = new String[encryptedMessages.length];
+        for (int i = 0; i < encryptedMessages.length; i++) {
+            result[i] = decrypt(encryptedMessages[i]);
+        }
+        return result;
+    }
 }
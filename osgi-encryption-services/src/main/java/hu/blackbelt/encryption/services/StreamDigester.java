@@ -0,0 +1,150 @@
+package hu.blackbelt.encryption.services;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Common interface for all digesters which digest binary data of arbitrary size. Data is processed incrementally so
+ * memory usage does not depend on payload size. Digesters of the same alias use the same algorithm, salt, iterations
+ * and output type as the String {@link Digester}. Bytes are digested as they are, but String messages are normalized
+ * to Unicode NFC before UTF-8 encoding, so digest of UTF-8 encoded text matches the digest of the String message only
+ * if the text is NFC normalized (ASCII text always is). Normalize text with {@link java.text.Normalizer} before
+ * encoding if digests must be interchangeable.
+ *
+ * <p>If tree mode is configured, message is split into chunks digested in parallel and combined to a root digest
+ * (Merkle tree), the digest contains chunk size and it is not compatible with the String {@link Digester}. Digests are
+ * checked in the mode (and with the chunk size) they were created with.</p>
+ *
+ * <p>Leaves (digests of chunks) are salted but not iterated, configured iterations are applied on the root only. So
+ * iterations protect the root digest, but digests of chunks published in a {@link TreeDigest} cost a single digest
+ * operation to attack. Tree mode is meant for integrity of large payloads, not for hashing low-entropy secrets.</p>
+ */
+public interface StreamDigester {
+
+    /**
+     * Return alias of digester.
+     *
+     * @return alias
+     */
+    String getAlias();
+
+    /**
+     * Create a digest of data read from an input stream until its end. Stream is not closed.
+     *
+     * @param in input stream providing the message
+     * @return the digest
+     * @throws IOException if reading stream failed
+     */
+    String digest(InputStream in) throws IOException;
+
+    /**
+     * Create a digest of the remaining bytes of a buffer. Position of buffer is not changed.
+     *
+     * @param data buffer holding the message
+     * @return the digest
+     */
+    String digest(ByteBuffer data);
+
+    /**
+     * Create a digest of a file. File is read through a small direct buffer, it is not loaded to heap.
+     *
+     * @param file path of the file
+     * @return the digest
+     * @throws IOException if reading file failed
+     */
+    String digest(Path file) throws IOException;
+
+    /**
+     * Create a tree digest of the remaining bytes of a buffer, including digests of chunks. Position of buffer is not
+     * changed. Configured chunk size is used, or a default if tree mode is not configured.
+     *
+     * @param data buffer holding the message
+     * @return the tree digest
+     */
+    TreeDigest digestTree(ByteBuffer data);
+
+    /**
+     * Create a tree digest of a file, including digests of chunks. Chunks are read and digested in parallel.
+     * Configured chunk size is used, or a default if tree mode is not configured.
+     *
+     * @param file path of the file
+     * @return the tree digest
+     * @throws IOException if reading file failed
+     */
+    TreeDigest digestTree(Path file) throws IOException;
+
+    /**
+     * Check whether data read from an input stream until its end matches a digest. Stream is not closed.
+     *
+     * @param in     input stream providing the message
+     * @param digest the digest to check
+     * @return TRUE if the message matches the digest, FALSE if not.
+     * @throws IOException if reading stream failed
+     */
+    boolean matches(InputStream in, String digest) throws IOException;
+
+    /**
+     * Check whether the remaining bytes of a buffer match a digest. Position of buffer is not changed.
+     *
+     * @param data   buffer holding the message
+     * @param digest the digest to check
+     * @return TRUE if the message matches the digest, FALSE if not.
+     */
+    boolean matches(ByteBuffer data, String digest);
+
+    /**
+     * Check whether a file matches a digest. File is read through a small direct buffer, it is not loaded to heap.
+     *
+     * @param file   path of the file
+     * @param digest the digest to check
+     * @return TRUE if the message matches the digest, FALSE if not.
+     * @throws IOException if reading file failed
+     */
+    boolean matches(Path file, String digest) throws IOException;
+
+    /**
+     * Check whether a single chunk matches its digest in a tree digest, so changed ranges of a message can be checked
+     * without processing the whole message. Position of buffer is not changed.
+     *
+     * @param chunk buffer holding the data of the chunk
+     * @param index index of the chunk
+     * @param tree  the tree digest to check
+     * @return TRUE if the chunk matches its digest and digests of chunks match the root digest, FALSE if not.
+     */
+    boolean matchesChunk(ByteBuffer chunk, int index, TreeDigest tree);
+
+    /**
+     * Check whether a single chunk of a file matches its digest in a tree digest, so changed ranges of a file can be
+     * checked without processing the whole file. Only the chunk is read.
+     *
+     * @param file  path of the file
+     * @param index index of the chunk
+     * @param tree  the tree digest to check
+     * @return TRUE if the chunk matches its digest and digests of chunks match the root digest, FALSE if not.
+     * @throws IOException if reading file failed
+     */
+    boolean matchesChunk(Path file, int index, TreeDigest tree) throws IOException;
+}
@@ -0,0 +1,75 @@
+package hu.blackbelt.encryption.services;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Common interface for all Encryptors which encrypt or decrypt streams of arbitrary size. Data is processed in
+ * authenticated chunks so memory usage does not depend on payload size.
+ */
+public interface StreamEncryptor {
+
+    /**
+     * Return alias of encryptor.
+     *
+     * @return alias
+     */
+    String getAlias();
+
+    /**
+     * Wrap an output stream, data written to the returned stream is encrypted. Returned stream must be closed to write
+     * the last chunk, underlying stream is closed too.
+     *
+     * @param out output stream receiving encrypted data
+     * @return output stream accepting plain data
+     */
+    OutputStream encryptingStream(OutputStream out);
+
+    /**
+     * Wrap an input stream of encrypted data, data read from the returned stream is decrypted.
+     *
+     * @param in input stream providing encrypted data
+     * @return input stream providing plain data
+     */
+    InputStream decryptingStream(InputStream in);
+
+    /**
+     * Wrap a writable channel, data written to the returned channel is encrypted. Returned channel must be closed to
+     * write the last chunk, underlying channel is closed too.
+     *
+     * @param channel channel receiving encrypted data
+     * @return channel accepting plain data
+     */
+    WritableByteChannel encryptingChannel(WritableByteChannel channel);
+
+    /**
+     * Wrap a readable channel of encrypted data, data read from the returned channel is decrypted.
+     *
+     * @param channel channel providing encrypted data
+     * @return channel providing plain data
+     */
+    ReadableByteChannel decryptingChannel(ReadableByteChannel channel);
+}
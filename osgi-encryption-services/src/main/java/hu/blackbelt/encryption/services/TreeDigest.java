@@ -0,0 +1,51 @@
+package hu.blackbelt.encryption.services;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Tree digest of a large message. Message is split into fixed size chunks, chunks are digested independently and
+ * combined to a root digest (Merkle tree), so single chunks can be verified without processing the whole message.
+ */
+@Value
+@Builder
+public class TreeDigest {
+
+    /**
+     * Root digest including tree parameters, it can be checked by {@link StreamDigester} matches methods.
+     */
+    String digest;
+
+    /**
+     * Size of chunks in bytes (last chunk may be shorter).
+     */
+    int chunkSize;
+
+    /**
+     * Digests of chunks in order of chunks, encoded like the root digest. They are salted but not iterated.
+     */
+    List<String> chunkDigests;
+}
@@ -54,6 +54,7 @@ public class Activator implements BundleActivator {
             }
         } finally {
             tracker = null;
+            RateTicker.shutdown();
         }
     }
 
@@ -0,0 +1,802 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.AsyncEncryptor;
+import hu.blackbelt.encryption.services.BinaryEncryptor;
+import hu.blackbelt.encryption.services.Encryptor;
+import hu.blackbelt.encryption.services.StreamEncryptor;
+import hu.blackbelt.encryption.services.internal.PasswordSource;
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import hu.blackbelt.encryption.services.metrics.SlowOperationLog;
+import lombok.extern.slf4j.Slf4j;
+import org.jasypt.commons.CommonUtils;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryptor using AES-GCM with a key that is derived from password once (on activation and on password change).
+ *
+ * <p>Encrypted messages contain format version, random nonce and ciphertext with authentication tag. Configuration
+ * values encrypted by this component are wrapped as <code>ENC2(...)</code>.</p>
+ *
+ * <p>Salt of key derivation (<code>encryption.salt</code>) is required, there is no default salt that would be the
+ * same in every installation and allow precomputed attacks on the password.</p>
+ *
+ * <p>Activation (and update) fails with {@link EncryptionInitializationException} if the key cannot be derived, for
+ * example the password or the salt is not available.</p>
+ */
+@Component(immediate = true, service = {}, configurationPolicy = ConfigurationPolicy.REQUIRE, property = AesGcmEncryptor.FORMAT_PROPERTY + "=" + AesGcmEncryptor.FORMAT)
+@Designate(ocd = AesGcmEncryptor.Config.class)
+@Slf4j
+public class AesGcmEncryptor implements Encryptor, AsyncEncryptor, BinaryEncryptor, StreamEncryptor {
+
+    @SuppressWarnings("checkstyle:JavadocMethod")
+    @ObjectClassDefinition(name = "AES-GCM encryptor configuration")
+    public @interface Config {
+
+        @AttributeDefinition(required = false, name = "Key derivation algorithm")
+        String encryption_keyDerivationAlgorithm() default DEFAULT_KEY_DERIVATION_ALGORITHM;
+
+        @AttributeDefinition(required = false, name = "Key derivation iterations", type = AttributeType.INTEGER)
+        int encryption_keyDerivationIterations() default DEFAULT_KEY_DERIVATION_ITERATIONS;
+
+        @AttributeDefinition(required = false, name = "Key size (bits)", type = AttributeType.INTEGER)
+        int encryption_keySize() default DEFAULT_KEY_SIZE;
+
+        @AttributeDefinition(name = "Salt of key derivation (base64)", description = "Random salt used for key derivation, activation fails if it is not set")
+        String encryption_salt();
+
+        @AttributeDefinition(required = false, name = "Output type (base64/hexadecimal)")
+        String encryption_outputType();
+
+        @AttributeDefinition(required = false, name = "Password for encryption", type = AttributeType.PASSWORD)
+        String encryption_password();
+
+        @AttributeDefinition(required = false, name = "Password file for encryption")
+        String encryption_passwordFile();
+
+        @AttributeDefinition(required = false, name = "Environment variable holding password file for encryption")
+        String encryption_passwordFileEnvName();
+
+        @AttributeDefinition(required = false, name = "JVM argument holding password file path for encryption")
+        String encryption_passwordFileSysPropertyName();
+
+        @AttributeDefinition(required = false, name = "Environment variable holding password for encryption")
+        String encryption_passwordEnvName();
+
+        @AttributeDefinition(required = false, name = "JVM argument holding password for encryption")
+        String encryption_passwordSysPropertyName();
+
+        @AttributeDefinition(required = false, name = "Alias for encryptor")
+        String encryptor_alias();
+
+        @AttributeDefinition(required = false, name = "Encryptor provider name")
+        String encryptor_provider();
+
+        @AttributeDefinition(required = false, name = "Enable password file watcher", description = "Enable password file watcher and trigger configuration reload on change", type = AttributeType.BOOLEAN)
+        boolean encryptor_enablePasswordFileWatcher() default DEFAULT_ENABLE_PASSWORD_FILE_WATCHER;
+
+        @AttributeDefinition(required = false, name = "Batch parallelism", description = "Parallelism of fork-join pool processing batches, common pool is used if not positive", type = AttributeType.INTEGER)
+        int encryptor_batchParallelism() default DEFAULT_BATCH_PARALLELISM;
+
+        @AttributeDefinition(required = false, name = "Async virtual threads", description = "Use virtual threads for asynchronous operations if supported by JVM", type = AttributeType.BOOLEAN)
+        boolean encryptor_asyncVirtualThreads() default DEFAULT_ASYNC_VIRTUAL_THREADS;
+
+        @AttributeDefinition(required = false, name = "Async threads", description = "Number of threads processing asynchronous operations if virtual threads are not used, 0 means number of available processors", type = AttributeType.INTEGER)
+        int encryptor_asyncThreads() default DEFAULT_ASYNC_THREADS;
+
+        @AttributeDefinition(required = false, name = "Async queue size", description = "Maximum number of pending asynchronous operations, further operations are rejected", type = AttributeType.INTEGER)
+        int encryptor_asyncQueueSize() default DEFAULT_ASYNC_QUEUE_SIZE;
+
+        @AttributeDefinition(required = false, name = "Consumer statistics limit", description = "Maximum number of consumer bundles with separate operation statistics (applied on activation), 0 disables statistics of consumers. Consumers get a facade recording their calls, so it adds overhead to every call", type = AttributeType.INTEGER)
+        int encryptor_consumerStatsLimit() default DEFAULT_CONSUMER_STATS_LIMIT;
+
+        @AttributeDefinition(required = false, name = "Slow operation threshold", description = "Operations taking longer (in milliseconds) are logged and kept in memory, 0 disables detection of slow operations", type = AttributeType.LONG)
+        long encryptor_slowThreshold() default DEFAULT_SLOW_THRESHOLD;
+
+        @AttributeDefinition(required = false, name = "Slow operation sampling rate", description = "Rate of slow operations logged (0-1)", type = AttributeType.DOUBLE)
+        double encryptor_slowSamplingRate() default DEFAULT_SLOW_SAMPLING_RATE;
+
+        @AttributeDefinition(required = false, name = "Slow operation buffer size", description = "Number of recent slow operations kept in memory", type = AttributeType.INTEGER)
+        int encryptor_slowBufferSize() default DEFAULT_SLOW_BUFFER_SIZE;
+    }
+
+    /**
+     * Service property holding format of encrypted configuration values.
+     */
+    public static final String FORMAT_PROPERTY = "encryptor.format";
+
+    /**
+     * Function name of configuration values encrypted by this component.
+     */
+    public static final String FORMAT = "ENC2";
+
+    public static final String DEFAULT_KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
+    public static final int DEFAULT_KEY_DERIVATION_ITERATIONS = 310000;
+    public static final int DEFAULT_KEY_SIZE = 256;
+    public static final boolean DEFAULT_ENABLE_PASSWORD_FILE_WATCHER = true;
+    public static final int DEFAULT_BATCH_PARALLELISM = 0;
+    public static final boolean DEFAULT_ASYNC_VIRTUAL_THREADS = true;
+    public static final int DEFAULT_ASYNC_THREADS = 0;
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+    public static final long DEFAULT_SLOW_THRESHOLD = 0L;
+    public static final double DEFAULT_SLOW_SAMPLING_RATE = 1.0;
+    public static final int DEFAULT_SLOW_BUFFER_SIZE = 100;
+
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    private static final String OUTPUT_TYPE_HEXADECIMAL = "hexadecimal";
+    private static final byte VERSION = 1;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 128;
+    private static final int HEADER_SIZE = 1 + NONCE_SIZE;
+
+    private String alias;
+
+    private String providerName;
+
+    private boolean hexadecimalOutput;
+
+    private volatile SecretKey key;
+
+    private final Queue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
+
+    private final SecureRandom random = new SecureRandom();
+
+    private PasswordFileWatcher fileWatcher;
+
+    private volatile ParallelBatch batch = new ParallelBatch(DEFAULT_BATCH_PARALLELISM);
+
+    private volatile AsyncExecutor asyncExecutor;
+
+    public static final int DEFAULT_CONSUMER_STATS_LIMIT = 0;
+
+    private ConsumerStats consumerStats;
+
+    private ComponentContext cc;
+
+    private final SlowOperationDetector slowOperations = new SlowOperationDetector();
+
+    private hu.blackbelt.encryption.services.impl.OperationStats encryptionStats = new hu.blackbelt.encryption.services.impl.OperationStats();
+    private hu.blackbelt.encryption.services.impl.OperationStats decryptionStats = new hu.blackbelt.encryption.services.impl.OperationStats();
+
+    private ServiceRegistration<OperationStats> encryptionStatsReg;
+    private ServiceRegistration<OperationStats> decryptionStatsReg;
+
+    private ServiceRegistration<Encryptor> encryptorReg;
+
+    private ServiceRegistration<BinaryEncryptor> binaryEncryptorReg;
+
+    private ServiceRegistration<StreamEncryptor> streamEncryptorReg;
+
+    private ServiceRegistration<AsyncEncryptor> asyncEncryptorReg;
+
+    private ServiceRegistration<SlowOperationLog> slowOperationLogReg;
+
+    private volatile ChunkedAeadStreams streams;
+
+    @Reference(policyOption = ReferencePolicyOption.GREEDY)
+    private ConfigurationAdmin configAdmin;
+
+    /**
+     * Register AES-GCM encryptor service instance.
+     *
+     * @param cc     component context
+     * @param config configuration options
+     */
+    @Activate
+    void start(final ComponentContext cc, final Config config) {
+        this.cc = cc;
+
+        // key is derived first, nothing is registered if it is not available
+        refreshConfig(config);
+
+        final Dictionary<String, Object> encryptionProps = new Hashtable<>();
+        encryptionProps.put("alias", config.encryptor_alias());
+        encryptionProps.put("type", OperationStats.Type.ENCRYPTION);
+        encryptionProps.put("algorithm", CIPHER_ALGORITHM);
+        encryptionStatsReg = cc.getBundleContext().registerService(OperationStats.class, encryptionStats, encryptionProps);
+
+        final Dictionary<String, Object> decryptionProps = new Hashtable<>();
+        decryptionProps.put("alias", config.encryptor_alias());
+        decryptionProps.put("type", OperationStats.Type.DECRYPTION);
+        decryptionProps.put("algorithm", CIPHER_ALGORITHM);
+        decryptionStatsReg = cc.getBundleContext().registerService(OperationStats.class, decryptionStats, decryptionProps);
+
+        if (config.encryptor_consumerStatsLimit() > 0) {
+            consumerStats = new ConsumerStats(cc.getBundleContext(), config.encryptor_alias(), CIPHER_ALGORITHM, config.encryptor_consumerStatsLimit(), OperationStats.Type.ENCRYPTION, OperationStats.Type.DECRYPTION);
+        }
+        encryptorReg = registerService(Encryptor.class, this, getComponentServiceProps());
+        binaryEncryptorReg = registerService(BinaryEncryptor.class, this, getServiceProps(config.encryptor_alias()));
+        streamEncryptorReg = registerService(StreamEncryptor.class, this, getServiceProps(config.encryptor_alias()));
+        asyncEncryptorReg = registerService(AsyncEncryptor.class, this, getServiceProps(config.encryptor_alias()));
+        slowOperationLogReg = cc.getBundleContext().registerService(SlowOperationLog.class, slowOperations, getServiceProps(config.encryptor_alias()));
+    }
+
+    /**
+     * Update AES-GCM encryptor configuration, key is derived again. Previous configuration is kept if key cannot be
+     * derived.
+     *
+     * @param config configuration options
+     */
+    @Modified
+    void update(final Config config) {
+        refreshConfig(config);
+        encryptorReg.setProperties(getComponentServiceProps());
+        binaryEncryptorReg.setProperties(getServiceProps(config.encryptor_alias()));
+        streamEncryptorReg.setProperties(getServiceProps(config.encryptor_alias()));
+        asyncEncryptorReg.setProperties(getServiceProps(config.encryptor_alias()));
+        slowOperationLogReg.setProperties(getServiceProps(config.encryptor_alias()));
+    }
+
+    /**
+     * Unregister AES-GCM encryptor service instance.
+     */
+    @Deactivate
+    void stop() {
+        try {
+            if (encryptorReg != null) {
+                encryptorReg.unregister();
+            }
+            if (binaryEncryptorReg != null) {
+                binaryEncryptorReg.unregister();
+            }
+            if (streamEncryptorReg != null) {
+                streamEncryptorReg.unregister();
+            }
+            if (asyncEncryptorReg != null) {
+                asyncEncryptorReg.unregister();
+            }
+            if (slowOperationLogReg != null) {
+                slowOperationLogReg.unregister();
+            }
+            if (encryptionStatsReg != null) {
+                encryptionStatsReg.unregister();
+            }
+            if (decryptionStatsReg != null) {
+                decryptionStatsReg.unregister();
+            }
+
+            synchronized (this) {
+                if (fileWatcher != null) {
+                    fileWatcher.stop();
+                }
+            }
+
+            if (consumerStats != null) {
+                consumerStats.close();
+            }
+
+            batch.shutdown();
+            if (asyncExecutor != null) {
+                asyncExecutor.shutdown();
+            }
+        } finally {
+            fileWatcher = null;
+            encryptorReg = null;
+            consumerStats = null;
+            binaryEncryptorReg = null;
+            streamEncryptorReg = null;
+            asyncEncryptorReg = null;
+            slowOperationLogReg = null;
+            asyncExecutor = null;
+            encryptionStatsReg = null;
+            decryptionStatsReg = null;
+            key = null;
+            ciphers.clear();
+        }
+    }
+
+    private void refreshConfig(final Config config) {
+        final PasswordSource passwordSource = new PasswordSource(config.encryption_password() != null ? config.encryption_password().toCharArray() : null,
+                config.encryption_passwordFile(), config.encryption_passwordFileEnvName(), config.encryption_passwordFileSysPropertyName(),
+                config.encryption_passwordEnvName(), config.encryption_passwordSysPropertyName());
+
+        // configuration is not applied if key cannot be derived
+        final SecretKey newKey = deriveKey(passwordSource, decodeSalt(config.encryption_salt(), config.encryptor_alias()), config.encryption_keyDerivationAlgorithm(), config.encryption_keyDerivationIterations(),
+                config.encryption_keySize(), config.encryptor_alias(), config.encryptor_provider());
+
+        alias = config.encryptor_alias();
+        if (alias == null) {
+            log.warn("Alias is not configured for Encryptor component, cannot used for decrypting configuration parameters.");
+        }
+
+        providerName = config.encryptor_provider();
+        // executors are replaced only if their settings are changed, operations in progress are not rejected
+        batch = ParallelBatch.reconfigure(batch, config.encryptor_batchParallelism());
+        asyncExecutor = AsyncExecutor.reconfigure(asyncExecutor, "encryptor-" + alias, config.encryptor_asyncVirtualThreads(), config.encryptor_asyncThreads(), config.encryptor_asyncQueueSize());
+        hexadecimalOutput = OUTPUT_TYPE_HEXADECIMAL.equalsIgnoreCase(config.encryption_outputType());
+        slowOperations.configure(alias, CIPHER_ALGORITHM, providerName, config.encryptor_slowThreshold(), config.encryptor_slowSamplingRate(), config.encryptor_slowBufferSize());
+
+        synchronized (this) {
+            final boolean watchPasswordFile = config.encryptor_enablePasswordFileWatcher() && passwordSource.getPasswordFile() != null;
+            if (fileWatcher != null && !watchPasswordFile) {
+                fileWatcher.stop();
+                fileWatcher = null;
+            } else if (fileWatcher == null && watchPasswordFile) {
+                fileWatcher = new PasswordFileWatcher(passwordSource.getPasswordFile(), configAdmin, cc);
+                fileWatcher.start();
+            }
+        }
+
+        ciphers.clear();
+        streams = new ChunkedAeadStreams((streamSalt, iterations) -> getKey(), providerName, 0, ChunkedAeadStreams.DEFAULT_CHUNK_SIZE, encryptionStats, decryptionStats);
+        key = newKey;
+    }
+
+    private Dictionary<String, Object> getServiceProps(final String alias) {
+        final Dictionary<String, Object> dict = new Hashtable<>();
+        dict.put("algorithm", CIPHER_ALGORITHM);
+        dict.put(FORMAT_PROPERTY, FORMAT);
+        if (alias != null) {
+            dict.put("alias", alias);
+            dict.put("encryptor.alias", alias);
+        }
+
+        return dict;
+    }
+
+    private static byte[] decodeSalt(final String salt, final String alias) {
+        if (salt == null || salt.isEmpty()) {
+            throw new EncryptionInitializationException("Salt is not configured for AES-GCM encryptor '" + alias + "'");
+        }
+        try {
+            return Base64.getDecoder().decode(salt);
+        } catch (IllegalArgumentException ex) {
+            throw new EncryptionInitializationException("Invalid salt of AES-GCM encryptor '" + alias + "'", ex);
+        }
+    }
+
+    private static SecretKey deriveKey(final PasswordSource passwordSource, final byte[] salt, final String keyDerivationAlgorithm, final int iterations,
+                                       final int keySize, final String alias, final String providerName) {
+        if (keySize != 128 && keySize != 192 && keySize != 256) {
+            throw new EncryptionInitializationException("Invalid key size of AES-GCM encryptor '" + alias + "': " + keySize);
+        }
+
+        final char[] password = passwordSource.resolve();
+        if (password == null || password.length == 0) {
+            throw new EncryptionInitializationException("Password is not available for AES-GCM encryptor '" + alias + "'");
+        }
+
+        final long startTs = System.nanoTime();
+        try {
+            return ChunkedAeadStreams.deriveKey(password, salt, keyDerivationAlgorithm, iterations, keySize, providerName);
+        } catch (GeneralSecurityException | IllegalArgumentException ex) {
+            throw new EncryptionInitializationException("Unable to derive key of AES-GCM encryptor '" + alias + "'", ex);
+        } finally {
+            Arrays.fill(password, (char) 0);
+            if (log.isDebugEnabled()) {
+                log.debug("Key of AES-GCM encryptor '" + alias + "' derived in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTs) + " ms");
+            }
+        }
+    }
+
+    private <S> ServiceRegistration<S> registerService(final Class<S> serviceClass, final S service, final Dictionary<String, Object> props) {
+        if (consumerStats != null) {
+            return cc.getBundleContext().registerService(serviceClass, new ConsumerServiceFactory<>(serviceClass, service, consumerStats), props);
+        }
+        return cc.getBundleContext().registerService(serviceClass, service, props);
+    }
+
+    private Dictionary<String, Object> getComponentServiceProps() {
+        final Dictionary<String, Object> dict = new Hashtable<>();
+        final Dictionary<String, Object> componentProps = cc.getProperties();
+        for (final Enumeration<String> keys = componentProps.keys(); keys.hasMoreElements(); ) {
+            final String key = keys.nextElement();
+            // private properties are not published, like by Service Component Runtime
+            if (!key.startsWith(".")) {
+                dict.put(key, componentProps.get(key));
+            }
+        }
+
+        return dict;
+    }
+
+    @Override
+    public String getAlias() {
+        return alias;
+    }
+
+    private SecretKey getKey() {
+        final SecretKey currentKey = key;
+        if (currentKey == null) {
+            throw new EncryptionInitializationException("Key is not available for AES-GCM encryptor '" + alias + "'");
+        }
+        return currentKey;
+    }
+
+    private Cipher borrowCipher() throws GeneralSecurityException {
+        final Cipher cipher = ciphers.poll();
+        if (cipher != null) {
+            return cipher;
+        }
+        return providerName != null ? Cipher.getInstance(CIPHER_ALGORITHM, providerName) : Cipher.getInstance(CIPHER_ALGORITHM);
+    }
+
+    private void returnCipher(final Cipher cipher) {
+        ciphers.offer(cipher);
+    }
+
+    @Override
+    public String encrypt(final String message) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        try {
+            final String result = encryptString(message);
+            encryptionStats.recordSizes(message, result);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, CIPHER_ALGORITHM, message, result, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
+        } catch (RuntimeException ex) {
+            encryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, CIPHER_ALGORITHM, message, null, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            encryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.ENCRYPTION, endTs - startTs, message);
+        }
+    }
+
+    @Override
+    public String decrypt(final String encryptedMessage) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        try {
+            final String result = decryptString(encryptedMessage);
+            decryptionStats.recordSizes(encryptedMessage, result);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, CIPHER_ALGORITHM, encryptedMessage, result, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
+        } catch (RuntimeException ex) {
+            decryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, CIPHER_ALGORITHM, encryptedMessage, null, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            decryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.DECRYPTION, endTs - startTs, encryptedMessage);
+        }
+    }
+
+    @Override
+    public List<String> encryptAll(final Collection<String> data) {
+        return Arrays.asList(encryptAll(data.toArray(new String[0])));
+    }
+
+    @Override
+    public String[] encryptAll(final String[] data) {
+        final long startTs = System.nanoTime();
+
+        try {
+            final String[] result = new String[data.length];
+            batch.run(data.length, i -> result[i] = encryptString(data[i]));
+            for (int i = 0; i < data.length; i++) {
+                encryptionStats.recordSizes(data[i], result[i]);
+            }
+            return result;
+        } catch (RuntimeException ex) {
+            encryptionStats.incrementErrors(ex);
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            encryptionStats.setProcessingTime(endTs - startTs, data.length);
+        }
+    }
+
+    @Override
+    public List<String> decryptAll(final Collection<String> encryptedMessages) {
+        return Arrays.asList(decryptAll(encryptedMessages.toArray(new String[0])));
+    }
+
+    @Override
+    public String[] decryptAll(final String[] encryptedMessages) {
+        final long startTs = System.nanoTime();
+
+        try {
+            final String[] result = new String[encryptedMessages.length];
+            batch.run(encryptedMessages.length, i -> result[i] = decryptString(encryptedMessages[i]));
+            for (int i = 0; i < encryptedMessages.length; i++) {
+                decryptionStats.recordSizes(encryptedMessages[i], result[i]);
+            }
+            return result;
+        } catch (RuntimeException ex) {
+            decryptionStats.incrementErrors(ex);
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            decryptionStats.setProcessingTime(endTs - startTs, encryptedMessages.length);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> encryptAsync(final String data) {
+        return asyncExecutor.submit(() -> encrypt(data), encryptionStats);
+    }
+
+    @Override
+    public CompletableFuture<String> decryptAsync(final String encryptedMessage) {
+        return asyncExecutor.submit(() -> decrypt(encryptedMessage), decryptionStats);
+    }
+
+    @Override
+    public byte[] encrypt(final byte[] message) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        try {
+            final byte[] result = encryptBytes(message);
+            encryptionStats.recordSizes(message, result);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, CIPHER_ALGORITHM, message != null ? message.length : 0, result != null ? result.length : 0, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
+        } catch (RuntimeException ex) {
+            encryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, CIPHER_ALGORITHM, message != null ? message.length : 0, 0, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            encryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.ENCRYPTION, endTs - startTs, message != null ? message.length : 0);
+        }
+    }
+
+    @Override
+    public byte[] decrypt(final byte[] encryptedMessage) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        try {
+            final byte[] result = decryptBytes(encryptedMessage);
+            decryptionStats.recordSizes(encryptedMessage, result);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, CIPHER_ALGORITHM, encryptedMessage != null ? encryptedMessage.length : 0, result != null ? result.length : 0, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
+        } catch (RuntimeException ex) {
+            decryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, CIPHER_ALGORITHM, encryptedMessage != null ? encryptedMessage.length : 0, 0, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            decryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.DECRYPTION, endTs - startTs, encryptedMessage != null ? encryptedMessage.length : 0);
+        }
+    }
+
+    private String encryptString(final String message) {
+        if (message == null) {
+            return null;
+        }
+
+        final byte[] result = encryptBytes(message.getBytes(StandardCharsets.UTF_8));
+        return hexadecimalOutput ? CommonUtils.toHexadecimal(result) : Base64.getEncoder().encodeToString(result);
+    }
+
+    private String decryptString(final String encryptedMessage) {
+        if (encryptedMessage == null) {
+            return null;
+        }
+
+        final byte[] encrypted;
+        try {
+            encrypted = hexadecimalOutput ? CommonUtils.fromHexadecimal(encryptedMessage) : Base64.getDecoder().decode(encryptedMessage);
+        } catch (IllegalArgumentException ex) {
+            throw new EncryptionOperationNotPossibleException(ex);
+        }
+        return new String(decryptBytes(encrypted), StandardCharsets.UTF_8);
+    }
+
+    private byte[] encryptBytes(final byte[] message) {
+        if (message == null) {
+            return null;
+        }
+
+        try {
+            final SecretKey currentKey = getKey();
+            final byte[] nonce = new byte[NONCE_SIZE];
+            random.nextBytes(nonce);
+
+            final Cipher cipher = borrowCipher();
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, currentKey, new GCMParameterSpec(TAG_SIZE, nonce));
+                final byte[] result = new byte[HEADER_SIZE + cipher.getOutputSize(message.length)];
+                result[0] = VERSION;
+                System.arraycopy(nonce, 0, result, 1, NONCE_SIZE);
+                cipher.doFinal(message, 0, message.length, result, HEADER_SIZE);
+                return result;
+            } finally {
+                returnCipher(cipher);
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new EncryptionOperationNotPossibleException(ex);
+        }
+    }
+
+    private byte[] decryptBytes(final byte[] encryptedMessage) {
+        if (encryptedMessage == null) {
+            return null;
+        }
+
+        try {
+            final SecretKey currentKey = getKey();
+            if (encryptedMessage.length < HEADER_SIZE + TAG_SIZE / Byte.SIZE || encryptedMessage[0] != VERSION) {
+                throw new EncryptionOperationNotPossibleException("Unsupported encrypted message format");
+            }
+
+            final Cipher cipher = borrowCipher();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, currentKey, new GCMParameterSpec(TAG_SIZE, encryptedMessage, 1, NONCE_SIZE));
+                return cipher.doFinal(encryptedMessage, HEADER_SIZE, encryptedMessage.length - HEADER_SIZE);
+            } finally {
+                returnCipher(cipher);
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new EncryptionOperationNotPossibleException(ex);
+        }
+    }
+
+    @Override
+    public int encrypt(final ByteBuffer src, final ByteBuffer dst) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        final int srcPosition = src.position();
+        final int dstPosition = dst.position();
+        final int inputSize = src.remaining();
+        try {
+            final SecretKey currentKey = getKey();
+            if (dst.remaining() < HEADER_SIZE + src.remaining() + TAG_SIZE / Byte.SIZE) {
+                throw new BufferOverflowException();
+            }
+            final byte[] nonce = new byte[NONCE_SIZE];
+            random.nextBytes(nonce);
+
+            final Cipher cipher = borrowCipher();
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, currentKey, new GCMParameterSpec(TAG_SIZE, nonce));
+                dst.put(VERSION);
+                dst.put(nonce);
+                final int length = HEADER_SIZE + cipher.doFinal(src, dst);
+                encryptionStats.recordSizes(inputSize, length);
+                FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, CIPHER_ALGORITHM, inputSize, length, FlightRecorderEvents.OUTCOME_SUCCESS);
+                return length;
+            } finally {
+                returnCipher(cipher);
+            }
+        } catch (GeneralSecurityException ex) {
+            src.position(srcPosition);
+            dst.position(dstPosition);
+            encryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, CIPHER_ALGORITHM, inputSize, 0, FlightRecorderEvents.outcome(ex));
+            throw new EncryptionOperationNotPossibleException(ex);
+        } catch (RuntimeException ex) {
+            src.position(srcPosition);
+            dst.position(dstPosition);
+            encryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, CIPHER_ALGORITHM, inputSize, 0, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            encryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.ENCRYPTION, endTs - startTs, inputSize);
+        }
+    }
+
+    @Override
+    public int decrypt(final ByteBuffer src, final ByteBuffer dst) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        final int srcPosition = src.position();
+        final int dstPosition = dst.position();
+        final int inputSize = src.remaining();
+        try {
+            final SecretKey currentKey = getKey();
+            if (src.remaining() < HEADER_SIZE + TAG_SIZE / Byte.SIZE || src.get(srcPosition) != VERSION) {
+                throw new EncryptionOperationNotPossibleException("Unsupported encrypted message format");
+            }
+            if (dst.remaining() < src.remaining() - HEADER_SIZE - TAG_SIZE / Byte.SIZE) {
+                throw new BufferOverflowException();
+            }
+            final byte[] nonce = new byte[NONCE_SIZE];
+            src.position(srcPosition + 1);
+            src.get(nonce);
+
+            final Cipher cipher = borrowCipher();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, currentKey, new GCMParameterSpec(TAG_SIZE, nonce));
+                final int length = cipher.doFinal(src, dst);
+                decryptionStats.recordSizes(inputSize, length);
+                FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, CIPHER_ALGORITHM, inputSize, length, FlightRecorderEvents.OUTCOME_SUCCESS);
+                return length;
+            } finally {
+                returnCipher(cipher);
+            }
+        } catch (GeneralSecurityException ex) {
+            src.position(srcPosition);
+            dst.position(dstPosition);
+            decryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, CIPHER_ALGORITHM, inputSize, 0, FlightRecorderEvents.outcome(ex));
+            throw new EncryptionOperationNotPossibleException(ex);
+        } catch (RuntimeException ex) {
+            src.position(srcPosition);
+            dst.position(dstPosition);
+            decryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, CIPHER_ALGORITHM, inputSize, 0, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            decryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.DECRYPTION, endTs - startTs, inputSize);
+        }
+    }
+
+    @Override
+    public OutputStream encryptingStream(final OutputStream out) {
+        return streams.encryptingStream(out);
+    }
+
+    @Override
+    public InputStream decryptingStream(final InputStream in) {
+        return streams.decryptingStream(in);
+    }
+
+    @Override
+    public WritableByteChannel encryptingChannel(final WritableByteChannel channel) {
+        return streams.encryptingChannel(channel);
+    }
+
+    @Override
+    public ReadableByteChannel decryptingChannel(final ReadableByteChannel channel) {
+        return streams.decryptingChannel(channel);
+    }
+}
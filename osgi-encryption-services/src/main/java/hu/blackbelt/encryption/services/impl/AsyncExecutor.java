@@ -0,0 +1,195 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Executor of asynchronous operations. Virtual threads are used if supported by JVM (number of pending operations is
+ * limited by queue size), bounded thread pool otherwise.
+ */
+@Slf4j
+class AsyncExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    private final String name;
+    private final boolean useVirtualThreads;
+    private final int threads;
+    private final int queueSize;
+
+    /**
+     * Executor replacing this one after reconfiguration, operations rejected by the retired executor are forwarded to
+     * it.
+     */
+    private volatile AsyncExecutor successor;
+
+    /**
+     * Create executor.
+     *
+     * @param name              name prefix of threads
+     * @param useVirtualThreads use virtual threads if supported by JVM
+     * @param threads           number of threads of bounded pool, number of available processors is used if not positive
+     * @param queueSize         maximum number of pending operations
+     */
+    AsyncExecutor(final String name, final boolean useVirtualThreads, final int threads, final int queueSize) {
+        this.name = name;
+        this.useVirtualThreads = useVirtualThreads;
+        this.threads = threads;
+        this.queueSize = queueSize;
+        final ExecutorService virtualThreadExecutor = useVirtualThreads ? createVirtualThreadExecutor() : null;
+        if (virtualThreadExecutor != null) {
+            executor = virtualThreadExecutor;
+            permits = new Semaphore(queueSize);
+        } else {
+            final int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), new NamedThreadFactory(name));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            permits = null;
+        }
+    }
+
+    /**
+     * Get executor of a configuration. The current executor is kept if its settings are not changed, otherwise a new
+     * one is created and the current one is retired: pending operations are completed and operations submitted to it
+     * later are forwarded to the new executor.
+     *
+     * @param current           current executor, <code>null</code> on activation
+     * @param name              name prefix of threads
+     * @param useVirtualThreads use virtual threads if supported by JVM
+     * @param threads           number of threads of bounded pool, number of available processors is used if not positive
+     * @param queueSize         maximum number of pending operations
+     * @return executor
+     */
+    static AsyncExecutor reconfigure(final AsyncExecutor current, final String name, final boolean useVirtualThreads, final int threads, final int queueSize) {
+        if (current != null && Objects.equals(current.name, name) && current.useVirtualThreads == useVirtualThreads && current.threads == threads
+                && current.queueSize == queueSize) {
+            return current;
+        }
+        final AsyncExecutor next = new AsyncExecutor(name, useVirtualThreads, threads, queueSize);
+        if (current != null) {
+            current.successor = next;
+            current.shutdown();
+        }
+        return next;
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+            if (log.isDebugEnabled()) {
+                log.debug("Virtual threads are not supported, using bounded thread pool");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Submit an operation.
+     *
+     * @param task  operation
+     * @param stats statistics of operation type
+     * @param <T>   result type
+     * @return future of operation result, completed exceptionally if operation is rejected
+     */
+    <T> CompletableFuture<T> submit(final Supplier<T> task, final OperationStats stats) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        if (permits != null && !permits.tryAcquire()) {
+            final RejectedExecutionException ex = new RejectedExecutionException("Too many pending operations");
+            stats.incrementErrors(ex);
+            future.completeExceptionally(ex);
+            return future;
+        }
+
+        stats.asyncTaskQueued();
+        try {
+            executor.execute(() -> {
+                stats.asyncTaskStarted();
+                try {
+                    future.complete(task.get());
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                } finally {
+                    stats.asyncTaskFinished();
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            stats.asyncTaskRejected();
+            if (permits != null) {
+                permits.release();
+            }
+            final AsyncExecutor next = successor;
+            if (next != null && executor.isShutdown()) {
+                return next.submit(task, stats);
+            }
+            stats.incrementErrors(ex);
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Shutdown executor, pending operations are completed.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        private NamedThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -22,17 +22,31 @@ package hu.blackbelt.encryption.services.impl;
 
 import hu.blackbelt.encryption.services.ConfigDecryptor;
 import hu.blackbelt.encryption.services.Encryptor;
+import hu.blackbelt.encryption.services.internal.LruCache;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Slf4j
 public abstract class BaseConfigDecryptor implements ConfigDecryptor {
 
-    private static final String FN_NAME = "ENC";
-    private static final Pattern PATTERN = Pattern.compile("^" + FN_NAME + "\\((.*)\\)$");
-    private static final Pattern PATTERN_WITH_ALIAS = Pattern.compile("^" + FN_NAME + "\\((.*)\\s*,\\s*(.*)\\)$");
+    /**
+     * Function name of configuration values encrypted by Jasypt PBE encryptors.
+     */
+    public static final String FN_NAME = "ENC";
+
+    /**
+     * Function name of versioned configuration values encrypted by AES-GCM encryptors.
+     */
+    public static final String FN_NAME_V2 = AesGcmEncryptor.FORMAT;
+
+    private static final Pattern PATTERN = Pattern.compile("^(" + FN_NAME + "|" + FN_NAME_V2 + ")\\((.*)\\)$");
+    private static final Pattern PATTERN_WITH_ALIAS = Pattern.compile("^(" + FN_NAME + "|" + FN_NAME_V2 + ")\\((.*)\\s*,\\s*(.*)\\)$");
+
+    private volatile LruCache<CacheKey, String> cache;
 
     @Override
     public String decrypt(final String encryptedMessage) {
@@ -41,15 +55,18 @@ public abstract class BaseConfigDecryptor implements ConfigDecryptor {
         }
 
         final Matcher mWithAias = PATTERN_WITH_ALIAS.matcher(encryptedMessage);
+        final String format;
         final String encrypted;
         final String alias;
         if (mWithAias.matches()) {
-            encrypted = mWithAias.group(1);
-            alias = mWithAias.group(2);
+            format = mWithAias.group(1);
+            encrypted = mWithAias.group(2);
+            alias = mWithAias.group(3);
         } else {
             final Matcher mWithoutAias = PATTERN.matcher(encryptedMessage);
             if (mWithoutAias.matches()) {
-                encrypted = mWithoutAias.group(1);
+                format = mWithoutAias.group(1);
+                encrypted = mWithoutAias.group(2);
                 alias = null;
             } else {
                 if (log.isDebugEnabled()) {
@@ -61,16 +78,100 @@ public abstract class BaseConfigDecryptor implements ConfigDecryptor {
             }
         }
 
-        final Encryptor encryptor = getEncryptor(alias);
+        final LruCache<CacheKey, String> currentCache = cache;
+        // cache lookup counts a single hit or miss, encryptor is resolved on miss only
+        final String decrypted = currentCache != null
+                ? currentCache.get(new CacheKey(alias, format, encrypted), k -> decrypt(alias, format, encrypted))
+                : decrypt(alias, format, encrypted);
 
         // return original value is encryptor not found
-        return encryptor != null ? encryptor.decrypt(encrypted) : encryptedMessage;
+        return decrypted != null ? decrypted : encryptedMessage;
+    }
+
+    private String decrypt(final String alias, final String format, final String encrypted) {
+        final Encryptor encryptor = getEncryptor(alias, format);
+        return encryptor != null ? encryptor.decrypt(encrypted) : null;
+    }
+
+    /**
+     * Enable cache of decrypted values.
+     *
+     * @param maxSize  maximum number of cached values
+     * @param ttl      time to live of cached values, values are not expired if not positive
+     * @param timeUnit time unit of time to live
+     */
+    protected void enableCache(final int maxSize, final long ttl, final TimeUnit timeUnit) {
+        cache = new LruCache<>(maxSize, ttl, timeUnit);
+    }
+
+    /**
+     * Disable cache of decrypted values.
+     */
+    protected void disableCache() {
+        cache = null;
+    }
+
+    /**
+     * Invalidate cached values of an encryptor. Values decrypted without alias are invalidated too because they can
+     * belong to any encryptor.
+     *
+     * @param alias alias of encryptor
+     */
+    protected void invalidateCache(final String alias) {
+        final LruCache<CacheKey, String> currentCache = cache;
+        if (currentCache != null) {
+            currentCache.invalidateIf(k -> k.alias == null || alias == null || alias.equals(k.alias));
+        }
+    }
+
+    LruCache<?, String> getCache() {
+        return cache;
     }
 
     protected abstract Encryptor getEncryptor(String alias);
 
+    /**
+     * Get encryptor supporting a given format of encrypted configuration values.
+     *
+     * @param alias  alias of encryptor
+     * @param format function name of encrypted value (<code>ENC</code> or <code>ENC2</code>)
+     * @return encryptor, <code>null</code> if not found
+     */
+    protected Encryptor getEncryptor(final String alias, final String format) {
+        return getEncryptor(alias);
+    }
+
     @Override
     public boolean isEncrypted(final String value) {
         return value != null ? PATTERN_WITH_ALIAS.matcher(value).matches() || PATTERN.matcher(value).matches() : false;
     }
+
+    private static final class CacheKey {
+        private final String alias;
+        private final String format;
+        private final String encrypted;
+
+        private CacheKey(final String alias, final String format, final String encrypted) {
+            this.alias = alias;
+            this.format = format;
+            this.encrypted = encrypted;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return Objects.equals(alias, other.alias) && format.equals(other.format) && encrypted.equals(other.encrypted);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(alias, format, encrypted);
+        }
+    }
 }
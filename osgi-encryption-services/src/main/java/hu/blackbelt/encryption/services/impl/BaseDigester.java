@@ -0,0 +1,423 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.AsyncDigester;
+import hu.blackbelt.encryption.services.Digester;
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import hu.blackbelt.encryption.services.metrics.SlowOperationLog;
+import lombok.extern.slf4j.Slf4j;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.ComponentContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Common wiring of digester components: operation statistics, executors of batch and asynchronous operations,
+ * statistics of consumers, slow operation detection and registration of {@link Digester}, {@link AsyncDigester} and
+ * {@link SlowOperationLog} services.
+ *
+ * <p>Components implement digest creation and validation of a single message, operations of this class record
+ * statistics, Flight Recorder events and slow operations around them.</p>
+ */
+@Slf4j
+public abstract class BaseDigester implements Digester, AsyncDigester {
+
+    protected final hu.blackbelt.encryption.services.impl.OperationStats digestStats = new hu.blackbelt.encryption.services.impl.OperationStats();
+    protected final hu.blackbelt.encryption.services.impl.OperationStats digestValidationStats = new hu.blackbelt.encryption.services.impl.OperationStats();
+
+    protected final SlowOperationDetector slowOperations = new SlowOperationDetector();
+
+    protected volatile String alias;
+
+    protected volatile ParallelBatch batch = new ParallelBatch(0);
+
+    private volatile AsyncExecutor asyncExecutor;
+
+    private ConsumerStats consumerStats;
+
+    private ComponentContext cc;
+
+    private ServiceRegistration<Digester> digesterReg;
+
+    private ServiceRegistration<AsyncDigester> asyncDigesterReg;
+
+    private ServiceRegistration<OperationStats> digestStatsReg;
+    private ServiceRegistration<OperationStats> digestValidationStatsReg;
+
+    private ServiceRegistration<SlowOperationLog> slowOperationLogReg;
+
+    /**
+     * Get algorithm of new digests (reported by statistics and Flight Recorder events).
+     *
+     * @return algorithm, <code>null</code> if digester is not configured
+     */
+    protected abstract String getAlgorithm();
+
+    /**
+     * Create digest of a message.
+     *
+     * @param data message
+     * @return digest
+     */
+    protected abstract String digestString(String data);
+
+    /**
+     * Validate digest of a message.
+     *
+     * @param data   message
+     * @param digest digest
+     * @return <code>true</code> if digest belongs to message
+     */
+    protected abstract boolean matchesString(String data, String digest);
+
+    /**
+     * Add component specific properties of registered services.
+     *
+     * @param dict service properties
+     */
+    protected void addServiceProps(final Dictionary<String, Object> dict) {
+    }
+
+    /**
+     * Register operation statistics of the component, statistics are registered before digester services.
+     *
+     * @param cc        component context
+     * @param alias     alias of digester
+     * @param algorithm algorithm of digester
+     */
+    protected void registerStats(final ComponentContext cc, final String alias, final String algorithm) {
+        this.cc = cc;
+
+        final Dictionary<String, Object> digestProps = new Hashtable<>();
+        digestProps.put("alias", alias);
+        digestProps.put("type", OperationStats.Type.DIGEST);
+        digestProps.put("algorithm", algorithm);
+        digestStatsReg = cc.getBundleContext().registerService(OperationStats.class, digestStats, digestProps);
+
+        final Dictionary<String, Object> digestValidationProps = new Hashtable<>();
+        digestValidationProps.put("alias", alias);
+        digestValidationProps.put("type", OperationStats.Type.VALIDATE_DIGEST);
+        digestValidationProps.put("algorithm", algorithm);
+        digestValidationStatsReg = cc.getBundleContext().registerService(OperationStats.class, digestValidationStats, digestValidationProps);
+    }
+
+    /**
+     * Apply alias and settings of executors.
+     *
+     * @param alias               alias of digester
+     * @param batchParallelism    parallelism of batch operations, common pool is used if not positive
+     * @param asyncVirtualThreads use virtual threads for asynchronous operations if supported by JVM
+     * @param asyncThreads        number of threads of asynchronous operations if virtual threads are not used
+     * @param asyncQueueSize      maximum number of pending asynchronous operations
+     */
+    protected void configure(final String alias, final int batchParallelism, final boolean asyncVirtualThreads, final int asyncThreads, final int asyncQueueSize) {
+        this.alias = alias;
+        if (alias == null) {
+            log.warn("Alias is not configured for Digester component.");
+        }
+
+        // executors are replaced only if their settings are changed, operations in progress are not rejected
+        batch = ParallelBatch.reconfigure(batch, batchParallelism);
+        asyncExecutor = AsyncExecutor.reconfigure(asyncExecutor, "digester-" + alias, asyncVirtualThreads, asyncThreads, asyncQueueSize);
+    }
+
+    /**
+     * Register {@link Digester}, {@link AsyncDigester} and {@link SlowOperationLog} services.
+     *
+     * @param algorithm          algorithm of digester
+     * @param consumerStatsLimit maximum number of consumer bundles with separate statistics, 0 disables statistics of consumers
+     */
+    protected void registerServices(final String algorithm, final int consumerStatsLimit) {
+        if (consumerStatsLimit > 0) {
+            consumerStats = new ConsumerStats(cc.getBundleContext(), alias, algorithm, consumerStatsLimit, OperationStats.Type.DIGEST, OperationStats.Type.VALIDATE_DIGEST);
+        }
+        digesterReg = registerService(Digester.class, this, getComponentServiceProps());
+        asyncDigesterReg = registerService(AsyncDigester.class, this, getServiceProps(alias, algorithm));
+        slowOperationLogReg = cc.getBundleContext().registerService(SlowOperationLog.class, slowOperations, getServiceProps(alias, algorithm));
+    }
+
+    /**
+     * Update properties of services registered by {@link #registerServices(String, int)}.
+     *
+     * @param algorithm algorithm of digester
+     */
+    protected void updateServices(final String algorithm) {
+        if (digesterReg != null) {
+            digesterReg.setProperties(getComponentServiceProps());
+        }
+        if (asyncDigesterReg != null) {
+            asyncDigesterReg.setProperties(getServiceProps(alias, algorithm));
+        }
+        if (slowOperationLogReg != null) {
+            slowOperationLogReg.setProperties(getServiceProps(alias, algorithm));
+        }
+    }
+
+    /**
+     * Unregister services and statistics, stop executors.
+     */
+    protected void unregisterServices() {
+        try {
+            if (digesterReg != null) {
+                digesterReg.unregister();
+            }
+            if (asyncDigesterReg != null) {
+                asyncDigesterReg.unregister();
+            }
+            if (digestStatsReg != null) {
+                digestStatsReg.unregister();
+            }
+            if (digestValidationStatsReg != null) {
+                digestValidationStatsReg.unregister();
+            }
+            if (slowOperationLogReg != null) {
+                slowOperationLogReg.unregister();
+            }
+
+            if (consumerStats != null) {
+                consumerStats.close();
+            }
+
+            batch.shutdown();
+            if (asyncExecutor != null) {
+                asyncExecutor.shutdown();
+            }
+        } finally {
+            digesterReg = null;
+            consumerStats = null;
+            asyncDigesterReg = null;
+            asyncExecutor = null;
+            digestStatsReg = null;
+            digestValidationStatsReg = null;
+            slowOperationLogReg = null;
+        }
+    }
+
+    protected Dictionary<String, Object> getServiceProps(final String alias, final String algorithm) {
+        final Dictionary<String, Object> dict = new Hashtable<>();
+        dict.put("algorithm", algorithm);
+        addServiceProps(dict);
+        if (alias != null) {
+            dict.put("alias", alias);
+            dict.put("digester.alias", alias);
+        }
+
+        return dict;
+    }
+
+    protected <S> ServiceRegistration<S> registerService(final Class<S> serviceClass, final S service, final Dictionary<String, Object> props) {
+        if (consumerStats != null) {
+            return cc.getBundleContext().registerService(serviceClass, new ConsumerServiceFactory<>(serviceClass, service, consumerStats), props);
+        }
+        return cc.getBundleContext().registerService(serviceClass, service, props);
+    }
+
+    private Dictionary<String, Object> getComponentServiceProps() {
+        final Dictionary<String, Object> dict = new Hashtable<>();
+        final Dictionary<String, Object> componentProps = cc.getProperties();
+        for (final Enumeration<String> keys = componentProps.keys(); keys.hasMoreElements(); ) {
+            final String key = keys.nextElement();
+            // private properties are not published, like by Service Component Runtime
+            if (!key.startsWith(".")) {
+                dict.put(key, componentProps.get(key));
+            }
+        }
+        addServiceProps(dict);
+
+        return dict;
+    }
+
+    @Override
+    public String getAlias() {
+        return alias;
+    }
+
+    @Override
+    public String digest(final String data) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        try {
+            final String result = digestString(data);
+            digestStats.recordSizes(data, result);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DIGEST, alias, getAlgorithm(), data, result, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
+        } catch (RuntimeException ex) {
+            digestStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DIGEST, alias, getAlgorithm(), data, null, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            digestStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.DIGEST, endTs - startTs, data);
+        }
+    }
+
+    @Override
+    public boolean matches(final String data, final String digest) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        try {
+            final boolean result = matchesString(data, digest);
+            digestValidationStats.recordInputSize(data);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.VALIDATE_DIGEST, alias, getAlgorithm(), data, null, result ? FlightRecorderEvents.OUTCOME_SUCCESS : FlightRecorderEvents.OUTCOME_MISMATCH);
+            return result;
+        } catch (RuntimeException ex) {
+            digestValidationStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.VALIDATE_DIGEST, alias, getAlgorithm(), data, null, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            digestValidationStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.VALIDATE_DIGEST, endTs - startTs, data);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> digestAsync(final String data) {
+        return asyncExecutor.submit(() -> digest(data), digestStats);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> matchesAsync(final String data, final String digest) {
+        return asyncExecutor.submit(() -> matches(data, digest), digestValidationStats);
+    }
+
+    /**
+     * Check whether a message matches any of the candidate digests. Candidates are checked in parallel, each is
+     * compared in constant time and candidates not started yet are skipped after the first match.
+     *
+     * <p>A candidate that cannot be validated (ie. malformed digest failing with {@link IllegalArgumentException})
+     * does not match, so it does not hide a match of another candidate. If no candidate matches, the failure of the
+     * first such candidate (in order of candidates) is thrown like {@link #matches(String, String)} does, so a
+     * malformed candidate is not reported as a plain mismatch.</p>
+     *
+     * @param data    the message to check
+     * @param digests the candidate digests
+     * @return <code>true</code> if the message matches at least one digest
+     */
+    @Override
+    public boolean matchesAny(final String data, final Collection<String> digests) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        try {
+            final String[] candidates = digests.toArray(new String[0]);
+            final RuntimeException[] failures = new RuntimeException[candidates.length];
+            final boolean result = batch.anyMatch(candidates.length, i -> {
+                try {
+                    return matchesString(data, candidates[i]);
+                } catch (RuntimeException ex) {
+                    failures[i] = ex;
+                    return false;
+                }
+            });
+            if (!result) {
+                // every candidate is checked if none matches, so the reported failure does not depend on scheduling
+                for (final RuntimeException failure : failures) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+            }
+            digestValidationStats.recordInputSize(data);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.VALIDATE_DIGEST, alias, getAlgorithm(), data, null, result ? FlightRecorderEvents.OUTCOME_SUCCESS : FlightRecorderEvents.OUTCOME_MISMATCH);
+            return result;
+        } catch (RuntimeException ex) {
+            digestValidationStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.VALIDATE_DIGEST, alias, getAlgorithm(), data, null, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            digestValidationStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.VALIDATE_DIGEST, endTs - startTs, data);
+        }
+    }
+
+    @Override
+    public List<String> digestAll(final Collection<String> data) {
+        return Arrays.asList(digestAll(data.toArray(new String[0])));
+    }
+
+    @Override
+    public String[] digestAll(final String[] data) {
+        final long startTs = System.nanoTime();
+
+        try {
+            final String[] result = new String[data.length];
+            batch.run(data.length, i -> result[i] = digestString(data[i]));
+            for (int i = 0; i < data.length; i++) {
+                digestStats.recordSizes(data[i], result[i]);
+            }
+            return result;
+        } catch (RuntimeException ex) {
+            digestStats.incrementErrors(ex);
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            digestStats.setProcessingTime(endTs - startTs, data.length);
+        }
+    }
+
+    @Override
+    public List<Boolean> matchesAll(final List<String> data, final List<String> digests) {
+        final boolean[] matches = matchesAll(data.toArray(new String[0]), digests.toArray(new String[0]));
+        final List<Boolean> result = new ArrayList<>(matches.length);
+        for (final boolean match : matches) {
+            result.add(match);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean[] matchesAll(final String[] data, final String[] digests) {
+        if (data.length != digests.length) {
+            throw new IllegalArgumentException("Number of messages and digests must be equal");
+        }
+
+        final long startTs = System.nanoTime();
+
+        try {
+            final boolean[] result = new boolean[data.length];
+            batch.run(data.length, i -> result[i] = matchesString(data[i], digests[i]));
+            for (int i = 0; i < data.length; i++) {
+                digestValidationStats.recordInputSize(data[i]);
+            }
+            return result;
+        } catch (RuntimeException ex) {
+            digestValidationStats.incrementErrors(ex);
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            digestValidationStats.setProcessingTime(endTs - startTs, data.length);
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.jasypt.exceptions.EncryptionInitializationException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Chunked AES-GCM stream format.
+ *
+ * <p>Header: magic (4 bytes), key derivation iterations (4 bytes), chunk size (4 bytes), salt (16 bytes) and nonce
+ * prefix (7 bytes). It is followed by chunks of ciphertext with authentication tag, each chunk (except the last one)
+ * contains exactly <i>chunk size</i> bytes of plain data. Nonce of a chunk is built from nonce prefix, chunk counter and
+ * a flag of the last chunk, header is authenticated as additional data of all chunks, so reordered, truncated or
+ * extended streams are rejected.</p>
+ */
+class ChunkedAeadStreams {
+
+    /**
+     * Source of stream keys.
+     */
+    interface KeySource {
+
+        /**
+         * Get key of a stream.
+         *
+         * @param salt       salt of stream
+         * @param iterations key derivation iterations of stream
+         * @return AES key
+         * @throws GeneralSecurityException if key is not available
+         */
+        SecretKey getKey(byte[] salt, int iterations) throws GeneralSecurityException;
+    }
+
+    static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    private static final String KEY_ALGORITHM = "AES";
+    private static final int KEY_SIZE = 256;
+    private static final byte[] MAGIC = {'B', 'B', 'S', 1};
+    private static final int SALT_SIZE = 16;
+    private static final int NONCE_PREFIX_SIZE = 7;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 4 + SALT_SIZE + NONCE_PREFIX_SIZE;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_ITERATIONS = 10_000_000;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final KeySource keySource;
+    private final String providerName;
+    private final int iterations;
+    private final int chunkSize;
+    private final OperationStats encryptionStats;
+    private final OperationStats decryptionStats;
+
+    /**
+     * Create stream format.
+     *
+     * @param keySource       source of stream keys
+     * @param providerName    JCE provider name, default provider is used if <code>null</code>
+     * @param iterations      key derivation iterations of new streams
+     * @param chunkSize       chunk size of new streams
+     * @param encryptionStats statistics of encrypted streams
+     * @param decryptionStats statistics of decrypted streams
+     */
+    ChunkedAeadStreams(final KeySource keySource, final String providerName, final int iterations, final int chunkSize,
+                       final OperationStats encryptionStats, final OperationStats decryptionStats) {
+        this.keySource = keySource;
+        this.providerName = providerName;
+        this.iterations = iterations;
+        this.chunkSize = chunkSize;
+        this.encryptionStats = encryptionStats;
+        this.decryptionStats = decryptionStats;
+    }
+
+    /**
+     * Derive AES key from password.
+     *
+     * @param password     password
+     * @param salt         salt
+     * @param algorithm    key derivation algorithm
+     * @param iterations   key derivation iterations
+     * @param keySize      key size (bits)
+     * @param providerName JCE provider name, default provider is used if <code>null</code>
+     * @return AES key
+     * @throws GeneralSecurityException if key derivation failed
+     */
+    static SecretKey deriveKey(final char[] password, final byte[] salt, final String algorithm, final int iterations, final int keySize, final String providerName) throws GeneralSecurityException {
+        final Object event = FlightRecorderEvents.beginKeyDerivation();
+        final PBEKeySpec keySpec = new PBEKeySpec(password, salt, iterations, keySize);
+        try {
+            final SecretKeyFactory factory = providerName != null
+                    ? SecretKeyFactory.getInstance(algorithm, providerName)
+                    : SecretKeyFactory.getInstance(algorithm);
+            final byte[] encoded = factory.generateSecret(keySpec).getEncoded();
+            try {
+                final SecretKey key = new SecretKeySpec(encoded, KEY_ALGORITHM);
+                FlightRecorderEvents.commitKeyDerivation(event, algorithm, iterations, keySize, FlightRecorderEvents.OUTCOME_SUCCESS);
+                return key;
+            } finally {
+                Arrays.fill(encoded, (byte) 0);
+            }
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            FlightRecorderEvents.commitKeyDerivation(event, algorithm, iterations, keySize, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * Derive stream key from password.
+     *
+     * @param password     password, <code>null</code> if not available
+     * @param salt         salt
+     * @param iterations   key derivation iterations
+     * @param providerName JCE provider name, default provider is used if <code>null</code>
+     * @return AES key
+     * @throws GeneralSecurityException if key derivation failed
+     */
+    static SecretKey deriveStreamKey(final char[] password, final byte[] salt, final int iterations, final String providerName) throws GeneralSecurityException {
+        if (password == null || password.length == 0) {
+            throw new EncryptionInitializationException("Password not set for stream encryption");
+        }
+        try {
+            return deriveKey(password, salt, KEY_DERIVATION_ALGORITHM, iterations, KEY_SIZE, providerName);
+        } finally {
+            Arrays.fill(password, (char) 0);
+        }
+    }
+
+    OutputStream encryptingStream(final OutputStream out) {
+        return new EncryptingOutputStream(out);
+    }
+
+    InputStream decryptingStream(final InputStream in) {
+        return new DecryptingInputStream(in);
+    }
+
+    WritableByteChannel encryptingChannel(final WritableByteChannel channel) {
+        return Channels.newChannel(encryptingStream(Channels.newOutputStream(channel)));
+    }
+
+    ReadableByteChannel decryptingChannel(final ReadableByteChannel channel) {
+        return Channels.newChannel(decryptingStream(Channels.newInputStream(channel)));
+    }
+
+    private Cipher createCipher() throws GeneralSecurityException {
+        return providerName != null ? Cipher.getInstance(CIPHER_ALGORITHM, providerName) : Cipher.getInstance(CIPHER_ALGORITHM);
+    }
+
+    private static byte[] nonce(final byte[] header, final int counter, final boolean last) {
+        final byte[] nonce = new byte[NONCE_SIZE];
+        System.arraycopy(header, HEADER_SIZE - NONCE_PREFIX_SIZE, nonce, 0, NONCE_PREFIX_SIZE);
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_SIZE, 4).putInt(counter);
+        nonce[NONCE_SIZE - 1] = (byte) (last ? 1 : 0);
+        return nonce;
+    }
+
+    private final class EncryptingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final byte[] header = new byte[HEADER_SIZE];
+        private final byte[] buffer = new byte[chunkSize];
+        private final byte[] encrypted = new byte[chunkSize + TAG_SIZE];
+        private final Cipher cipher;
+        private final SecretKey key;
+
+        private int count;
+        private int counter;
+        private boolean headerWritten;
+        private boolean closed;
+        private long processingTime;
+        private long inputBytes;
+        private long outputBytes;
+
+        private EncryptingOutputStream(final OutputStream out) {
+            this.out = out;
+
+            final long startTs = System.nanoTime();
+            try {
+                final byte[] salt = new byte[SALT_SIZE];
+                final byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+                RANDOM.nextBytes(salt);
+                RANDOM.nextBytes(noncePrefix);
+                ByteBuffer.wrap(header).put(MAGIC).putInt(iterations).putInt(chunkSize).put(salt).put(noncePrefix);
+
+                key = keySource.getKey(salt, iterations);
+                cipher = createCipher();
+            } catch (GeneralSecurityException ex) {
+                encryptionStats.incrementErrors(ex);
+                throw new EncryptionInitializationException(ex);
+            } catch (RuntimeException ex) {
+                encryptionStats.incrementErrors(ex);
+                throw ex;
+            } finally {
+                processingTime += System.nanoTime() - startTs;
+            }
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            ensureOpen();
+            if (count == chunkSize) {
+                writeChunk(false);
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            ensureOpen();
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                if (count == chunkSize) {
+                    writeChunk(false);
+                }
+                final int n = Math.min(remaining, chunkSize - count);
+                System.arraycopy(b, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                remaining -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writeChunk(true);
+                encryptionStats.setProcessingTime(processingTime);
+                encryptionStats.recordSizes(inputBytes, outputBytes);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        private void writeChunk(final boolean last) throws IOException {
+            if (!headerWritten) {
+                out.write(header);
+                headerWritten = true;
+                outputBytes += HEADER_SIZE;
+            }
+
+            final long startTs = System.nanoTime();
+            final int length;
+            try {
+                if (counter == -1) {
+                    throw new IOException("Stream is too long");
+                }
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * Byte.SIZE, nonce(header, counter, last)));
+                cipher.updateAAD(header);
+                length = cipher.doFinal(buffer, 0, count, encrypted, 0);
+            } catch (GeneralSecurityException ex) {
+                encryptionStats.incrementErrors(ex);
+                throw new IOException("Unable to encrypt stream", ex);
+            } catch (IOException | RuntimeException ex) {
+                encryptionStats.incrementErrors(ex);
+                throw ex;
+            } finally {
+                processingTime += System.nanoTime() - startTs;
+            }
+
+            out.write(encrypted, 0, length);
+            inputBytes += count;
+            outputBytes += length;
+            counter++;
+            count = 0;
+        }
+    }
+
+    private final class DecryptingInputStream extends InputStream {
+
+        private final InputStream in;
+        private final byte[] header = new byte[HEADER_SIZE];
+
+        private Cipher cipher;
+        private SecretKey key;
+        private byte[] encrypted;
+        private byte[] buffer;
+        private int encryptedCount;
+        private int streamChunkSize;
+        private int position;
+        private int limit;
+        private int counter;
+        private boolean headerRead;
+        private boolean last;
+        private boolean closed;
+        private long processingTime;
+        private long inputBytes;
+        private long outputBytes;
+
+        private DecryptingInputStream(final InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (headerRead) {
+                    decryptionStats.setProcessingTime(processingTime);
+                    decryptionStats.recordSizes(inputBytes, outputBytes);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        private boolean fill() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (position == limit) {
+                if (headerRead && last) {
+                    return false;
+                }
+                readChunk();
+            }
+            return true;
+        }
+
+        private void readHeader() throws IOException {
+            if (readFully(header, 0, HEADER_SIZE) < HEADER_SIZE) {
+                throw failure(new IOException("Encrypted stream header is missing"));
+            }
+            final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            final byte[] magic = new byte[MAGIC.length];
+            headerBuffer.get(magic);
+            final int streamIterations = headerBuffer.getInt();
+            streamChunkSize = headerBuffer.getInt();
+            if (!Arrays.equals(MAGIC, magic) || streamIterations < 0 || streamIterations > MAX_ITERATIONS || streamChunkSize <= 0 || streamChunkSize > MAX_CHUNK_SIZE) {
+                throw failure(new IOException("Unsupported encrypted stream format"));
+            }
+            final byte[] salt = new byte[SALT_SIZE];
+            headerBuffer.get(salt);
+
+            final long startTs = System.nanoTime();
+            try {
+                key = keySource.getKey(salt, streamIterations);
+                cipher = createCipher();
+            } catch (GeneralSecurityException ex) {
+                throw failure(new IOException("Unable to initialize stream decryption", ex));
+            } catch (RuntimeException ex) {
+                decryptionStats.incrementErrors(ex);
+                throw ex;
+            } finally {
+                processingTime += System.nanoTime() - startTs;
+            }
+
+            encrypted = new byte[streamChunkSize + TAG_SIZE + 1];
+            buffer = new byte[streamChunkSize];
+            headerRead = true;
+            inputBytes += HEADER_SIZE;
+        }
+
+        private void readChunk() throws IOException {
+            if (!headerRead) {
+                readHeader();
+            }
+
+            // one more byte is read to detect the last chunk
+            encryptedCount += readFully(encrypted, encryptedCount, encrypted.length - encryptedCount);
+            last = encryptedCount < encrypted.length;
+            final int chunkLength = last ? encryptedCount : encrypted.length - 1;
+            if (chunkLength < TAG_SIZE) {
+                throw failure(new IOException("Encrypted stream is truncated"));
+            }
+
+            final long startTs = System.nanoTime();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * Byte.SIZE, nonce(header, counter, last)));
+                cipher.updateAAD(header);
+                limit = cipher.doFinal(encrypted, 0, chunkLength, buffer, 0);
+                position = 0;
+                inputBytes += chunkLength;
+                outputBytes += limit;
+            } catch (GeneralSecurityException ex) {
+                throw failure(new IOException("Encrypted stream is corrupted or key is invalid", ex));
+            } finally {
+                processingTime += System.nanoTime() - startTs;
+            }
+
+            counter++;
+            if (last) {
+                encryptedCount = 0;
+            } else {
+                encrypted[0] = encrypted[chunkLength];
+                encryptedCount = 1;
+            }
+        }
+
+        private int readFully(final byte[] b, final int off, final int len) throws IOException {
+            int total = 0;
+            while (total < len) {
+                final int n = in.read(b, off + total, len - total);
+                if (n < 0) {
+                    break;
+                }
+                total += n;
+            }
+            return total;
+        }
+
+        private IOException failure(final IOException ex) {
+            decryptionStats.incrementErrors(ex);
+            return ex;
+        }
+    }
+}
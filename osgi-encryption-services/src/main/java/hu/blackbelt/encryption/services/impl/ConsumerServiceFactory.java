@@ -0,0 +1,178 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+
+import java.io.Closeable;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.Channel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Service factory returning a facade per consumer bundle. Synchronous encryption, decryption, digest and digest
+ * validation calls of the facade are recorded in statistics of the consumer, stream and asynchronous operations are
+ * delegated only.
+ *
+ * @param <S> service interface
+ */
+class ConsumerServiceFactory<S> implements ServiceFactory<S> {
+
+    private final Class<S> serviceClass;
+
+    private final S service;
+
+    private final ConsumerStats consumerStats;
+
+    private final Map<Method, OperationStats.Type> operations = new HashMap<>();
+
+    ConsumerServiceFactory(final Class<S> serviceClass, final S service, final ConsumerStats consumerStats) {
+        this.serviceClass = serviceClass;
+        this.service = service;
+        this.consumerStats = consumerStats;
+
+        for (final Method method : serviceClass.getMethods()) {
+            final OperationStats.Type type = getOperationType(method);
+            if (type != null) {
+                operations.put(method, type);
+            }
+        }
+    }
+
+    private static OperationStats.Type getOperationType(final Method method) {
+        final Class<?> returnType = method.getReturnType();
+        if (Closeable.class.isAssignableFrom(returnType) || Channel.class.isAssignableFrom(returnType) || Future.class.isAssignableFrom(returnType)) {
+            return null;
+        } else if (method.getName().startsWith("encrypt")) {
+            return OperationStats.Type.ENCRYPTION;
+        } else if (method.getName().startsWith("decrypt")) {
+            return OperationStats.Type.DECRYPTION;
+        } else if (method.getName().startsWith("digest")) {
+            return OperationStats.Type.DIGEST;
+        } else if (method.getName().startsWith("matches")) {
+            return OperationStats.Type.VALIDATE_DIGEST;
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public S getService(final Bundle bundle, final ServiceRegistration<S> registration) {
+        final Facade facade = new Facade(consumerStats.get(bundle));
+        return serviceClass.cast(Proxy.newProxyInstance(serviceClass.getClassLoader(), new Class<?>[] {serviceClass}, facade));
+    }
+
+    @Override
+    public void ungetService(final Bundle bundle, final ServiceRegistration<S> registration, final S facade) {
+        // statistics of consumer are kept until the service is unregistered
+    }
+
+    private final class Facade implements InvocationHandler {
+
+        private final ConsumerStats.Consumer consumer;
+
+        private Facade(final ConsumerStats.Consumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return serviceClass.getSimpleName() + " facade of " + service;
+                }
+            }
+
+            final OperationStats.Type type = operations.get(method);
+            if (type == null) {
+                return delegate(method, args);
+            }
+
+            final hu.blackbelt.encryption.services.impl.OperationStats stats = consumer.get(type);
+            final long startTs = System.nanoTime();
+            try {
+                final Object result = delegate(method, args);
+                recordSizes(stats, args, result);
+                return result;
+            } catch (Exception ex) {
+                // checked exceptions of stream and file operations are failures too
+                stats.incrementErrors(ex);
+                throw ex;
+            } finally {
+                final Long endTs = System.nanoTime();
+                stats.setProcessingTime(endTs - startTs, getRequests(args));
+            }
+        }
+
+        private Object delegate(final Method method, final Object[] args) throws Throwable {
+            try {
+                return method.invoke(service, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+        /**
+         * Record payload sizes of single String and binary messages, sizes of batches and buffers are recorded by
+         * the service only.
+         */
+        private void recordSizes(final hu.blackbelt.encryption.services.impl.OperationStats stats, final Object[] args, final Object result) {
+            if (args == null || args.length == 0) {
+                return;
+            }
+            if (args[0] instanceof String && (result instanceof String || result == null)) {
+                stats.recordSizes((String) args[0], (String) result);
+            } else if (args[0] instanceof byte[] && (result instanceof byte[] || result == null)) {
+                stats.recordSizes((byte[]) args[0], (byte[]) result);
+            } else if (args[0] instanceof String && result instanceof Boolean) {
+                stats.recordInputSize((String) args[0]);
+            }
+        }
+
+        private int getRequests(final Object[] args) {
+            if (args == null || args.length == 0 || args[0] == null) {
+                return 1;
+            } else if (args[0] instanceof Collection) {
+                return ((Collection<?>) args[0]).size();
+            } else if (args[0].getClass().isArray() && !args[0].getClass().getComponentType().isPrimitive()) {
+                return Array.getLength(args[0]);
+            } else {
+                return 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import lombok.extern.slf4j.Slf4j;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.EnumMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Operation statistics of consumer bundles of a service. Statistics are registered as {@link OperationStats} services
+ * with <code>consumer</code> property (symbolic name of consumer bundle). Number of tracked consumers is limited,
+ * further consumers are recorded together as {@link #OTHER_CONSUMER}.
+ */
+@Slf4j
+class ConsumerStats {
+
+    /**
+     * Name of service property containing consumer of operation statistics.
+     */
+    static final String CONSUMER_PROPERTY = "consumer";
+
+    static final String OTHER_CONSUMER = "other";
+
+    private final BundleContext bundleContext;
+
+    private final String alias;
+
+    private final String algorithm;
+
+    private final OperationStats.Type[] types;
+
+    private final int limit;
+
+    private final Map<String, Consumer> consumers = new ConcurrentHashMap<>();
+
+    /**
+     * Statistics of a consumer by operation type.
+     */
+    static final class Consumer {
+
+        private final Map<OperationStats.Type, hu.blackbelt.encryption.services.impl.OperationStats> stats = new EnumMap<>(OperationStats.Type.class);
+
+        private final List<ServiceRegistration<OperationStats>> registrations = new ArrayList<>();
+
+        hu.blackbelt.encryption.services.impl.OperationStats get(final OperationStats.Type type) {
+            return stats.get(type);
+        }
+    }
+
+    /**
+     * Create statistics of consumers.
+     *
+     * @param bundleContext bundle context used to register statistics
+     * @param alias         alias of service
+     * @param algorithm     algorithm of service
+     * @param limit         maximum number of tracked consumers
+     * @param types         operation types of service
+     */
+    ConsumerStats(final BundleContext bundleContext, final String alias, final String algorithm, final int limit, final OperationStats.Type... types) {
+        this.bundleContext = bundleContext;
+        this.alias = alias;
+        this.algorithm = algorithm;
+        this.limit = limit;
+        this.types = types;
+    }
+
+    /**
+     * Get statistics of a consumer bundle, statistics are registered on first call.
+     *
+     * @param bundle consumer bundle
+     * @return statistics of consumer
+     */
+    Consumer get(final Bundle bundle) {
+        final String name = bundle.getSymbolicName() != null ? bundle.getSymbolicName() : String.valueOf(bundle.getBundleId());
+        final Consumer consumer = consumers.get(name);
+        if (consumer != null) {
+            return consumer;
+        }
+
+        synchronized (this) {
+            final String key = consumers.containsKey(name) || consumers.size() < limit ? name : OTHER_CONSUMER;
+            return consumers.computeIfAbsent(key, this::register);
+        }
+    }
+
+    private Consumer register(final String name) {
+        final Consumer consumer = new Consumer();
+        for (final OperationStats.Type type : types) {
+            final hu.blackbelt.encryption.services.impl.OperationStats stats = new hu.blackbelt.encryption.services.impl.OperationStats();
+            consumer.stats.put(type, stats);
+
+            final Dictionary<String, Object> props = new Hashtable<>();
+            props.put("alias", alias);
+            props.put("type", type);
+            props.put("algorithm", algorithm);
+            props.put(CONSUMER_PROPERTY, name);
+            consumer.registrations.add(bundleContext.registerService(OperationStats.class, stats, props));
+        }
+        return consumer;
+    }
+
+    /**
+     * Unregister statistics of all consumers.
+     */
+    synchronized void close() {
+        for (final Consumer consumer : consumers.values()) {
+            for (final ServiceRegistration<OperationStats> registration : consumer.registrations) {
+                try {
+                    registration.unregister();
+                } catch (IllegalStateException ex) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Operation stats of " + alias + " are already unregistered", ex);
+                    }
+                }
+            }
+        }
+        consumers.clear();
+    }
+}
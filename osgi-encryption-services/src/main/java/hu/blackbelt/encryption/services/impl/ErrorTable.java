@@ -0,0 +1,188 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.ErrorCategory;
+import org.jasypt.exceptions.AlreadyInitializedException;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free counters of errors by exception class and category. Exception classes are stored in a fixed-size open
+ * addressing table, errors of classes not fitting into the table are counted as {@link #OTHER_CLASSES}.
+ */
+class ErrorTable {
+
+    static final int CAPACITY = 32;
+
+    static final String OTHER_CLASSES = "other";
+
+    /**
+     * Maximum number of exceptions of a cause chain that are examined, chains may contain cycles (A caused by B caused
+     * by A) that are not detected by {@link Throwable#getCause()}.
+     */
+    static final int MAX_CAUSE_DEPTH = 32;
+
+    private static final ErrorCategory[] CATEGORIES = ErrorCategory.values();
+
+    private final AtomicReferenceArray<String> classNames = new AtomicReferenceArray<>(CAPACITY);
+
+    private final AtomicLongArray classCounters = new AtomicLongArray(CAPACITY + 1);
+
+    private final AtomicLongArray categoryCounters = new AtomicLongArray(CATEGORIES.length);
+
+    private final AtomicLongArray lastErrorTimestamps = new AtomicLongArray(CATEGORIES.length);
+
+    /**
+     * Record an error. Class of the root cause is counted because wrapper exceptions (ie. jasypt exceptions) hide the
+     * reason of failure.
+     *
+     * @param ex exception
+     */
+    void record(final Throwable ex) {
+        final ErrorCategory category = categorize(ex);
+        categoryCounters.incrementAndGet(category.ordinal());
+        lastErrorTimestamps.set(category.ordinal(), System.currentTimeMillis());
+        classCounters.incrementAndGet(indexOf(rootCause(ex).getClass().getName()));
+    }
+
+    private int indexOf(final String className) {
+        final int mask = CAPACITY - 1;
+        int index = className.hashCode() & mask;
+        for (int i = 0; i < CAPACITY; i++) {
+            final String current = classNames.get(index);
+            if (current == null) {
+                if (classNames.compareAndSet(index, null, className)) {
+                    return index;
+                }
+                if (className.equals(classNames.get(index))) {
+                    return index;
+                }
+            } else if (current.equals(className)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return CAPACITY;
+    }
+
+    Map<String, Long> getErrorsByClass() {
+        final Map<String, Long> errors = new HashMap<>();
+        for (int i = 0; i < CAPACITY; i++) {
+            final String className = classNames.get(i);
+            final long count = classCounters.get(i);
+            if (className != null && count > 0) {
+                errors.put(className, count);
+            }
+        }
+        if (classCounters.get(CAPACITY) > 0) {
+            errors.put(OTHER_CLASSES, classCounters.get(CAPACITY));
+        }
+        return Collections.unmodifiableMap(errors);
+    }
+
+    Map<ErrorCategory, Long> getErrorsByCategory() {
+        final Map<ErrorCategory, Long> errors = new EnumMap<>(ErrorCategory.class);
+        for (final ErrorCategory category : CATEGORIES) {
+            errors.put(category, categoryCounters.get(category.ordinal()));
+        }
+        return Collections.unmodifiableMap(errors);
+    }
+
+    Map<ErrorCategory, Long> getLastErrorTimestamps() {
+        final Map<ErrorCategory, Long> timestamps = new EnumMap<>(ErrorCategory.class);
+        for (final ErrorCategory category : CATEGORIES) {
+            final long timestamp = lastErrorTimestamps.get(category.ordinal());
+            if (timestamp > 0) {
+                timestamps.put(category, timestamp);
+            }
+        }
+        return Collections.unmodifiableMap(timestamps);
+    }
+
+    /**
+     * Get category of an exception, the most specific exception of cause chain determines the category. Only the first
+     * {@link #MAX_CAUSE_DEPTH} exceptions of the chain are examined.
+     *
+     * @param ex exception
+     * @return error category
+     */
+    static ErrorCategory categorize(final Throwable ex) {
+        ErrorCategory result = ErrorCategory.OTHER;
+        Throwable t = ex;
+        for (int depth = 0; t != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            final ErrorCategory category = categorizeException(t);
+            if (category != ErrorCategory.OTHER) {
+                result = category;
+            }
+            t = t.getCause();
+        }
+        return result;
+    }
+
+    private static ErrorCategory categorizeException(final Throwable ex) {
+        if (ex instanceof NoSuchProviderException || ex instanceof NoSuchAlgorithmException || ex instanceof NoSuchPaddingException) {
+            return ErrorCategory.PROVIDER;
+        } else if (ex instanceof RejectedExecutionException) {
+            return ErrorCategory.REJECTED;
+        } else if (ex instanceof AEADBadTagException || ex instanceof BadPaddingException || ex instanceof EncryptionOperationNotPossibleException) {
+            return ErrorCategory.AUTHENTICATION;
+        } else if (ex instanceof IllegalArgumentException || ex instanceof IllegalBlockSizeException || ex instanceof BufferOverflowException
+                || ex instanceof BufferUnderflowException || ex instanceof IOException) {
+            return ErrorCategory.INVALID_INPUT;
+        } else if (ex instanceof EncryptionInitializationException || ex instanceof AlreadyInitializedException || ex instanceof InvalidKeyException
+                || ex instanceof InvalidKeySpecException || ex instanceof IllegalStateException) {
+            return ErrorCategory.INITIALIZATION;
+        }
+        return ErrorCategory.OTHER;
+    }
+
+    /**
+     * Get root cause of an exception, the last of the first {@link #MAX_CAUSE_DEPTH} exceptions of a cyclic chain.
+     */
+    private static Throwable rootCause(final Throwable ex) {
+        Throwable root = ex;
+        for (int depth = 1; root.getCause() != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            root = root.getCause();
+        }
+        return root;
+    }
+}
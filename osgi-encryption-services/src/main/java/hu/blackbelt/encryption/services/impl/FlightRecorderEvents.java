@@ -0,0 +1,187 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Emitting Java Flight Recorder events. JFR is optional, events are not emitted if <code>jdk.jfr</code> package is not
+ * available. Begin methods return <code>null</code> if event type is not enabled so operations are not slowed down when
+ * events are not recorded.
+ */
+@Slf4j
+final class FlightRecorderEvents {
+
+    static final String OUTCOME_SUCCESS = "SUCCESS";
+
+    static final String OUTCOME_MISMATCH = "MISMATCH";
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorderEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            return JfrSupport.OPERATION_EVENT_TYPE != null;
+        } catch (LinkageError ex) {
+            if (log.isDebugEnabled()) {
+                log.debug("Java Flight Recorder is not available, events are not emitted", ex);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Begin operation event.
+     *
+     * @return event, <code>null</code> if event is not recorded
+     */
+    static Object beginOperation() {
+        return AVAILABLE ? JfrSupport.beginOperation() : null;
+    }
+
+    /**
+     * Commit operation event.
+     *
+     * @param event        event returned by {@link #beginOperation()}
+     * @param type         operation type
+     * @param alias        alias of encryptor/digester
+     * @param algorithm    algorithm
+     * @param inputLength  length of input (bytes)
+     * @param outputLength length of output (bytes)
+     * @param outcome      outcome of operation
+     */
+    static void commitOperation(final Object event, final OperationStats.Type type, final String alias, final String algorithm, final long inputLength, final long outputLength, final String outcome) {
+        if (event != null) {
+            JfrSupport.commitOperation(event, type, alias, algorithm, inputLength, outputLength, outcome);
+        }
+    }
+
+    /**
+     * Commit operation event of String input and output, lengths are recorded as number of bytes of UTF-8
+     * representation (computed only if event is recorded).
+     *
+     * @param event     event returned by {@link #beginOperation()}
+     * @param type      operation type
+     * @param alias     alias of encryptor/digester
+     * @param algorithm algorithm
+     * @param input     input, <code>null</code> if not available
+     * @param output    output, <code>null</code> if not available
+     * @param outcome   outcome of operation
+     */
+    static void commitOperation(final Object event, final OperationStats.Type type, final String alias, final String algorithm, final String input, final String output, final String outcome) {
+        if (event != null) {
+            JfrSupport.commitOperation(event, type, alias, algorithm, hu.blackbelt.encryption.services.impl.OperationStats.byteLength(input),
+                    hu.blackbelt.encryption.services.impl.OperationStats.byteLength(output), outcome);
+        }
+    }
+
+    /**
+     * Begin key derivation event.
+     *
+     * @return event, <code>null</code> if event is not recorded
+     */
+    static Object beginKeyDerivation() {
+        return AVAILABLE ? JfrSupport.beginKeyDerivation() : null;
+    }
+
+    /**
+     * Commit key derivation event.
+     *
+     * @param event      event returned by {@link #beginKeyDerivation()}
+     * @param algorithm  key derivation algorithm
+     * @param iterations key derivation iterations
+     * @param keySize    key size (bits)
+     * @param outcome    outcome of key derivation
+     */
+    static void commitKeyDerivation(final Object event, final String algorithm, final int iterations, final int keySize, final String outcome) {
+        if (event != null) {
+            JfrSupport.commitKeyDerivation(event, algorithm, iterations, keySize, outcome);
+        }
+    }
+
+    /**
+     * Get outcome of a failed operation.
+     *
+     * @param ex exception
+     * @return error category
+     */
+    static String outcome(final Throwable ex) {
+        return ErrorTable.categorize(ex).name();
+    }
+
+    /**
+     * Classes referring JFR API, loaded only if JFR is available.
+     */
+    private static final class JfrSupport {
+
+        private static final jdk.jfr.EventType OPERATION_EVENT_TYPE = jdk.jfr.EventType.getEventType(OperationEvent.class);
+
+        private static final jdk.jfr.EventType KEY_DERIVATION_EVENT_TYPE = jdk.jfr.EventType.getEventType(KeyDerivationEvent.class);
+
+        private static Object beginOperation() {
+            if (!OPERATION_EVENT_TYPE.isEnabled()) {
+                return null;
+            }
+            final OperationEvent event = new OperationEvent();
+            event.begin();
+            return event;
+        }
+
+        private static void commitOperation(final Object event, final OperationStats.Type type, final String alias, final String algorithm, final long inputLength, final long outputLength, final String outcome) {
+            final OperationEvent operationEvent = (OperationEvent) event;
+            operationEvent.end();
+            if (operationEvent.shouldCommit()) {
+                operationEvent.operation = type.name();
+                operationEvent.alias = alias;
+                operationEvent.algorithm = algorithm;
+                operationEvent.inputLength = inputLength;
+                operationEvent.outputLength = outputLength;
+                operationEvent.outcome = outcome;
+                operationEvent.commit();
+            }
+        }
+
+        private static Object beginKeyDerivation() {
+            if (!KEY_DERIVATION_EVENT_TYPE.isEnabled()) {
+                return null;
+            }
+            final KeyDerivationEvent event = new KeyDerivationEvent();
+            event.begin();
+            return event;
+        }
+
+        private static void commitKeyDerivation(final Object event, final String algorithm, final int iterations, final int keySize, final String outcome) {
+            final KeyDerivationEvent keyDerivationEvent = (KeyDerivationEvent) event;
+            keyDerivationEvent.end();
+            if (keyDerivationEvent.shouldCommit()) {
+                keyDerivationEvent.algorithm = algorithm;
+                keyDerivationEvent.iterations = iterations;
+                keyDerivationEvent.keySize = keySize;
+                keyDerivationEvent.outcome = outcome;
+                keyDerivationEvent.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of deriving a key from password.
+ */
+@Name("hu.blackbelt.encryption.KeyDerivation")
+@Label("Key Derivation")
+@Category({"OSGi encryption"})
+@Description("Derivation of key from password")
+class KeyDerivationEvent extends Event {
+
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Iterations")
+    int iterations;
+
+    @Label("Key Size")
+    @Description("Key size in bits")
+    int keySize;
+
+    @Label("Outcome")
+    @Description("SUCCESS or category of error")
+    String outcome;
+}
@@ -0,0 +1,167 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Latency histogram with fixed memory footprint. Values are stored in log-linear buckets: values below 64 are exact,
+ * larger values are grouped into 32 sub-buckets per power of two, so relative error of reported values is below 1/32.
+ * Histogram is not thread-safe, it is guarded by the cell of {@link StripedCells} containing it.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT << 1;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (Long.SIZE - 1 - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+
+    private long min = Long.MAX_VALUE;
+
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * Record a value.
+     *
+     * @param value value (negative values are recorded as 0)
+     * @param count number of occurrences
+     */
+    void record(final long value, final long count) {
+        final long v = Math.max(value, 0L);
+        buckets[indexOf(v)] += count;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Add values of another histogram.
+     *
+     * @param other histogram to add
+     */
+    void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Get minimum of recorded values.
+     *
+     * @return minimum value, 0 if no value is recorded
+     */
+    long getMin() {
+        return min == Long.MAX_VALUE ? 0L : min;
+    }
+
+    /**
+     * Get maximum of recorded values.
+     *
+     * @return maximum value, 0 if no value is recorded
+     */
+    long getMax() {
+        return max == Long.MIN_VALUE ? 0L : max;
+    }
+
+    /**
+     * Get value at a given percentile.
+     *
+     * @param percentile percentile (0-100)
+     * @return highest value equivalent to the bucket of percentile, 0 if no value is recorded
+     */
+    long getValueAtPercentile(final double percentile) {
+        return getValueAtPercentile(buckets, percentile, getMax());
+    }
+
+    /**
+     * Get copy of bucket counters.
+     *
+     * @return number of recorded values by bucket
+     */
+    long[] getCounts() {
+        return buckets.clone();
+    }
+
+    /**
+     * Get value at a given percentile of copied bucket counters.
+     *
+     * @param counts     number of recorded values by bucket
+     * @param percentile percentile (0-100)
+     * @param max        maximum of recorded values
+     * @return highest value equivalent to the bucket of percentile, 0 if no value is recorded
+     */
+    static long getValueAtPercentile(final long[] counts, final double percentile, final long max) {
+        long total = 0L;
+        for (final long count : counts) {
+            total += count;
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long cumulative = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * Get number of values less than or equal to a given value in copied bucket counters. Values of the bucket
+     * containing the given value are included.
+     *
+     * @param counts number of recorded values by bucket
+     * @param value  upper bound
+     * @return number of values
+     */
+    static long getCountAtOrBelow(final long[] counts, final long value) {
+        final int index = Math.min(indexOf(Math.max(value, 0L)), counts.length - 1);
+        long total = 0L;
+        for (int i = 0; i <= index; i++) {
+            total += counts[i];
+        }
+        return total;
+    }
+
+    static int indexOf(final long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long highestEquivalentValue(final int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        final int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+        final long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
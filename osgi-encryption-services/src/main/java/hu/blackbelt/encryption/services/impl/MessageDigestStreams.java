@@ -0,0 +1,650 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.TreeDigest;
+import org.jasypt.commons.CommonUtils;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Incremental digest of streams, buffers and files compatible with Jasypt <code>StandardStringDigester</code>.
+ *
+ * <p>Digest is calculated from salt followed by the message, iterations are applied on the digest, result is plain salt
+ * followed by the digest encoded as base64 or hexadecimal text. Files are read (without memory mapping) through direct
+ * buffers of a bounded pool shared by instances, so native memory is not allocated per call and is not left to garbage
+ * collection; streams are read in chunks, so memory usage does not depend on size of data.</p>
+ *
+ * <p>In tree mode message is split into chunks of fixed size. Chunk digests (leaves) are calculated in parallel from a
+ * leaf marker byte, salt and chunk data, nodes are digests of a node marker byte and two children (a node without
+ * sibling is promoted to the next level). Leaves are salted but not iterated, iterations are applied on the root only,
+ * result is
+ * <code>$tree$c=&lt;chunk size&gt;$</code> followed by plain salt and root digest encoded as base64 or hexadecimal
+ * text.</p>
+ */
+class MessageDigestStreams {
+
+    /**
+     * Source of message bytes, chunks of tree digests are inputs too.
+     */
+    abstract static class Input {
+
+        /**
+         * Number of bytes processed.
+         */
+        long size;
+
+        /**
+         * Update message digest with all bytes of the message.
+         *
+         * @param md message digest
+         * @throws IOException if reading input failed
+         */
+        abstract void update(MessageDigest md) throws IOException;
+
+        /**
+         * Get number of bytes processed.
+         *
+         * @return number of bytes
+         */
+        long size() {
+            return size;
+        }
+    }
+
+    /**
+     * Source of a whole message that can be split into chunks of tree digests.
+     */
+    abstract static class SplittableInput extends Input {
+
+        /**
+         * Calculate digests of chunks, message has at least one (empty) chunk.
+         *
+         * @param chunkSize size of chunks
+         * @param hasher    function calculating digest of a chunk, it is thread-safe
+         * @param batch     executor of parallel chunk digests
+         * @return digests of chunks in order of chunks
+         * @throws IOException if reading input failed
+         */
+        abstract byte[][] digestChunks(int chunkSize, ChunkHasher hasher, ParallelBatch batch) throws IOException;
+    }
+
+    /**
+     * Function calculating digest of a chunk.
+     */
+    @FunctionalInterface
+    interface ChunkHasher {
+
+        /**
+         * Calculate digest of a chunk.
+         *
+         * @param chunk input of chunk data
+         * @return digest
+         * @throws IOException if reading input failed
+         */
+        byte[] digest(Input chunk) throws IOException;
+    }
+
+    static final int DEFAULT_ITERATIONS = 1000;
+    static final int DEFAULT_SALT_SIZE = 8;
+
+    /**
+     * Chunk size of tree digests if tree mode is not configured.
+     */
+    static final int DEFAULT_TREE_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Bounds of chunk size of tree digests, chunk size taken from a digest decides the number of leaves and the size of
+     * stream buffer.
+     */
+    static final int MIN_TREE_CHUNK_SIZE = 1024;
+    static final int MAX_TREE_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final String OUTPUT_TYPE_HEXADECIMAL = "hexadecimal";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final String TREE_PREFIX = "$tree$";
+    private static final String CHUNK_SIZE_PREFIX = "c=";
+    private static final String SEPARATOR = "$";
+    private static final byte LEAF_MARKER = 0;
+    private static final byte NODE_MARKER = 1;
+
+    /**
+     * Direct buffers of reading files, buffers over the limit are left to garbage collection.
+     */
+    private static final Queue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+
+    private final String algorithm;
+
+    private final String providerName;
+
+    private final int iterations;
+
+    private final int saltSize;
+
+    private final boolean base64;
+
+    private final int treeChunkSize;
+
+    private final ParallelBatch batch;
+
+    private final int digestLength;
+
+    private final Queue<MessageDigest> messageDigests = new ConcurrentLinkedQueue<>();
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Create digester of streams.
+     *
+     * @param algorithm     digest algorithm
+     * @param providerName  JCE provider name, default provider is used if <code>null</code>
+     * @param iterations    digest iterations, default is used if not positive
+     * @param saltSize      salt size in bytes, default is used if negative
+     * @param outputType    output type (base64/hexadecimal), base64 is used if <code>null</code>
+     * @param treeChunkSize chunk size of tree mode, tree mode is disabled if not positive
+     * @param batch         executor of parallel chunk digests
+     * @throws EncryptionInitializationException if tree chunk size is out of bounds
+     */
+    MessageDigestStreams(final String algorithm, final String providerName, final int iterations, final int saltSize, final String outputType,
+                         final int treeChunkSize, final ParallelBatch batch) {
+        this.algorithm = algorithm;
+        this.providerName = providerName;
+        this.iterations = iterations > 0 ? iterations : DEFAULT_ITERATIONS;
+        this.saltSize = saltSize >= 0 ? saltSize : DEFAULT_SALT_SIZE;
+        this.base64 = !OUTPUT_TYPE_HEXADECIMAL.equalsIgnoreCase(outputType);
+        if (treeChunkSize > 0 && !isValidTreeChunkSize(treeChunkSize)) {
+            throw new EncryptionInitializationException("Tree chunk size must be between " + MIN_TREE_CHUNK_SIZE + " and " + MAX_TREE_CHUNK_SIZE + ": " + treeChunkSize);
+        }
+        this.treeChunkSize = treeChunkSize;
+        this.batch = batch;
+
+        final MessageDigest md = borrowMessageDigest();
+        digestLength = md.getDigestLength();
+        returnMessageDigest(md);
+    }
+
+    private MessageDigest borrowMessageDigest() {
+        final MessageDigest md = messageDigests.poll();
+        if (md != null) {
+            return md;
+        }
+        try {
+            return providerName != null ? MessageDigest.getInstance(algorithm, providerName) : MessageDigest.getInstance(algorithm);
+        } catch (GeneralSecurityException ex) {
+            throw new EncryptionInitializationException(ex);
+        }
+    }
+
+    private void returnMessageDigest(final MessageDigest md) {
+        md.reset();
+        messageDigests.offer(md);
+    }
+
+    /**
+     * Check whether chunk size of tree digests is in bounds.
+     *
+     * @param chunkSize chunk size
+     * @return <code>true</code> if chunk size is valid
+     */
+    static boolean isValidTreeChunkSize(final int chunkSize) {
+        return chunkSize >= MIN_TREE_CHUNK_SIZE && chunkSize <= MAX_TREE_CHUNK_SIZE;
+    }
+
+    /**
+     * Input reading a stream until its end, chunks of tree mode are digested sequentially.
+     *
+     * @param in input stream
+     * @return input
+     */
+    static SplittableInput of(final InputStream in) {
+        return new SplittableInput() {
+            @Override
+            void update(final MessageDigest md) throws IOException {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    md.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+
+            @Override
+            byte[][] digestChunks(final int chunkSize, final ChunkHasher hasher, final ParallelBatch batch) throws IOException {
+                final byte[] buffer = new byte[chunkSize];
+                final List<byte[]> digests = new ArrayList<>();
+                int read;
+                do {
+                    read = in.readNBytes(buffer, 0, chunkSize);
+                    if (read > 0 || digests.isEmpty()) {
+                        digests.add(hasher.digest(of(ByteBuffer.wrap(buffer, 0, read))));
+                        size += read;
+                    }
+                } while (read == chunkSize);
+                return digests.toArray(new byte[0][]);
+            }
+        };
+    }
+
+    /**
+     * Input of remaining bytes of a buffer, position of buffer is not changed.
+     *
+     * @param data buffer
+     * @return input
+     */
+    static SplittableInput of(final ByteBuffer data) {
+        return new SplittableInput() {
+            @Override
+            void update(final MessageDigest md) {
+                size = data.remaining();
+                md.update(data.duplicate());
+            }
+
+            @Override
+            byte[][] digestChunks(final int chunkSize, final ChunkHasher hasher, final ParallelBatch batch) {
+                size = data.remaining();
+                final byte[][] digests = new byte[chunkCount(size, chunkSize)][];
+                batch.run(digests.length, i -> {
+                    final ByteBuffer chunk = data.duplicate();
+                    chunk.position(data.position() + i * chunkSize);
+                    chunk.limit((int) Math.min((long) chunk.position() + chunkSize, data.limit()));
+                    try {
+                        digests[i] = hasher.digest(of(chunk));
+                    } catch (IOException ex) {
+                        // not thrown by buffer input
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+                return digests;
+            }
+        };
+    }
+
+    /**
+     * Input reading a file through a direct buffer, chunks of tree mode are read and digested in parallel.
+     *
+     * @param file path of file
+     * @return input
+     */
+    static SplittableInput of(final Path file) {
+        return new SplittableInput() {
+            @Override
+            void update(final MessageDigest md) throws IOException {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    size = read(channel, 0L, channel.size(), md);
+                }
+            }
+
+            @Override
+            byte[][] digestChunks(final int chunkSize, final ChunkHasher hasher, final ParallelBatch batch) throws IOException {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    size = channel.size();
+                    final byte[][] digests = new byte[chunkCount(size, chunkSize)][];
+                    // positional reads of a channel can be executed concurrently
+                    batch.run(digests.length, i -> {
+                        try {
+                            digests[i] = hasher.digest(of(channel, (long) i * chunkSize, Math.min(chunkSize, size - (long) i * chunkSize)));
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+                    return digests;
+                } catch (UncheckedIOException ex) {
+                    throw ex.getCause();
+                }
+            }
+        };
+    }
+
+    /**
+     * Input of a region of a file channel, channel is not closed.
+     *
+     * @param channel  file channel
+     * @param position position of region
+     * @param length   length of region
+     * @return input
+     */
+    private static Input of(final FileChannel channel, final long position, final long length) {
+        return new Input() {
+            @Override
+            void update(final MessageDigest md) throws IOException {
+                size = read(channel, position, length, md);
+            }
+        };
+    }
+
+    /**
+     * Update message digest with a region of a file channel read through a pooled direct buffer.
+     *
+     * @return number of bytes read, less than length if file is truncated meanwhile
+     */
+    private static long read(final FileChannel channel, final long position, final long length, final MessageDigest md) throws IOException {
+        final ByteBuffer buffer = borrowBuffer();
+        try {
+            long total = 0L;
+            while (total < length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), length - total));
+                final int read = channel.read(buffer, position + total);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                md.update(buffer);
+                total += read;
+            }
+            return total;
+        } finally {
+            returnBuffer(buffer);
+        }
+    }
+
+    private static ByteBuffer borrowBuffer() {
+        final ByteBuffer buffer = BUFFERS.poll();
+        if (buffer != null) {
+            POOLED_BUFFERS.decrementAndGet();
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void returnBuffer(final ByteBuffer buffer) {
+        if (POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFERS.offer(buffer);
+        } else {
+            POOLED_BUFFERS.decrementAndGet();
+        }
+    }
+
+    /**
+     * Input of a single chunk of a file.
+     *
+     * @param file      path of file
+     * @param index     index of chunk
+     * @param chunkSize size of chunks
+     * @return input
+     */
+    static Input ofChunk(final Path file, final int index, final int chunkSize) {
+        return new Input() {
+            @Override
+            void update(final MessageDigest md) throws IOException {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    final long position = (long) index * chunkSize;
+                    if (index < 0 || position > channel.size() || position == channel.size() && index > 0) {
+                        throw new IllegalArgumentException("Chunk " + index + " is out of file");
+                    }
+                    size = read(channel, position, Math.min(chunkSize, channel.size() - position), md);
+                }
+            }
+        };
+    }
+
+    private static int chunkCount(final long size, final int chunkSize) {
+        final long count = Math.max(1L, (size + chunkSize - 1) / chunkSize);
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many chunks, chunk size must be increased");
+        }
+        return (int) count;
+    }
+
+    /**
+     * Create digest of an input with random salt, tree digest is created if tree mode is configured.
+     *
+     * @param input message
+     * @return encoded digest
+     * @throws IOException if reading input failed
+     */
+    String digest(final SplittableInput input) throws IOException {
+        final byte[] salt = generateSalt();
+        if (treeChunkSize > 0) {
+            return encodeTree(treeChunkSize, salt, root(digestChunks(input, salt, treeChunkSize)));
+        }
+
+        final MessageDigest md = borrowMessageDigest();
+        try {
+            md.update(salt);
+            input.update(md);
+            return encode(salt, iterate(md, md.digest()));
+        } finally {
+            returnMessageDigest(md);
+        }
+    }
+
+    /**
+     * Create tree digest of an input with random salt, including digests of chunks.
+     *
+     * @param input message
+     * @return tree digest
+     * @throws IOException if reading input failed
+     */
+    TreeDigest digestTree(final SplittableInput input) throws IOException {
+        final int chunkSize = treeChunkSize > 0 ? treeChunkSize : DEFAULT_TREE_CHUNK_SIZE;
+        final byte[] salt = generateSalt();
+        final byte[][] chunkDigests = digestChunks(input, salt, chunkSize);
+        final List<String> encodedChunkDigests = new ArrayList<>(chunkDigests.length);
+        for (final byte[] chunkDigest : chunkDigests) {
+            encodedChunkDigests.add(encode(chunkDigest));
+        }
+        return TreeDigest.builder()
+                .digest(encodeTree(chunkSize, salt, root(chunkDigests)))
+                .chunkSize(chunkSize)
+                .chunkDigests(encodedChunkDigests)
+                .build();
+    }
+
+    /**
+     * Check whether an input matches a digest, salt (and chunk size of tree digests) is taken from the digest. Tree
+     * digests with chunk size out of bounds are rejected.
+     *
+     * @param input  message
+     * @param digest encoded digest
+     * @return <code>true</code> if input matches the digest
+     * @throws IOException if reading input failed
+     */
+    boolean matches(final SplittableInput input, final String digest) throws IOException {
+        if (digest == null) {
+            return false;
+        }
+
+        if (digest.startsWith(TREE_PREFIX)) {
+            final int chunkSize = parseChunkSize(digest);
+            final byte[] expected = decodeDigest(digest.substring(digest.indexOf(SEPARATOR, TREE_PREFIX.length()) + 1));
+            final byte[] salt = extractSalt(expected);
+            return MessageDigest.isEqual(expected, concat(salt, root(digestChunks(input, salt, chunkSize))));
+        }
+
+        final byte[] expected = decodeDigest(digest);
+        final byte[] salt = extractSalt(expected);
+        final MessageDigest md = borrowMessageDigest();
+        try {
+            md.update(salt);
+            input.update(md);
+            return MessageDigest.isEqual(expected, concat(salt, iterate(md, md.digest())));
+        } finally {
+            returnMessageDigest(md);
+        }
+    }
+
+    /**
+     * Check whether a chunk matches its digest in a tree digest. Digests of chunks are checked against the root digest
+     * too, so modified chunk digests are not accepted.
+     *
+     * @param chunk chunk data
+     * @param index index of chunk
+     * @param tree  tree digest
+     * @return <code>true</code> if chunk matches its digest and chunk digests match the root digest
+     * @throws IOException if reading input failed
+     */
+    boolean matchesChunk(final Input chunk, final int index, final TreeDigest tree) throws IOException {
+        if (tree.getDigest() == null || !tree.getDigest().startsWith(TREE_PREFIX) || parseChunkSize(tree.getDigest()) != tree.getChunkSize()) {
+            throw new EncryptionOperationNotPossibleException();
+        }
+        if (index < 0 || index >= tree.getChunkDigests().size()) {
+            throw new IllegalArgumentException("Invalid chunk index: " + index);
+        }
+
+        final String digest = tree.getDigest();
+        final byte[] expected = decodeDigest(digest.substring(digest.indexOf(SEPARATOR, TREE_PREFIX.length()) + 1));
+        final byte[] salt = extractSalt(expected);
+        final byte[][] chunkDigests = new byte[tree.getChunkDigests().size()][];
+        for (int i = 0; i < chunkDigests.length; i++) {
+            chunkDigests[i] = decode(tree.getChunkDigests().get(i));
+        }
+
+        final boolean chunkMatches = MessageDigest.isEqual(chunkDigests[index], leaf(salt, chunk));
+        final boolean treeMatches = MessageDigest.isEqual(expected, concat(salt, root(chunkDigests)));
+        return chunkMatches & treeMatches;
+    }
+
+    private byte[][] digestChunks(final SplittableInput input, final byte[] salt, final int chunkSize) throws IOException {
+        return input.digestChunks(chunkSize, chunk -> leaf(salt, chunk), batch);
+    }
+
+    /**
+     * Calculate digest of a chunk (leaf of tree), leaves are salted but not iterated.
+     */
+    private byte[] leaf(final byte[] salt, final Input chunk) throws IOException {
+        final MessageDigest md = borrowMessageDigest();
+        try {
+            md.update(LEAF_MARKER);
+            md.update(salt);
+            chunk.update(md);
+            return md.digest();
+        } finally {
+            returnMessageDigest(md);
+        }
+    }
+
+    private byte[] root(final byte[][] chunkDigests) {
+        final MessageDigest md = borrowMessageDigest();
+        try {
+            byte[][] level = chunkDigests;
+            while (level.length > 1) {
+                final byte[][] next = new byte[(level.length + 1) / 2][];
+                for (int i = 0; i < next.length; i++) {
+                    if (2 * i + 1 < level.length) {
+                        md.update(NODE_MARKER);
+                        md.update(level[2 * i]);
+                        md.update(level[2 * i + 1]);
+                        next[i] = md.digest();
+                    } else {
+                        next[i] = level[2 * i];
+                    }
+                }
+                level = next;
+            }
+            return iterate(md, level[0]);
+        } finally {
+            returnMessageDigest(md);
+        }
+    }
+
+    private byte[] iterate(final MessageDigest md, final byte[] digest) {
+        byte[] result = digest;
+        for (int i = 0; i < iterations - 1; i++) {
+            result = md.digest(result);
+        }
+        return result;
+    }
+
+    private byte[] generateSalt() {
+        final byte[] salt = new byte[saltSize];
+        random.nextBytes(salt);
+        return salt;
+    }
+
+    private byte[] extractSalt(final byte[] digest) {
+        if (digest.length != saltSize + digestLength) {
+            throw new EncryptionOperationNotPossibleException();
+        }
+        final byte[] salt = new byte[saltSize];
+        System.arraycopy(digest, 0, salt, 0, saltSize);
+        return salt;
+    }
+
+    private static int parseChunkSize(final String digest) {
+        final int end = digest.indexOf(SEPARATOR, TREE_PREFIX.length());
+        if (end < 0 || !digest.startsWith(CHUNK_SIZE_PREFIX, TREE_PREFIX.length())) {
+            throw new EncryptionOperationNotPossibleException();
+        }
+        try {
+            final int chunkSize = Integer.parseInt(digest.substring(TREE_PREFIX.length() + CHUNK_SIZE_PREFIX.length(), end));
+            if (!isValidTreeChunkSize(chunkSize)) {
+                throw new EncryptionOperationNotPossibleException();
+            }
+            return chunkSize;
+        } catch (NumberFormatException ex) {
+            throw new EncryptionOperationNotPossibleException();
+        }
+    }
+
+    private String encodeTree(final int chunkSize, final byte[] salt, final byte[] root) {
+        return TREE_PREFIX + CHUNK_SIZE_PREFIX + chunkSize + SEPARATOR + encode(salt, root);
+    }
+
+    private String encode(final byte[] salt, final byte[] digest) {
+        return encode(concat(salt, digest));
+    }
+
+    private String encode(final byte[] data) {
+        return base64 ? new String(Base64.getEncoder().encode(data), StandardCharsets.US_ASCII) : CommonUtils.toHexadecimal(data);
+    }
+
+    private byte[] decodeDigest(final String digest) {
+        try {
+            return decode(digest);
+        } catch (IllegalArgumentException ex) {
+            throw new EncryptionOperationNotPossibleException();
+        }
+    }
+
+    private byte[] decode(final String data) {
+        // MIME decoder ignores characters outside of base64 alphabet like Jasypt does
+        return base64 ? Base64.getMimeDecoder().decode(data.getBytes(StandardCharsets.US_ASCII)) : CommonUtils.fromHexadecimal(data);
+    }
+
+    private static byte[] concat(final byte[] salt, final byte[] digest) {
+        final byte[] result = new byte[salt.length + digest.length];
+        System.arraycopy(salt, 0, result, 0, salt.length);
+        System.arraycopy(digest, 0, result, salt.length, digest.length);
+        return result;
+    }
+}
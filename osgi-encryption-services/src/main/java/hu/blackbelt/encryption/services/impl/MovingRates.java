@@ -0,0 +1,108 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponentially weighted moving average rates (per second) of a monotonic counter. Rates are updated by
+ * {@link RateTicker} in fixed intervals, so they do not depend on how often statistics are read and recording requests
+ * does not touch this class.
+ */
+class MovingRates {
+
+    private static final double ONE_MINUTE = TimeUnit.MINUTES.toSeconds(1);
+    private static final double FIVE_MINUTES = TimeUnit.MINUTES.toSeconds(5);
+    private static final double FIFTEEN_MINUTES = TimeUnit.MINUTES.toSeconds(15);
+
+    private long lastTick;
+
+    private long lastCount;
+
+    private boolean initialized;
+
+    private double rate;
+
+    private double oneMinuteRate;
+
+    private double fiveMinuteRate;
+
+    private double fifteenMinuteRate;
+
+    MovingRates() {
+        lastTick = System.nanoTime();
+    }
+
+    /**
+     * Update rates with the current value of counter (on tick). Counts of the elapsed period are considered uniformly
+     * distributed.
+     *
+     * @param count current value of counter
+     * @param now   current time ({@link System#nanoTime()})
+     */
+    synchronized void update(final long count, final long now) {
+        final long elapsed = now - lastTick;
+        if (elapsed <= 0) {
+            return;
+        }
+
+        final double seconds = (double) elapsed / TimeUnit.SECONDS.toNanos(1);
+        rate = Math.max(0L, count - lastCount) / seconds;
+        if (initialized) {
+            oneMinuteRate = decay(oneMinuteRate, rate, seconds, ONE_MINUTE);
+            fiveMinuteRate = decay(fiveMinuteRate, rate, seconds, FIVE_MINUTES);
+            fifteenMinuteRate = decay(fifteenMinuteRate, rate, seconds, FIFTEEN_MINUTES);
+        } else {
+            oneMinuteRate = rate;
+            fiveMinuteRate = rate;
+            fifteenMinuteRate = rate;
+            initialized = true;
+        }
+        lastTick = now;
+        lastCount = count;
+    }
+
+    private static double decay(final double average, final double rate, final double seconds, final double window) {
+        return rate + (average - rate) * Math.exp(-seconds / window);
+    }
+
+    /**
+     * Get rate of the last tick interval.
+     *
+     * @return events per second
+     */
+    synchronized double getRate() {
+        return rate;
+    }
+
+    synchronized double getOneMinuteRate() {
+        return oneMinuteRate;
+    }
+
+    synchronized double getFiveMinuteRate() {
+        return fiveMinuteRate;
+    }
+
+    synchronized double getFifteenMinuteRate() {
+        return fifteenMinuteRate;
+    }
+}
@@ -0,0 +1,62 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of an encryption, decryption, digest or digest validation operation.
+ */
+@Name("hu.blackbelt.encryption.Operation")
+@Label("Encryption Operation")
+@Category({"OSGi encryption"})
+@Description("Encryption, decryption, digest or digest validation operation")
+class OperationEvent extends Event {
+
+    @Label("Alias")
+    String alias;
+
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Input Length")
+    @Description("Number of bytes of input, String messages are counted in UTF-8")
+    @DataAmount(DataAmount.BYTES)
+    long inputLength;
+
+    @Label("Output Length")
+    @Description("Number of bytes of output, String results are counted in UTF-8")
+    @DataAmount(DataAmount.BYTES)
+    long outputLength;
+
+    @Label("Outcome")
+    @Description("SUCCESS, MISMATCH (digest does not match) or category of error")
+    String outcome;
+}
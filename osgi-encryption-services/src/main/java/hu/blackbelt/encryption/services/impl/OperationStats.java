@@ -20,38 +20,576 @@ package hu.blackbelt.encryption.services.impl;
  * #L%
  */
 
+import hu.blackbelt.encryption.services.internal.LruCache;
+import hu.blackbelt.encryption.services.metrics.OperationPhase;
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+import hu.blackbelt.encryption.services.metrics.PhaseStatsSnapshot;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 public class OperationStats implements hu.blackbelt.encryption.services.metrics.OperationStats {
 
-    private AtomicLong totalProcessingTime = new AtomicLong();
+    /**
+     * Upper bounds of latency buckets published in snapshots (nanoseconds).
+     */
+    private static final long[] LATENCY_BUCKET_BOUNDS = {
+            1_000L, 2_500L, 5_000L, 10_000L, 25_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L
+    };
+
+    /**
+     * Request counter, processing time and latency histogram, recorded together so they are consistent in snapshots.
+     * Cells are striped so concurrent requests do not contend on a single lock.
+     */
+    private final StripedCells<LatencyCell> latencies = new StripedCells<>(LatencyCell::new);
+
+    /**
+     * Byte counters and size histograms of successful requests, recorded together so they are consistent in snapshots.
+     */
+    private final StripedCells<SizeCell> sizes = new StripedCells<>(SizeCell::new);
+
+    private final LongAdder errorCounter = new LongAdder();
+
+    private final MovingRates requestRates = new MovingRates();
+
+    private final MovingRates errorRates = new MovingRates();
+
+    private final MovingRates inputByteRates = new MovingRates();
+
+    private final MovingRates outputByteRates = new MovingRates();
+
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+
+    private final AtomicInteger activeRequests = new AtomicInteger();
+
+    private final ErrorTable errorTable = new ErrorTable();
+
+    /**
+     * Statistics of operation phases, created on first use because only some services measure phases.
+     */
+    private final AtomicReferenceArray<StripedCells<LatencyCell>> phases = new AtomicReferenceArray<>(OperationPhase.values().length);
+
+    /**
+     * Verification cache of service, counters of replaced caches are kept in retired counters.
+     */
+    private LruCache<?, ?> cache;
+
+    private long retiredCacheHits;
+    private long retiredCacheMisses;
+    private long retiredCacheEvictions;
+
+    public OperationStats() {
+        this(true);
+    }
+
+    /**
+     * Create operation statistics.
+     *
+     * @param ticked register to {@link RateTicker}, moving rates are updated by {@link #tick(long)} calls of owner if
+     *               <code>false</code>
+     */
+    OperationStats(final boolean ticked) {
+        if (ticked) {
+            // moving rates are ticked in fixed intervals, independently of readers
+            RateTicker.register(this);
+        }
+    }
+
+    /**
+     * Number, total processing time and latency histogram of requests (or phases). Cell is guarded by its monitor.
+     */
+    private static final class LatencyCell {
+
+        private long count;
+
+        private long totalTime;
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private void record(final long processingTime, final int requests) {
+            count += requests;
+            totalTime += processingTime;
+            if (requests > 0) {
+                histogram.record(processingTime / requests, requests);
+            }
+        }
+
+        private void addTo(final LatencyCell total) {
+            total.count += count;
+            total.totalTime += totalTime;
+            total.histogram.add(histogram);
+        }
+    }
+
+    /**
+     * Byte counters and size histograms of requests. Cell is guarded by its monitor.
+     */
+    private static final class SizeCell {
+
+        private long count;
 
-    private AtomicInteger requestCounter = new AtomicInteger();
+        private long inputBytes;
 
-    private AtomicInteger errorCounter = new AtomicInteger();
+        private long outputBytes;
+
+        private final SizeHistogram inputSizes = new SizeHistogram();
+
+        private final SizeHistogram outputSizes = new SizeHistogram();
+
+        private void record(final long inputSize, final long outputSize) {
+            count++;
+            inputBytes += inputSize;
+            outputBytes += outputSize;
+            inputSizes.record(inputSize);
+            outputSizes.record(outputSize);
+        }
+
+        private void addTo(final SizeCell total) {
+            total.count += count;
+            total.inputBytes += inputBytes;
+            total.outputBytes += outputBytes;
+            total.inputSizes.add(inputSizes);
+            total.outputSizes.add(outputSizes);
+        }
+    }
+
+    private static LatencyCell sumLatencies(final StripedCells<LatencyCell> cells) {
+        final LatencyCell total = new LatencyCell();
+        cells.forEach(cell -> cell.addTo(total));
+        return total;
+    }
+
+    private static SizeCell sumSizes(final StripedCells<SizeCell> cells) {
+        final SizeCell total = new SizeCell();
+        cells.forEach(cell -> cell.addTo(total));
+        return total;
+    }
+
+    private static PhaseStatsSnapshot snapshot(final StripedCells<LatencyCell> phaseCells) {
+        final LatencyCell phase = sumLatencies(phaseCells);
+        final long[] latencyCounts = phase.histogram.getCounts();
+        final long latencyMax = phase.histogram.getMax();
+        return PhaseStatsSnapshot.builder()
+                .count(phase.count)
+                .totalTime(phase.totalTime)
+                .latencyMean(phase.count > 0 ? (double) phase.totalTime / phase.count : 0.0)
+                .latencyP50(LatencyHistogram.getValueAtPercentile(latencyCounts, 50.0, latencyMax))
+                .latencyP90(LatencyHistogram.getValueAtPercentile(latencyCounts, 90.0, latencyMax))
+                .latencyP99(LatencyHistogram.getValueAtPercentile(latencyCounts, 99.0, latencyMax))
+                .latencyMax(latencyMax)
+                .build();
+    }
+
+    /**
+     * Update moving rates with the current value of counters, called by {@link RateTicker} in fixed intervals.
+     *
+     * @param now current time ({@link System#nanoTime()})
+     */
+    void tick(final long now) {
+        final SizeCell size = sumSizes(sizes);
+        requestRates.update(sumLatencies(latencies).count, now);
+        errorRates.update(errorCounter.sum(), now);
+        inputByteRates.update(size.inputBytes, now);
+        outputByteRates.update(size.outputBytes, now);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Request counter, processing time and latency histogram are summed from the same cells, so mean, percentiles and
+     * buckets of latency are computed from the same requests as the request counter. Byte counters and size histograms
+     * are summed the same way. The two groups are read one after the other, error, rate, phase and cache statistics are
+     * read separately.
+     */
+    @Override
+    public OperationStatsSnapshot snapshot() {
+        final long[] cacheCounters = getCacheCounters();
+        final LatencyCell latency = sumLatencies(latencies);
+        final SizeCell size = sumSizes(sizes);
+        final long errors = errorCounter.sum();
+
+        final long[] inputSizeCounts = size.inputSizes.getCounts();
+        final long inputSizeMax = size.inputSizes.getMax();
+        final long[] outputSizeCounts = size.outputSizes.getCounts();
+        final long outputSizeMax = size.outputSizes.getMax();
+
+        final long[] latencyCounts = latency.histogram.getCounts();
+        final long latencyMax = latency.histogram.getMax();
+        final SortedMap<Long, Long> latencyBuckets = new TreeMap<>();
+        for (final long bound : LATENCY_BUCKET_BOUNDS) {
+            latencyBuckets.put(bound, LatencyHistogram.getCountAtOrBelow(latencyCounts, bound));
+        }
+        latencyBuckets.put(OperationStatsSnapshot.INFINITE_BOUND, latency.count);
+        return OperationStatsSnapshot.builder()
+                .totalProcessingTime(TimeUnit.NANOSECONDS.toMillis(latency.totalTime))
+                .requestCounter(latency.count)
+                .errorCounter(errors)
+                .queuedRequests(queuedRequests.get())
+                .activeRequests(activeRequests.get())
+                .latencyMin(latency.histogram.getMin())
+                .latencyMax(latencyMax)
+                .latencyMean(latency.count > 0 ? (double) latency.totalTime / latency.count : 0.0)
+                .latencyP50(LatencyHistogram.getValueAtPercentile(latencyCounts, 50.0, latencyMax))
+                .latencyP90(LatencyHistogram.getValueAtPercentile(latencyCounts, 90.0, latencyMax))
+                .latencyP99(LatencyHistogram.getValueAtPercentile(latencyCounts, 99.0, latencyMax))
+                .latencyP999(LatencyHistogram.getValueAtPercentile(latencyCounts, 99.9, latencyMax))
+                .latencySum(latency.totalTime)
+                .latencyBuckets(Collections.unmodifiableSortedMap(latencyBuckets))
+                .requestRate(requestRates.getRate())
+                .requestRate1m(requestRates.getOneMinuteRate())
+                .requestRate5m(requestRates.getFiveMinuteRate())
+                .requestRate15m(requestRates.getFifteenMinuteRate())
+                .errorRate(errorRates.getRate())
+                .errorRate1m(errorRates.getOneMinuteRate())
+                .errorRate5m(errorRates.getFiveMinuteRate())
+                .errorRate15m(errorRates.getFifteenMinuteRate())
+                .inputBytes(size.inputBytes)
+                .outputBytes(size.outputBytes)
+                .sizeCounter(size.count)
+                .inputSizeP50(SizeHistogram.getValueAtPercentile(inputSizeCounts, 50.0, inputSizeMax))
+                .inputSizeP90(SizeHistogram.getValueAtPercentile(inputSizeCounts, 90.0, inputSizeMax))
+                .inputSizeP99(SizeHistogram.getValueAtPercentile(inputSizeCounts, 99.0, inputSizeMax))
+                .inputSizeMax(inputSizeMax)
+                .inputSizeBuckets(SizeHistogram.getBuckets(inputSizeCounts, inputSizeMax))
+                .outputSizeP50(SizeHistogram.getValueAtPercentile(outputSizeCounts, 50.0, outputSizeMax))
+                .outputSizeP90(SizeHistogram.getValueAtPercentile(outputSizeCounts, 90.0, outputSizeMax))
+                .outputSizeP99(SizeHistogram.getValueAtPercentile(outputSizeCounts, 99.0, outputSizeMax))
+                .outputSizeMax(outputSizeMax)
+                .outputSizeBuckets(SizeHistogram.getBuckets(outputSizeCounts, outputSizeMax))
+                .inputByteRate(inputByteRates.getRate())
+                .inputByteRate1m(inputByteRates.getOneMinuteRate())
+                .inputByteRate5m(inputByteRates.getFiveMinuteRate())
+                .inputByteRate15m(inputByteRates.getFifteenMinuteRate())
+                .outputByteRate(outputByteRates.getRate())
+                .outputByteRate1m(outputByteRates.getOneMinuteRate())
+                .outputByteRate5m(outputByteRates.getFiveMinuteRate())
+                .outputByteRate15m(outputByteRates.getFifteenMinuteRate())
+                .errorsByClass(errorTable.getErrorsByClass())
+                .errorsByCategory(errorTable.getErrorsByCategory())
+                .lastErrorTimestamps(errorTable.getLastErrorTimestamps())
+                .phases(getPhaseSnapshots())
+                .cacheHits(cacheCounters[0])
+                .cacheMisses(cacheCounters[1])
+                .cacheEvictions(cacheCounters[2])
+                .build();
+    }
+
+    private Map<OperationPhase, PhaseStatsSnapshot> getPhaseSnapshots() {
+        final Map<OperationPhase, PhaseStatsSnapshot> phaseSnapshots = new EnumMap<>(OperationPhase.class);
+        for (final OperationPhase phase : OperationPhase.values()) {
+            final StripedCells<LatencyCell> phaseCells = phases.get(phase.ordinal());
+            if (phaseCells != null) {
+                phaseSnapshots.put(phase, snapshot(phaseCells));
+            }
+        }
+        return Collections.unmodifiableMap(phaseSnapshots);
+    }
+
+    @Override
+    public long getCacheHits() {
+        return getCacheCounters()[0];
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return getCacheCounters()[1];
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return getCacheCounters()[2];
+    }
+
+    /**
+     * Get cache hits, misses and evictions read under a single lock so cache replacement is not seen halfway.
+     *
+     * @return hits, misses and evictions including counters of replaced caches
+     */
+    private synchronized long[] getCacheCounters() {
+        if (cache == null) {
+            return new long[]{retiredCacheHits, retiredCacheMisses, retiredCacheEvictions};
+        }
+        return new long[]{
+                retiredCacheHits + cache.getHits(),
+                retiredCacheMisses + cache.getMisses(),
+                retiredCacheEvictions + cache.getEvictions()
+        };
+    }
 
     @Override
     public long getTotalProcessingTime() {
-        return totalProcessingTime.longValue();
+        return TimeUnit.NANOSECONDS.toMillis(sumLatencies(latencies).totalTime);
+    }
+
+    @Override
+    public long getRequestCounter() {
+        return sumLatencies(latencies).count;
+    }
+
+    @Override
+    public long getErrorCounter() {
+        return errorCounter.sum();
+    }
+
+    @Override
+    public double getRequestRate() {
+        return requestRates.getRate();
+    }
+
+    @Override
+    public double getRequestRate1m() {
+        return requestRates.getOneMinuteRate();
+    }
+
+    @Override
+    public double getRequestRate5m() {
+        return requestRates.getFiveMinuteRate();
+    }
+
+    @Override
+    public double getRequestRate15m() {
+        return requestRates.getFifteenMinuteRate();
+    }
+
+    @Override
+    public double getErrorRate() {
+        return errorRates.getRate();
+    }
+
+    @Override
+    public double getErrorRate1m() {
+        return errorRates.getOneMinuteRate();
+    }
+
+    @Override
+    public double getErrorRate5m() {
+        return errorRates.getFiveMinuteRate();
+    }
+
+    @Override
+    public double getErrorRate15m() {
+        return errorRates.getFifteenMinuteRate();
+    }
+
+    @Override
+    public long getInputBytes() {
+        return sumSizes(sizes).inputBytes;
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return sumSizes(sizes).outputBytes;
+    }
+
+    @Override
+    public double getInputByteRate() {
+        return inputByteRates.getRate();
+    }
+
+    @Override
+    public double getInputByteRate1m() {
+        return inputByteRates.getOneMinuteRate();
+    }
+
+    @Override
+    public double getInputByteRate5m() {
+        return inputByteRates.getFiveMinuteRate();
     }
 
     @Override
-    public int getRequestCounter() {
-        return requestCounter.get();
+    public double getInputByteRate15m() {
+        return inputByteRates.getFifteenMinuteRate();
     }
 
     @Override
-    public int getErrorCounter() {
-        return errorCounter.get();
+    public double getOutputByteRate() {
+        return outputByteRates.getRate();
     }
 
+    @Override
+    public double getOutputByteRate1m() {
+        return outputByteRates.getOneMinuteRate();
+    }
+
+    @Override
+    public double getOutputByteRate5m() {
+        return outputByteRates.getFiveMinuteRate();
+    }
+
+    @Override
+    public double getOutputByteRate15m() {
+        return outputByteRates.getFifteenMinuteRate();
+    }
+
+    /**
+     * Set verification cache of service, counters of the previous cache are kept.
+     *
+     * @param cache cache, <code>null</code> if cache is disabled
+     */
+    synchronized void setCache(final LruCache<?, ?> cache) {
+        if (this.cache != null) {
+            retiredCacheHits += this.cache.getHits();
+            retiredCacheMisses += this.cache.getMisses();
+            retiredCacheEvictions += this.cache.getEvictions();
+        }
+        this.cache = cache;
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return queuedRequests.get();
+    }
+
+    @Override
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    /**
+     * Record processing time of a request.
+     *
+     * @param processingTime processing time in nanoseconds
+     */
     void setProcessingTime(long processingTime) {
-        requestCounter.incrementAndGet();
-        this.totalProcessingTime.addAndGet(processingTime);
+        setProcessingTime(processingTime, 1);
+    }
+
+    /**
+     * Record processing time of a batch, latency of requests is the average of batch.
+     *
+     * @param processingTime processing time of batch in nanoseconds
+     * @param requests       number of requests in batch
+     */
+    void setProcessingTime(long processingTime, int requests) {
+        final LatencyCell cell = latencies.cell();
+        synchronized (cell) {
+            cell.record(processingTime, requests);
+        }
+    }
+
+    /**
+     * Record payload sizes of a successful request.
+     *
+     * @param inputSize  size of input in bytes
+     * @param outputSize size of output in bytes
+     */
+    void recordSizes(final long inputSize, final long outputSize) {
+        final SizeCell cell = sizes.cell();
+        synchronized (cell) {
+            cell.record(inputSize, outputSize);
+        }
+    }
+
+    /**
+     * Record payload sizes of a successful request with String input and output, sizes are counted in UTF-8.
+     *
+     * @param input  input
+     * @param output output
+     */
+    void recordSizes(final String input, final String output) {
+        recordSizes(byteLength(input), byteLength(output));
+    }
+
+    /**
+     * Record payload sizes of a successful request with binary input and output.
+     *
+     * @param input  input
+     * @param output output
+     */
+    void recordSizes(final byte[] input, final byte[] output) {
+        recordSizes(input != null ? input.length : 0L, output != null ? output.length : 0L);
+    }
+
+    /**
+     * Record payload size of a successful request without output (ie. digest validation), size is counted in UTF-8.
+     *
+     * @param input input
+     */
+    void recordInputSize(final String input) {
+        recordSizes(byteLength(input), 0L);
+    }
+
+    /**
+     * Get number of bytes of UTF-8 representation of a String without encoding it.
+     *
+     * @param value String value
+     * @return number of bytes, 0 if value is <code>null</code>
+     */
+    static long byteLength(final String value) {
+        if (value == null) {
+            return 0L;
+        }
+        long length = 0L;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate is replaced by '?' when encoded
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Record time spent in a phase of a request.
+     *
+     * @param phase          operation phase
+     * @param processingTime processing time of phase in nanoseconds
+     */
+    void recordPhase(final OperationPhase phase, final long processingTime) {
+        StripedCells<LatencyCell> phaseCells = phases.get(phase.ordinal());
+        if (phaseCells == null) {
+            phases.compareAndSet(phase.ordinal(), null, new StripedCells<>(LatencyCell::new));
+            phaseCells = phases.get(phase.ordinal());
+        }
+        final LatencyCell cell = phaseCells.cell();
+        synchronized (cell) {
+            cell.record(processingTime, 1);
+        }
+    }
+
+    /**
+     * Record a failed request.
+     *
+     * @param ex exception of failure
+     */
+    void incrementErrors(final Throwable ex) {
+        errorCounter.increment();
+        errorTable.record(ex);
+    }
+
+    void asyncTaskQueued() {
+        queuedRequests.incrementAndGet();
+    }
+
+    void asyncTaskRejected() {
+        queuedRequests.decrementAndGet();
+    }
+
+    void asyncTaskStarted() {
+        queuedRequests.decrementAndGet();
+        activeRequests.incrementAndGet();
     }
 
-    void incrementErrors() {
-        errorCounter.incrementAndGet();
+    void asyncTaskFinished() {
+        activeRequests.decrementAndGet();
     }
 }
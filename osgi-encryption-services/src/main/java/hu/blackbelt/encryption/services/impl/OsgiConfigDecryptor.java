@@ -27,31 +27,98 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
 import java.text.MessageFormat;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-@Component(immediate = true, service = ConfigDecryptor.class)
+@Component(immediate = true, service = ConfigDecryptor.class, reference = {
+        @Reference(name = "encryptor", service = Encryptor.class, policy = ReferencePolicy.DYNAMIC, cardinality = ReferenceCardinality.MULTIPLE, policyOption = ReferencePolicyOption.GREEDY, bind = "bindEncryptor", updated = "updateEncryptor", unbind = "unbindEncryptor")
+})
+@Designate(ocd = OsgiConfigDecryptor.Config.class)
 @Slf4j
 public class OsgiConfigDecryptor extends BaseConfigDecryptor {
 
+    @SuppressWarnings("checkstyle:JavadocMethod")
+    @ObjectClassDefinition(name = "Configuration decryptor")
+    public @interface Config {
+
+        @AttributeDefinition(required = false, name = "Enable cache", description = "Cache decrypted configuration values until encryptor is changed", type = AttributeType.BOOLEAN)
+        boolean cache_enabled() default DEFAULT_CACHE_ENABLED;
+
+        @AttributeDefinition(required = false, name = "Cache size", description = "Maximum number of cached values", type = AttributeType.INTEGER)
+        int cache_maxSize() default DEFAULT_CACHE_MAX_SIZE;
+
+        @AttributeDefinition(required = false, name = "Cache TTL (sec)", description = "Time to live of cached values, values are not expired if not positive", type = AttributeType.LONG)
+        long cache_ttl() default DEFAULT_CACHE_TTL;
+    }
+
+    public static final boolean DEFAULT_CACHE_ENABLED = false;
+    public static final int DEFAULT_CACHE_MAX_SIZE = 1000;
+    public static final long DEFAULT_CACHE_TTL = 300L;
+
+    private static final String ALIAS_PROPERTY = "encryptor.alias";
+
     private BundleContext context;
 
-    private static final MessageFormat FILTER = new MessageFormat("(encryptor.alias={0})");
+    private static final String FILTER_ALIAS = "(" + ALIAS_PROPERTY + "={0})";
+    private static final String FILTER_FORMAT_V2 = "(" + AesGcmEncryptor.FORMAT_PROPERTY + "=" + AesGcmEncryptor.FORMAT + ")";
+    private static final String FILTER_FORMAT_V1 = "(!" + FILTER_FORMAT_V2 + ")";
 
     @Activate
-    void start(final BundleContext context) {
+    void start(final BundleContext context, final Config config) {
         this.context = context;
+        refreshConfig(config);
+    }
+
+    @Modified
+    void update(final Config config) {
+        refreshConfig(config);
     }
 
     @Deactivate
     void stop() {
+        disableCache();
         context = null;
     }
 
+    private void refreshConfig(final Config config) {
+        if (config.cache_enabled()) {
+            enableCache(config.cache_maxSize(), config.cache_ttl(), TimeUnit.SECONDS);
+        } else {
+            disableCache();
+        }
+    }
+
+    void bindEncryptor(final Encryptor encryptor, final Map<String, Object> props) {
+        invalidateCache((String) props.get(ALIAS_PROPERTY));
+    }
+
+    void updateEncryptor(final Encryptor encryptor, final Map<String, Object> props) {
+        if (log.isDebugEnabled()) {
+            log.debug("Encryptor updated, invalidating cached values of alias: " + props.get(ALIAS_PROPERTY));
+        }
+        invalidateCache((String) props.get(ALIAS_PROPERTY));
+    }
+
+    void unbindEncryptor(final Encryptor encryptor, final Map<String, Object> props) {
+        invalidateCache((String) props.get(ALIAS_PROPERTY));
+    }
+
     protected Encryptor getEncryptor(final String alias) {
+        return getEncryptor(alias, FN_NAME);
+    }
+
+    @Override
+    protected Encryptor getEncryptor(final String alias, final String format) {
         try {
-            final String filter = alias != null ? FILTER.format(new Object[] {alias}) : null;
+            final String formatFilter = FN_NAME_V2.equals(format) ? FILTER_FORMAT_V2 : FILTER_FORMAT_V1;
+            final String filter = alias != null ? "(&" + MessageFormat.format(FILTER_ALIAS, alias) + formatFilter + ")" : formatFilter;
             final Collection<ServiceReference<Encryptor>> srs = context.getServiceReferences(Encryptor.class, filter);
             if (srs.isEmpty()) {
                 throw new IllegalStateException("Encryptor with alias '" + alias + "' not found");
@@ -0,0 +1,167 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Executor of batch operations, items are split across a fork-join pool and processed in parallel.
+ */
+class ParallelBatch {
+
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+    private final boolean dedicated;
+    private final int parallelism;
+
+    /**
+     * Executor replacing this one after reconfiguration, batches rejected by the retired pool are forwarded to it.
+     */
+    private volatile ParallelBatch successor;
+
+    /**
+     * Create batch executor.
+     *
+     * @param parallelism parallelism of a dedicated pool, common pool is used if not positive
+     */
+    ParallelBatch(final int parallelism) {
+        dedicated = parallelism > 0;
+        this.parallelism = dedicated ? parallelism : 0;
+        pool = dedicated ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Get batch executor of a configuration. The current executor is kept if its parallelism is not changed,
+     * otherwise a new one is created and the current one is retired: running batches are completed and batches
+     * submitted to it later are forwarded to the new executor.
+     *
+     * @param current     current executor, <code>null</code> on activation
+     * @param parallelism parallelism of a dedicated pool, common pool is used if not positive
+     * @return batch executor
+     */
+    static ParallelBatch reconfigure(final ParallelBatch current, final int parallelism) {
+        if (current != null && current.parallelism == Math.max(0, parallelism)) {
+            return current;
+        }
+        final ParallelBatch next = new ParallelBatch(parallelism);
+        if (current != null) {
+            current.successor = next;
+            current.shutdown();
+        }
+        return next;
+    }
+
+    /**
+     * Process all items of a batch, returns when all items are processed.
+     *
+     * @param size   number of items
+     * @param action action processing item of a given index
+     */
+    void run(final int size, final IntConsumer action) {
+        execute(size, i -> {
+            action.accept(i);
+            return false;
+        }, new AtomicBoolean());
+    }
+
+    /**
+     * Process items of a batch until an item matches. Items not started yet are skipped after the first match (each
+     * subtask checks it before every item), returns when no item is processed anymore.
+     *
+     * @param size      number of items
+     * @param predicate predicate checking item of a given index
+     * @return <code>true</code> if any item matched
+     */
+    boolean anyMatch(final int size, final IntPredicate predicate) {
+        final AtomicBoolean matched = new AtomicBoolean();
+        execute(size, predicate, matched);
+        return matched.get();
+    }
+
+    private void execute(final int size, final IntPredicate predicate, final AtomicBoolean matched) {
+        if (size <= 1 || pool.getParallelism() <= 1) {
+            for (int i = 0; i < size && !matched.get(); i++) {
+                if (predicate.test(i)) {
+                    matched.set(true);
+                }
+            }
+        } else {
+            final int threshold = Math.max(1, size / (pool.getParallelism() * TASKS_PER_THREAD));
+            try {
+                pool.invoke(new Task(0, size, threshold, predicate, matched));
+            } catch (RejectedExecutionException ex) {
+                // pool is retired before accepting the batch so no item is processed yet
+                final ParallelBatch next = successor;
+                if (next == null) {
+                    throw ex;
+                }
+                next.execute(size, predicate, matched);
+            }
+        }
+    }
+
+    /**
+     * Shutdown dedicated pool, running batches are completed.
+     */
+    void shutdown() {
+        if (dedicated) {
+            pool.shutdown();
+        }
+    }
+
+    private static final class Task extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final IntPredicate predicate;
+        private final AtomicBoolean matched;
+
+        private Task(final int from, final int to, final int threshold, final IntPredicate predicate, final AtomicBoolean matched) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.predicate = predicate;
+            this.matched = matched;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                for (int i = from; i < to && !matched.get(); i++) {
+                    if (predicate.test(i)) {
+                        matched.set(true);
+                    }
+                }
+            } else if (!matched.get()) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Task(from, middle, threshold, predicate, matched), new Task(middle, to, threshold, predicate, matched));
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.internal.FileWatcher;
+import lombok.extern.slf4j.Slf4j;
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.component.ComponentContext;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Dictionary;
+
+/**
+ * File watcher of password files, configuration of component is touched on change so it is reloaded.
+ */
+@Slf4j
+class PasswordFileWatcher extends FileWatcher {
+
+    private final String passwordFile;
+    private final ConfigurationAdmin configAdmin;
+    private final ComponentContext cc;
+
+    PasswordFileWatcher(final String passwordFile, final ConfigurationAdmin configAdmin, final ComponentContext cc) {
+        super(passwordFile);
+        this.passwordFile = passwordFile;
+        this.configAdmin = configAdmin;
+        this.cc = cc;
+    }
+
+    /**
+     * Start watcher thread.
+     */
+    void start() {
+        final Thread thread = new Thread(this, passwordFile + " watcher");
+        thread.start();
+    }
+
+    @Override
+    protected void onCreate(final Path path) {
+        super.onCreate(path);
+        passwordFileContentChanged();
+    }
+
+    @Override
+    protected void onModify(final Path path) {
+        super.onModify(path);
+        passwordFileContentChanged();
+    }
+
+    @Override
+    protected void onDelete(final Path path) {
+        super.onDelete(path);
+        passwordFileContentChanged();
+    }
+
+    private void passwordFileContentChanged() {
+        if (log.isDebugEnabled()) {
+            log.debug("Password file updated: " + passwordFile);
+        }
+
+        // components are registered manually (no service of component), PID is read from component properties
+        final Object pid = cc.getProperties().get(Constants.SERVICE_PID);
+        if (pid instanceof String) {
+            try {
+                final Configuration config = configAdmin.getConfiguration((String) pid, null);
+                final Dictionary dict = config.getProperties();
+                dict.put("lastModified", System.currentTimeMillis());
+                config.update(dict);
+                if (log.isTraceEnabled()) {
+                    log.trace("Updated configuration for PID: " + pid);
+                }
+            } catch (IOException ex) {
+                log.error("Unable to get configuration", ex);
+            }
+        } else {
+            log.warn("Unable to reload configuration on password file change, PID is unknown: " + passwordFile);
+        }
+    }
+}
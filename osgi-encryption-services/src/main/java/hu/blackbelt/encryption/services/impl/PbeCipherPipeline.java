@@ -0,0 +1,380 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationPhase;
+import org.jasypt.commons.CommonUtils;
+import org.jasypt.encryption.ByteEncryptor;
+import org.jasypt.encryption.StringEncryptor;
+import org.jasypt.encryption.pbe.StandardPBEByteEncryptor;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.jasypt.normalization.Normalizer;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Password based encryption compatible with Jasypt {@link org.jasypt.encryption.pbe.StandardPBEStringEncryptor} and
+ * {@link org.jasypt.encryption.pbe.StandardPBEByteEncryptor} (random salt of cipher block size prepended to encrypted
+ * message, base64/hexadecimal output), measuring key derivation, cipher and encoding phases separately.
+ *
+ * <p>Key derivation of JCE PBE ciphers is executed by cipher initialization with salt and iteration count, cipher
+ * instances are pooled instead of synchronizing on a single instance.</p>
+ */
+class PbeCipherPipeline implements StringEncryptor, ByteEncryptor {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String algorithm;
+
+    private final String providerName;
+
+    private final int keyObtentionIterations;
+
+    private final boolean base64;
+
+    private final SecretKey key;
+
+    private final int saltSize;
+
+    private final int blockSize;
+
+    private final int poolSize;
+
+    private final Queue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger idleCiphers = new AtomicInteger();
+
+    private final OperationStats encryptionStats;
+
+    private final OperationStats decryptionStats;
+
+    /**
+     * Create and initialize pipeline.
+     *
+     * @param algorithm              PBE algorithm
+     * @param providerName           JCE provider name, default provider is used if <code>null</code>
+     * @param keyObtentionIterations key obtention iterations
+     * @param outputType             output type of String results (base64/hexadecimal), base64 is used if
+     *                               <code>null</code>
+     * @param password               password, it is not cleared
+     * @param poolSize               maximum number of idle cipher instances kept for reuse
+     * @param encryptionStats        statistics of encryption phases
+     * @param decryptionStats        statistics of decryption phases
+     * @throws EncryptionInitializationException if password is not set or algorithm is not supported
+     */
+    PbeCipherPipeline(final String algorithm, final String providerName, final int keyObtentionIterations, final String outputType, final char[] password,
+                      final int poolSize, final OperationStats encryptionStats, final OperationStats decryptionStats) {
+        this.algorithm = algorithm != null ? algorithm : StandardPBEByteEncryptor.DEFAULT_ALGORITHM;
+        this.providerName = providerName;
+        this.keyObtentionIterations = keyObtentionIterations > 0 ? keyObtentionIterations : StandardPBEByteEncryptor.DEFAULT_KEY_OBTENTION_ITERATIONS;
+        this.base64 = outputType == null || CommonUtils.STRING_OUTPUT_TYPE_BASE64.equals(CommonUtils.getStandardStringOutputType(outputType));
+        this.poolSize = poolSize;
+        this.encryptionStats = encryptionStats;
+        this.decryptionStats = decryptionStats;
+
+        if (password == null) {
+            throw new EncryptionInitializationException("Password not set for Password Based Encryptor");
+        }
+
+        try {
+            // password is normalized to NFC form like Jasypt does
+            final char[] normalizedPassword = Normalizer.normalizeToNfc(password);
+            final PBEKeySpec keySpec = new PBEKeySpec(normalizedPassword);
+            Arrays.fill(normalizedPassword, (char) 0);
+            try {
+                final SecretKeyFactory factory = providerName != null
+                        ? SecretKeyFactory.getInstance(this.algorithm, providerName)
+                        : SecretKeyFactory.getInstance(this.algorithm);
+                key = factory.generateSecret(keySpec);
+            } finally {
+                keySpec.clearPassword();
+            }
+
+            final Cipher cipher = createCipher();
+            // salt size is the block size of block ciphers
+            blockSize = cipher.getBlockSize();
+            saltSize = blockSize > 0 ? blockSize : StandardPBEByteEncryptor.DEFAULT_SALT_SIZE_BYTES;
+            returnCipher(cipher);
+        } catch (EncryptionInitializationException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new EncryptionInitializationException(ex);
+        }
+    }
+
+    @Override
+    public byte[] encrypt(final byte[] message) {
+        if (message == null) {
+            return null;
+        }
+
+        try {
+            final Cipher cipher = borrowCipher();
+            try {
+                final long startTs = System.nanoTime();
+                final byte[] salt = new byte[saltSize];
+                RANDOM.nextBytes(salt);
+                cipher.init(Cipher.ENCRYPT_MODE, key, new PBEParameterSpec(salt, keyObtentionIterations));
+                final long initializedTs = System.nanoTime();
+                final byte[] encryptedMessage = cipher.doFinal(message);
+                final byte[] result = new byte[saltSize + encryptedMessage.length];
+                System.arraycopy(salt, 0, result, 0, saltSize);
+                System.arraycopy(encryptedMessage, 0, result, saltSize, encryptedMessage.length);
+                final long endTs = System.nanoTime();
+                encryptionStats.recordPhase(OperationPhase.KEY_DERIVATION, initializedTs - startTs);
+                encryptionStats.recordPhase(OperationPhase.CIPHER, endTs - initializedTs);
+                return result;
+            } finally {
+                returnCipher(cipher);
+            }
+        } catch (InvalidKeyException ex) {
+            throw invalidKey(ex);
+        } catch (Exception ex) {
+            throw operationNotPossible(ex);
+        }
+    }
+
+    @Override
+    public byte[] decrypt(final byte[] encryptedMessage) {
+        if (encryptedMessage == null) {
+            return null;
+        }
+        if (encryptedMessage.length <= saltSize) {
+            throw operationNotPossible(new IllegalArgumentException("Encrypted message is too short"));
+        }
+
+        try {
+            final Cipher cipher = borrowCipher();
+            try {
+                final long startTs = System.nanoTime();
+                cipher.init(Cipher.DECRYPT_MODE, key, new PBEParameterSpec(Arrays.copyOfRange(encryptedMessage, 0, saltSize), keyObtentionIterations));
+                final long initializedTs = System.nanoTime();
+                final byte[] result = cipher.doFinal(encryptedMessage, saltSize, encryptedMessage.length - saltSize);
+                final long endTs = System.nanoTime();
+                decryptionStats.recordPhase(OperationPhase.KEY_DERIVATION, initializedTs - startTs);
+                decryptionStats.recordPhase(OperationPhase.CIPHER, endTs - initializedTs);
+                return result;
+            } finally {
+                returnCipher(cipher);
+            }
+        } catch (InvalidKeyException ex) {
+            throw invalidKey(ex);
+        } catch (Exception ex) {
+            throw operationNotPossible(ex);
+        }
+    }
+
+    /**
+     * Get size of encrypted message (PBE block ciphers are padded up to the next block).
+     *
+     * @param messageSize size of message
+     * @return size of encrypted message
+     */
+    int getEncryptedSize(final int messageSize) {
+        return saltSize + (blockSize > 0 ? (messageSize / blockSize + 1) * blockSize : messageSize);
+    }
+
+    /**
+     * Get maximum size of decrypted message, it is the buffer size required by the cipher.
+     *
+     * @param encryptedMessageSize size of encrypted message
+     * @return maximum size of decrypted message
+     */
+    int getMaxDecryptedSize(final int encryptedMessageSize) {
+        return Math.max(0, encryptedMessageSize - saltSize);
+    }
+
+    /**
+     * Encrypt remaining bytes of source buffer into destination buffer without copying them into arrays, so direct
+     * buffers are processed by the cipher directly.
+     *
+     * @param src message
+     * @param dst buffer receiving encrypted message, it must have {@link #getEncryptedSize(int)} bytes remaining
+     * @return number of bytes written
+     */
+    int encrypt(final ByteBuffer src, final ByteBuffer dst) {
+        try {
+            final Cipher cipher = borrowCipher();
+            try {
+                final long startTs = System.nanoTime();
+                final byte[] salt = new byte[saltSize];
+                RANDOM.nextBytes(salt);
+                cipher.init(Cipher.ENCRYPT_MODE, key, new PBEParameterSpec(salt, keyObtentionIterations));
+                final long initializedTs = System.nanoTime();
+                dst.put(salt);
+                final int length = saltSize + cipher.doFinal(src, dst);
+                final long endTs = System.nanoTime();
+                encryptionStats.recordPhase(OperationPhase.KEY_DERIVATION, initializedTs - startTs);
+                encryptionStats.recordPhase(OperationPhase.CIPHER, endTs - initializedTs);
+                return length;
+            } finally {
+                returnCipher(cipher);
+            }
+        } catch (InvalidKeyException ex) {
+            throw invalidKey(ex);
+        } catch (GeneralSecurityException ex) {
+            throw operationNotPossible(ex);
+        }
+    }
+
+    /**
+     * Decrypt remaining bytes of source buffer into destination buffer without copying them into arrays.
+     *
+     * @param src encrypted message
+     * @param dst buffer receiving message, it must have {@link #getMaxDecryptedSize(int)} bytes remaining
+     * @return number of bytes written
+     */
+    int decrypt(final ByteBuffer src, final ByteBuffer dst) {
+        if (src.remaining() <= saltSize) {
+            throw operationNotPossible(new IllegalArgumentException("Encrypted message is too short"));
+        }
+
+        try {
+            final Cipher cipher = borrowCipher();
+            try {
+                final long startTs = System.nanoTime();
+                final byte[] salt = new byte[saltSize];
+                src.get(salt);
+                cipher.init(Cipher.DECRYPT_MODE, key, new PBEParameterSpec(salt, keyObtentionIterations));
+                final long initializedTs = System.nanoTime();
+                final int length = cipher.doFinal(src, dst);
+                final long endTs = System.nanoTime();
+                decryptionStats.recordPhase(OperationPhase.KEY_DERIVATION, initializedTs - startTs);
+                decryptionStats.recordPhase(OperationPhase.CIPHER, endTs - initializedTs);
+                return length;
+            } finally {
+                returnCipher(cipher);
+            }
+        } catch (InvalidKeyException ex) {
+            throw invalidKey(ex);
+        } catch (GeneralSecurityException ex) {
+            throw operationNotPossible(ex);
+        }
+    }
+
+    @Override
+    public String encrypt(final String message) {
+        if (message == null) {
+            return null;
+        }
+
+        long startTs = System.nanoTime();
+        final byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        long encodingTime = System.nanoTime() - startTs;
+
+        final byte[] encryptedMessage = encrypt(messageBytes);
+
+        startTs = System.nanoTime();
+        final String result = base64 ? new String(Base64.getEncoder().encode(encryptedMessage), StandardCharsets.US_ASCII) : CommonUtils.toHexadecimal(encryptedMessage);
+        encodingTime += System.nanoTime() - startTs;
+        encryptionStats.recordPhase(OperationPhase.ENCODING, encodingTime);
+        return result;
+    }
+
+    @Override
+    public String decrypt(final String encryptedMessage) {
+        if (encryptedMessage == null) {
+            return null;
+        }
+
+        long startTs = System.nanoTime();
+        final byte[] encryptedMessageBytes;
+        try {
+            // MIME decoder ignores characters outside of base64 alphabet like Jasypt does
+            encryptedMessageBytes = base64 ? Base64.getMimeDecoder().decode(encryptedMessage.getBytes(StandardCharsets.US_ASCII)) : CommonUtils.fromHexadecimal(encryptedMessage);
+        } catch (IllegalArgumentException ex) {
+            throw operationNotPossible(ex);
+        } catch (EncryptionOperationNotPossibleException ex) {
+            // Jasypt reports malformed hexadecimal input without cause
+            throw operationNotPossible(new IllegalArgumentException("Encrypted message is not hexadecimal"));
+        }
+        long encodingTime = System.nanoTime() - startTs;
+
+        final byte[] message = decrypt(encryptedMessageBytes);
+
+        startTs = System.nanoTime();
+        final String result = new String(message, StandardCharsets.UTF_8);
+        encodingTime += System.nanoTime() - startTs;
+        decryptionStats.recordPhase(OperationPhase.ENCODING, encodingTime);
+        return result;
+    }
+
+    private Cipher createCipher() throws GeneralSecurityException {
+        return providerName != null ? Cipher.getInstance(algorithm, providerName) : Cipher.getInstance(algorithm);
+    }
+
+    private Cipher borrowCipher() throws GeneralSecurityException {
+        final Cipher cipher = ciphers.poll();
+        if (cipher != null) {
+            idleCiphers.decrementAndGet();
+            return cipher;
+        }
+        return createCipher();
+    }
+
+    private void returnCipher(final Cipher cipher) {
+        if (idleCiphers.incrementAndGet() <= poolSize) {
+            ciphers.offer(cipher);
+        } else {
+            idleCiphers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get exception of a failed operation. Message is not set like Jasypt does (details of failure are not returned to
+     * callers showing only messages), cause is kept so errors are categorized by the failure.
+     */
+    private static EncryptionOperationNotPossibleException operationNotPossible(final Throwable cause) {
+        final EncryptionOperationNotPossibleException ex = new EncryptionOperationNotPossibleException();
+        ex.initCause(cause);
+        return ex;
+    }
+
+    /**
+     * Get exception of invalid key, missing unlimited strength policy is reported like Jasypt does.
+     */
+    private static EncryptionOperationNotPossibleException invalidKey(final InvalidKeyException cause) {
+        if (cause.getMessage() != null && cause.getMessage().toUpperCase().contains("KEY SIZE")) {
+            final EncryptionOperationNotPossibleException ex = new EncryptionOperationNotPossibleException("Encryption raised an exception. A possible cause is you "
+                    + "are using strong encryption algorithms and you have not installed the Java Cryptography Extension (JCE) Unlimited Strength Jurisdiction "
+                    + "Policy Files in this Java Virtual Machine");
+            ex.initCause(cause);
+            return ex;
+        }
+        return operationNotPossible(cause);
+    }
+}
@@ -0,0 +1,557 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import lombok.extern.slf4j.Slf4j;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Dictionary;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password hashing digester using PBKDF2-HMAC of JCE.
+ *
+ * <p>Digests are self-describing: <code>$pbkdf2-sha256$i=310000$&lt;salt&gt;$&lt;hash&gt;</code> (salt and hash are
+ * base64 encoded without padding), so digests are validated with their own algorithm, iterations and hash size. If
+ * target latency is configured, the number of iterations is calibrated in background so that creating a digest takes
+ * about the given time on the current host. Calibration is started on activation and repeated only if algorithm,
+ * provider, hash size or target latency is changed, configured iterations are used until it is completed. New digests
+ * follow the hardware, existing digests are still validated with the (possibly lower) iterations they were created
+ * with.</p>
+ *
+ * <p>Iterations and hash size of a digest are chosen by whoever created it, so digests exceeding the configured maximum
+ * iterations or hash size are rejected before key derivation. Maximum iterations are a multiple of the iterations of new
+ * digests by default, maximum hash size is the output length of the HMAC of the digest (or the configured hash size if it
+ * is larger). Maximum iterations should be configured if iterations are lowered and existing digests have to be
+ * validated.</p>
+ */
+@Component(immediate = true, service = {}, configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Designate(ocd = Pbkdf2Digester.Config.class)
+@Slf4j
+public class Pbkdf2Digester extends BaseDigester {
+
+    @SuppressWarnings("checkstyle:JavadocMethod")
+    @ObjectClassDefinition(name = "PBKDF2 digester configuration")
+    public @interface Config {
+
+        @AttributeDefinition(required = false, name = "Digest algorithm", description = "PBKDF2 algorithm of JCE, ie. PBKDF2WithHmacSHA256 or PBKDF2WithHmacSHA512")
+        String digest_algorithm() default DEFAULT_ALGORITHM;
+
+        @AttributeDefinition(required = false, name = "Iterations", description = "Iterations of new digests, minimum iterations if target latency is set", type = AttributeType.INTEGER)
+        int digest_iterations() default DEFAULT_ITERATIONS;
+
+        @AttributeDefinition(required = false, name = "Target latency", description = "Time of creating a digest (in milliseconds) that iterations are calibrated to in background, 0 disables calibration", type = AttributeType.LONG)
+        long digest_targetLatency() default DEFAULT_TARGET_LATENCY;
+
+        @AttributeDefinition(required = false, name = "Hash size (bits)", type = AttributeType.INTEGER)
+        int digest_hashSize() default DEFAULT_HASH_SIZE;
+
+        @AttributeDefinition(required = false, name = "Salt size", type = AttributeType.INTEGER)
+        int digest_saltSize() default DEFAULT_SALT_SIZE;
+
+        @AttributeDefinition(required = false, name = "Maximum iterations", description = "Digests with more iterations are rejected, 0 means " + DEFAULT_MAX_ITERATIONS_FACTOR + " times the iterations of new digests", type = AttributeType.INTEGER)
+        int digest_maxIterations() default DEFAULT_MAX_ITERATIONS;
+
+        @AttributeDefinition(required = false, name = "Maximum hash size (bits)", description = "Digests with larger hash are rejected, 0 means output length of HMAC of digest algorithm (or hash size if it is larger)", type = AttributeType.INTEGER)
+        int digest_maxHashSize() default DEFAULT_MAX_HASH_SIZE;
+
+        @AttributeDefinition(required = false, name = "Alias for digester")
+        String digester_alias();
+
+        @AttributeDefinition(required = false, name = "Digester provider name")
+        String digester_provider();
+
+        @AttributeDefinition(required = false, name = "Batch parallelism", description = "Parallelism of fork-join pool processing batches, common pool is used if not positive", type = AttributeType.INTEGER)
+        int digester_batchParallelism() default DEFAULT_BATCH_PARALLELISM;
+
+        @AttributeDefinition(required = false, name = "Async virtual threads", description = "Use virtual threads for asynchronous operations if supported by JVM", type = AttributeType.BOOLEAN)
+        boolean digester_asyncVirtualThreads() default DEFAULT_ASYNC_VIRTUAL_THREADS;
+
+        @AttributeDefinition(required = false, name = "Async threads", description = "Number of threads processing asynchronous operations if virtual threads are not used, 0 means number of available processors", type = AttributeType.INTEGER)
+        int digester_asyncThreads() default DEFAULT_ASYNC_THREADS;
+
+        @AttributeDefinition(required = false, name = "Async queue size", description = "Maximum number of pending asynchronous operations, further operations are rejected", type = AttributeType.INTEGER)
+        int digester_asyncQueueSize() default DEFAULT_ASYNC_QUEUE_SIZE;
+
+        @AttributeDefinition(required = false, name = "Consumer statistics limit", description = "Maximum number of consumer bundles with separate operation statistics (applied on activation), 0 disables statistics of consumers. Consumers get a facade recording their calls, so it adds overhead to every call", type = AttributeType.INTEGER)
+        int digester_consumerStatsLimit() default DEFAULT_CONSUMER_STATS_LIMIT;
+
+        @AttributeDefinition(required = false, name = "Slow operation threshold", description = "Operations taking longer (in milliseconds) are logged and kept in memory, 0 disables detection of slow operations", type = AttributeType.LONG)
+        long digester_slowThreshold() default DEFAULT_SLOW_THRESHOLD;
+
+        @AttributeDefinition(required = false, name = "Slow operation sampling rate", description = "Rate of slow operations logged (0-1)", type = AttributeType.DOUBLE)
+        double digester_slowSamplingRate() default DEFAULT_SLOW_SAMPLING_RATE;
+
+        @AttributeDefinition(required = false, name = "Slow operation buffer size", description = "Number of recent slow operations kept in memory", type = AttributeType.INTEGER)
+        int digester_slowBufferSize() default DEFAULT_SLOW_BUFFER_SIZE;
+    }
+
+    public static final String DEFAULT_ALGORITHM = "PBKDF2WithHmacSHA256";
+    public static final int DEFAULT_ITERATIONS = 310000;
+    public static final long DEFAULT_TARGET_LATENCY = 0L;
+    public static final int DEFAULT_HASH_SIZE = 256;
+    public static final int DEFAULT_SALT_SIZE = 16;
+    public static final int DEFAULT_MAX_ITERATIONS = 0;
+    public static final int DEFAULT_MAX_ITERATIONS_FACTOR = 4;
+    public static final int DEFAULT_MAX_HASH_SIZE = 0;
+    public static final int DEFAULT_BATCH_PARALLELISM = 0;
+    public static final boolean DEFAULT_ASYNC_VIRTUAL_THREADS = true;
+    public static final int DEFAULT_ASYNC_THREADS = 0;
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_CONSUMER_STATS_LIMIT = 0;
+    public static final long DEFAULT_SLOW_THRESHOLD = 0L;
+    public static final double DEFAULT_SLOW_SAMPLING_RATE = 1.0;
+    public static final int DEFAULT_SLOW_BUFFER_SIZE = 100;
+
+    private static final String ALGORITHM_PREFIX = "PBKDF2WithHmac";
+    private static final String ID_PREFIX = "pbkdf2-";
+    private static final String SEPARATOR = "$";
+    private static final String ITERATIONS_PREFIX = "i=";
+
+    private static final int CALIBRATION_ITERATIONS = 1000;
+    private static final int CALIBRATION_WARMUP_ITERATIONS = 200000;
+    private static final int CALIBRATION_STABLE_ROUNDS = 3;
+    private static final long CALIBRATION_TIMEOUT = 2000L;
+    private static final int ITERATIONS_GRANULARITY = 1000;
+
+    private String providerName;
+
+    /**
+     * Parameters of new digests, replaced atomically on configuration change.
+     */
+    private volatile Parameters parameters;
+
+    /**
+     * Calibration of iterations, replaced only if algorithm, provider, hash size or target latency is changed.
+     */
+    private Calibration calibration;
+
+    /**
+     * Key factories by algorithm and provider (digests created with other algorithms are validated too).
+     */
+    private final Map<String, Queue<SecretKeyFactory>> keyFactories = new ConcurrentHashMap<>();
+
+    /**
+     * Output length (bits) of HMAC by PBKDF2 algorithm.
+     */
+    private final Map<String, Integer> macSizes = new ConcurrentHashMap<>();
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Register PBKDF2 digester service instance.
+     *
+     * @param cc     component context
+     * @param config configuration options
+     */
+    @Activate
+    void start(final ComponentContext cc, final Config config) {
+        registerStats(cc, config.digester_alias(), config.digest_algorithm());
+        synchronized (this) {
+            refreshConfig(config);
+            registerServices(config.digest_algorithm(), config.digester_consumerStatsLimit());
+        }
+    }
+
+    /**
+     * Update PBKDF2 digester configuration, iterations are calibrated again if calibration settings are changed.
+     *
+     * @param config configuration options
+     */
+    @Modified
+    void update(final Config config) {
+        synchronized (this) {
+            refreshConfig(config);
+            updateServices(config.digest_algorithm());
+        }
+    }
+
+    /**
+     * Unregister PBKDF2 digester service instance.
+     */
+    @Deactivate
+    void stop() {
+        try {
+            synchronized (this) {
+                if (calibration != null) {
+                    calibration.cancel();
+                }
+                unregisterServices();
+            }
+        } finally {
+            calibration = null;
+            parameters = null;
+            keyFactories.clear();
+            macSizes.clear();
+        }
+    }
+
+    private void refreshConfig(final Config config) {
+        providerName = config.digester_provider();
+        keyFactories.clear();
+        macSizes.clear();
+
+        configure(config.digester_alias(), config.digester_batchParallelism(), config.digester_asyncVirtualThreads(), config.digester_asyncThreads(), config.digester_asyncQueueSize());
+
+        final String algorithm = config.digest_algorithm();
+        if (algorithm == null || !algorithm.startsWith(ALGORITHM_PREFIX)) {
+            throw new EncryptionInitializationException("Unsupported PBKDF2 algorithm: " + algorithm);
+        }
+
+        // calibration is repeated only if settings affecting the time of key derivation are changed
+        if (calibration != null && !calibration.isCalibrating(algorithm, providerName, config.digest_hashSize(), config.digest_targetLatency())) {
+            calibration.cancel();
+            calibration = null;
+        }
+        if (calibration == null && config.digest_targetLatency() > 0) {
+            calibration = new Calibration(algorithm, providerName, config.digest_hashSize(), config.digest_targetLatency());
+            calibration.start();
+        }
+        final Integer calibrated = calibration != null ? calibration.getIterations() : null;
+        parameters = new Parameters(algorithm, config.digest_iterations(), calibrated, config.digest_hashSize(), config.digest_saltSize(),
+                config.digest_maxIterations(), config.digest_maxHashSize());
+
+        slowOperations.configure(alias, algorithm, providerName, config.digester_slowThreshold(), config.digester_slowSamplingRate(), config.digester_slowBufferSize());
+    }
+
+    /**
+     * Apply result of calibration (called by calibration thread), result is completed after parameters are replaced.
+     */
+    private synchronized void calibrated(final Calibration completed, final int iterations) {
+        final Parameters current = parameters;
+        // parameters are not replaced if calibration is cancelled or replaced
+        if (completed == calibration && current != null) {
+            parameters = new Parameters(current.algorithm, current.minIterations, iterations, current.hashSize, current.saltSize,
+                    current.configuredMaxIterations, current.configuredMaxHashSize);
+            updateServices(current.algorithm);
+        }
+        completed.result.complete(iterations);
+    }
+
+    /**
+     * Get calibration of iterations.
+     *
+     * @return calibration, <code>null</code> if target latency is not configured
+     */
+    synchronized Calibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Calibrate iterations of new digests. Key derivation is measured with the estimated iterations and the estimation
+     * is corrected until rounds take about the target latency. Rounds are not accepted until a number of warm-up iterations
+     * are executed (earlier rounds are slowed down by class loading and JIT compilation). Estimation of the last round is
+     * used if calibration is not completed in time.
+     */
+    private int calibrate(final Calibration calibration) {
+        final char[] password = "calibration".toCharArray();
+        final byte[] salt = new byte[DEFAULT_SALT_SIZE];
+        random.nextBytes(salt);
+
+        final long target = TimeUnit.MILLISECONDS.toNanos(calibration.targetLatency);
+        final long deadline = System.nanoTime() + Math.max(TimeUnit.MILLISECONDS.toNanos(CALIBRATION_TIMEOUT), target * CALIBRATION_STABLE_ROUNDS * 2);
+        long estimated = CALIBRATION_ITERATIONS;
+        long executed = 0L;
+        int stableRounds = 0;
+        while (stableRounds < CALIBRATION_STABLE_ROUNDS && System.nanoTime() < deadline && !calibration.cancelled) {
+            final long startTs = System.nanoTime();
+            derive(calibration.algorithm, calibration.providerName, password, salt, (int) estimated, calibration.hashSize);
+            final long elapsed = Math.max(System.nanoTime() - startTs, 1L);
+            executed += estimated;
+            stableRounds = executed >= CALIBRATION_WARMUP_ITERATIONS && Math.abs(elapsed - target) <= target / 10 ? stableRounds + 1 : 0;
+            estimated = Math.max(1L, Math.min(Integer.MAX_VALUE, (long) ((double) estimated * target / elapsed)));
+        }
+
+        final int iterations = (int) Math.max(ITERATIONS_GRANULARITY, estimated / ITERATIONS_GRANULARITY * ITERATIONS_GRANULARITY);
+        log.info("Iterations of PBKDF2 digester '" + alias + "' calibrated to " + iterations + " (target latency: " + calibration.targetLatency + " ms)");
+        return iterations;
+    }
+
+    @Override
+    protected void addServiceProps(final Dictionary<String, Object> dict) {
+        final Parameters current = parameters;
+        if (current != null) {
+            dict.put("digest.iterations", current.iterations);
+        }
+    }
+
+    @Override
+    protected String getAlgorithm() {
+        final Parameters current = parameters;
+        return current != null ? current.algorithm : null;
+    }
+
+    /**
+     * Return iterations of new digests (calibrated value if target latency is configured and calibration is completed).
+     *
+     * @return iterations
+     */
+    public int getIterations() {
+        return getParameters().iterations;
+    }
+
+    private Parameters getParameters() {
+        final Parameters current = parameters;
+        if (current == null) {
+            throw new EncryptionInitializationException("PBKDF2 digester '" + alias + "' is not initialized");
+        }
+        return current;
+    }
+
+    private byte[] derive(final String algorithm, final char[] password, final byte[] salt, final int iterations, final int hashSize) {
+        return derive(algorithm, providerName, password, salt, iterations, hashSize);
+    }
+
+    private byte[] derive(final String algorithm, final String providerName, final char[] password, final byte[] salt, final int iterations, final int hashSize) {
+        final Queue<SecretKeyFactory> factories = keyFactories.computeIfAbsent(algorithm + "/" + providerName, a -> new ConcurrentLinkedQueue<>());
+        final PBEKeySpec keySpec = new PBEKeySpec(password, salt, iterations, hashSize);
+        try {
+            SecretKeyFactory factory = factories.poll();
+            if (factory == null) {
+                factory = providerName != null ? SecretKeyFactory.getInstance(algorithm, providerName) : SecretKeyFactory.getInstance(algorithm);
+            }
+            final byte[] hash = factory.generateSecret(keySpec).getEncoded();
+            factories.offer(factory);
+            return hash;
+        } catch (GeneralSecurityException ex) {
+            throw new EncryptionInitializationException(ex);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    @Override
+    protected String digestString(final String data) {
+        if (data == null) {
+            return null;
+        }
+
+        final Parameters current = getParameters();
+        final byte[] salt = new byte[current.saltSize];
+        random.nextBytes(salt);
+        final char[] password = normalize(data);
+        try {
+            final byte[] hash = derive(current.algorithm, password, salt, current.iterations, current.hashSize);
+            final Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+            return SEPARATOR + current.id + SEPARATOR + ITERATIONS_PREFIX + current.iterations
+                    + SEPARATOR + encoder.encodeToString(salt) + SEPARATOR + encoder.encodeToString(hash);
+        } finally {
+            Arrays.fill(password, (char) 0);
+        }
+    }
+
+    @Override
+    protected boolean matchesString(final String data, final String digest) {
+        if (data == null) {
+            return digest == null;
+        } else if (digest == null) {
+            return false;
+        }
+
+        // $<id>$i=<iterations>$<salt>$<hash>
+        final String[] parts = digest.split("\\" + SEPARATOR, -1);
+        if (parts.length != 5 || !parts[0].isEmpty() || !parts[1].startsWith(ID_PREFIX) || !parts[2].startsWith(ITERATIONS_PREFIX)) {
+            throw new IllegalArgumentException("Invalid PBKDF2 digest format");
+        }
+        final String algorithm = ALGORITHM_PREFIX + parts[1].substring(ID_PREFIX.length()).toUpperCase(Locale.ROOT);
+        final int iterations;
+        final byte[] salt;
+        final byte[] expected;
+        try {
+            iterations = Integer.parseInt(parts[2].substring(ITERATIONS_PREFIX.length()));
+            salt = Base64.getDecoder().decode(parts[3]);
+            expected = Base64.getDecoder().decode(parts[4]);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid PBKDF2 digest format", ex);
+        }
+        if (iterations <= 0 || expected.length == 0) {
+            throw new IllegalArgumentException("Invalid PBKDF2 digest format");
+        }
+        // parameters are chosen by creator of digest, they must not be able to make validation arbitrarily expensive
+        final Parameters current = getParameters();
+        if (iterations > current.maxIterations) {
+            throw new IllegalArgumentException("Iterations of PBKDF2 digest exceed maximum: " + iterations + " > " + current.maxIterations);
+        }
+        final int maxHashSize = current.configuredMaxHashSize > 0 ? current.configuredMaxHashSize : Math.max(getMacSize(algorithm), current.hashSize);
+        if ((long) expected.length * 8 > maxHashSize) {
+            throw new IllegalArgumentException("Hash size of PBKDF2 digest exceeds maximum: " + expected.length * 8 + " > " + maxHashSize);
+        }
+
+        final char[] password = normalize(data);
+        try {
+            return MessageDigest.isEqual(expected, derive(algorithm, password, salt, iterations, expected.length * 8));
+        } finally {
+            Arrays.fill(password, (char) 0);
+        }
+    }
+
+    /**
+     * Get output length of HMAC of PBKDF2 algorithm, that is the hash size of a single PBKDF2 block.
+     *
+     * @param algorithm PBKDF2 algorithm
+     * @return output length (bits), 0 if HMAC algorithm is not available
+     */
+    private int getMacSize(final String algorithm) {
+        return macSizes.computeIfAbsent(algorithm, a -> {
+            final String macAlgorithm = "Hmac" + a.substring(ALGORITHM_PREFIX.length());
+            try {
+                return (providerName != null ? Mac.getInstance(macAlgorithm, providerName) : Mac.getInstance(macAlgorithm)).getMacLength() * 8;
+            } catch (GeneralSecurityException ex) {
+                return 0;
+            }
+        });
+    }
+
+    private static char[] normalize(final String data) {
+        return Normalizer.normalize(data, Normalizer.Form.NFC).toCharArray();
+    }
+
+    /**
+     * Parameters of new digests.
+     */
+    private static final class Parameters {
+
+        private final String algorithm;
+
+        private final String id;
+
+        private final int minIterations;
+
+        private final int iterations;
+
+        private final int hashSize;
+
+        private final int saltSize;
+
+        private final int configuredMaxIterations;
+
+        private final int configuredMaxHashSize;
+
+        private final int maxIterations;
+
+        private Parameters(final String algorithm, final int minIterations, final Integer calibratedIterations, final int hashSize, final int saltSize,
+                           final int configuredMaxIterations, final int configuredMaxHashSize) {
+            this.algorithm = algorithm;
+            this.id = ID_PREFIX + algorithm.substring(ALGORITHM_PREFIX.length()).toLowerCase(Locale.ROOT);
+            this.minIterations = minIterations;
+            this.iterations = calibratedIterations != null ? Math.max(minIterations, calibratedIterations) : minIterations;
+            this.hashSize = hashSize;
+            this.saltSize = saltSize;
+            this.configuredMaxIterations = configuredMaxIterations;
+            this.configuredMaxHashSize = configuredMaxHashSize;
+            this.maxIterations = configuredMaxIterations > 0 ? configuredMaxIterations
+                    : (int) Math.min(Integer.MAX_VALUE, (long) iterations * DEFAULT_MAX_ITERATIONS_FACTOR);
+        }
+    }
+
+    /**
+     * Calibration of iterations running in background.
+     */
+    final class Calibration implements Runnable {
+
+        private final String algorithm;
+
+        private final String providerName;
+
+        private final int hashSize;
+
+        private final long targetLatency;
+
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        private volatile boolean cancelled;
+
+        private Calibration(final String algorithm, final String providerName, final int hashSize, final long targetLatency) {
+            this.algorithm = algorithm;
+            this.providerName = providerName;
+            this.hashSize = hashSize;
+            this.targetLatency = targetLatency;
+        }
+
+        private boolean isCalibrating(final String algorithm, final String providerName, final int hashSize, final long targetLatency) {
+            return this.algorithm.equals(algorithm) && Objects.equals(this.providerName, providerName) && this.hashSize == hashSize && this.targetLatency == targetLatency;
+        }
+
+        private void start() {
+            final Thread thread = new Thread(this, "pbkdf2-calibration-" + alias);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void cancel() {
+            cancelled = true;
+            result.cancel(false);
+        }
+
+        /**
+         * Get calibrated iterations.
+         *
+         * @return calibrated iterations, <code>null</code> if calibration is not completed
+         */
+        private Integer getIterations() {
+            return result.isDone() && !result.isCompletedExceptionally() ? result.join() : null;
+        }
+
+        /**
+         * Get result of calibration.
+         *
+         * @return future of calibrated iterations
+         */
+        CompletableFuture<Integer> getResult() {
+            return result;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final int iterations = calibrate(this);
+                if (!cancelled) {
+                    calibrated(this, iterations);
+                }
+            } catch (RuntimeException ex) {
+                log.error("Unable to calibrate iterations of PBKDF2 digester '" + alias + "', configured iterations are used", ex);
+                result.completeExceptionally(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticks moving rates of operation statistics in fixed intervals on a single daemon thread. Statistics are referenced
+ * weakly, they are no longer ticked when garbage collected.
+ */
+@Slf4j
+final class RateTicker {
+
+    static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Set<WeakReference<OperationStats>> REGISTERED = ConcurrentHashMap.newKeySet();
+
+    private static ScheduledExecutorService executor;
+
+    private RateTicker() {
+    }
+
+    /**
+     * Register operation statistics, ticker thread is started on first registration.
+     *
+     * @param stats operation statistics
+     */
+    static synchronized void register(final OperationStats stats) {
+        REGISTERED.add(new WeakReference<>(stats));
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "encryption-stats-ticker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(RateTicker::tick, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stop ticker thread (on bundle stop), it is started again by the next registration.
+     */
+    static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static void tick() {
+        final long now = System.nanoTime();
+        for (final Iterator<WeakReference<OperationStats>> it = REGISTERED.iterator(); it.hasNext(); ) {
+            final OperationStats stats = it.next().get();
+            if (stats == null) {
+                it.remove();
+                continue;
+            }
+            try {
+                stats.tick(now);
+            } catch (RuntimeException ex) {
+                // exception would cancel ticking of all statistics
+                log.warn("Unable to update moving rates", ex);
+            }
+        }
+    }
+}
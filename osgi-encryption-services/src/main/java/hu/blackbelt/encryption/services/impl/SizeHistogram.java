@@ -0,0 +1,138 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Histogram of payload sizes with fixed memory footprint. Sizes are stored in power of two buckets, bucket
+ * <code>i</code> contains sizes in range <code>(2^(i-1), 2^i]</code> (bucket 0 contains sizes 0 and 1). Histogram is
+ * not thread-safe, it is guarded by the cell of {@link StripedCells} containing it.
+ */
+class SizeHistogram {
+
+    private static final int BUCKET_COUNT = Long.SIZE;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+
+    private long max;
+
+    /**
+     * Record a size.
+     *
+     * @param size size in bytes (negative values are recorded as 0)
+     */
+    void record(final long size) {
+        final long s = Math.max(size, 0L);
+        buckets[indexOf(s)]++;
+        max = Math.max(max, s);
+    }
+
+    /**
+     * Add sizes of another histogram.
+     *
+     * @param other histogram to add
+     */
+    void add(final SizeHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        max = Math.max(max, other.max);
+    }
+
+    static int indexOf(final long size) {
+        return size <= 1L ? 0 : Math.min(BUCKET_COUNT - 1, Long.SIZE - Long.numberOfLeadingZeros(size - 1L));
+    }
+
+    /**
+     * Get maximum of recorded sizes.
+     *
+     * @return maximum size, 0 if no size is recorded
+     */
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * Get copy of bucket counters.
+     *
+     * @return number of recorded sizes by bucket
+     */
+    long[] getCounts() {
+        return buckets.clone();
+    }
+
+    /**
+     * Get upper bound of bucket containing percentile of sizes, it is limited to maximum recorded size.
+     *
+     * @param counts     counts of buckets returned by {@link #getCounts()}
+     * @param percentile percentile (0-100)
+     * @param max        maximum recorded size
+     * @return size at percentile, 0 if no size is recorded
+     */
+    static long getValueAtPercentile(final long[] counts, final double percentile, final long max) {
+        long total = 0L;
+        for (final long count : counts) {
+            total += count;
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+        long cumulative = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return i < BUCKET_COUNT - 1 ? Math.min(1L << i, max) : max;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Get cumulative number of sizes by upper bound of buckets, up to the bucket of maximum size. The last bucket is
+     * {@link OperationStatsSnapshot#INFINITE_BOUND} containing all sizes.
+     *
+     * @param counts counts of buckets returned by {@link #getCounts()}
+     * @param max    maximum recorded size
+     * @return cumulative counts by upper bound of bucket
+     */
+    static SortedMap<Long, Long> getBuckets(final long[] counts, final long max) {
+        final SortedMap<Long, Long> result = new TreeMap<>();
+        long cumulative = 0L;
+        for (int i = 0; i <= indexOf(max) && i < BUCKET_COUNT - 1; i++) {
+            cumulative += counts[i];
+            result.put(1L << i, cumulative);
+        }
+        long total = 0L;
+        for (final long count : counts) {
+            total += count;
+        }
+        result.put(OperationStatsSnapshot.INFINITE_BOUND, total);
+        return Collections.unmodifiableSortedMap(result);
+    }
+}
@@ -0,0 +1,179 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import hu.blackbelt.encryption.services.metrics.SlowOperation;
+import hu.blackbelt.encryption.services.metrics.SlowOperationLog;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Detector of operations exceeding latency threshold. Slow operations are kept in a bounded ring buffer and logged
+ * (sampled) as structured events: message contains key=value pairs, the same values are put into MDC.
+ */
+@Slf4j
+class SlowOperationDetector implements SlowOperationLog {
+
+    static final String MDC_ALIAS = "encryption.alias";
+    static final String MDC_OPERATION = "encryption.operation";
+    static final String MDC_ALGORITHM = "encryption.algorithm";
+    static final String MDC_PROVIDER = "encryption.provider";
+    static final String MDC_INPUT_SIZE = "encryption.inputSize";
+    static final String MDC_DURATION = "encryption.durationMs";
+
+    private static final String[] MDC_KEYS = {MDC_ALIAS, MDC_OPERATION, MDC_ALGORITHM, MDC_PROVIDER, MDC_INPUT_SIZE, MDC_DURATION};
+
+    private volatile String alias;
+
+    private volatile String algorithm;
+
+    private volatile String provider;
+
+    private volatile long threshold;
+
+    private volatile double samplingRate;
+
+    private volatile AtomicReferenceArray<SlowOperation> buffer = new AtomicReferenceArray<>(0);
+
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Update configuration of detector.
+     *
+     * @param alias        alias of service
+     * @param algorithm    algorithm of service
+     * @param provider     provider of service
+     * @param thresholdMs  latency threshold in milliseconds, detector is disabled if not positive
+     * @param samplingRate rate of slow operations logged (0-1)
+     * @param bufferSize   number of slow operations kept in memory
+     */
+    void configure(final String alias, final String algorithm, final String provider, final long thresholdMs, final double samplingRate, final int bufferSize) {
+        this.alias = alias;
+        this.algorithm = algorithm;
+        this.provider = provider;
+        this.samplingRate = samplingRate;
+        if (buffer.length() != Math.max(bufferSize, 0)) {
+            buffer = new AtomicReferenceArray<>(Math.max(bufferSize, 0));
+        }
+        this.threshold = thresholdMs > 0 ? TimeUnit.MILLISECONDS.toNanos(thresholdMs) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Record an operation of String input if it exceeds latency threshold, input size is the number of bytes of UTF-8
+     * representation.
+     *
+     * @param type     operation type
+     * @param duration duration in nanoseconds
+     * @param input    input
+     */
+    void record(final OperationStats.Type type, final long duration, final String input) {
+        if (duration >= threshold) {
+            record(type, duration, hu.blackbelt.encryption.services.impl.OperationStats.byteLength(input));
+        }
+    }
+
+    /**
+     * Record an operation if it exceeds latency threshold.
+     *
+     * @param type      operation type
+     * @param duration  duration in nanoseconds
+     * @param inputSize size of input (bytes)
+     */
+    void record(final OperationStats.Type type, final long duration, final long inputSize) {
+        if (duration < threshold) {
+            return;
+        }
+
+        final SlowOperation operation = SlowOperation.builder()
+                .timestamp(System.currentTimeMillis())
+                .alias(alias)
+                .type(type)
+                .algorithm(algorithm)
+                .provider(provider)
+                .inputSize(inputSize)
+                .duration(duration)
+                .thread(Thread.currentThread().getName())
+                .build();
+
+        final AtomicReferenceArray<SlowOperation> currentBuffer = buffer;
+        if (currentBuffer.length() > 0) {
+            currentBuffer.set((int) (counter.getAndIncrement() % currentBuffer.length()), operation);
+        }
+
+        if (samplingRate >= 1.0 || samplingRate > 0.0 && ThreadLocalRandom.current().nextDouble() < samplingRate) {
+            log(operation);
+        }
+    }
+
+    private void log(final SlowOperation operation) {
+        final String durationMs = String.format(Locale.ROOT, "%.3f", operation.getDuration() / 1_000_000.0);
+        final String[] values = {String.valueOf(operation.getAlias()), String.valueOf(operation.getType()), String.valueOf(operation.getAlgorithm()),
+                String.valueOf(operation.getProvider()), String.valueOf(operation.getInputSize()), durationMs};
+        // values of caller (ie. an operation logging slow operations of another service) are restored
+        final String[] previous = new String[MDC_KEYS.length];
+        for (int i = 0; i < MDC_KEYS.length; i++) {
+            previous[i] = MDC.get(MDC_KEYS[i]);
+            MDC.put(MDC_KEYS[i], values[i]);
+        }
+        try {
+            log.warn("Slow operation: operation=" + operation.getType() + " alias=" + operation.getAlias() + " algorithm=" + operation.getAlgorithm()
+                    + " provider=" + operation.getProvider() + " inputSize=" + operation.getInputSize() + " durationMs=" + durationMs);
+        } finally {
+            for (int i = 0; i < MDC_KEYS.length; i++) {
+                if (previous[i] != null) {
+                    MDC.put(MDC_KEYS[i], previous[i]);
+                } else {
+                    MDC.remove(MDC_KEYS[i]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getAlias() {
+        return alias;
+    }
+
+    @Override
+    public List<SlowOperation> getSlowOperations() {
+        final AtomicReferenceArray<SlowOperation> currentBuffer = buffer;
+        final List<SlowOperation> operations = new ArrayList<>(currentBuffer.length());
+        for (int i = 0; i < currentBuffer.length(); i++) {
+            final SlowOperation operation = currentBuffer.get(i);
+            if (operation != null) {
+                operations.add(operation);
+            }
+        }
+        operations.sort(Comparator.comparingLong(SlowOperation::getTimestamp).reversed());
+        return operations;
+    }
+}
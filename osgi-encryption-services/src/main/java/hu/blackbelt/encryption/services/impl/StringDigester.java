@@ -20,11 +20,14 @@ package hu.blackbelt.encryption.services.impl;
  * #L%
  */
 
-import hu.blackbelt.encryption.services.Digester;
+import hu.blackbelt.encryption.services.StreamDigester;
+import hu.blackbelt.encryption.services.TreeDigest;
 import hu.blackbelt.encryption.services.metrics.OperationStats;
 import lombok.extern.slf4j.Slf4j;
+import org.jasypt.digest.PooledStringDigester;
 import org.jasypt.digest.StandardStringDigester;
 import org.jasypt.digest.config.EnvironmentStringDigesterConfig;
+import org.jasypt.exceptions.EncryptionInitializationException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
@@ -34,16 +37,20 @@ import org.osgi.service.metatype.annotations.AttributeType;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 
-@Component(immediate = true, service = Digester.class, configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Component(immediate = true, service = {}, configurationPolicy = ConfigurationPolicy.REQUIRE)
 @Designate(ocd = StringDigester.Config.class)
 @Slf4j
-public class StringDigester implements Digester, org.jasypt.digest.StringDigester {
-
-    private hu.blackbelt.encryption.services.impl.OperationStats digestStats = new hu.blackbelt.encryption.services.impl.OperationStats();
-    private hu.blackbelt.encryption.services.impl.OperationStats digestValidationStats = new hu.blackbelt.encryption.services.impl.OperationStats();
+public class StringDigester extends BaseDigester implements StreamDigester, org.jasypt.digest.StringDigester {
 
     @SuppressWarnings("checkstyle:JavadocMethod")
     @ObjectClassDefinition(name = "String digester configuration")
@@ -61,15 +68,48 @@ public class StringDigester implements Digester, org.jasypt.digest.StringDigeste
         @AttributeDefinition(required = false, name = "Salt size", type = AttributeType.INTEGER)
         int digest_saltSize() default DEFAULT_SALT_SIZE;
 
+        @AttributeDefinition(required = false, name = "Tree chunk size", description = "Size of chunks (in bytes) of tree digests of streams, buffers and files, chunks are digested in parallel, 0 disables tree digests, otherwise it must be between 1 KB and 16 MB", type = AttributeType.INTEGER)
+        int digest_treeChunkSize() default DEFAULT_TREE_CHUNK_SIZE;
+
         @AttributeDefinition(required = false, name = "Alias for digester")
         String digester_alias();
 
         @AttributeDefinition(required = false, name = "Digester provider name")
         String digester_provider();
-    }
 
-    @lombok.Setter
-    private String alias;
+        @AttributeDefinition(required = false, name = "Pool size", description = "Number of independent digester instances used concurrently, 0 means number of available processors, default is a single instance", type = AttributeType.INTEGER)
+        int digester_poolSize() default DEFAULT_POOL_SIZE;
+
+        @AttributeDefinition(required = false, name = "Batch parallelism", description = "Parallelism of fork-join pool processing batches, common pool is used if not positive", type = AttributeType.INTEGER)
+        int digester_batchParallelism() default DEFAULT_BATCH_PARALLELISM;
+
+        @AttributeDefinition(required = false, name = "Async virtual threads", description = "Use virtual threads for asynchronous operations if supported by JVM", type = AttributeType.BOOLEAN)
+        boolean digester_asyncVirtualThreads() default DEFAULT_ASYNC_VIRTUAL_THREADS;
+
+        @AttributeDefinition(required = false, name = "Async threads", description = "Number of threads processing asynchronous operations if virtual threads are not used, 0 means number of available processors", type = AttributeType.INTEGER)
+        int digester_asyncThreads() default DEFAULT_ASYNC_THREADS;
+
+        @AttributeDefinition(required = false, name = "Async queue size", description = "Maximum number of pending asynchronous operations, further operations are rejected", type = AttributeType.INTEGER)
+        int digester_asyncQueueSize() default DEFAULT_ASYNC_QUEUE_SIZE;
+
+        @AttributeDefinition(required = false, name = "Consumer statistics limit", description = "Maximum number of consumer bundles with separate operation statistics (applied on activation), 0 disables statistics of consumers. Consumers get a facade recording their calls, so it adds overhead to every call", type = AttributeType.INTEGER)
+        int digester_consumerStatsLimit() default DEFAULT_CONSUMER_STATS_LIMIT;
+
+        @AttributeDefinition(required = false, name = "Verification cache size", description = "Maximum number of successful digest validations cached (keyed by HMAC of message and digest), 0 disables cache", type = AttributeType.INTEGER)
+        int digester_verificationCacheSize() default DEFAULT_VERIFICATION_CACHE_SIZE;
+
+        @AttributeDefinition(required = false, name = "Verification cache TTL (sec)", description = "Time to live of cached validations, validations are not expired if not positive", type = AttributeType.LONG)
+        long digester_verificationCacheTtl() default DEFAULT_VERIFICATION_CACHE_TTL;
+
+        @AttributeDefinition(required = false, name = "Slow operation threshold", description = "Operations taking longer (in milliseconds) are logged and kept in memory, 0 disables detection of slow operations", type = AttributeType.LONG)
+        long digester_slowThreshold() default DEFAULT_SLOW_THRESHOLD;
+
+        @AttributeDefinition(required = false, name = "Slow operation sampling rate", description = "Rate of slow operations logged (0-1)", type = AttributeType.DOUBLE)
+        double digester_slowSamplingRate() default DEFAULT_SLOW_SAMPLING_RATE;
+
+        @AttributeDefinition(required = false, name = "Slow operation buffer size", description = "Number of recent slow operations kept in memory", type = AttributeType.INTEGER)
+        int digester_slowBufferSize() default DEFAULT_SLOW_BUFFER_SIZE;
+    }
 
     @lombok.Setter
     private String algorithm;
@@ -88,15 +128,50 @@ public class StringDigester implements Digester, org.jasypt.digest.StringDigeste
     @lombok.Setter
     private String providerName;
 
+    public static final int DEFAULT_TREE_CHUNK_SIZE = 0;
+
+    @lombok.Setter
+    private int treeChunkSize = DEFAULT_TREE_CHUNK_SIZE;
+
+    public static final int DEFAULT_POOL_SIZE = 1;
+
+    @lombok.Setter
+    private int poolSize = DEFAULT_POOL_SIZE;
+
+    public static final int DEFAULT_BATCH_PARALLELISM = 0;
+    public static final boolean DEFAULT_ASYNC_VIRTUAL_THREADS = true;
+    public static final int DEFAULT_ASYNC_THREADS = 0;
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_CONSUMER_STATS_LIMIT = 0;
+
+    public static final int DEFAULT_VERIFICATION_CACHE_SIZE = 0;
+    public static final long DEFAULT_VERIFICATION_CACHE_TTL = 300L;
+
+    /**
+     * Cache of successful validations, replaced (so invalidated) on configuration change.
+     */
+    private volatile VerificationCache verificationCache;
+
+    public static final long DEFAULT_SLOW_THRESHOLD = 0L;
+    public static final double DEFAULT_SLOW_SAMPLING_RATE = 1.0;
+    public static final int DEFAULT_SLOW_BUFFER_SIZE = 100;
+
     /**
      * OSGi service registration of Jasypt service (PAX-JDBC uses that service interface).
      */
     private ServiceRegistration<org.jasypt.digest.StringDigester> defaultStringDigester;
 
-    private ServiceRegistration<OperationStats> digestStatsReg;
-    private ServiceRegistration<OperationStats> digestValidationStatsReg;
+    private ServiceRegistration<StreamDigester> streamDigesterReg;
+
+    /**
+     * Initialized digester used by operations, replaced atomically on configuration change.
+     */
+    private volatile org.jasypt.digest.StringDigester digester;
 
-    private transient org.jasypt.digest.StringDigester digester;
+    /**
+     * Digester of streams, buffers and files using the same configuration, replaced together with digester.
+     */
+    private volatile MessageDigestStreams streams;
 
     /**
      * Register StringDigester service instance.
@@ -106,18 +181,12 @@ public class StringDigester implements Digester, org.jasypt.digest.StringDigeste
      */
     @Activate
     void start(final ComponentContext cc, final StringDigester.Config config) {
-        final Dictionary<String, Object> digestProps = new Hashtable<>();
-        digestProps.put("alias", config.digester_alias());
-        digestProps.put("type", OperationStats.Type.DIGEST);
-        digestStatsReg = cc.getBundleContext().registerService(OperationStats.class, digestStats, digestProps);
-
-        final Dictionary<String, Object> digestValidationProps = new Hashtable<>();
-        digestValidationProps.put("alias", config.digest_algorithm());
-        digestValidationProps.put("type", OperationStats.Type.VALIDATE_DIGEST);
-        digestValidationStatsReg = cc.getBundleContext().registerService(OperationStats.class, digestValidationStats, digestValidationProps);
-
+        registerStats(cc, config.digester_alias(), config.digest_algorithm());
         refreshConfig(config);
-        defaultStringDigester = cc.getBundleContext().registerService(org.jasypt.digest.StringDigester.class, this, getJasyptServiceProps(config.digester_alias(), config.digest_algorithm()));
+        publishDigester();
+        registerServices(config.digest_algorithm(), config.digester_consumerStatsLimit());
+        defaultStringDigester = registerService(org.jasypt.digest.StringDigester.class, this, getJasyptServiceProps(config.digester_alias(), config.digest_algorithm()));
+        streamDigesterReg = registerService(StreamDigester.class, this, getServiceProps(config.digester_alias(), config.digest_algorithm()));
     }
 
     /**
@@ -128,8 +197,10 @@ public class StringDigester implements Digester, org.jasypt.digest.StringDigeste
     @Modified
     void update(final StringDigester.Config config) {
         refreshConfig(config);
+        publishDigester();
+        updateServices(config.digest_algorithm());
         defaultStringDigester.setProperties(getJasyptServiceProps(config.digester_alias(), config.digest_algorithm()));
-        digester = null;
+        streamDigesterReg.setProperties(getServiceProps(config.digester_alias(), config.digest_algorithm()));
     }
 
     /**
@@ -141,33 +212,40 @@ public class StringDigester implements Digester, org.jasypt.digest.StringDigeste
             if (defaultStringDigester != null) {
                 defaultStringDigester.unregister();
             }
-
-            if (digestStatsReg != null) {
-                digestStatsReg.unregister();
-            }
-
-            if (digestValidationStatsReg != null) {
-                digestValidationStatsReg.unregister();
+            if (streamDigesterReg != null) {
+                streamDigesterReg.unregister();
             }
+            unregisterServices();
         } finally {
             defaultStringDigester = null;
-            digestStatsReg = null;
-            digestValidationStatsReg = null;
+            streamDigesterReg = null;
             digester = null;
+            streams = null;
+            verificationCache = null;
         }
     }
 
     private void refreshConfig(final StringDigester.Config config) {
-        alias = config.digester_alias();
-        if (alias == null) {
-            log.warn("Alias is not configured for Digester component.");
+        if (config.digest_treeChunkSize() > 0 && !MessageDigestStreams.isValidTreeChunkSize(config.digest_treeChunkSize())) {
+            throw new EncryptionInitializationException("Tree chunk size of digester '" + config.digester_alias() + "' must be between "
+                    + MessageDigestStreams.MIN_TREE_CHUNK_SIZE + " and " + MessageDigestStreams.MAX_TREE_CHUNK_SIZE + ": " + config.digest_treeChunkSize());
         }
-
         algorithm = config.digest_algorithm();
         providerName = config.digester_provider();
         outputType = config.digest_outputType();
         iterations = config.digest_iterations();
         saltSize = config.digest_saltSize();
+        treeChunkSize = config.digest_treeChunkSize();
+        poolSize = config.digester_poolSize();
+
+        configure(config.digester_alias(), config.digester_batchParallelism(), config.digester_asyncVirtualThreads(), config.digester_asyncThreads(), config.digester_asyncQueueSize());
+
+        verificationCache = config.digester_verificationCacheSize() > 0
+                ? new VerificationCache(config.digester_verificationCacheSize(), config.digester_verificationCacheTtl(), TimeUnit.SECONDS)
+                : null;
+        digestValidationStats.setCache(verificationCache != null ? verificationCache.getCache() : null);
+
+        slowOperations.configure(alias, algorithm, providerName, config.digester_slowThreshold(), config.digester_slowSamplingRate(), config.digester_slowBufferSize());
     }
 
     private Dictionary<String, Object> getJasyptServiceProps(final String alias, final String algorithm) {
@@ -181,63 +259,233 @@ public class StringDigester implements Digester, org.jasypt.digest.StringDigeste
         return dict;
     }
 
+    public void setAlias(final String alias) {
+        this.alias = alias;
+    }
+
     @Override
-    public String getAlias() {
-        return alias;
+    protected String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Build and publish digester of the current configuration. Operations in progress are completed by the previous
+     * digester. If digester cannot be built it is built on first use.
+     */
+    private void publishDigester() {
+        org.jasypt.digest.StringDigester built;
+        MessageDigestStreams builtStreams;
+        try {
+            built = buildDigester();
+            builtStreams = buildStreams();
+        } catch (RuntimeException ex) {
+            log.error("Unable to initialize digester " + alias + ", it will be initialized on first use", ex);
+            built = null;
+            builtStreams = null;
+        }
+        synchronized (this) {
+            digester = built;
+            streams = builtStreams;
+        }
     }
 
     private org.jasypt.digest.StringDigester getDigester() {
-        if (digester == null) {
-            final EnvironmentStringDigesterConfig digesterConfig = new EnvironmentStringDigesterConfig();
-            digesterConfig.setAlgorithm(algorithm);
-            if (providerName != null) {
-                digesterConfig.setProviderName(providerName);
+        org.jasypt.digest.StringDigester current = digester;
+        if (current == null) {
+            synchronized (this) {
+                current = digester;
+                if (current == null) {
+                    current = buildDigester();
+                    digester = current;
+                }
             }
-            if (outputType != null) {
-                digesterConfig.setStringOutputType(outputType);
-            }
-            if (iterations > 0) {
-                digesterConfig.setIterations(iterations);
-            }
-            if (saltSize >= 0) {
-                digesterConfig.setSaltSizeBytes(saltSize);
+        }
+
+        return current;
+    }
+
+    private MessageDigestStreams getStreams() {
+        MessageDigestStreams current = streams;
+        if (current == null) {
+            synchronized (this) {
+                current = streams;
+                if (current == null) {
+                    current = buildStreams();
+                    streams = current;
+                }
             }
+        }
 
+        return current;
+    }
+
+    private MessageDigestStreams buildStreams() {
+        return new MessageDigestStreams(algorithm, providerName, iterations, saltSize, outputType, treeChunkSize, batch);
+    }
+
+    private org.jasypt.digest.StringDigester buildDigester() {
+        final EnvironmentStringDigesterConfig digesterConfig = new EnvironmentStringDigesterConfig();
+        digesterConfig.setAlgorithm(algorithm);
+        if (providerName != null) {
+            digesterConfig.setProviderName(providerName);
+        }
+        if (outputType != null) {
+            digesterConfig.setStringOutputType(outputType);
+        }
+        if (iterations > 0) {
+            digesterConfig.setIterations(iterations);
+        }
+        if (saltSize >= 0) {
+            digesterConfig.setSaltSizeBytes(saltSize);
+        }
+
+        final int effectivePoolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        if (effectivePoolSize > 1) {
+            final PooledStringDigester digester = new PooledStringDigester();
+            digester.setConfig(digesterConfig);
+            digester.setPoolSize(effectivePoolSize);
+            digester.initialize();
+            return digester;
+        } else {
             final StandardStringDigester digester = new StandardStringDigester();
             digester.setConfig(digesterConfig);
-            this.digester = digester;
+            digester.initialize();
+            return digester;
         }
+    }
 
-        return digester;
+    @Override
+    protected String digestString(final String data) {
+        return getDigester().digest(data);
     }
 
     @Override
-    public String digest(final String data) {
-        final long startTs = System.currentTimeMillis();
+    protected boolean matchesString(final String data, final String digest) {
+        final VerificationCache cache = verificationCache;
+        final org.jasypt.digest.StringDigester engine = getDigester();
+        // successful validations are cached if verification cache is enabled
+        return cache != null ? cache.matches(data, digest, engine::matches) : engine.matches(data, digest);
+    }
 
+    @Override
+    public String digest(final InputStream in) throws IOException {
+        final MessageDigestStreams.SplittableInput input = MessageDigestStreams.of(in);
+        return digestInput(input, streams -> streams.digest(input), String::length);
+    }
+
+    @Override
+    public String digest(final ByteBuffer data) {
+        final MessageDigestStreams.SplittableInput input = MessageDigestStreams.of(data);
+        return uncheckedBuffer(() -> digestInput(input, streams -> streams.digest(input), String::length));
+    }
+
+    @Override
+    public String digest(final Path file) throws IOException {
+        final MessageDigestStreams.SplittableInput input = MessageDigestStreams.of(file);
+        return digestInput(input, streams -> streams.digest(input), String::length);
+    }
+
+    @Override
+    public TreeDigest digestTree(final ByteBuffer data) {
+        final MessageDigestStreams.SplittableInput input = MessageDigestStreams.of(data);
+        return uncheckedBuffer(() -> digestInput(input, streams -> streams.digestTree(input), tree -> tree.getDigest().length()));
+    }
+
+    @Override
+    public TreeDigest digestTree(final Path file) throws IOException {
+        final MessageDigestStreams.SplittableInput input = MessageDigestStreams.of(file);
+        return digestInput(input, streams -> streams.digestTree(input), tree -> tree.getDigest().length());
+    }
+
+    @Override
+    public boolean matches(final InputStream in, final String digest) throws IOException {
+        final MessageDigestStreams.SplittableInput input = MessageDigestStreams.of(in);
+        return matchesInput(input, streams -> streams.matches(input, digest));
+    }
+
+    @Override
+    public boolean matches(final ByteBuffer data, final String digest) {
+        final MessageDigestStreams.SplittableInput input = MessageDigestStreams.of(data);
+        return uncheckedBuffer(() -> matchesInput(input, streams -> streams.matches(input, digest)));
+    }
+
+    @Override
+    public boolean matches(final Path file, final String digest) throws IOException {
+        final MessageDigestStreams.SplittableInput input = MessageDigestStreams.of(file);
+        return matchesInput(input, streams -> streams.matches(input, digest));
+    }
+
+    @Override
+    public boolean matchesChunk(final ByteBuffer chunk, final int index, final TreeDigest tree) {
+        final MessageDigestStreams.Input input = MessageDigestStreams.of(chunk);
+        return uncheckedBuffer(() -> matchesInput(input, streams -> streams.matchesChunk(input, index, tree)));
+    }
+
+    @Override
+    public boolean matchesChunk(final Path file, final int index, final TreeDigest tree) throws IOException {
+        final MessageDigestStreams.Input input = MessageDigestStreams.ofChunk(file, index, tree.getChunkSize());
+        return matchesInput(input, streams -> streams.matchesChunk(input, index, tree));
+    }
+
+    /**
+     * Operation of stream digester.
+     *
+     * @param <T> type of result
+     */
+    @FunctionalInterface
+    private interface StreamOperation<T> {
+
+        T apply(MessageDigestStreams streams) throws IOException;
+    }
+
+    private static <T> T uncheckedBuffer(final Callable<T> operation) {
         try {
-            return getDigester().digest(data);
+            return operation.call();
         } catch (RuntimeException ex) {
-            digestStats.incrementErrors();
+            throw ex;
+        } catch (Exception ex) {
+            // not thrown by buffer input
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private <T> T digestInput(final MessageDigestStreams.Input input, final StreamOperation<T> operation, final ToIntFunction<T> outputLength) throws IOException {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        try {
+            final T result = operation.apply(getStreams());
+            digestStats.recordSizes(input.size(), outputLength.applyAsInt(result));
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DIGEST, alias, algorithm, input.size(), outputLength.applyAsInt(result), FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            digestStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DIGEST, alias, algorithm, input.size(), 0, FlightRecorderEvents.outcome(ex));
             throw ex;
         } finally {
-            final Long endTs = System.currentTimeMillis();
+            final Long endTs = System.nanoTime();
             digestStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.DIGEST, endTs - startTs, input.size());
         }
     }
 
-    @Override
-    public boolean matches(final String data, final String digest) {
-        final long startTs = System.currentTimeMillis();
+    private boolean matchesInput(final MessageDigestStreams.Input input, final StreamOperation<Boolean> operation) throws IOException {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
 
         try {
-            return getDigester().matches(data, digest);
-        } catch (RuntimeException ex) {
-            digestValidationStats.incrementErrors();
+            final boolean result = operation.apply(getStreams());
+            digestValidationStats.recordSizes(input.size(), 0L);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.VALIDATE_DIGEST, alias, algorithm, input.size(), 0, result ? FlightRecorderEvents.OUTCOME_SUCCESS : FlightRecorderEvents.OUTCOME_MISMATCH);
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            digestValidationStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.VALIDATE_DIGEST, alias, algorithm, input.size(), 0, FlightRecorderEvents.outcome(ex));
             throw ex;
         } finally {
-            final Long endTs = System.currentTimeMillis();
+            final Long endTs = System.nanoTime();
             digestValidationStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.VALIDATE_DIGEST, endTs - startTs, input.size());
         }
     }
 }
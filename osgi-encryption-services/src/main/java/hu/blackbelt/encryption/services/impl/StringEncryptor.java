@@ -20,16 +20,17 @@ package hu.blackbelt.encryption.services.impl;
  * #L%
  */
 
+import hu.blackbelt.encryption.services.AsyncEncryptor;
+import hu.blackbelt.encryption.services.BinaryEncryptor;
 import hu.blackbelt.encryption.services.Encryptor;
-import hu.blackbelt.encryption.services.internal.FileWatcher;
+import hu.blackbelt.encryption.services.StreamEncryptor;
+import hu.blackbelt.encryption.services.internal.PasswordSource;
 import hu.blackbelt.encryption.services.metrics.OperationStats;
+import hu.blackbelt.encryption.services.metrics.SlowOperationLog;
 import lombok.extern.slf4j.Slf4j;
-import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
-import org.jasypt.encryption.pbe.config.EnvironmentStringPBEConfig;
+import org.jasypt.encryption.pbe.StandardPBEByteEncryptor;
 import org.osgi.framework.Constants;
-import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
-import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.*;
@@ -38,19 +39,27 @@ import org.osgi.service.metatype.annotations.AttributeType;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
-import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Dictionary;
+import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-@Component(immediate = true, service = Encryptor.class, configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Component(immediate = true, service = {}, configurationPolicy = ConfigurationPolicy.REQUIRE)
 @Designate(ocd = StringEncryptor.Config.class)
 @Slf4j
-public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringEncryptor {
+public class StringEncryptor implements Encryptor, AsyncEncryptor, BinaryEncryptor, StreamEncryptor, org.jasypt.encryption.StringEncryptor {
 
     @SuppressWarnings("checkstyle:JavadocMethod")
     @ObjectClassDefinition(name = "String encryptor configuration")
@@ -91,6 +100,36 @@ public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringE
 
         @AttributeDefinition(required = false, name = "Enable password file watcher", description = "Enable password file watcher and trigger configuration reload on change", type = AttributeType.BOOLEAN)
         boolean encryptor_enablePasswordFileWatcher() default DEFAULT_ENABLE_PASSWORD_FILE_WATCHER;
+
+        @AttributeDefinition(required = false, name = "Pool size", description = "Number of idle cipher instances kept for concurrent use, 0 means number of available processors, default is a single instance", type = AttributeType.INTEGER)
+        int encryptor_poolSize() default DEFAULT_POOL_SIZE;
+
+        @AttributeDefinition(required = false, name = "Batch parallelism", description = "Parallelism of fork-join pool processing batches, common pool is used if not positive", type = AttributeType.INTEGER)
+        int encryptor_batchParallelism() default DEFAULT_BATCH_PARALLELISM;
+
+        @AttributeDefinition(required = false, name = "Async virtual threads", description = "Use virtual threads for asynchronous operations if supported by JVM", type = AttributeType.BOOLEAN)
+        boolean encryptor_asyncVirtualThreads() default DEFAULT_ASYNC_VIRTUAL_THREADS;
+
+        @AttributeDefinition(required = false, name = "Async threads", description = "Number of threads processing asynchronous operations if virtual threads are not used, 0 means number of available processors", type = AttributeType.INTEGER)
+        int encryptor_asyncThreads() default DEFAULT_ASYNC_THREADS;
+
+        @AttributeDefinition(required = false, name = "Async queue size", description = "Maximum number of pending asynchronous operations, further operations are rejected", type = AttributeType.INTEGER)
+        int encryptor_asyncQueueSize() default DEFAULT_ASYNC_QUEUE_SIZE;
+
+        @AttributeDefinition(required = false, name = "Warm-up iterations", description = "Number of encryption/decryption round-trips executed in background after activation and self-test, 0 disables warm-up", type = AttributeType.INTEGER)
+        int encryptor_warmup() default DEFAULT_WARMUP;
+
+        @AttributeDefinition(required = false, name = "Consumer statistics limit", description = "Maximum number of consumer bundles with separate operation statistics (applied on activation), 0 disables statistics of consumers. Consumers get a facade recording their calls, so it adds overhead to every call", type = AttributeType.INTEGER)
+        int encryptor_consumerStatsLimit() default DEFAULT_CONSUMER_STATS_LIMIT;
+
+        @AttributeDefinition(required = false, name = "Slow operation threshold", description = "Operations taking longer (in milliseconds) are logged and kept in memory, 0 disables detection of slow operations", type = AttributeType.LONG)
+        long encryptor_slowThreshold() default DEFAULT_SLOW_THRESHOLD;
+
+        @AttributeDefinition(required = false, name = "Slow operation sampling rate", description = "Rate of slow operations logged (0-1)", type = AttributeType.DOUBLE)
+        double encryptor_slowSamplingRate() default DEFAULT_SLOW_SAMPLING_RATE;
+
+        @AttributeDefinition(required = false, name = "Slow operation buffer size", description = "Number of recent slow operations kept in memory", type = AttributeType.INTEGER)
+        int encryptor_slowBufferSize() default DEFAULT_SLOW_BUFFER_SIZE;
     }
 
     @lombok.Setter
@@ -125,12 +164,54 @@ public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringE
     @lombok.Setter
     private String providerName;
 
-    private FileWatcher fileWatcher;
+    public static final int DEFAULT_POOL_SIZE = 1;
+
+    @lombok.Setter
+    private int poolSize = DEFAULT_POOL_SIZE;
+
+    public static final int DEFAULT_BATCH_PARALLELISM = 0;
+
+    private volatile ParallelBatch batch = new ParallelBatch(DEFAULT_BATCH_PARALLELISM);
+
+    public static final boolean DEFAULT_ASYNC_VIRTUAL_THREADS = true;
+    public static final int DEFAULT_ASYNC_THREADS = 0;
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+
+    private volatile AsyncExecutor asyncExecutor;
+
+    public static final int DEFAULT_WARMUP = 0;
+
+    /**
+     * Service property of registered services, TRUE if warm-up and self-test are completed successfully. It is not set
+     * if warm-up is disabled.
+     */
+    public static final String WARMED_UP_PROPERTY = "warmedUp";
+
+    private static final String WARMUP_MESSAGE = "warm-up";
+
+    @lombok.Setter
+    private int warmup = DEFAULT_WARMUP;
+
+    private volatile Boolean warmedUp;
+
+    private final AtomicInteger warmupGeneration = new AtomicInteger();
+
+    public static final int DEFAULT_CONSUMER_STATS_LIMIT = 0;
+
+    private ConsumerStats consumerStats;
+
+    public static final long DEFAULT_SLOW_THRESHOLD = 0L;
+    public static final double DEFAULT_SLOW_SAMPLING_RATE = 1.0;
+    public static final int DEFAULT_SLOW_BUFFER_SIZE = 100;
+
+    private final SlowOperationDetector slowOperations = new SlowOperationDetector();
+
+    private PasswordFileWatcher fileWatcher;
 
     private ComponentContext cc;
 
-    private hu.blackbelt.encryption.services.impl.OperationStats encryptionStats = new hu.blackbelt.encryption.services.impl.OperationStats();
-    private hu.blackbelt.encryption.services.impl.OperationStats decryptionStats = new hu.blackbelt.encryption.services.impl.OperationStats();
+    final hu.blackbelt.encryption.services.impl.OperationStats encryptionStats = new hu.blackbelt.encryption.services.impl.OperationStats();
+    final hu.blackbelt.encryption.services.impl.OperationStats decryptionStats = new hu.blackbelt.encryption.services.impl.OperationStats();
 
     @Reference(policyOption = ReferencePolicyOption.GREEDY)
     private ConfigurationAdmin configAdmin;
@@ -138,15 +219,43 @@ public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringE
     public static final boolean DEFAULT_ENABLE_PASSWORD_FILE_WATCHER = true;
     private volatile boolean enablePasswordFileWatcher;
 
+    private ServiceRegistration<Encryptor> encryptorReg;
+
     /**
      * OSGi service registration of Jasypt service (PAX-JDBC uses that service interface).
      */
     private ServiceRegistration<org.jasypt.encryption.StringEncryptor> defaultStringEncryptor;
 
+    private ServiceRegistration<BinaryEncryptor> binaryEncryptorReg;
+
+    private ServiceRegistration<StreamEncryptor> streamEncryptorReg;
+
+    private ServiceRegistration<AsyncEncryptor> asyncEncryptorReg;
+
     private ServiceRegistration<OperationStats> encryptionStatsReg;
     private ServiceRegistration<OperationStats> decryptionStatsReg;
 
-    private org.jasypt.encryption.StringEncryptor encryptor;
+    private ServiceRegistration<SlowOperationLog> slowOperationLogReg;
+
+    /**
+     * Engine used by operations, replaced atomically on configuration change.
+     */
+    private volatile Engine engine;
+
+    /**
+     * Immutable snapshot of initialized encryptor instances built from one configuration.
+     */
+    private static final class Engine {
+
+        private final PbeCipherPipeline pipeline;
+
+        private final ChunkedAeadStreams streams;
+
+        private Engine(final PbeCipherPipeline pipeline, final ChunkedAeadStreams streams) {
+            this.pipeline = pipeline;
+            this.streams = streams;
+        }
+    }
 
     /**
      * Register StringEncryptor service instance.
@@ -161,15 +270,27 @@ public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringE
         final Dictionary<String, Object> encryptionProps = new Hashtable<>();
         encryptionProps.put("alias", config.encryptor_alias());
         encryptionProps.put("type", OperationStats.Type.ENCRYPTION);
+        encryptionProps.put("algorithm", config.encryption_algorithm());
         encryptionStatsReg = cc.getBundleContext().registerService(OperationStats.class, encryptionStats, encryptionProps);
 
         final Dictionary<String, Object> decryptionProps = new Hashtable<>();
         decryptionProps.put("alias", config.encryptor_alias());
         decryptionProps.put("type", OperationStats.Type.DECRYPTION);
+        decryptionProps.put("algorithm", config.encryption_algorithm());
         decryptionStatsReg = cc.getBundleContext().registerService(OperationStats.class, decryptionStats, decryptionProps);
 
         refreshConfig(config);
-        defaultStringEncryptor = cc.getBundleContext().registerService(org.jasypt.encryption.StringEncryptor.class, this, getJasyptServiceProps(config.encryptor_alias(), config.encryption_algorithm()));
+        publishEngine();
+        if (config.encryptor_consumerStatsLimit() > 0) {
+            consumerStats = new ConsumerStats(cc.getBundleContext(), config.encryptor_alias(), config.encryption_algorithm(), config.encryptor_consumerStatsLimit(), OperationStats.Type.ENCRYPTION, OperationStats.Type.DECRYPTION);
+        }
+        encryptorReg = registerService(Encryptor.class, this, getComponentServiceProps());
+        defaultStringEncryptor = registerService(org.jasypt.encryption.StringEncryptor.class, this, getJasyptServiceProps(config.encryptor_alias(), config.encryption_algorithm()));
+        binaryEncryptorReg = registerService(BinaryEncryptor.class, this, getServiceProps(config.encryptor_alias(), config.encryption_algorithm()));
+        streamEncryptorReg = registerService(StreamEncryptor.class, this, getServiceProps(config.encryptor_alias(), config.encryption_algorithm()));
+        asyncEncryptorReg = registerService(AsyncEncryptor.class, this, getServiceProps(config.encryptor_alias(), config.encryption_algorithm()));
+        slowOperationLogReg = cc.getBundleContext().registerService(SlowOperationLog.class, slowOperations, getServiceProps(config.encryptor_alias(), config.encryption_algorithm()));
+        startWarmup();
     }
 
     /**
@@ -180,8 +301,9 @@ public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringE
     @Modified
     void update(final Config config) {
         refreshConfig(config);
-        defaultStringEncryptor.setProperties(getJasyptServiceProps(config.encryptor_alias(), config.encryption_algorithm()));
-        encryptor = null;
+        publishEngine();
+        updateServiceProperties();
+        startWarmup();
     }
 
     /**
@@ -189,10 +311,23 @@ public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringE
      */
     @Deactivate
     void stop() {
+        warmupGeneration.incrementAndGet();
         try {
+            if (encryptorReg != null) {
+                encryptorReg.unregister();
+            }
             if (defaultStringEncryptor != null) {
                 defaultStringEncryptor.unregister();
             }
+            if (binaryEncryptorReg != null) {
+                binaryEncryptorReg.unregister();
+            }
+            if (streamEncryptorReg != null) {
+                streamEncryptorReg.unregister();
+            }
+            if (asyncEncryptorReg != null) {
+                asyncEncryptorReg.unregister();
+            }
 
             if (encryptionStatsReg != null) {
                 encryptionStatsReg.unregister();
@@ -200,16 +335,35 @@ public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringE
             if (decryptionStatsReg != null) {
                 decryptionStatsReg.unregister();
             }
+            if (slowOperationLogReg != null) {
+                slowOperationLogReg.unregister();
+            }
 
             if (fileWatcher != null) {
                 fileWatcher.stop();
             }
+
+            if (consumerStats != null) {
+                consumerStats.close();
+            }
+
+            batch.shutdown();
+            if (asyncExecutor != null) {
+                asyncExecutor.shutdown();
+            }
         } finally {
+            encryptorReg = null;
+            consumerStats = null;
             defaultStringEncryptor = null;
+            binaryEncryptorReg = null;
+            streamEncryptorReg = null;
+            asyncEncryptorReg = null;
+            asyncExecutor = null;
             fileWatcher = null;
             encryptionStatsReg = null;
             decryptionStatsReg = null;
-            encryptor = null;
+            slowOperationLogReg = null;
+            engine = null;
         }
     }
 
@@ -238,6 +392,16 @@ public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringE
         providerName = config.encryptor_provider();
         outputType = config.enrcyption_outputType();
         keyObtentionIterations = config.enrcyption_keyObtentionIterations();
+        poolSize = config.encryptor_poolSize();
+        warmup = config.encryptor_warmup();
+        warmupGeneration.incrementAndGet();
+        warmedUp = warmup > 0 ? Boolean.FALSE : null;
+
+        // executors are replaced only if their settings are changed, operations in progress are not rejected
+        batch = ParallelBatch.reconfigure(batch, config.encryptor_batchParallelism());
+        asyncExecutor = AsyncExecutor.reconfigure(asyncExecutor, "encryptor-" + alias, config.encryptor_asyncVirtualThreads(), config.encryptor_asyncThreads(), config.encryptor_asyncQueueSize());
+
+        slowOperations.configure(alias, algorithm, providerName, config.encryptor_slowThreshold(), config.encryptor_slowSamplingRate(), config.encryptor_slowBufferSize());
     }
 
     private Dictionary<String, Object> getJasyptServiceProps(final String alias, final String algorithm) {
@@ -247,151 +411,421 @@ public class StringEncryptor implements Encryptor, org.jasypt.encryption.StringE
         if (alias != null) {
             dict.put("alias", alias);
         }
+        if (warmedUp != null) {
+            dict.put(WARMED_UP_PROPERTY, warmedUp);
+        }
 
         return dict;
     }
 
-    @Override
-    public String getAlias() {
-        return alias;
+    private Dictionary<String, Object> getServiceProps(final String alias, final String algorithm) {
+        final Dictionary<String, Object> dict = new Hashtable<>();
+        dict.put("algorithm", algorithm);
+        if (alias != null) {
+            dict.put("alias", alias);
+            dict.put("encryptor.alias", alias);
+        }
+        if (warmedUp != null) {
+            dict.put(WARMED_UP_PROPERTY, warmedUp);
+        }
+
+        return dict;
+    }
+
+    private <S> ServiceRegistration<S> registerService(final Class<S> serviceClass, final S service, final Dictionary<String, Object> props) {
+        if (consumerStats != null) {
+            return cc.getBundleContext().registerService(serviceClass, new ConsumerServiceFactory<>(serviceClass, service, consumerStats), props);
+        }
+        return cc.getBundleContext().registerService(serviceClass, service, props);
+    }
+
+    private Dictionary<String, Object> getComponentServiceProps() {
+        final Dictionary<String, Object> dict = new Hashtable<>();
+        final Dictionary<String, Object> componentProps = cc.getProperties();
+        for (final Enumeration<String> keys = componentProps.keys(); keys.hasMoreElements(); ) {
+            final String key = keys.nextElement();
+            // private properties are not published, like by Service Component Runtime
+            if (!key.startsWith(".")) {
+                dict.put(key, componentProps.get(key));
+            }
+        }
+        if (warmedUp != null) {
+            dict.put(WARMED_UP_PROPERTY, warmedUp);
+        }
+
+        return dict;
     }
 
-    private org.jasypt.encryption.StringEncryptor getEncryptor() {
-        if (encryptor == null) {
-            final EnvironmentStringPBEConfig encryptorConfig = new EnvironmentStringPBEConfig();
-            encryptorConfig.setAlgorithm(algorithm);
-            if (providerName != null) {
-                encryptorConfig.setProviderName(providerName);
+    private void updateServiceProperties() {
+        try {
+            if (encryptorReg != null) {
+                encryptorReg.setProperties(getComponentServiceProps());
             }
-            if (outputType != null) {
-                encryptorConfig.setStringOutputType(outputType);
+            if (defaultStringEncryptor != null) {
+                defaultStringEncryptor.setProperties(getJasyptServiceProps(alias, algorithm));
             }
-            if (keyObtentionIterations > 0) {
-                encryptorConfig.setKeyObtentionIterations(keyObtentionIterations);
+            if (binaryEncryptorReg != null) {
+                binaryEncryptorReg.setProperties(getServiceProps(alias, algorithm));
             }
-
-            if (passwordFile == null && passwordFileEnvName != null) {
-                passwordFile = System.getenv(passwordFileEnvName);
-            } else if (passwordFile == null && passwordFileSysPropertyName != null) {
-                passwordFile = System.getProperty(passwordFileSysPropertyName);
+            if (streamEncryptorReg != null) {
+                streamEncryptorReg.setProperties(getServiceProps(alias, algorithm));
             }
+            if (asyncEncryptorReg != null) {
+                asyncEncryptorReg.setProperties(getServiceProps(alias, algorithm));
+            }
+            if (slowOperationLogReg != null) {
+                slowOperationLogReg.setProperties(getServiceProps(alias, algorithm));
+            }
+        } catch (IllegalStateException ex) {
+            if (log.isDebugEnabled()) {
+                log.debug("Encryptor " + alias + " is already unregistered", ex);
+            }
+        }
+    }
 
-            if (password != null) {
-                encryptorConfig.setPasswordCharArray(password);
-            } else if (passwordFile != null) {
-                encryptorConfig.setPasswordCharArray(loadPasswordFromFile(passwordFile));
-                if (enablePasswordFileWatcher) {
-                    synchronized (this) {
-                        if (fileWatcher == null) {
-                            fileWatcher = new PasswordFileWatcher(passwordFile);
-                            final Thread thread = new Thread(fileWatcher, passwordFile + " watcher");
-                            thread.start();
-                        }
-                    }
+    /**
+     * Start self-test and warm-up of the current engine in background, {@link #WARMED_UP_PROPERTY} service property is
+     * updated when it is completed.
+     */
+    private void startWarmup() {
+        if (warmup <= 0) {
+            return;
+        }
+
+        final int generation = warmupGeneration.get();
+        final int iterations = warmup;
+        final Thread thread = new Thread(() -> warmUp(generation, iterations), "encryptor-warmup-" + alias);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void warmUp(final int generation, final int iterations) {
+        final long startTs = System.nanoTime();
+        boolean success;
+        try {
+            final Engine current = getEngine();
+            for (int i = 0; i <= iterations && generation == warmupGeneration.get(); i++) {
+                if (!WARMUP_MESSAGE.equals(current.pipeline.decrypt(current.pipeline.encrypt(WARMUP_MESSAGE)))) {
+                    throw new IllegalStateException("Decrypted message does not match the original one");
                 }
-            } else if (passwordEnvName != null) {
-                encryptorConfig.setPasswordEnvName(passwordEnvName);
-            } else if (passwordSysPropertyName != null) {
-                encryptorConfig.setPasswordSysPropertyName(passwordSysPropertyName);
+                final byte[] bytes = WARMUP_MESSAGE.getBytes(StandardCharsets.UTF_8);
+                if (!Arrays.equals(bytes, current.pipeline.decrypt(current.pipeline.encrypt(bytes)))) {
+                    throw new IllegalStateException("Decrypted bytes do not match the original ones");
+                }
+            }
+            success = true;
+            if (log.isDebugEnabled()) {
+                log.debug("Encryptor " + alias + " warmed up in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTs) + " ms");
             }
+        } catch (RuntimeException ex) {
+            log.error("Self-test of encryptor " + alias + " failed", ex);
+            success = false;
+        }
 
-            final StandardPBEStringEncryptor encryptor = new StandardPBEStringEncryptor();
-            encryptor.setConfig(encryptorConfig);
-            this.encryptor = encryptor;
+        if (generation == warmupGeneration.get()) {
+            warmedUp = success;
+            updateServiceProperties();
         }
+    }
 
-        return encryptor;
+    @Override
+    public String getAlias() {
+        return alias;
     }
 
-    private void passwordFileContentChanged() {
-        if (log.isDebugEnabled()) {
-            log.debug("Password file updated for StringEncryptor '" + alias + "'");
+    /**
+     * Build and publish engine of the current configuration. Operations in progress are completed by the previous
+     * engine. If engine cannot be built it is built on first use.
+     */
+    private void publishEngine() {
+        Engine built;
+        try {
+            built = buildEngine();
+        } catch (RuntimeException ex) {
+            log.error("Unable to initialize encryptor " + alias + ", it will be initialized on first use", ex);
+            built = null;
         }
+        synchronized (this) {
+            engine = built;
+        }
+    }
 
-        final ServiceReference<Encryptor> sr = (ServiceReference<Encryptor>) cc.getServiceReference();
-        if (sr != null) {
-            final String pid = (String) sr.getProperty(Constants.SERVICE_PID);
-            try {
-                final Configuration config = configAdmin.getConfiguration(pid);
-                final Dictionary dict = config.getProperties();
-                dict.put("lastModified", System.currentTimeMillis());
-                config.update(dict);
-                if (log.isTraceEnabled()) {
-                    log.trace("Updated configuration for PID: " + pid);
+    private Engine getEngine() {
+        Engine current = engine;
+        if (current == null) {
+            synchronized (this) {
+                current = engine;
+                if (current == null) {
+                    current = buildEngine();
+                    engine = current;
                 }
-            } catch (IOException ex) {
-                log.error("Unable to get configuration", ex);
             }
         }
+
+        return current;
+    }
+
+    private Engine buildEngine() {
+        final PasswordSource passwordSource = new PasswordSource(password, passwordFile, passwordFileEnvName, passwordFileSysPropertyName, passwordEnvName, passwordSysPropertyName);
+        if (passwordSource.getPasswordFile() != null && enablePasswordFileWatcher) {
+            synchronized (this) {
+                if (fileWatcher == null) {
+                    fileWatcher = new PasswordFileWatcher(passwordSource.getPasswordFile(), configAdmin, cc);
+                    fileWatcher.start();
+                }
+            }
+        }
+
+        final String providerName = this.providerName;
+        final ChunkedAeadStreams streams = new ChunkedAeadStreams((salt, iterations) -> ChunkedAeadStreams.deriveStreamKey(passwordSource.resolve(), salt, iterations, providerName), providerName,
+                keyObtentionIterations > 0 ? keyObtentionIterations : StandardPBEByteEncryptor.DEFAULT_KEY_OBTENTION_ITERATIONS, ChunkedAeadStreams.DEFAULT_CHUNK_SIZE,
+                encryptionStats, decryptionStats);
+
+        final char[] resolvedPassword = passwordSource.resolve();
+        try {
+            final int effectivePoolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+            final PbeCipherPipeline pipeline = new PbeCipherPipeline(algorithm, providerName, keyObtentionIterations, outputType, resolvedPassword, effectivePoolSize,
+                    encryptionStats, decryptionStats);
+            return new Engine(pipeline, streams);
+        } finally {
+            if (resolvedPassword != null) {
+                Arrays.fill(resolvedPassword, (char) 0);
+            }
+        }
+    }
+
+    private PbeCipherPipeline getPipeline() {
+        return getEngine().pipeline;
+    }
+
+    private ChunkedAeadStreams getStreams() {
+        return getEngine().streams;
     }
 
     @Override
     public String encrypt(final String message) {
-        final long startTs = System.currentTimeMillis();
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
 
         try {
-            return getEncryptor().encrypt(message);
+            final String result = getPipeline().encrypt(message);
+            encryptionStats.recordSizes(message, result);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, algorithm, message, result, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
         } catch (RuntimeException ex) {
-            encryptionStats.incrementErrors();
+            encryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, algorithm, message, null, FlightRecorderEvents.outcome(ex));
             throw ex;
         } finally {
-            final Long endTs = System.currentTimeMillis();
+            final Long endTs = System.nanoTime();
             encryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.ENCRYPTION, endTs - startTs, message);
         }
     }
 
     @Override
     public String decrypt(final String encryptedMessage) {
-        final long startTs = System.currentTimeMillis();
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
 
         try {
-            return getEncryptor().decrypt(encryptedMessage);
+            final String result = getPipeline().decrypt(encryptedMessage);
+            decryptionStats.recordSizes(encryptedMessage, result);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, algorithm, encryptedMessage, result, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
         } catch (RuntimeException ex) {
-            decryptionStats.incrementErrors();
+            decryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, algorithm, encryptedMessage, null, FlightRecorderEvents.outcome(ex));
             throw ex;
         } finally {
-            final Long endTs = System.currentTimeMillis();
+            final Long endTs = System.nanoTime();
             decryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.DECRYPTION, endTs - startTs, encryptedMessage);
         }
     }
 
-    /**
-     * Load password from file.
-     *
-     * @param path file that contains password, using default charset of platform
-     * @return plain text password
-     */
-    private static char[] loadPasswordFromFile(final String path) {
+    @Override
+    public List<String> encryptAll(final Collection<String> data) {
+        return Arrays.asList(encryptAll(data.toArray(new String[0])));
+    }
+
+    @Override
+    public String[] encryptAll(final String[] data) {
+        final long startTs = System.nanoTime();
+
         try {
-            final byte[] encoded = Files.readAllBytes(Paths.get(path));
-            return Charset.forName("UTF-8").decode(ByteBuffer.wrap(encoded)).array();
-        } catch (IOException ex) {
-            throw new IllegalArgumentException("Unable to read password from file: " + path, ex);
+            final PbeCipherPipeline engine = getPipeline();
+            final String[] result = new String[data.length];
+            batch.run(data.length, i -> result[i] = engine.encrypt(data[i]));
+            for (int i = 0; i < data.length; i++) {
+                encryptionStats.recordSizes(data[i], result[i]);
+            }
+            return result;
+        } catch (RuntimeException ex) {
+            encryptionStats.incrementErrors(ex);
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            encryptionStats.setProcessingTime(endTs - startTs, data.length);
+        }
+    }
+
+    @Override
+    public List<String> decryptAll(final Collection<String> encryptedMessages) {
+        return Arrays.asList(decryptAll(encryptedMessages.toArray(new String[0])));
+    }
+
+    @Override
+    public String[] decryptAll(final String[] encryptedMessages) {
+        final long startTs = System.nanoTime();
+
+        try {
+            final PbeCipherPipeline engine = getPipeline();
+            final String[] result = new String[encryptedMessages.length];
+            batch.run(encryptedMessages.length, i -> result[i] = engine.decrypt(encryptedMessages[i]));
+            for (int i = 0; i < encryptedMessages.length; i++) {
+                decryptionStats.recordSizes(encryptedMessages[i], result[i]);
+            }
+            return result;
+        } catch (RuntimeException ex) {
+            decryptionStats.incrementErrors(ex);
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            decryptionStats.setProcessingTime(endTs - startTs, encryptedMessages.length);
         }
     }
 
-    private class PasswordFileWatcher extends FileWatcher {
+    @Override
+    public CompletableFuture<String> encryptAsync(final String data) {
+        return asyncExecutor.submit(() -> encrypt(data), encryptionStats);
+    }
+
+    @Override
+    public CompletableFuture<String> decryptAsync(final String encryptedMessage) {
+        return asyncExecutor.submit(() -> decrypt(encryptedMessage), decryptionStats);
+    }
+
+    @Override
+    public byte[] encrypt(final byte[] message) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
 
-        PasswordFileWatcher(final String path) {
-            super(path);
+        try {
+            final byte[] result = getPipeline().encrypt(message);
+            encryptionStats.recordSizes(message, result);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, algorithm, message != null ? message.length : 0, result != null ? result.length : 0, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
+        } catch (RuntimeException ex) {
+            encryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, algorithm, message != null ? message.length : 0, 0, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            encryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.ENCRYPTION, endTs - startTs, message != null ? message.length : 0);
         }
+    }
 
-        @Override
-        protected void onCreate(final Path path) {
-            super.onCreate(path);
-            passwordFileContentChanged();
+    @Override
+    public byte[] decrypt(final byte[] encryptedMessage) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
+
+        try {
+            final byte[] result = getPipeline().decrypt(encryptedMessage);
+            decryptionStats.recordSizes(encryptedMessage, result);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, algorithm, encryptedMessage != null ? encryptedMessage.length : 0, result != null ? result.length : 0, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return result;
+        } catch (RuntimeException ex) {
+            decryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, algorithm, encryptedMessage != null ? encryptedMessage.length : 0, 0, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            decryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.DECRYPTION, endTs - startTs, encryptedMessage != null ? encryptedMessage.length : 0);
         }
+    }
+
+    @Override
+    public int encrypt(final ByteBuffer src, final ByteBuffer dst) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
 
-        @Override
-        protected void onModify(Path path) {
-            super.onModify(path);
-            passwordFileContentChanged();
+        final int srcPosition = src.position();
+        final int dstPosition = dst.position();
+        final int inputSize = src.remaining();
+        try {
+            final PbeCipherPipeline pipeline = getPipeline();
+            // checked before key derivation, so a short buffer costs no crypto work
+            if (dst.remaining() < pipeline.getEncryptedSize(inputSize)) {
+                throw new BufferOverflowException();
+            }
+            final int length = pipeline.encrypt(src, dst);
+            encryptionStats.recordSizes(inputSize, length);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, algorithm, inputSize, length, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return length;
+        } catch (RuntimeException ex) {
+            src.position(srcPosition);
+            dst.position(dstPosition);
+            encryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, alias, algorithm, inputSize, 0, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            encryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.ENCRYPTION, endTs - startTs, inputSize);
         }
+    }
+
+    @Override
+    public int decrypt(final ByteBuffer src, final ByteBuffer dst) {
+        final long startTs = System.nanoTime();
+        final Object event = FlightRecorderEvents.beginOperation();
 
-        @Override
-        protected void onDelete(Path path) {
-            super.onDelete(path);
-            passwordFileContentChanged();
+        final int srcPosition = src.position();
+        final int dstPosition = dst.position();
+        final int inputSize = src.remaining();
+        try {
+            final PbeCipherPipeline pipeline = getPipeline();
+            if (dst.remaining() < pipeline.getMaxDecryptedSize(inputSize)) {
+                throw new BufferOverflowException();
+            }
+            final int length = pipeline.decrypt(src, dst);
+            decryptionStats.recordSizes(inputSize, length);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, algorithm, inputSize, length, FlightRecorderEvents.OUTCOME_SUCCESS);
+            return length;
+        } catch (RuntimeException ex) {
+            src.position(srcPosition);
+            dst.position(dstPosition);
+            decryptionStats.incrementErrors(ex);
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.DECRYPTION, alias, algorithm, inputSize, 0, FlightRecorderEvents.outcome(ex));
+            throw ex;
+        } finally {
+            final Long endTs = System.nanoTime();
+            decryptionStats.setProcessingTime(endTs - startTs);
+            slowOperations.record(OperationStats.Type.DECRYPTION, endTs - startTs, inputSize);
         }
     }
+
+    @Override
+    public OutputStream encryptingStream(final OutputStream out) {
+        return getStreams().encryptingStream(out);
+    }
+
+    @Override
+    public InputStream decryptingStream(final InputStream in) {
+        return getStreams().decryptingStream(in);
+    }
+
+    @Override
+    public WritableByteChannel encryptingChannel(final WritableByteChannel channel) {
+        return getStreams().encryptingChannel(channel);
+    }
+
+    @Override
+    public ReadableByteChannel decryptingChannel(final ReadableByteChannel channel) {
+        return getStreams().decryptingChannel(channel);
+    }
 }
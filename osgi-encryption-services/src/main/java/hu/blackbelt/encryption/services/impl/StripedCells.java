@@ -0,0 +1,94 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Cells of statistics striped by thread, so concurrent requests rarely contend on the same cell. Values of a request
+ * are recorded in a single cell holding its monitor and cells are read holding their monitors too, so values recorded
+ * together are always read together: each request is included in all of them or in none.
+ *
+ * @param <C> type of cells
+ */
+class StripedCells<C> {
+
+    private static final int MAX_STRIPES = 16;
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicReferenceArray<C> cells = new AtomicReferenceArray<>(STRIPES);
+
+    private final Supplier<C> factory;
+
+    /**
+     * Create striped cells, cells are created on first use of their stripe.
+     *
+     * @param factory factory of cells
+     */
+    StripedCells(final Supplier<C> factory) {
+        this.factory = factory;
+    }
+
+    private static int stripes(final int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * Get cell of the current thread, values must be recorded holding its monitor.
+     *
+     * @return cell
+     */
+    @SuppressWarnings("deprecation")
+    C cell() {
+        final long id = Thread.currentThread().getId();
+        final int index = (int) ((id ^ (id >>> 32)) * 0x9E3779B9L >>> 16) & (STRIPES - 1);
+        final C cell = cells.get(index);
+        if (cell != null) {
+            return cell;
+        }
+        cells.compareAndSet(index, null, factory.get());
+        return cells.get(index);
+    }
+
+    /**
+     * Visit all cells holding their monitors.
+     *
+     * @param visitor visitor of cells
+     */
+    void forEach(final Consumer<? super C> visitor) {
+        for (int i = 0; i < STRIPES; i++) {
+            final C cell = cells.get(i);
+            if (cell != null) {
+                synchronized (cell) {
+                    visitor.accept(cell);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package hu.blackbelt.encryption.services.impl;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import hu.blackbelt.encryption.services.internal.LruCache;
+import org.jasypt.exceptions.EncryptionInitializationException;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+/**
+ * Cache of successful digest validations. Entries are keyed by HMAC of message and digest under a random key generated
+ * once per process, so messages are never stored. Failed validations are not cached.
+ */
+class VerificationCache {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_SIZE = 32;
+
+    private static final SecretKey KEY = generateKey();
+
+    private final LruCache<Key, Boolean> cache;
+
+    private final Queue<Mac> macs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create verification cache.
+     *
+     * @param maxSize  maximum number of entries
+     * @param ttl      time to live of entries, entries are never expired if not positive
+     * @param timeUnit time unit of time to live
+     */
+    VerificationCache(final int maxSize, final long ttl, final TimeUnit timeUnit) {
+        cache = new LruCache<>(maxSize, ttl, timeUnit);
+    }
+
+    private static SecretKey generateKey() {
+        final byte[] key = new byte[KEY_SIZE];
+        new SecureRandom().nextBytes(key);
+        return new SecretKeySpec(key, MAC_ALGORITHM);
+    }
+
+    /**
+     * Get underlying cache (for statistics).
+     *
+     * @return cache
+     */
+    LruCache<?, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * Check whether a message matches a digest, successful validation is returned from cache if present. Concurrent
+     * validations of the same message and digest are coalesced.
+     *
+     * @param data     the message to check
+     * @param digest   the digest to check
+     * @param verifier validation of message and digest
+     * @return TRUE if the message matches the digest, FALSE if not.
+     */
+    boolean matches(final String data, final String digest, final BiPredicate<String, String> verifier) {
+        if (data == null || digest == null) {
+            return verifier.test(data, digest);
+        }
+        return cache.get(key(data, digest), k -> verifier.test(data, digest) ? Boolean.TRUE : null) != null;
+    }
+
+    private Key key(final String data, final String digest) {
+        Mac mac = macs.poll();
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(KEY);
+            } catch (GeneralSecurityException ex) {
+                throw new EncryptionInitializationException(ex);
+            }
+        }
+        try {
+            final byte[] digestBytes = digest.getBytes(StandardCharsets.UTF_8);
+            // length prefix separates digest from message
+            mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, digestBytes.length));
+            mac.update(digestBytes);
+            mac.update(data.getBytes(StandardCharsets.UTF_8));
+            return new Key(mac.doFinal());
+        } finally {
+            mac.reset();
+            macs.offer(mac);
+        }
+    }
+
+    private static final class Key {
+
+        private final byte[] hmac;
+
+        private final int hashCode;
+
+        private Key(final byte[] hmac) {
+            this.hmac = hmac;
+            this.hashCode = Arrays.hashCode(hmac);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && MessageDigest.isEqual(hmac, ((Key) o).hmac);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
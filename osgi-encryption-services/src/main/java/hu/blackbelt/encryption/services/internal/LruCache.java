@@ -0,0 +1,227 @@
+package hu.blackbelt.encryption.services.internal;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bounded cache with LRU eviction and optional time to live. Concurrent loads of the same key are coalesced so value
+ * is loaded only once.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final Map<K, Entry<V>> entries;
+    private final ConcurrentMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize  maximum number of entries
+     * @param ttl      time to live of entries, entries are never expired if not positive
+     * @param timeUnit time unit of time to live
+     */
+    public LruCache(final int maxSize, final long ttl, final TimeUnit timeUnit) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl > 0 ? timeUnit.toNanos(ttl) : 0;
+        entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get cached value.
+     *
+     * @param key key
+     * @return cached value, <code>null</code> if not cached or expired
+     */
+    public V getIfPresent(final K key) {
+        final V value = peek(key);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Get cached value or load it. Concurrent callers of the same key wait for a single load, exceptions of loader
+     * are thrown to all of them and nothing is cached.
+     *
+     * @param key    key
+     * @param loader function loading value of key
+     * @return cached or loaded value
+     */
+    public V get(final K key, final Function<? super K, ? extends V> loader) {
+        final V cached = getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> pending = loading.putIfAbsent(key, future);
+        if (pending != null) {
+            return join(pending);
+        }
+
+        try {
+            final long loadGeneration;
+            synchronized (this) {
+                loadGeneration = generation;
+            }
+            V value = peek(key);
+            if (value == null) {
+                value = loader.apply(key);
+                if (value != null) {
+                    synchronized (this) {
+                        // value loaded before invalidation must not be cached
+                        if (loadGeneration == generation) {
+                            entries.put(key, new Entry<>(value, ttlNanos > 0 ? System.nanoTime() + ttlNanos : 0));
+                        }
+                    }
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Remove entries matching a predicate, pending loads of matching keys are not cached.
+     *
+     * @param predicate key predicate
+     */
+    public void invalidateIf(final Predicate<? super K> predicate) {
+        synchronized (this) {
+            generation++;
+            entries.keySet().removeIf(predicate);
+        }
+        loading.keySet().removeIf(predicate);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        invalidateIf(k -> true);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private synchronized V peek(final K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        } else if (entry.expiresAt != 0 && entry.expiresAt - System.nanoTime() <= 0) {
+            entries.remove(key);
+            evictions.increment();
+            removeExpired();
+            return null;
+        }
+        return entry.value;
+    }
+
+    private void removeExpired() {
+        final long now = System.nanoTime();
+        for (final Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext(); ) {
+            final Entry<V> entry = it.next();
+            if (entry.expiresAt - now <= 0) {
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static <V> V join(final CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(final V value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package hu.blackbelt.encryption.services.internal;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Password of password based encryptors, resolved from configuration value, file, environment variable or JVM argument.
+ */
+public class PasswordSource {
+
+    private final char[] password;
+    private final String passwordFile;
+    private final String passwordEnvName;
+    private final String passwordSysPropertyName;
+
+    public PasswordSource(final char[] password, final String passwordFile, final String passwordFileEnvName, final String passwordFileSysPropertyName,
+                          final String passwordEnvName, final String passwordSysPropertyName) {
+        this.password = password;
+        if (passwordFile == null && passwordFileEnvName != null) {
+            this.passwordFile = System.getenv(passwordFileEnvName);
+        } else if (passwordFile == null && passwordFileSysPropertyName != null) {
+            this.passwordFile = System.getProperty(passwordFileSysPropertyName);
+        } else {
+            this.passwordFile = passwordFile;
+        }
+        this.passwordEnvName = passwordEnvName;
+        this.passwordSysPropertyName = passwordSysPropertyName;
+    }
+
+    /**
+     * Get password file (if password is not configured directly).
+     *
+     * @return password file path or <code>null</code> if password file is not used
+     */
+    public String getPasswordFile() {
+        return password == null ? passwordFile : null;
+    }
+
+    /**
+     * Resolve password. Caller is responsible for cleaning returned array.
+     *
+     * @return copy of plain text password, <code>null</code> if password is not available
+     */
+    public char[] resolve() {
+        if (password != null) {
+            return Arrays.copyOf(password, password.length);
+        } else if (passwordFile != null) {
+            return loadPasswordFromFile(passwordFile);
+        } else if (passwordEnvName != null) {
+            final String value = System.getenv(passwordEnvName);
+            return value != null ? value.toCharArray() : null;
+        } else if (passwordSysPropertyName != null) {
+            final String value = System.getProperty(passwordSysPropertyName);
+            return value != null ? value.toCharArray() : null;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Load password from file.
+     *
+     * @param path file that contains password, using UTF-8 charset
+     * @return plain text password
+     */
+    public static char[] loadPasswordFromFile(final String path) {
+        try {
+            final byte[] encoded = Files.readAllBytes(Paths.get(path));
+            return StandardCharsets.UTF_8.decode(ByteBuffer.wrap(encoded)).array();
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Unable to read password from file: " + path, ex);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package hu.blackbelt.encryption.services.metrics;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Category of failed operations.
+ */
+public enum ErrorCategory {
+
+    /**
+     * Message is malformed (invalid encoding, unsupported format, truncated data, insufficient buffer).
+     */
+    INVALID_INPUT,
+
+    /**
+     * Message cannot be decrypted or verified: it is corrupted or encrypted by another key/password (ie. after
+     * password rotation).
+     */
+    AUTHENTICATION,
+
+    /**
+     * Security provider or algorithm is not available.
+     */
+    PROVIDER,
+
+    /**
+     * Encryptor/digester cannot be initialized (ie. password is missing, key is invalid).
+     */
+    INITIALIZATION,
+
+    /**
+     * Asynchronous operation is rejected because of too many pending operations.
+     */
+    REJECTED,
+
+    /**
+     * Any other failure.
+     */
+    OTHER
+}
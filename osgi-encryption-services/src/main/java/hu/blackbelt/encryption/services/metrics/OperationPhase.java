@@ -0,0 +1,43 @@
+package hu.blackbelt.encryption.services.metrics;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Phase of an operation measured separately.
+ */
+public enum OperationPhase {
+
+    /**
+     * Generating salt and deriving key from password (key obtention iterations of PBE algorithms).
+     */
+    KEY_DERIVATION,
+
+    /**
+     * Executing cipher on message.
+     */
+    CIPHER,
+
+    /**
+     * Converting String messages to/from bytes and encoding/decoding results (base64/hexadecimal).
+     */
+    ENCODING
+}
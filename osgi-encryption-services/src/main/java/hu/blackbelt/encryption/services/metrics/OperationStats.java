@@ -20,15 +20,215 @@ package hu.blackbelt.encryption.services.metrics;
  * #L%
  */
 
+import java.util.Map;
+
 public interface OperationStats {
 
     enum Type {
         ENCRYPTION, DECRYPTION, DIGEST, VALIDATE_DIGEST
     }
 
-    long getTotalProcessingTime();
+    /**
+     * Get immutable view of statistics. Reading a snapshot does not change statistics, attributes read together should
+     * be taken from a single snapshot instead of calling getters one by one.
+     * <p>
+     * Request counter, processing time and latency statistics of a snapshot are consistent: each finished request is
+     * included in all of them or in none, so latency mean, percentiles and buckets are computed from the requests of
+     * the request counter. Byte counters and size statistics are consistent with each other the same way. Other
+     * attributes (errors, rates, queued and active requests, phases and cache counters) are read separately, so a
+     * request in progress may be included in some of them only.
+     *
+     * @return snapshot of statistics
+     */
+    OperationStatsSnapshot snapshot();
+
+    default long getTotalProcessingTime() {
+        return snapshot().getTotalProcessingTime();
+    }
+
+    default long getRequestCounter() {
+        return snapshot().getRequestCounter();
+    }
+
+    default long getErrorCounter() {
+        return snapshot().getErrorCounter();
+    }
+
+    default int getQueuedRequests() {
+        return snapshot().getQueuedRequests();
+    }
+
+    default int getActiveRequests() {
+        return snapshot().getActiveRequests();
+    }
+
+    // latency of requests in nanoseconds
+
+    default long getLatencyMin() {
+        return snapshot().getLatencyMin();
+    }
+
+    default long getLatencyMax() {
+        return snapshot().getLatencyMax();
+    }
+
+    default double getLatencyMean() {
+        return snapshot().getLatencyMean();
+    }
+
+    default long getLatencyP50() {
+        return snapshot().getLatencyP50();
+    }
+
+    default long getLatencyP90() {
+        return snapshot().getLatencyP90();
+    }
+
+    default long getLatencyP99() {
+        return snapshot().getLatencyP99();
+    }
+
+    default long getLatencyP999() {
+        return snapshot().getLatencyP999();
+    }
+
+    // moving average rates in events per second
+
+    default double getRequestRate() {
+        return snapshot().getRequestRate();
+    }
+
+    default double getRequestRate1m() {
+        return snapshot().getRequestRate1m();
+    }
+
+    default double getRequestRate5m() {
+        return snapshot().getRequestRate5m();
+    }
+
+    default double getRequestRate15m() {
+        return snapshot().getRequestRate15m();
+    }
+
+    default double getErrorRate() {
+        return snapshot().getErrorRate();
+    }
+
+    default double getErrorRate1m() {
+        return snapshot().getErrorRate1m();
+    }
+
+    default double getErrorRate5m() {
+        return snapshot().getErrorRate5m();
+    }
+
+    default double getErrorRate15m() {
+        return snapshot().getErrorRate15m();
+    }
+
+    // payload sizes in bytes and byte rates in bytes per second
+
+    default long getInputBytes() {
+        return snapshot().getInputBytes();
+    }
+
+    default long getOutputBytes() {
+        return snapshot().getOutputBytes();
+    }
+
+    default long getInputSizeP50() {
+        return snapshot().getInputSizeP50();
+    }
+
+    default long getInputSizeP90() {
+        return snapshot().getInputSizeP90();
+    }
+
+    default long getInputSizeP99() {
+        return snapshot().getInputSizeP99();
+    }
+
+    default long getInputSizeMax() {
+        return snapshot().getInputSizeMax();
+    }
+
+    default long getOutputSizeP50() {
+        return snapshot().getOutputSizeP50();
+    }
+
+    default long getOutputSizeP90() {
+        return snapshot().getOutputSizeP90();
+    }
+
+    default long getOutputSizeP99() {
+        return snapshot().getOutputSizeP99();
+    }
+
+    default long getOutputSizeMax() {
+        return snapshot().getOutputSizeMax();
+    }
+
+    default double getInputByteRate() {
+        return snapshot().getInputByteRate();
+    }
+
+    default double getInputByteRate1m() {
+        return snapshot().getInputByteRate1m();
+    }
 
-    int getRequestCounter();
+    default double getInputByteRate5m() {
+        return snapshot().getInputByteRate5m();
+    }
+
+    default double getInputByteRate15m() {
+        return snapshot().getInputByteRate15m();
+    }
 
-    int getErrorCounter();
+    default double getOutputByteRate() {
+        return snapshot().getOutputByteRate();
+    }
+
+    default double getOutputByteRate1m() {
+        return snapshot().getOutputByteRate1m();
+    }
+
+    default double getOutputByteRate5m() {
+        return snapshot().getOutputByteRate5m();
+    }
+
+    default double getOutputByteRate15m() {
+        return snapshot().getOutputByteRate15m();
+    }
+
+    // verification cache
+
+    default long getCacheHits() {
+        return snapshot().getCacheHits();
+    }
+
+    default long getCacheMisses() {
+        return snapshot().getCacheMisses();
+    }
+
+    default long getCacheEvictions() {
+        return snapshot().getCacheEvictions();
+    }
+
+    // errors by root cause exception class and category
+
+    default Map<String, Long> getErrorsByClass() {
+        return snapshot().getErrorsByClass();
+    }
+
+    default Map<ErrorCategory, Long> getErrorsByCategory() {
+        return snapshot().getErrorsByCategory();
+    }
+
+    default Map<ErrorCategory, Long> getLastErrorTimestamps() {
+        return snapshot().getLastErrorTimestamps();
+    }
+
+    default Map<OperationPhase, PhaseStatsSnapshot> getPhases() {
+        return snapshot().getPhases();
+    }
 }
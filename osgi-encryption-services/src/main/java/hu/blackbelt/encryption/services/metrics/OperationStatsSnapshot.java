@@ -0,0 +1,186 @@
+package hu.blackbelt.encryption.services.metrics;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Immutable view of operation statistics. Request counter, processing time and latency statistics are consistent with
+ * each other, so are byte counters and size statistics. Other attributes are read separately, see
+ * {@link OperationStats#snapshot()}.
+ */
+@Value
+@Builder
+public class OperationStatsSnapshot {
+
+    /**
+     * Upper bound of the last bucket of histograms, it contains all values (<code>+Inf</code>).
+     */
+    public static final long INFINITE_BOUND = Long.MAX_VALUE;
+
+    /**
+     * Total processing time in milliseconds.
+     */
+    long totalProcessingTime;
+
+    long requestCounter;
+
+    long errorCounter;
+
+    int queuedRequests;
+
+    int activeRequests;
+
+    // latency of requests in nanoseconds
+
+    long latencyMin;
+
+    long latencyMax;
+
+    double latencyMean;
+
+    long latencyP50;
+
+    long latencyP90;
+
+    long latencyP99;
+
+    long latencyP999;
+
+    /**
+     * Sum of latency of requests, number of requests is {@link #requestCounter}.
+     */
+    long latencySum;
+
+    /**
+     * Cumulative number of requests by upper bound of latency. The last bucket is {@link #INFINITE_BOUND}, it contains
+     * all requests ({@link #requestCounter}).
+     */
+    SortedMap<Long, Long> latencyBuckets;
+
+    // moving average rates in events per second, rate of the last second and 1/5/15 minutes windows
+
+    double requestRate;
+
+    double requestRate1m;
+
+    double requestRate5m;
+
+    double requestRate15m;
+
+    double errorRate;
+
+    double errorRate1m;
+
+    double errorRate5m;
+
+    double errorRate15m;
+
+    // payload sizes in bytes, recorded for successful requests (String values are counted in UTF-8)
+
+    long inputBytes;
+
+    long outputBytes;
+
+    /**
+     * Number of requests with recorded payload sizes, it is the total of size buckets.
+     */
+    long sizeCounter;
+
+    long inputSizeP50;
+
+    long inputSizeP90;
+
+    long inputSizeP99;
+
+    long inputSizeMax;
+
+    /**
+     * Cumulative number of requests by upper bound of input size (powers of two). The last bucket is
+     * {@link #INFINITE_BOUND}, it contains all requests ({@link #sizeCounter}).
+     */
+    SortedMap<Long, Long> inputSizeBuckets;
+
+    long outputSizeP50;
+
+    long outputSizeP90;
+
+    long outputSizeP99;
+
+    long outputSizeMax;
+
+    /**
+     * Cumulative number of requests by upper bound of output size (powers of two). The last bucket is
+     * {@link #INFINITE_BOUND}, it contains all requests ({@link #sizeCounter}).
+     */
+    SortedMap<Long, Long> outputSizeBuckets;
+
+    // moving average byte rates in bytes per second, rate of the last second and 1/5/15 minutes windows
+
+    double inputByteRate;
+
+    double inputByteRate1m;
+
+    double inputByteRate5m;
+
+    double inputByteRate15m;
+
+    double outputByteRate;
+
+    double outputByteRate1m;
+
+    double outputByteRate5m;
+
+    double outputByteRate15m;
+
+    // verification cache of services caching results, 0 if service has no cache
+
+    long cacheHits;
+
+    long cacheMisses;
+
+    /**
+     * Number of entries evicted by size limit or expired by time to live.
+     */
+    long cacheEvictions;
+
+    /**
+     * Number of errors by class name of root cause exception.
+     */
+    Map<String, Long> errorsByClass;
+
+    Map<ErrorCategory, Long> errorsByCategory;
+
+    /**
+     * Time of the last error by category (epoch milliseconds), categories without errors are not included.
+     */
+    Map<ErrorCategory, Long> lastErrorTimestamps;
+
+    /**
+     * Statistics of phases of operations, phases not measured by service are not included.
+     */
+    Map<OperationPhase, PhaseStatsSnapshot> phases;
+}
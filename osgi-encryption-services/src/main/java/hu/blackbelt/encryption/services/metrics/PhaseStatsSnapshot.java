@@ -0,0 +1,53 @@
+package hu.blackbelt.encryption.services.metrics;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Immutable view of statistics of an operation phase, latency values are in nanoseconds.
+ */
+@Value
+@Builder
+public class PhaseStatsSnapshot {
+
+    /**
+     * Number of times the phase was executed.
+     */
+    long count;
+
+    /**
+     * Total time spent in phase in nanoseconds.
+     */
+    long totalTime;
+
+    double latencyMean;
+
+    long latencyP50;
+
+    long latencyP90;
+
+    long latencyP99;
+
+    long latencyMax;
+}
@@ -0,0 +1,44 @@
+package hu.blackbelt.encryption.services.metrics;
+
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+
+/**
+ * Recent operations of a service exceeding its latency threshold.
+ */
+public interface SlowOperationLog {
+
+    /**
+     * Get alias of service.
+     *
+     * @return alias
+     */
+    String getAlias();
+
+    /**
+     * Get recent slow operations, number of operations is limited by buffer size of service.
+     *
+     * @return slow operations, most recent first
+     */
+    List<SlowOperation> getSlowOperations();
+}
@@ -0,0 +1,247 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.Encryptor;
+import hu.blackbelt.encryption.services.metrics.ErrorCategory;
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import hu.blackbelt.encryption.services.metrics.SlowOperation;
+import hu.blackbelt.encryption.services.metrics.SlowOperationLog;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static hu.blackbelt.encryption.services.impl.TestComponents.values;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AesGcmEncryptorTest {
+
+    private static final int NONCE_SIZE = 12;
+
+    private static final int HEADER_SIZE = 1 + NONCE_SIZE;
+
+    private static final String MESSAGE = "árvíztűrő tükörfúrógép";
+
+    private static final Map<String, Object> DEFAULTS = values(
+            "encryption_password", "secret",
+            "encryption_keyDerivationIterations", 1000,
+            "encryption_salt", Base64.getEncoder().encodeToString("0123456789abcdef".getBytes(StandardCharsets.US_ASCII)),
+            "encryptor_alias", "test");
+
+    private AesGcmEncryptor encryptor;
+
+    @AfterEach
+    void tearDown() {
+        if (encryptor != null) {
+            encryptor.stop();
+        }
+    }
+
+    private static AesGcmEncryptor.Config config(final Map<String, Object> overrides) {
+        return TestComponents.config(AesGcmEncryptor.Config.class, DEFAULTS, overrides);
+    }
+
+    private AesGcmEncryptor start(final TestComponents.Registry registry, final Map<String, Object> overrides) {
+        encryptor = new AesGcmEncryptor();
+        encryptor.start(registry.componentContext, config(overrides));
+        return encryptor;
+    }
+
+    private AesGcmEncryptor start(final Map<String, Object> overrides) {
+        return start(new TestComponents.Registry(), overrides);
+    }
+
+    @Test
+    void stringsAreEncrypted() {
+        start(new HashMap<>());
+
+        final String encrypted = encryptor.encrypt(MESSAGE);
+        assertThat(encrypted, not(equalTo(MESSAGE)));
+        assertThat(encryptor.decrypt(encrypted), equalTo(MESSAGE));
+        encryptor.stop();
+
+        start(values("encryption_outputType", "hexadecimal"));
+        final String hexadecimal = encryptor.encrypt(MESSAGE);
+        assertThat(hexadecimal.matches("[0-9A-F]+"), is(true));
+        assertThat(encryptor.decrypt(hexadecimal), equalTo(MESSAGE));
+    }
+
+    @Test
+    void noncesAreUnique() {
+        start(new HashMap<>());
+
+        final byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        final Set<String> nonces = new HashSet<>();
+        final Set<String> ciphertexts = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            final byte[] encrypted = encryptor.encrypt(message);
+            nonces.add(Base64.getEncoder().encodeToString(Arrays.copyOfRange(encrypted, 1, HEADER_SIZE)));
+            ciphertexts.add(Base64.getEncoder().encodeToString(Arrays.copyOfRange(encrypted, HEADER_SIZE, encrypted.length)));
+        }
+
+        assertThat(nonces.size(), is(10000));
+        assertThat(ciphertexts.size(), is(10000));
+    }
+
+    @Test
+    void tamperedMessagesAreRejected() {
+        start(new HashMap<>());
+        final byte[] encrypted = encryptor.encrypt(MESSAGE.getBytes(StandardCharsets.UTF_8));
+
+        // version, nonce, ciphertext and authentication tag are all protected
+        for (final int index : new int[]{0, 1, HEADER_SIZE - 1, HEADER_SIZE, encrypted.length - 16, encrypted.length - 1}) {
+            final byte[] tampered = encrypted.clone();
+            tampered[index] ^= 0x01;
+            final EncryptionOperationNotPossibleException ex = assertThrows(EncryptionOperationNotPossibleException.class, () -> encryptor.decrypt(tampered));
+            assertThat(ErrorTable.categorize(ex), is(ErrorCategory.AUTHENTICATION));
+        }
+
+        assertThrows(EncryptionOperationNotPossibleException.class, () -> encryptor.decrypt(Arrays.copyOf(encrypted, encrypted.length - 1)));
+        assertThrows(EncryptionOperationNotPossibleException.class, () -> encryptor.decrypt(Arrays.copyOf(encrypted, HEADER_SIZE)));
+    }
+
+    @Test
+    void messagesOfOtherKeyAreRejected() {
+        final byte[] encrypted = start(new HashMap<>()).encrypt(MESSAGE.getBytes(StandardCharsets.UTF_8));
+        encryptor.stop();
+
+        start(values("encryption_password", "other"));
+        assertThrows(EncryptionOperationNotPossibleException.class, () -> encryptor.decrypt(encrypted));
+        encryptor.stop();
+
+        start(values("encryption_salt", Base64.getEncoder().encodeToString("fedcba9876543210".getBytes(StandardCharsets.US_ASCII))));
+        assertThrows(EncryptionOperationNotPossibleException.class, () -> encryptor.decrypt(encrypted));
+    }
+
+    @Test
+    void byteBuffersAreEncrypted() {
+        start(new HashMap<>());
+        final byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+
+        final ByteBuffer encrypted = ByteBuffer.allocateDirect(HEADER_SIZE + message.length + 16);
+        final int encryptedLength = encryptor.encrypt(ByteBuffer.wrap(message), encrypted);
+        encrypted.flip();
+        assertThat(encryptedLength, is(encrypted.remaining()));
+
+        final byte[] copy = new byte[encryptedLength];
+        encrypted.duplicate().get(copy);
+        assertThat(encryptor.decrypt(copy), equalTo(message));
+
+        final ByteBuffer decrypted = ByteBuffer.allocate(message.length);
+        assertThat(encryptor.decrypt(encrypted, decrypted), is(message.length));
+        assertThat(decrypted.array(), equalTo(message));
+    }
+
+    @Test
+    void streamsAreEncrypted() throws Exception {
+        start(new HashMap<>());
+        final byte[] message = new byte[3 * ChunkedAeadStreams.DEFAULT_CHUNK_SIZE + 123];
+        new Random(1).nextBytes(message);
+
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream out = encryptor.encryptingStream(encrypted)) {
+            out.write(message, 0, 1000);
+            out.write(message, 1000, message.length - 1000);
+        }
+        assertThat(encrypted.size() > message.length, is(true));
+
+        try (InputStream in = encryptor.decryptingStream(new ByteArrayInputStream(encrypted.toByteArray()))) {
+            assertThat(in.readAllBytes(), equalTo(message));
+        }
+
+        // stream format does not depend on instance, key derived from the same configuration is enough
+        encryptor.stop();
+        start(new HashMap<>());
+        try (InputStream in = encryptor.decryptingStream(new ByteArrayInputStream(encrypted.toByteArray()))) {
+            assertThat(in.readAllBytes(), equalTo(message));
+        }
+    }
+
+    @Test
+    void slowOperationsAreRecorded() {
+        final TestComponents.Registry registry = new TestComponents.Registry();
+        start(registry, values("encryptor_slowThreshold", 1L));
+        final byte[] message = new byte[32 * 1024 * 1024];
+
+        encryptor.decrypt(encryptor.encrypt(message));
+
+        final List<SlowOperation> operations = registry.service(SlowOperationLog.class).getSlowOperations();
+        assertThat(operations.stream().map(SlowOperation::getType).collect(Collectors.toList()),
+                equalTo(Arrays.asList(OperationStats.Type.DECRYPTION, OperationStats.Type.ENCRYPTION)));
+        assertThat(operations.get(1).getInputSize(), is((long) message.length));
+        assertThat(operations.get(1).getAlgorithm(), equalTo("AES/GCM/NoPadding"));
+        assertThat(operations.get(1).getAlias(), equalTo("test"));
+    }
+
+    @Test
+    void activationFailsWithoutKey() {
+        final TestComponents.Registry registry = new TestComponents.Registry();
+
+        final EncryptionInitializationException missingPassword = assertThrows(EncryptionInitializationException.class,
+                () -> start(registry, values("encryption_password", null)));
+        assertThat(ErrorTable.categorize(missingPassword), is(ErrorCategory.INITIALIZATION));
+        assertThrows(EncryptionInitializationException.class, () -> start(registry, values("encryption_keyDerivationAlgorithm", "Unknown")));
+        assertThrows(EncryptionInitializationException.class, () -> start(registry, values("encryption_keySize", 100)));
+        final EncryptionInitializationException missingSalt = assertThrows(EncryptionInitializationException.class,
+                () -> start(registry, values("encryption_salt", null)));
+        assertThat(ErrorTable.categorize(missingSalt), is(ErrorCategory.INITIALIZATION));
+        assertThrows(EncryptionInitializationException.class, () -> start(registry, values("encryption_salt", "")));
+        assertThrows(EncryptionInitializationException.class, () -> start(registry, values("encryption_salt", "not base64!")));
+
+        assertThat(registry.services, is(empty()));
+        encryptor = null;
+    }
+
+    @Test
+    void failedUpdateKeepsPreviousKey() {
+        final TestComponents.Registry registry = new TestComponents.Registry();
+        start(registry, new HashMap<>());
+        final String encrypted = encryptor.encrypt(MESSAGE);
+
+        assertThrows(EncryptionInitializationException.class, () -> encryptor.update(config(values("encryption_password", null))));
+
+        assertThat(encryptor.decrypt(encrypted), equalTo(MESSAGE));
+        assertThat(registry.service(Encryptor.class).decrypt(encrypted), equalTo(MESSAGE));
+    }
+}
@@ -0,0 +1,97 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+class AsyncExecutorTest {
+
+    private final OperationStats stats = new OperationStats(false);
+
+    @Test
+    void executorIsKeptIfSettingsAreNotChanged() {
+        final AsyncExecutor executor = new AsyncExecutor("test", false, 1, 10);
+        try {
+            assertThat(AsyncExecutor.reconfigure(executor, "test", false, 1, 10), sameInstance(executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void retiredExecutorForwardsOperations() {
+        final AsyncExecutor retired = new AsyncExecutor("test", false, 1, 10);
+        final AsyncExecutor next = AsyncExecutor.reconfigure(retired, "test", false, 2, 10);
+        try {
+            assertThat(next, not(sameInstance(retired)));
+            assertThat(retired.submit(() -> "result", stats).join(), is("result"));
+            assertThat(stats.getErrorCounter(), is(0L));
+            assertThat(stats.getQueuedRequests(), is(0));
+        } finally {
+            next.shutdown();
+        }
+    }
+
+    @Test
+    void pendingOperationsAreCompletedAfterReconfiguration() throws InterruptedException {
+        final AsyncExecutor retired = new AsyncExecutor("test", false, 1, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<String> running = retired.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return "running";
+        }, stats);
+        final CompletableFuture<String> queued = retired.submit(() -> "queued", stats);
+
+        final AsyncExecutor next = AsyncExecutor.reconfigure(retired, "test", true, 1, 10);
+        release.countDown();
+        try {
+            assertThat(running.join(), is("running"));
+            assertThat(queued.join(), is("queued"));
+            assertThat(stats.getErrorCounter(), is(0L));
+            assertThat(retired.submit(() -> "forwarded", stats).join(), is("forwarded"));
+        } finally {
+            next.shutdown();
+        }
+    }
+
+    @Test
+    void operationsOfStoppedExecutorAreRejected() {
+        final AsyncExecutor executor = new AsyncExecutor("test", false, 1, 10);
+        executor.shutdown();
+        final CompletableFuture<String> future = executor.submit(() -> "result", stats);
+        assertThat(future.isCompletedExceptionally(), is(true));
+        assertThat(stats.getErrorCounter(), is(1L));
+    }
+}
@@ -0,0 +1,97 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.Encryptor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+class BaseConfigDecryptorTest {
+
+    private final AtomicInteger decryptions = new AtomicInteger();
+
+    private Encryptor encryptor;
+
+    private BaseConfigDecryptor decryptor;
+
+    @BeforeEach
+    void setUp() {
+        encryptor = TestComponents.proxy(Encryptor.class, (method, args) -> {
+            if ("decrypt".equals(method.getName())) {
+                decryptions.incrementAndGet();
+                return "plain-" + args[0];
+            }
+            return null;
+        });
+        decryptor = new BaseConfigDecryptor() {
+            @Override
+            protected Encryptor getEncryptor(final String alias) {
+                return "known".equals(alias) || alias == null ? encryptor : null;
+            }
+        };
+        decryptor.enableCache(10, 0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void lookupIsCountedOnce() {
+        assertThat(decryptor.decrypt("ENC(abc,known)"), equalTo("plain-abc"));
+        assertThat(decryptor.getCache().getMisses(), is(1L));
+        assertThat(decryptor.getCache().getHits(), is(0L));
+
+        assertThat(decryptor.decrypt("ENC(abc,known)"), equalTo("plain-abc"));
+        assertThat(decryptor.getCache().getMisses(), is(1L));
+        assertThat(decryptor.getCache().getHits(), is(1L));
+        assertThat(decryptions.get(), is(1));
+    }
+
+    @Test
+    void valueOfUnknownEncryptorIsNotCached() {
+        assertThat(decryptor.decrypt("ENC(abc,unknown)"), equalTo("ENC(abc,unknown)"));
+        assertThat(decryptor.decrypt("ENC(abc,unknown)"), equalTo("ENC(abc,unknown)"));
+        assertThat(decryptor.getCache().getMisses(), is(2L));
+        assertThat(decryptor.getCache().getHits(), is(0L));
+        assertThat(decryptor.getCache().size(), is(0));
+    }
+
+    @Test
+    void plainValueIsNotLookedUp() {
+        assertThat(decryptor.decrypt("plain"), equalTo("plain"));
+        assertThat(decryptor.getCache().getMisses(), is(0L));
+        assertThat(decryptions.get(), is(0));
+    }
+
+    @Test
+    void invalidatedValueIsDecryptedAgain() {
+        decryptor.decrypt("ENC(abc,known)");
+        decryptor.invalidateCache("known");
+        decryptor.decrypt("ENC(abc,known)");
+        assertThat(decryptor.getCache().getMisses(), is(2L));
+        assertThat(decryptions.get(), is(2));
+    }
+}
@@ -0,0 +1,158 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BaseDigesterTest {
+
+    /**
+     * Digester of plain <code>d:&lt;message&gt;</code> digests, digests starting with <code>bad</code> are malformed.
+     */
+    private static final class TestDigester extends BaseDigester {
+
+        private final AtomicInteger validations = new AtomicInteger();
+
+        @Override
+        protected String getAlgorithm() {
+            return "test";
+        }
+
+        @Override
+        protected String digestString(final String data) {
+            return "d:" + data;
+        }
+
+        @Override
+        protected boolean matchesString(final String data, final String digest) {
+            validations.incrementAndGet();
+            if (digest.startsWith("bad")) {
+                throw new IllegalArgumentException(digest);
+            }
+            return digest.equals("d:" + data);
+        }
+    }
+
+    private final TestDigester digester = new TestDigester();
+
+    @AfterEach
+    void tearDown() {
+        digester.unregisterServices();
+    }
+
+    private TestDigester configure(final int batchParallelism) {
+        digester.configure("test", batchParallelism, false, 1, 10);
+        return digester;
+    }
+
+    private static List<String> candidates(final int count) {
+        final List<String> candidates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            candidates.add("d:" + i);
+        }
+        return candidates;
+    }
+
+    @Test
+    void matchesAnyFindsMatchingCandidate() {
+        configure(4);
+
+        assertThat(digester.matchesAny("17", candidates(100)), is(true));
+        assertThat(digester.matchesAny("99", candidates(100)), is(true));
+        assertThat(digester.matchesAny("100", candidates(100)), is(false));
+        assertThat(digester.matchesAny("0", Collections.emptyList()), is(false));
+        assertThat(digester.digestValidationStats.getErrorCounter(), is(0L));
+    }
+
+    @Test
+    void candidatesAfterMatchAreSkipped() {
+        configure(1);
+        assertThat(digester.matchesAny("0", candidates(100)), is(true));
+        assertThat(digester.validations.get(), is(1));
+
+        // subtasks check the match before every candidate
+        configure(4);
+        digester.validations.set(0);
+        assertThat(digester.matchesAny("0", candidates(10000)), is(true));
+        assertThat(digester.validations.get(), lessThan(10000));
+
+        // every candidate is checked if none matches
+        digester.validations.set(0);
+        assertThat(digester.matchesAny("other", candidates(10000)), is(false));
+        assertThat(digester.validations.get(), is(10000));
+    }
+
+    @Test
+    void malformedCandidateDoesNotHideMatch() {
+        configure(4);
+        final List<String> candidates = candidates(100);
+        candidates.set(10, "bad-10");
+        candidates.set(50, "bad-50");
+
+        assertThat(digester.matchesAny("70", candidates), is(true));
+        assertThat(digester.digestValidationStats.getErrorCounter(), is(0L));
+
+        // failure of the first malformed candidate is thrown if no candidate matches
+        final IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> digester.matchesAny("other", candidates));
+        assertThat(ex.getMessage(), equalTo("bad-10"));
+        assertThat(digester.digestValidationStats.getErrorCounter(), is(1L));
+    }
+
+    @Test
+    void matchesAllKeepsOrderOfMessages() {
+        configure(4);
+        final String[] data = new String[1000];
+        final String[] digests = new String[data.length];
+        final boolean[] expected = new boolean[data.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = String.valueOf(i);
+            expected[i] = i % 3 != 0;
+            digests[i] = expected[i] ? "d:" + i : "d:other";
+        }
+
+        assertThat(digester.matchesAll(data, digests), equalTo(expected));
+        assertThat(digester.matchesAll(Arrays.asList("1", "2"), Arrays.asList("d:1", "d:3")), equalTo(Arrays.asList(true, false)));
+        assertThat(digester.digestValidationStats.getRequestCounter(), is(1002L));
+    }
+
+    @Test
+    void matchesAllRejectsMalformedDigestsAndSizeMismatch() {
+        configure(4);
+
+        assertThrows(IllegalArgumentException.class, () -> digester.matchesAll(new String[]{"1", "2"}, new String[]{"d:1"}));
+        assertThrows(IllegalArgumentException.class, () -> digester.matchesAll(new String[]{"1", "2"}, new String[]{"d:1", "bad"}));
+        assertThat(digester.digestValidationStats.getErrorCounter(), is(1L));
+    }
+}
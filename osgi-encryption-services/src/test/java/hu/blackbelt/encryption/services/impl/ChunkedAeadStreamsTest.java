@@ -0,0 +1,260 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChunkedAeadStreamsTest {
+
+    private static final int CHUNK_SIZE = 64;
+
+    private static final int TAG_SIZE = 16;
+
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 16 + 7;
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+
+    private final OperationStats encryptionStats = new OperationStats(false);
+
+    private final OperationStats decryptionStats = new OperationStats(false);
+
+    private final ChunkedAeadStreams streams = new ChunkedAeadStreams((salt, iterations) -> KEY, null, 0, CHUNK_SIZE, encryptionStats, decryptionStats);
+
+    private static byte[] data(final int length) {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private byte[] encrypt(final byte[] data) throws IOException {
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream out = streams.encryptingStream(encrypted)) {
+            out.write(data);
+        }
+        return encrypted.toByteArray();
+    }
+
+    private byte[] decrypt(final byte[] encrypted) throws IOException {
+        try (InputStream in = streams.decryptingStream(new ByteArrayInputStream(encrypted))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static int chunkOffset(final int index) {
+        return HEADER_SIZE + index * (CHUNK_SIZE + TAG_SIZE);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 2 * CHUNK_SIZE, 5 * CHUNK_SIZE + 7})
+    void streamsAreEncrypted(final int length) throws IOException {
+        final byte[] data = data(length);
+
+        final byte[] encrypted = encrypt(data);
+
+        // every chunk (including empty last chunk of empty input) has its own tag
+        final int chunks = length / CHUNK_SIZE + (length % CHUNK_SIZE != 0 || length == 0 ? 1 : 0);
+        assertThat(encrypted.length, is(HEADER_SIZE + length + chunks * TAG_SIZE));
+        assertThat(decrypt(encrypted), equalTo(data));
+    }
+
+    @Test
+    void inputOfExactlyOneChunkIsSingleLastChunk() throws IOException {
+        final byte[] data = data(CHUNK_SIZE);
+
+        final byte[] encrypted = encrypt(data);
+
+        assertThat(encrypted.length, is(HEADER_SIZE + CHUNK_SIZE + TAG_SIZE));
+        assertThat(decrypt(encrypted), equalTo(data));
+    }
+
+    @Test
+    void singleBytesAreEncrypted() throws IOException {
+        final byte[] data = data(3 * CHUNK_SIZE + 5);
+
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream out = streams.encryptingStream(encrypted)) {
+            for (final byte b : data) {
+                out.write(b);
+            }
+        }
+
+        final ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        try (InputStream in = streams.decryptingStream(new ByteArrayInputStream(encrypted.toByteArray()))) {
+            for (int b = in.read(); b >= 0; b = in.read()) {
+                decrypted.write(b);
+            }
+        }
+        assertThat(decrypted.toByteArray(), equalTo(data));
+    }
+
+    @Test
+    void channelsAreEncrypted() throws IOException {
+        final byte[] data = data(4 * CHUNK_SIZE + 3);
+
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (WritableByteChannel channel = streams.encryptingChannel(Channels.newChannel(encrypted))) {
+            channel.write(ByteBuffer.wrap(data));
+        }
+
+        final ByteBuffer decrypted = ByteBuffer.allocate(data.length + 1);
+        try (ReadableByteChannel channel = streams.decryptingChannel(Channels.newChannel(new ByteArrayInputStream(encrypted.toByteArray())))) {
+            while (channel.read(decrypted) >= 0) {
+                assertThat(decrypted.position() <= data.length, is(true));
+            }
+        }
+        assertThat(Arrays.copyOf(decrypted.array(), decrypted.position()), equalTo(data));
+    }
+
+    @Test
+    void truncatedStreamsAreRejected() throws IOException {
+        final byte[] encrypted = encrypt(data(3 * CHUNK_SIZE + 10));
+
+        // dropping the last chunk leaves a full chunk that is not flagged as last
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, chunkOffset(3))));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, chunkOffset(1))));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, encrypted.length - 1)));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, HEADER_SIZE + TAG_SIZE - 1)));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, HEADER_SIZE)));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, HEADER_SIZE - 1)));
+        assertThrows(IOException.class, () -> decrypt(new byte[0]));
+    }
+
+    @Test
+    void truncatedStreamOfFullChunksIsRejected() throws IOException {
+        final byte[] encrypted = encrypt(data(2 * CHUNK_SIZE));
+
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, chunkOffset(1))));
+    }
+
+    @Test
+    void extendedStreamsAreRejected() throws IOException {
+        final byte[] encrypted = encrypt(data(2 * CHUNK_SIZE + 10));
+
+        final byte[] extended = Arrays.copyOf(encrypted, encrypted.length + 1);
+        assertThrows(IOException.class, () -> decrypt(extended));
+
+        // a copy of a previous chunk appended
+        final byte[] repeated = Arrays.copyOf(encrypted, encrypted.length + CHUNK_SIZE + TAG_SIZE);
+        System.arraycopy(encrypted, chunkOffset(0), repeated, encrypted.length, CHUNK_SIZE + TAG_SIZE);
+        assertThrows(IOException.class, () -> decrypt(repeated));
+    }
+
+    @Test
+    void reorderedChunksAreRejected() throws IOException {
+        final byte[] encrypted = encrypt(data(3 * CHUNK_SIZE + 10));
+
+        final byte[] reordered = encrypted.clone();
+        System.arraycopy(encrypted, chunkOffset(0), reordered, chunkOffset(1), CHUNK_SIZE + TAG_SIZE);
+        System.arraycopy(encrypted, chunkOffset(1), reordered, chunkOffset(0), CHUNK_SIZE + TAG_SIZE);
+        assertThrows(IOException.class, () -> decrypt(reordered));
+    }
+
+    @Test
+    void chunksOfOtherStreamsAreRejected() throws IOException {
+        final byte[] data = data(2 * CHUNK_SIZE + 10);
+        final byte[] encrypted = encrypt(data);
+        final byte[] other = encrypt(data);
+
+        // same key, same position, but nonce prefix and header of other stream
+        final byte[] mixed = encrypted.clone();
+        System.arraycopy(other, chunkOffset(1), mixed, chunkOffset(1), CHUNK_SIZE + TAG_SIZE);
+        assertThrows(IOException.class, () -> decrypt(mixed));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 4, 7, 8, 11, 12, 27, 28, HEADER_SIZE - 1})
+    void tamperedHeadersAreRejected(final int index) throws IOException {
+        final byte[] encrypted = encrypt(data(CHUNK_SIZE + 10));
+
+        // magic, iterations, chunk size, salt and nonce prefix are all authenticated
+        final byte[] tampered = encrypted.clone();
+        tampered[index] ^= 0x01;
+        assertThrows(IOException.class, () -> decrypt(tampered));
+    }
+
+    @Test
+    void tamperedChunksAreRejected() throws IOException {
+        final byte[] encrypted = encrypt(data(CHUNK_SIZE + 10));
+
+        for (final int index : new int[]{chunkOffset(0), chunkOffset(1) - 1, chunkOffset(1), encrypted.length - 1}) {
+            final byte[] tampered = encrypted.clone();
+            tampered[index] ^= 0x01;
+            assertThrows(IOException.class, () -> decrypt(tampered));
+        }
+    }
+
+    @Test
+    void failuresAreCounted() throws IOException {
+        final byte[] encrypted = encrypt(data(CHUNK_SIZE + 10));
+        final byte[] tampered = encrypted.clone();
+        tampered[tampered.length - 1] ^= 0x01;
+
+        assertThrows(IOException.class, () -> decrypt(tampered));
+
+        assertThat(decryptionStats.getErrorCounter(), is(1L));
+        assertThat(encryptionStats.getErrorCounter(), is(0L));
+    }
+
+    @Test
+    void keysAreDerivedFromStreamSaltAndIterations() throws IOException {
+        final char[] password = "secret".toCharArray();
+        final ChunkedAeadStreams derived = new ChunkedAeadStreams((salt, iterations) -> ChunkedAeadStreams.deriveStreamKey(password.clone(), salt, iterations, null),
+                null, 1000, CHUNK_SIZE, encryptionStats, decryptionStats);
+        final byte[] data = data(2 * CHUNK_SIZE + 1);
+
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream out = derived.encryptingStream(encrypted)) {
+            out.write(data);
+        }
+
+        // stream is readable by instance with other default iterations, header holds stream settings
+        final ChunkedAeadStreams other = new ChunkedAeadStreams((salt, iterations) -> ChunkedAeadStreams.deriveStreamKey(password.clone(), salt, iterations, null),
+                null, 2000, 2 * CHUNK_SIZE, encryptionStats, decryptionStats);
+        try (InputStream in = other.decryptingStream(new ByteArrayInputStream(encrypted.toByteArray()))) {
+            assertThat(in.readAllBytes(), equalTo(data));
+        }
+        try (InputStream in = streams.decryptingStream(new ByteArrayInputStream(encrypted.toByteArray()))) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+    }
+}
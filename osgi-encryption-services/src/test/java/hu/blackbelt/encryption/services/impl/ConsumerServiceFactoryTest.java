@@ -0,0 +1,186 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.Digester;
+import hu.blackbelt.encryption.services.StreamDigester;
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static hu.blackbelt.encryption.services.impl.TestComponents.values;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConsumerServiceFactoryTest {
+
+    private final TestComponents.Registry registry = new TestComponents.Registry();
+
+    private final ConsumerStats consumerStats = new ConsumerStats(registry.componentContext.getBundleContext(), "test", "SHA-256", 2,
+            OperationStats.Type.DIGEST, OperationStats.Type.VALIDATE_DIGEST);
+
+    private StringDigester digester;
+
+    @AfterEach
+    void tearDown() {
+        consumerStats.close();
+        if (digester != null) {
+            digester.stop();
+        }
+    }
+
+    private static Bundle bundle(final String symbolicName) {
+        return TestComponents.proxy(Bundle.class, (method, args) -> "getSymbolicName".equals(method.getName()) ? symbolicName : null);
+    }
+
+    private <S> S facade(final Class<S> serviceClass, final S service, final Bundle bundle) {
+        return new ConsumerServiceFactory<>(serviceClass, service, consumerStats).getService(bundle, null);
+    }
+
+    private long serviceCount(final Class<?> serviceClass) {
+        synchronized (registry.services) {
+            return registry.services.stream().filter(serviceClass::isInstance).count();
+        }
+    }
+
+    @Test
+    void consumerStatsAreDisabledByDefault() {
+        digester = new StringDigester();
+        digester.start(registry.componentContext, TestComponents.config(StringDigester.Config.class,
+                values("digest_algorithm", "SHA-256", "digester_alias", "default")));
+
+        // services are registered directly, calls are not routed through a facade
+        assertThat(serviceCount(ServiceFactory.class), is(0L));
+        assertThat(registry.service(Digester.class), sameInstance(digester));
+    }
+
+    @Test
+    void consumerStatsAreRegisteredOnFirstUse() {
+        digester = new StringDigester();
+        digester.start(registry.componentContext, TestComponents.config(StringDigester.Config.class,
+                values("digest_algorithm", "SHA-256", "digester_alias", "consumers", "digester_consumerStatsLimit", 4)));
+
+        @SuppressWarnings("unchecked") final ServiceFactory<Digester> factory = (ServiceFactory<Digester>) registry.services.stream()
+                .filter(service -> service instanceof ServiceFactory)
+                .findFirst().orElseThrow(AssertionError::new);
+        final long statsCount = serviceCount(OperationStats.class);
+
+        final Digester facade = factory.getService(bundle("consumer"), null);
+        assertThat(facade, not(sameInstance(digester)));
+        assertThat(facade.matches("message", facade.digest("message")), is(true));
+        assertThat(serviceCount(OperationStats.class), is(statsCount + 2));
+
+        factory.getService(bundle("consumer"), null).digest("message");
+        assertThat(serviceCount(OperationStats.class), is(statsCount + 2));
+        assertThat(digester.digestStats.getRequestCounter(), is(2L));
+    }
+
+    @Test
+    void callsAreRecordedByConsumer() {
+        final Digester service = TestComponents.proxy(Digester.class, (method, args) -> "digest".equals(method.getName()) ? "digest of " + args[0] : Boolean.TRUE);
+
+        facade(Digester.class, service, bundle("first")).digest("abc");
+        facade(Digester.class, service, bundle("first")).matches("abcd", "digest");
+        facade(Digester.class, service, bundle("second")).digest("abcde");
+
+        final ConsumerStats.Consumer first = consumerStats.get(bundle("first"));
+        assertThat(first.get(OperationStats.Type.DIGEST).getRequestCounter(), is(1L));
+        assertThat(first.get(OperationStats.Type.DIGEST).getInputBytes(), is(3L));
+        assertThat(first.get(OperationStats.Type.DIGEST).getOutputBytes(), is(13L));
+        assertThat(first.get(OperationStats.Type.VALIDATE_DIGEST).getRequestCounter(), is(1L));
+        assertThat(first.get(OperationStats.Type.VALIDATE_DIGEST).getInputBytes(), is(4L));
+        assertThat(consumerStats.get(bundle("second")).get(OperationStats.Type.DIGEST).getInputBytes(), is(5L));
+    }
+
+    @Test
+    void consumersAboveLimitAreRecordedTogether() {
+        final ConsumerStats.Consumer first = consumerStats.get(bundle("first"));
+        final ConsumerStats.Consumer second = consumerStats.get(bundle("second"));
+        final ConsumerStats.Consumer third = consumerStats.get(bundle("third"));
+
+        assertThat(third, not(sameInstance(first)));
+        assertThat(third, not(sameInstance(second)));
+        assertThat(consumerStats.get(bundle("fourth")), sameInstance(third));
+        assertThat(consumerStats.get(bundle("first")), sameInstance(first));
+        // consumers are registered once, other consumers share a single registration
+        assertThat(serviceCount(OperationStats.class), is(6L));
+    }
+
+    @Test
+    void checkedExceptionsAreCountedAsErrors() {
+        final IOException failure = new IOException("stream closed");
+        final StreamDigester service = TestComponents.proxy(StreamDigester.class, (method, args) -> {
+            if ("digest".equals(method.getName()) && args[0] instanceof InputStream) {
+                throw failure;
+            }
+            return null;
+        });
+
+        final StreamDigester facade = facade(StreamDigester.class, service, bundle("first"));
+        final IOException thrown = assertThrows(IOException.class, () -> facade.digest(new ByteArrayInputStream(new byte[1])));
+
+        assertThat(thrown, sameInstance(failure));
+        final hu.blackbelt.encryption.services.impl.OperationStats stats = consumerStats.get(bundle("first")).get(OperationStats.Type.DIGEST);
+        assertThat(stats.getErrorCounter(), is(1L));
+        assertThat(stats.getRequestCounter(), is(1L));
+        assertThat(stats.snapshot().getErrorsByClass().get(IOException.class.getName()), is(1L));
+    }
+
+    @Test
+    void runtimeExceptionsAreCountedAsErrors() {
+        final Digester service = TestComponents.proxy(Digester.class, (method, args) -> {
+            throw new IllegalArgumentException("invalid digest");
+        });
+
+        final Digester facade = facade(Digester.class, service, bundle("first"));
+        assertThrows(IllegalArgumentException.class, () -> facade.matches("message", "digest"));
+
+        final hu.blackbelt.encryption.services.impl.OperationStats stats = consumerStats.get(bundle("first")).get(OperationStats.Type.VALIDATE_DIGEST);
+        assertThat(stats.getErrorCounter(), is(1L));
+        assertThat(stats.getInputBytes(), is(0L));
+    }
+
+    @Test
+    void otherMethodsAreDelegatedOnly() {
+        final Digester service = TestComponents.proxy(Digester.class, (method, args) -> "alias");
+
+        final Digester facade = facade(Digester.class, service, bundle("first"));
+
+        assertThat(facade.getAlias(), is("alias"));
+        assertThat(facade.toString(), notNullValue());
+        assertThat(facade, instanceOf(Digester.class));
+        assertThat(consumerStats.get(bundle("first")).get(OperationStats.Type.DIGEST).getRequestCounter(), is(0L));
+        assertThat(consumerStats.get(bundle("first")).get(OperationStats.Type.ENCRYPTION), nullValue());
+    }
+}
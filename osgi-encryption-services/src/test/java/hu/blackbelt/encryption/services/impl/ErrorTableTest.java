@@ -0,0 +1,93 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.metrics.ErrorCategory;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+class ErrorTableTest {
+
+    @Test
+    void exceptionsAreCategorized() {
+        assertThat(ErrorTable.categorize(new IllegalStateException("not initialized")), is(ErrorCategory.INITIALIZATION));
+        assertThat(ErrorTable.categorize(new EncryptionInitializationException()), is(ErrorCategory.INITIALIZATION));
+        assertThat(ErrorTable.categorize(new IOException("closed")), is(ErrorCategory.INVALID_INPUT));
+        assertThat(ErrorTable.categorize(new IllegalArgumentException()), is(ErrorCategory.INVALID_INPUT));
+        assertThat(ErrorTable.categorize(new EncryptionOperationNotPossibleException()), is(ErrorCategory.AUTHENTICATION));
+        assertThat(ErrorTable.categorize(new NoSuchAlgorithmException()), is(ErrorCategory.PROVIDER));
+        assertThat(ErrorTable.categorize(new RejectedExecutionException()), is(ErrorCategory.REJECTED));
+        assertThat(ErrorTable.categorize(new NullPointerException()), is(ErrorCategory.OTHER));
+    }
+
+    @Test
+    void mostSpecificCauseDecidesCategory() {
+        // jasypt wrappers hide the reason of failure
+        assertThat(ErrorTable.categorize(new EncryptionOperationNotPossibleException(new AEADBadTagException())), is(ErrorCategory.AUTHENTICATION));
+        assertThat(ErrorTable.categorize(new EncryptionInitializationException(new NoSuchAlgorithmException())), is(ErrorCategory.PROVIDER));
+        assertThat(ErrorTable.categorize(new UncheckedIOException(new IOException())), is(ErrorCategory.INVALID_INPUT));
+        assertThat(ErrorTable.categorize(new RuntimeException(new IllegalStateException())), is(ErrorCategory.INITIALIZATION));
+        // unknown causes do not override a known category
+        assertThat(ErrorTable.categorize(new IllegalArgumentException(new NullPointerException())), is(ErrorCategory.INVALID_INPUT));
+    }
+
+    @Test
+    void cyclicCauseChainsTerminate() {
+        final IllegalArgumentException a = new IllegalArgumentException("a");
+        final IllegalStateException b = new IllegalStateException("b");
+        a.initCause(b);
+        b.initCause(a);
+
+        assertThat(ErrorTable.categorize(a), is(ErrorCategory.INITIALIZATION));
+
+        final ErrorTable table = new ErrorTable();
+        table.record(a);
+        assertThat(table.getErrorsByCategory().get(ErrorCategory.INITIALIZATION), is(1L));
+        assertThat(table.getErrorsByClass().values().stream().mapToLong(Long::longValue).sum(), is(1L));
+    }
+
+    @Test
+    void rootCauseClassIsCounted() {
+        final ErrorTable table = new ErrorTable();
+        table.record(new EncryptionOperationNotPossibleException(new AEADBadTagException()));
+        table.record(new AEADBadTagException());
+        table.record(new IllegalArgumentException());
+
+        assertThat(table.getErrorsByClass().get(AEADBadTagException.class.getName()), is(2L));
+        assertThat(table.getErrorsByClass().get(IllegalArgumentException.class.getName()), is(1L));
+        assertThat(table.getErrorsByCategory().get(ErrorCategory.AUTHENTICATION), is(2L));
+        assertThat(table.getErrorsByCategory().get(ErrorCategory.INVALID_INPUT), is(1L));
+        assertThat(table.getLastErrorTimestamps().keySet(), equalTo(EnumSet.of(ErrorCategory.AUTHENTICATION, ErrorCategory.INVALID_INPUT)));
+    }
+}
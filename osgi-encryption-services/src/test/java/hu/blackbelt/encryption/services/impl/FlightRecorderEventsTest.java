@@ -0,0 +1,75 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+class FlightRecorderEventsTest {
+
+    private static final String EVENT_NAME = "hu.blackbelt.encryption.Operation";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void lengthsOfStringsAreRecordedInBytes() throws Exception {
+        final String input = "árvíztűrő € 🔒";
+        final String output = "ascii";
+        final Path file = tempDir.resolve("operations.jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable(EVENT_NAME).withThreshold(java.time.Duration.ZERO);
+            recording.start();
+            final Object event = FlightRecorderEvents.beginOperation();
+            FlightRecorderEvents.commitOperation(event, OperationStats.Type.ENCRYPTION, "test", "algorithm", input, output, FlightRecorderEvents.OUTCOME_SUCCESS);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        events.removeIf(e -> !EVENT_NAME.equals(e.getEventType().getName()));
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getLong("inputLength"), is((long) input.getBytes(StandardCharsets.UTF_8).length));
+        assertThat(events.get(0).getLong("outputLength"), is((long) output.length()));
+        assertThat(events.get(0).getString("outcome"), is(FlightRecorderEvents.OUTCOME_SUCCESS));
+    }
+
+    @Test
+    void byteLengthMatchesUtf8Encoding() {
+        for (final String value : new String[]{"", "ascii", "árvíztűrő", "€🔒", "\ud800 unpaired"}) {
+            assertThat(value, hu.blackbelt.encryption.services.impl.OperationStats.byteLength(value), is((long) value.getBytes(StandardCharsets.UTF_8).length));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesAreExact() {
+        for (long value = 0; value < 64; value++) {
+            assertThat(LatencyHistogram.indexOf(value), is((int) value));
+            assertThat(LatencyHistogram.highestEquivalentValue((int) value), is(value));
+        }
+    }
+
+    @Test
+    void bucketsAreContiguous() {
+        // 32 sub-buckets per power of two above the linear range
+        assertThat(LatencyHistogram.indexOf(64L), is(64));
+        assertThat(LatencyHistogram.indexOf(65L), is(64));
+        assertThat(LatencyHistogram.indexOf(66L), is(65));
+        assertThat(LatencyHistogram.highestEquivalentValue(64), is(65L));
+        assertThat(LatencyHistogram.indexOf(128L), is(96));
+        assertThat(LatencyHistogram.highestEquivalentValue(96), is(131L));
+        assertThat(LatencyHistogram.indexOf(Long.MAX_VALUE), is(LatencyHistogram.indexOf(Long.MAX_VALUE - 1)));
+        assertThat(LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexOf(Long.MAX_VALUE)), is(Long.MAX_VALUE));
+
+        for (int index = 64; index < LatencyHistogram.indexOf(Long.MAX_VALUE); index++) {
+            final long highest = LatencyHistogram.highestEquivalentValue(index);
+            assertThat(LatencyHistogram.indexOf(highest), is(index));
+            assertThat(LatencyHistogram.indexOf(highest + 1), is(index + 1));
+        }
+    }
+
+    @Test
+    void relativeErrorIsBelowOneThirtySecond() {
+        for (long value = 64; value > 0 && value < Long.MAX_VALUE / 2; value = value * 3 / 2 + 1) {
+            final long highest = LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexOf(value));
+            assertThat(highest, greaterThanOrEqualTo(value));
+            assertThat(highest - value, lessThanOrEqualTo(value / 32));
+        }
+    }
+
+    @Test
+    void percentilesOfExactValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 50; value++) {
+            histogram.record(value, 2L);
+        }
+
+        assertThat(histogram.getValueAtPercentile(0.0), is(1L));
+        assertThat(histogram.getValueAtPercentile(50.0), is(25L));
+        assertThat(histogram.getValueAtPercentile(99.0), is(50L));
+        assertThat(histogram.getValueAtPercentile(100.0), is(50L));
+        assertThat(histogram.getValueAtPercentile(200.0), is(50L));
+        assertThat(histogram.getMin(), is(1L));
+        assertThat(histogram.getMax(), is(50L));
+    }
+
+    @Test
+    void percentilesAreHighestEquivalentValuesLimitedToMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000L, 1L);
+        histogram.record(2000L, 1L);
+
+        // 1000 shares bucket with values up to 1007
+        assertThat(histogram.getValueAtPercentile(50.0), is(1007L));
+        // 2000 shares bucket with values up to 2015, but no value above max is reported
+        assertThat(histogram.getValueAtPercentile(100.0), is(2000L));
+    }
+
+    @Test
+    void emptyHistogramReportsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getValueAtPercentile(99.0), is(0L));
+        assertThat(histogram.getMin(), is(0L));
+        assertThat(histogram.getMax(), is(0L));
+        assertThat(LatencyHistogram.getCountAtOrBelow(histogram.getCounts(), 1000L), is(0L));
+    }
+
+    @Test
+    void negativeValuesAreRecordedAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5L, 1L);
+
+        assertThat(histogram.getMin(), is(0L));
+        assertThat(histogram.getCounts()[0], is(1L));
+    }
+
+    @Test
+    void histogramsAreAdded() {
+        final LatencyHistogram first = new LatencyHistogram();
+        first.record(10L, 1L);
+        final LatencyHistogram second = new LatencyHistogram();
+        second.record(5000L, 3L);
+        final LatencyHistogram empty = new LatencyHistogram();
+
+        first.add(second);
+        first.add(empty);
+
+        assertThat(first.getMin(), is(10L));
+        assertThat(first.getMax(), is(5000L));
+        assertThat(first.getValueAtPercentile(25.0), is(10L));
+        assertThat(first.getValueAtPercentile(50.0), is(5000L));
+        assertThat(LatencyHistogram.getCountAtOrBelow(first.getCounts(), Long.MAX_VALUE), is(4L));
+    }
+
+    @Test
+    void countAtOrBelowIncludesWholeBucket() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(63L, 1L);
+        histogram.record(100L, 1L);
+        histogram.record(101L, 1L);
+        histogram.record(102L, 1L);
+
+        // exact below 64
+        assertThat(LatencyHistogram.getCountAtOrBelow(histogram.getCounts(), 62L), is(0L));
+        assertThat(LatencyHistogram.getCountAtOrBelow(histogram.getCounts(), 63L), is(1L));
+        // 100 and 101 share a bucket, so 101 is counted at or below 100
+        assertThat(LatencyHistogram.getCountAtOrBelow(histogram.getCounts(), 99L), is(1L));
+        assertThat(LatencyHistogram.getCountAtOrBelow(histogram.getCounts(), 100L), is(3L));
+        assertThat(LatencyHistogram.getCountAtOrBelow(histogram.getCounts(), 102L), is(4L));
+        assertThat(LatencyHistogram.getCountAtOrBelow(histogram.getCounts(), -1L), is(0L));
+    }
+
+    @Test
+    void countAtOrBelowOverReportsByLessThanOneThirtySecond() {
+        for (long bound = 64; bound > 0 && bound < Long.MAX_VALUE / 2; bound = bound * 5 / 4 + 7) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            final long limit = bound + bound / 32;
+            histogram.record(bound, 1L);
+            histogram.record(LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexOf(bound)), 1L);
+            histogram.record(limit + 1, 1L);
+
+            // values of the bucket of the bound are counted, none of them exceeds bound by more than 1/32
+            assertThat(LatencyHistogram.getCountAtOrBelow(histogram.getCounts(), bound), is(2L));
+            assertThat(LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexOf(bound)), lessThanOrEqualTo(limit));
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.TreeDigest;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageDigestStreamsTest {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final int SALT_SIZE = 8;
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private final ParallelBatch batch = new ParallelBatch(4);
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        batch.shutdown();
+    }
+
+    private MessageDigestStreams streams(final int iterations, final int treeChunkSize) {
+        return new MessageDigestStreams(ALGORITHM, null, iterations, SALT_SIZE, null, treeChunkSize, batch);
+    }
+
+    private static byte[] data(final int length) {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private Path file(final byte[] data) throws IOException {
+        return Files.write(tempDir.resolve("data-" + data.length), data);
+    }
+
+    private static byte[] sha256(final byte[]... parts) throws Exception {
+        final MessageDigest md = MessageDigest.getInstance(ALGORITHM);
+        for (final byte[] part : parts) {
+            md.update(part);
+        }
+        return md.digest();
+    }
+
+    private static byte[] rootOf(final String treeDigest) {
+        final byte[] decoded = Base64.getDecoder().decode(treeDigest.substring(treeDigest.indexOf('$', "$tree$".length()) + 1));
+        return Arrays.copyOfRange(decoded, SALT_SIZE, decoded.length);
+    }
+
+    private static byte[] saltOf(final String treeDigest) {
+        final byte[] decoded = Base64.getDecoder().decode(treeDigest.substring(treeDigest.indexOf('$', "$tree$".length()) + 1));
+        return Arrays.copyOf(decoded, SALT_SIZE);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 3 * CHUNK_SIZE, 5 * CHUNK_SIZE - 10, 7 * CHUNK_SIZE})
+    void inputsOfAllKindsHaveTheSameDigest(final int length) throws IOException {
+        final byte[] data = data(length);
+        final Path file = file(data);
+
+        for (final MessageDigestStreams streams : new MessageDigestStreams[]{streams(3, 0), streams(3, CHUNK_SIZE)}) {
+            final String digest = streams.digest(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+
+            assertThat(streams.matches(MessageDigestStreams.of(new ByteArrayInputStream(data)), digest), is(true));
+            assertThat(streams.matches(MessageDigestStreams.of(file), digest), is(true));
+            assertThat(streams.matches(MessageDigestStreams.of(ByteBuffer.wrap(data(length + 1))), digest), is(false));
+            assertThat(streams.matches(MessageDigestStreams.of(file), streams.digest(MessageDigestStreams.of(file))), is(true));
+        }
+    }
+
+    @Test
+    void filesLargerThanReadBufferAreDigested() throws IOException {
+        // file spans several reads of the direct buffer, chunks are not aligned to the buffer
+        final byte[] data = data(300 * 1024 + 17);
+        final Path file = file(data);
+        final MessageDigestStreams streams = streams(1, 48 * 1024 + 5);
+
+        final TreeDigest tree = streams.digestTree(MessageDigestStreams.of(file));
+
+        assertThat(streams.matches(MessageDigestStreams.of(ByteBuffer.wrap(data)), tree.getDigest()), is(true));
+        assertThat(streams(1, 0).matches(MessageDigestStreams.of(file), streams(1, 0).digest(MessageDigestStreams.of(ByteBuffer.wrap(data)))), is(true));
+        for (int i = 0; i < tree.getChunkDigests().size(); i++) {
+            assertThat(streams.matchesChunk(MessageDigestStreams.ofChunk(file, i, tree.getChunkSize()), i, tree), is(true));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 5, 7})
+    void oddChunkCountsPromoteLastNode(final int chunks) throws Exception {
+        final byte[] data = data(chunks * CHUNK_SIZE - 1);
+        final TreeDigest tree = streams(1, CHUNK_SIZE).digestTree(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+        assertThat(tree.getChunkDigests().size(), is(chunks));
+
+        // leaves are digests of leaf marker, salt and chunk, nodes without sibling are promoted unchanged
+        final byte[] salt = saltOf(tree.getDigest());
+        List<byte[]> level = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            final byte[] leaf = sha256(new byte[]{0}, salt, Arrays.copyOfRange(data, i * CHUNK_SIZE, Math.min((i + 1) * CHUNK_SIZE, data.length)));
+            assertThat(Base64.getDecoder().decode(tree.getChunkDigests().get(i)), equalTo(leaf));
+            level.add(leaf);
+        }
+        while (level.size() > 1) {
+            final List<byte[]> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += 2) {
+                next.add(i + 1 < level.size() ? sha256(new byte[]{1}, level.get(i), level.get(i + 1)) : level.get(i));
+            }
+            level = next;
+        }
+        assertThat(rootOf(tree.getDigest()), equalTo(level.get(0)));
+    }
+
+    @Test
+    void emptyInputHasSingleLeaf() throws Exception {
+        final MessageDigestStreams streams = streams(1, CHUNK_SIZE);
+
+        final TreeDigest tree = streams.digestTree(MessageDigestStreams.of(ByteBuffer.allocate(0)));
+
+        assertThat(tree.getChunkDigests().size(), is(1));
+        final byte[] leaf = sha256(new byte[]{0}, saltOf(tree.getDigest()));
+        assertThat(Base64.getDecoder().decode(tree.getChunkDigests().get(0)), equalTo(leaf));
+        assertThat(rootOf(tree.getDigest()), equalTo(leaf));
+        assertThat(streams.matches(MessageDigestStreams.of(new ByteArrayInputStream(new byte[0])), tree.getDigest()), is(true));
+        assertThat(streams.matches(MessageDigestStreams.of(file(new byte[0])), tree.getDigest()), is(true));
+        assertThat(streams.matchesChunk(MessageDigestStreams.of(ByteBuffer.allocate(0)), 0, tree), is(true));
+        assertThat(streams.matchesChunk(MessageDigestStreams.ofChunk(file(new byte[0]), 0, CHUNK_SIZE), 0, tree), is(true));
+    }
+
+    @Test
+    void iterationsAreAppliedOnRootOnly() throws Exception {
+        final byte[] data = data(3 * CHUNK_SIZE);
+        final TreeDigest tree = streams(5, CHUNK_SIZE).digestTree(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+
+        final byte[] salt = saltOf(tree.getDigest());
+        final byte[] leaf = sha256(new byte[]{0}, salt, Arrays.copyOf(data, CHUNK_SIZE));
+        assertThat(Base64.getDecoder().decode(tree.getChunkDigests().get(0)), equalTo(leaf));
+
+        byte[] root = sha256(new byte[]{1}, sha256(new byte[]{1}, leaf, Base64.getDecoder().decode(tree.getChunkDigests().get(1))),
+                Base64.getDecoder().decode(tree.getChunkDigests().get(2)));
+        for (int i = 0; i < 4; i++) {
+            root = sha256(root);
+        }
+        assertThat(rootOf(tree.getDigest()), equalTo(root));
+    }
+
+    @Test
+    void tamperedChunksAreRejected() throws IOException {
+        final byte[] data = data(4 * CHUNK_SIZE + 10);
+        final MessageDigestStreams streams = streams(2, CHUNK_SIZE);
+        final TreeDigest tree = streams.digestTree(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+        final ByteBuffer chunk = ByteBuffer.wrap(data, CHUNK_SIZE, CHUNK_SIZE).slice();
+
+        assertThat(streams.matchesChunk(MessageDigestStreams.of(chunk), 1, tree), is(true));
+        assertThat(streams.matchesChunk(MessageDigestStreams.of(chunk), 2, tree), is(false));
+
+        final byte[] tamperedData = data.clone();
+        tamperedData[CHUNK_SIZE + 1] ^= 0x01;
+        assertThat(streams.matchesChunk(MessageDigestStreams.of(ByteBuffer.wrap(tamperedData, CHUNK_SIZE, CHUNK_SIZE).slice()), 1, tree), is(false));
+        assertThat(streams.matches(MessageDigestStreams.of(ByteBuffer.wrap(tamperedData)), tree.getDigest()), is(false));
+    }
+
+    @Test
+    void tamperedChunkDigestsAreRejected() throws IOException {
+        final byte[] data = data(4 * CHUNK_SIZE + 10);
+        final MessageDigestStreams streams = streams(2, CHUNK_SIZE);
+        final TreeDigest tree = streams.digestTree(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+
+        // root of modified data with original chunk digests: chunk matches its digest, but digests do not match the root
+        final byte[] tamperedData = data.clone();
+        tamperedData[CHUNK_SIZE + 1] ^= 0x01;
+        final TreeDigest other = streams.digestTree(MessageDigestStreams.of(ByteBuffer.wrap(tamperedData)));
+        final List<String> chunkDigests = new ArrayList<>(tree.getChunkDigests());
+        final TreeDigest otherRoot = TreeDigest.builder().digest(other.getDigest()).chunkSize(CHUNK_SIZE).chunkDigests(chunkDigests).build();
+        assertThat(streams.matchesChunk(MessageDigestStreams.of(ByteBuffer.wrap(data, 0, CHUNK_SIZE).slice()), 0, otherRoot), is(false));
+
+        final String[] leaves = tree.getChunkDigests().toArray(new String[0]);
+        final String swapped = leaves[1];
+        leaves[1] = leaves[2];
+        leaves[2] = swapped;
+        final TreeDigest reordered = TreeDigest.builder().digest(tree.getDigest()).chunkSize(CHUNK_SIZE).chunkDigests(Arrays.asList(leaves)).build();
+        assertThat(streams.matchesChunk(MessageDigestStreams.of(ByteBuffer.wrap(data, 0, CHUNK_SIZE).slice()), 0, reordered), is(false));
+
+        final List<String> truncated = tree.getChunkDigests().subList(0, 4);
+        final TreeDigest missingChunk = TreeDigest.builder().digest(tree.getDigest()).chunkSize(CHUNK_SIZE).chunkDigests(truncated).build();
+        assertThat(streams.matchesChunk(MessageDigestStreams.of(ByteBuffer.wrap(data, 0, CHUNK_SIZE).slice()), 0, missingChunk), is(false));
+    }
+
+    @Test
+    void digestsAreCheckedInTheirOwnMode() throws IOException {
+        final byte[] data = data(5 * CHUNK_SIZE + 3);
+        final MessageDigestStreams plain = streams(3, 0);
+        final MessageDigestStreams tree = streams(3, CHUNK_SIZE);
+        final MessageDigestStreams otherTree = streams(3, 2 * CHUNK_SIZE);
+
+        final String plainDigest = plain.digest(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+        final String treeDigest = tree.digest(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+        assertThat(plainDigest, not(startsWith("$tree$")));
+        assertThat(treeDigest, startsWith("$tree$c=" + CHUNK_SIZE + "$"));
+
+        // mode (and chunk size) is taken from the digest, not from the configuration of the checking instance
+        for (final MessageDigestStreams streams : new MessageDigestStreams[]{plain, tree, otherTree}) {
+            assertThat(streams.matches(MessageDigestStreams.of(ByteBuffer.wrap(data)), plainDigest), is(true));
+            assertThat(streams.matches(MessageDigestStreams.of(ByteBuffer.wrap(data)), treeDigest), is(true));
+            assertThat(streams.matches(MessageDigestStreams.of(ByteBuffer.wrap(data(7))), treeDigest), is(false));
+        }
+
+        // tree digest of a tree configured without tree mode uses the default chunk size
+        assertThat(plain.digestTree(MessageDigestStreams.of(ByteBuffer.wrap(data))).getChunkSize(), is(MessageDigestStreams.DEFAULT_TREE_CHUNK_SIZE));
+    }
+
+    @Test
+    void digestsOfOtherIterationsAreRejected() throws IOException {
+        final byte[] data = data(2 * CHUNK_SIZE);
+
+        final String treeDigest = streams(3, CHUNK_SIZE).digest(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+        final String plainDigest = streams(3, 0).digest(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+
+        assertThat(streams(4, CHUNK_SIZE).matches(MessageDigestStreams.of(ByteBuffer.wrap(data)), treeDigest), is(false));
+        assertThat(streams(4, 0).matches(MessageDigestStreams.of(ByteBuffer.wrap(data)), plainDigest), is(false));
+    }
+
+    @Test
+    void bufferPositionIsNotChanged() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(data(3 * CHUNK_SIZE));
+        buffer.position(10);
+
+        final String digest = streams(1, CHUNK_SIZE).digest(MessageDigestStreams.of(buffer));
+
+        assertThat(buffer.position(), is(10));
+        assertThat(streams(1, CHUNK_SIZE).matches(MessageDigestStreams.of(buffer.slice()), digest), is(true));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, 0, 1, 16, MessageDigestStreams.MIN_TREE_CHUNK_SIZE - 1, MessageDigestStreams.MAX_TREE_CHUNK_SIZE + 1, Integer.MAX_VALUE})
+    void chunkSizesOutOfBoundsAreRejected(final int chunkSize) throws IOException {
+        final byte[] data = data(CHUNK_SIZE);
+        final String digest = streams(1, CHUNK_SIZE).digest(MessageDigestStreams.of(ByteBuffer.wrap(data)));
+        final String tampered = digest.replace("$tree$c=" + CHUNK_SIZE + "$", "$tree$c=" + chunkSize + "$");
+
+        // chunk size of digest is checked before input is read
+        assertThrows(EncryptionOperationNotPossibleException.class, () -> streams(1, CHUNK_SIZE).matches(MessageDigestStreams.of(ByteBuffer.wrap(data)), tampered));
+        if (chunkSize > 0) {
+            assertThrows(EncryptionInitializationException.class, () -> streams(1, chunkSize));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+class MovingRatesTest {
+
+    private static final long TICK = TimeUnit.SECONDS.toNanos(5);
+
+    private static final double ERROR = 1e-9;
+
+    // first interval starts on construction, a bit before start time of the test
+    private static final double FIRST_TICK_ERROR = 1e-3;
+
+    @Test
+    void firstTickInitializesAverages() {
+        final MovingRates rates = new MovingRates();
+        final long start = System.nanoTime();
+
+        rates.update(50L, start + TICK);
+
+        assertThat(rates.getRate(), closeTo(10.0, FIRST_TICK_ERROR));
+        assertThat(rates.getOneMinuteRate(), is(rates.getRate()));
+        assertThat(rates.getFiveMinuteRate(), is(rates.getRate()));
+        assertThat(rates.getFifteenMinuteRate(), is(rates.getRate()));
+    }
+
+    @Test
+    void averagesDecayExponentially() {
+        final MovingRates rates = new MovingRates();
+        final long start = System.nanoTime();
+        rates.update(50L, start + TICK);
+        final double initial = rates.getRate();
+
+        // no events in the next tick
+        rates.update(50L, start + 2 * TICK);
+        assertThat(rates.getRate(), is(0.0));
+        assertThat(rates.getOneMinuteRate(), closeTo(initial * Math.exp(-5.0 / 60), ERROR));
+        assertThat(rates.getFiveMinuteRate(), closeTo(initial * Math.exp(-5.0 / 300), ERROR));
+        assertThat(rates.getFifteenMinuteRate(), closeTo(initial * Math.exp(-5.0 / 900), ERROR));
+
+        // after a minute of idle ticks one minute rate is decayed by e
+        for (int i = 3; i <= 13; i++) {
+            rates.update(50L, start + i * TICK);
+        }
+        assertThat(rates.getOneMinuteRate(), closeTo(initial / Math.E, ERROR));
+        assertThat(rates.getFiveMinuteRate(), greaterThan(rates.getOneMinuteRate()));
+        assertThat(rates.getFifteenMinuteRate(), greaterThan(rates.getFiveMinuteRate()));
+    }
+
+    @Test
+    void averagesConvergeToConstantRate() {
+        final MovingRates rates = new MovingRates();
+        final long start = System.nanoTime();
+        rates.update(0L, start + TICK);
+
+        // 4 events per second for an hour
+        for (int i = 2; i <= 721; i++) {
+            rates.update(20L * (i - 1), start + i * TICK);
+        }
+
+        assertThat(rates.getRate(), closeTo(4.0, ERROR));
+        assertThat(rates.getOneMinuteRate(), closeTo(4.0, 1e-6));
+        assertThat(rates.getFiveMinuteRate(), closeTo(4.0, 1e-4));
+        assertThat(rates.getFifteenMinuteRate(), closeTo(4.0, 0.1));
+    }
+
+    @Test
+    void decayDependsOnElapsedTime() {
+        final MovingRates regular = new MovingRates();
+        final MovingRates delayed = new MovingRates();
+        final long start = System.nanoTime();
+        regular.update(50L, start + TICK);
+        delayed.update(50L, start + TICK);
+        final double regularInitial = regular.getRate();
+        final double delayedInitial = delayed.getRate();
+
+        // a late tick decays as much as the missed ticks together
+        regular.update(50L, start + 2 * TICK);
+        regular.update(50L, start + 3 * TICK);
+        delayed.update(50L, start + 3 * TICK);
+
+        assertThat(delayed.getOneMinuteRate() / delayedInitial, closeTo(regular.getOneMinuteRate() / regularInitial, ERROR));
+        assertThat(delayed.getFifteenMinuteRate() / delayedInitial, closeTo(regular.getFifteenMinuteRate() / regularInitial, ERROR));
+    }
+
+    @Test
+    void ticksWithoutElapsedTimeAreIgnored() {
+        final MovingRates rates = new MovingRates();
+        final long start = System.nanoTime();
+        rates.update(50L, start + TICK);
+        final double initial = rates.getRate();
+
+        rates.update(100L, start + TICK);
+        rates.update(100L, start);
+
+        assertThat(rates.getRate(), is(initial));
+        assertThat(rates.getOneMinuteRate(), is(initial));
+    }
+
+    @Test
+    void decreasingCounterIsZeroRate() {
+        final MovingRates rates = new MovingRates();
+        final long start = System.nanoTime();
+        rates.update(50L, start + TICK);
+        final double initial = rates.getRate();
+
+        rates.update(10L, start + 2 * TICK);
+
+        assertThat(rates.getRate(), is(0.0));
+        assertThat(rates.getOneMinuteRate(), closeTo(initial * Math.exp(-5.0 / 60), ERROR));
+    }
+}
@@ -0,0 +1,139 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.metrics.OperationPhase;
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+import hu.blackbelt.encryption.services.metrics.PhaseStatsSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+class OperationStatsTest {
+
+    @Test
+    void concurrentUpdatesAreCounted() throws InterruptedException {
+        final OperationStats stats = new OperationStats();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    stats.setProcessingTime(1_000L);
+                    stats.recordSizes(3L, 5L);
+                    if (i % 10 == 0) {
+                        stats.incrementErrors(new IllegalArgumentException());
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final OperationStatsSnapshot snapshot = stats.snapshot();
+        assertThat(snapshot.getRequestCounter(), is(40_000L));
+        assertThat(snapshot.getLatencySum(), is(40_000_000L));
+        assertThat(snapshot.getErrorCounter(), is(4_000L));
+        assertThat(snapshot.getInputBytes(), is(120_000L));
+        assertThat(snapshot.getOutputBytes(), is(200_000L));
+        assertThat(stats.getRequestCounter(), is(40_000L));
+        assertThat(stats.getErrorCounter(), is(4_000L));
+    }
+
+    @Test
+    void snapshotsAreConsistentDuringConcurrentUpdates() throws InterruptedException {
+        final OperationStats stats = new OperationStats(false);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final Thread thread = new Thread(() -> {
+                while (running.get()) {
+                    stats.setProcessingTime(2_000L, 2);
+                    stats.recordSizes(3L, 5L);
+                    stats.recordPhase(OperationPhase.CIPHER, 700L);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (int i = 0; i < 1_000; i++) {
+                final OperationStatsSnapshot snapshot = stats.snapshot();
+                final long requests = snapshot.getRequestCounter();
+                assertThat(snapshot.getLatencySum(), is(requests * 1_000L));
+                assertThat(snapshot.getLatencyBuckets().get(snapshot.getLatencyBuckets().lastKey()), is(requests));
+                if (requests > 0) {
+                    assertThat(snapshot.getLatencyMean(), is(1_000.0));
+                }
+                assertThat(snapshot.getInputBytes(), is(snapshot.getSizeCounter() * 3L));
+                assertThat(snapshot.getOutputBytes(), is(snapshot.getSizeCounter() * 5L));
+                assertThat(snapshot.getInputSizeBuckets().getOrDefault(4L, snapshot.getSizeCounter()), is(snapshot.getSizeCounter()));
+                final PhaseStatsSnapshot phase = snapshot.getPhases().get(OperationPhase.CIPHER);
+                if (phase != null) {
+                    assertThat(phase.getTotalTime(), is(phase.getCount() * 700L));
+                }
+            }
+        } finally {
+            running.set(false);
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    @Test
+    void ratesAreUpdatedByTicks() {
+        final OperationStats stats = new OperationStats(false);
+        final long startTs = System.nanoTime();
+        stats.setProcessingTime(1_000L, 100);
+
+        // reading statistics does not change rates
+        assertThat(stats.snapshot().getRequestRate(), is(0.0));
+        assertThat(stats.snapshot().getRequestRate1m(), is(0.0));
+
+        stats.tick(startTs + TimeUnit.SECONDS.toNanos(10));
+        final OperationStatsSnapshot first = stats.snapshot();
+        assertThat(first.getRequestRate(), closeTo(10.0, 0.1));
+        assertThat(first.getRequestRate1m(), closeTo(10.0, 0.1));
+
+        final OperationStatsSnapshot second = stats.snapshot();
+        assertThat(second.getRequestRate(), equalTo(first.getRequestRate()));
+        assertThat(second.getRequestRate1m(), equalTo(first.getRequestRate1m()));
+        assertThat(stats.getRequestRate(), equalTo(first.getRequestRate()));
+
+        // no requests in the next interval, average decays
+        stats.tick(startTs + TimeUnit.SECONDS.toNanos(70));
+        assertThat(stats.getRequestRate(), is(0.0));
+        assertThat(stats.getRequestRate1m(), closeTo(10.0 * Math.exp(-1.0), 0.1));
+        assertThat(stats.getRequestRate15m(), closeTo(10.0 * Math.exp(-60.0 / 900.0), 0.1));
+    }
+}
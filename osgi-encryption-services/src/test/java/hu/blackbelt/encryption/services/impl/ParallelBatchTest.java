@@ -0,0 +1,102 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+class ParallelBatchTest {
+
+    @Test
+    void executorIsKeptIfParallelismIsNotChanged() {
+        final ParallelBatch batch = new ParallelBatch(2);
+        try {
+            assertThat(ParallelBatch.reconfigure(batch, 2), sameInstance(batch));
+            final ParallelBatch common = new ParallelBatch(0);
+            assertThat(ParallelBatch.reconfigure(common, -1), sameInstance(common));
+        } finally {
+            batch.shutdown();
+        }
+    }
+
+    @Test
+    void retiredExecutorForwardsBatches() {
+        final ParallelBatch retired = new ParallelBatch(2);
+        final ParallelBatch next = ParallelBatch.reconfigure(retired, 3);
+        try {
+            assertThat(next, not(sameInstance(retired)));
+            final AtomicIntegerArray processed = new AtomicIntegerArray(1000);
+            retired.run(processed.length(), processed::incrementAndGet);
+            for (int i = 0; i < processed.length(); i++) {
+                assertThat(processed.get(i), is(1));
+            }
+        } finally {
+            next.shutdown();
+        }
+    }
+
+    @Test
+    void runningBatchIsCompletedAfterReconfiguration() throws InterruptedException {
+        final ParallelBatch retired = new ParallelBatch(2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicIntegerArray processed = new AtomicIntegerArray(100);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread caller = new Thread(() -> {
+            try {
+                retired.run(processed.length(), i -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    processed.incrementAndGet(i);
+                });
+            } catch (Throwable ex) {
+                failure.set(ex);
+            }
+        });
+        caller.start();
+        assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+
+        final ParallelBatch next = ParallelBatch.reconfigure(retired, 4);
+        release.countDown();
+        caller.join(TimeUnit.SECONDS.toMillis(10));
+        next.shutdown();
+
+        assertThat(failure.get(), nullValue());
+        for (int i = 0; i < processed.length(); i++) {
+            assertThat(processed.get(i), is(1));
+        }
+    }
+}
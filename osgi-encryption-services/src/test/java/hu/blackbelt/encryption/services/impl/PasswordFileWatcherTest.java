@@ -0,0 +1,124 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+class PasswordFileWatcherTest {
+
+    private static final String ALGORITHM = "PBEWithMD5AndDES";
+    private static final String PID = "hu.blackbelt.encryption.services.impl.StringEncryptor~test";
+
+    @TempDir
+    Path tempDir;
+
+    private StringEncryptor encryptor;
+
+    @AfterEach
+    void tearDown() {
+        if (encryptor != null) {
+            encryptor.stop();
+        }
+    }
+
+    @Test
+    void rotatedPasswordFileIsApplied() throws Exception {
+        final Path passwordFile = tempDir.resolve("password");
+        Files.write(passwordFile, "first".getBytes(StandardCharsets.UTF_8));
+
+        final Map<String, Object> values = new HashMap<>();
+        values.put("encryption_algorithm", ALGORITHM);
+        values.put("encryption_passwordFile", passwordFile.toString());
+        values.put("encryptor_alias", "test");
+        final StringEncryptor.Config config = TestComponents.config(StringEncryptor.Config.class, values);
+
+        final CountDownLatch reloaded = new CountDownLatch(1);
+        final Hashtable<String, Object> configProperties = new Hashtable<>();
+        configProperties.put(Constants.SERVICE_PID, PID);
+        final Configuration configuration = TestComponents.proxy(Configuration.class, (method, args) -> {
+            if ("getProperties".equals(method.getName())) {
+                return configProperties;
+            } else if ("update".equals(method.getName())) {
+                // Service Component Runtime calls modified method on configuration change
+                encryptor.update(config);
+                reloaded.countDown();
+            }
+            return null;
+        });
+        final ConfigurationAdmin configAdmin = TestComponents.proxy(ConfigurationAdmin.class, (method, args) -> {
+            assertThat(args[0], equalTo(PID));
+            return configuration;
+        });
+
+        final TestComponents.Registry registry = new TestComponents.Registry();
+        registry.componentProperties.put(Constants.SERVICE_PID, PID);
+        encryptor = new StringEncryptor();
+        final Field configAdminField = StringEncryptor.class.getDeclaredField("configAdmin");
+        configAdminField.setAccessible(true);
+        configAdminField.set(encryptor, configAdmin);
+        encryptor.start(registry.componentContext, config);
+
+        assertThat(decryptor("first").decrypt(encryptor.encrypt("message")), equalTo("message"));
+
+        // watcher thread registers the directory asynchronously, rotate file until change is detected
+        // (file is replaced atomically, so truncated content is never read by the reloaded component)
+        final Path rotatedFile = tempDir.resolve("password.new");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        do {
+            Files.write(rotatedFile, "second".getBytes(StandardCharsets.UTF_8));
+            Files.move(rotatedFile, passwordFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } while (!reloaded.await(200, TimeUnit.MILLISECONDS) && System.nanoTime() < deadline);
+
+        assertThat(reloaded.getCount(), is(0L));
+        assertThat(configProperties.containsKey("lastModified"), is(true));
+        assertThat(decryptor("second").decrypt(encryptor.encrypt("message")), equalTo("message"));
+        assertThat(encryptor.decrypt(decryptor("second").encrypt("message")), equalTo("message"));
+    }
+
+    private static StandardPBEStringEncryptor decryptor(final String password) {
+        final StandardPBEStringEncryptor decryptor = new StandardPBEStringEncryptor();
+        decryptor.setAlgorithm(ALGORITHM);
+        decryptor.setPassword(password);
+        return decryptor;
+    }
+}
@@ -0,0 +1,190 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.metrics.ErrorCategory;
+import org.jasypt.encryption.pbe.StandardPBEByteEncryptor;
+import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PbeCipherPipelineTest {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    private static final String MESSAGE = "árvíztűrő tükörfúrógép 🔒";
+
+    private static final int ITERATIONS = 1000;
+
+    private final OperationStats encryptionStats = new OperationStats(false);
+
+    private final OperationStats decryptionStats = new OperationStats(false);
+
+    private PbeCipherPipeline pipeline(final String algorithm, final String outputType, final String password) {
+        return new PbeCipherPipeline(algorithm, null, ITERATIONS, outputType, password.toCharArray(), 2, encryptionStats, decryptionStats);
+    }
+
+    private static StandardPBEStringEncryptor jasypt(final String algorithm, final String outputType) {
+        final StandardPBEStringEncryptor encryptor = new StandardPBEStringEncryptor();
+        encryptor.setAlgorithm(algorithm);
+        encryptor.setPassword(PASSWORD);
+        encryptor.setKeyObtentionIterations(ITERATIONS);
+        if (outputType != null) {
+            encryptor.setStringOutputType(outputType);
+        }
+        return encryptor;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"PBEWithMD5AndDES", "PBEWithMD5AndTripleDES", "PBEWithSHA1AndDESede", "PBEWithSHA1AndRC2_40", "PBEWithSHA1AndRC4_128"})
+    void base64StringsAreCompatibleWithJasypt(final String algorithm) {
+        final PbeCipherPipeline pipeline = pipeline(algorithm, null, PASSWORD);
+        final StandardPBEStringEncryptor jasypt = jasypt(algorithm, null);
+
+        assertThat(jasypt.decrypt(pipeline.encrypt(MESSAGE)), equalTo(MESSAGE));
+        assertThat(pipeline.decrypt(jasypt.encrypt(MESSAGE)), equalTo(MESSAGE));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"PBEWithMD5AndDES", "PBEWithSHA1AndDESede", "PBEWithSHA1AndRC4_128"})
+    void hexadecimalStringsAreCompatibleWithJasypt(final String algorithm) {
+        final PbeCipherPipeline pipeline = pipeline(algorithm, "hexadecimal", PASSWORD);
+        final StandardPBEStringEncryptor jasypt = jasypt(algorithm, "hexadecimal");
+
+        final String encrypted = pipeline.encrypt(MESSAGE);
+        assertThat(encrypted.matches("[0-9A-F]+"), is(true));
+        assertThat(jasypt.decrypt(encrypted), equalTo(MESSAGE));
+        assertThat(pipeline.decrypt(jasypt.encrypt(MESSAGE)), equalTo(MESSAGE));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"PBEWithMD5AndDES", "PBEWithSHA1AndDESede", "PBEWithSHA1AndRC4_128"})
+    void bytesAreCompatibleWithJasypt(final String algorithm) {
+        final PbeCipherPipeline pipeline = pipeline(algorithm, null, PASSWORD);
+        final StandardPBEByteEncryptor jasypt = new StandardPBEByteEncryptor();
+        jasypt.setAlgorithm(algorithm);
+        jasypt.setPassword(PASSWORD);
+        jasypt.setKeyObtentionIterations(ITERATIONS);
+        final byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+
+        assertThat(jasypt.decrypt(pipeline.encrypt(message)), equalTo(message));
+        assertThat(pipeline.decrypt(jasypt.encrypt(message)), equalTo(message));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"PBEWithMD5AndDES", "PBEWithMD5AndTripleDES", "PBEWithSHA1AndDESede", "PBEWithSHA1AndRC2_40", "PBEWithSHA1AndRC4_128"})
+    void buffersAreCompatibleWithBytes(final String algorithm) {
+        final PbeCipherPipeline pipeline = pipeline(algorithm, null, PASSWORD);
+        // an empty message encrypted by a stream cipher is only the salt, which is rejected like jasypt does
+        final int minSize = pipeline.getMaxDecryptedSize(pipeline.getEncryptedSize(0)) > 0 ? 0 : 1;
+        for (int size = minSize; size <= 17; size++) {
+            final byte[] message = new byte[size];
+            Arrays.fill(message, (byte) size);
+
+            // direct buffers are passed to the cipher, encrypted size is known before encryption
+            final ByteBuffer src = ByteBuffer.allocateDirect(size);
+            src.put(message).flip();
+            final ByteBuffer encrypted = ByteBuffer.allocateDirect(pipeline.getEncryptedSize(size));
+            assertThat(pipeline.encrypt(src, encrypted), is(pipeline.getEncryptedSize(size)));
+            assertThat(src.hasRemaining(), is(false));
+            assertThat(encrypted.hasRemaining(), is(false));
+            encrypted.flip();
+            final byte[] encryptedBytes = new byte[encrypted.remaining()];
+            encrypted.duplicate().get(encryptedBytes);
+            assertThat(pipeline.decrypt(encryptedBytes), equalTo(message));
+
+            final ByteBuffer decrypted = ByteBuffer.allocateDirect(pipeline.getMaxDecryptedSize(encrypted.remaining()));
+            assertThat(pipeline.decrypt(encrypted, decrypted), is(size));
+            decrypted.flip();
+            final byte[] decryptedBytes = new byte[decrypted.remaining()];
+            decrypted.get(decryptedBytes);
+            assertThat(decryptedBytes, equalTo(message));
+
+            // heap buffers with offset
+            final byte[] fromBytes = pipeline.encrypt(message);
+            assertThat(fromBytes.length, is(pipeline.getEncryptedSize(size)));
+            final byte[] backing = new byte[fromBytes.length + 6];
+            System.arraycopy(fromBytes, 0, backing, 3, fromBytes.length);
+            final ByteBuffer heap = ByteBuffer.allocate(pipeline.getMaxDecryptedSize(fromBytes.length) + 4);
+            heap.position(2);
+            assertThat(pipeline.decrypt(ByteBuffer.wrap(backing, 3, fromBytes.length).slice(), heap), is(size));
+            assertThat(Arrays.copyOfRange(heap.array(), 2, 2 + size), equalTo(message));
+        }
+    }
+
+    @Test
+    void nullIsNotEncrypted() {
+        final PbeCipherPipeline pipeline = pipeline("PBEWithMD5AndDES", null, PASSWORD);
+        assertThat(pipeline.encrypt((String) null), nullValue());
+        assertThat(pipeline.decrypt((String) null), nullValue());
+    }
+
+    @Test
+    void failureOfWrongPasswordKeepsCause() {
+        final String encrypted = pipeline("PBEWithSHA1AndDESede", null, PASSWORD).encrypt(MESSAGE);
+        final PbeCipherPipeline other = pipeline("PBEWithSHA1AndDESede", null, "other");
+
+        // padding check of a wrong key passes with low probability, a few messages are tried
+        EncryptionOperationNotPossibleException failure = null;
+        for (int i = 0; i < 10 && failure == null; i++) {
+            try {
+                other.decrypt(i == 0 ? encrypted : pipeline("PBEWithSHA1AndDESede", null, PASSWORD).encrypt(MESSAGE + i));
+            } catch (EncryptionOperationNotPossibleException ex) {
+                failure = ex;
+            }
+        }
+
+        assertThat(failure, notNullValue());
+        assertThat(failure.getMessage(), nullValue());
+        assertThat(failure.getCause(), notNullValue());
+        assertThat(ErrorTable.categorize(failure), is(ErrorCategory.AUTHENTICATION));
+    }
+
+    @Test
+    void failureOfMalformedInputKeepsCause() {
+        final PbeCipherPipeline pipeline = pipeline("PBEWithMD5AndDES", "hexadecimal", PASSWORD);
+
+        final EncryptionOperationNotPossibleException notHexadecimal = assertThrows(EncryptionOperationNotPossibleException.class, () -> pipeline.decrypt("not hexadecimal"));
+        assertThat(notHexadecimal.getCause(), notNullValue());
+        assertThat(ErrorTable.categorize(notHexadecimal), is(ErrorCategory.INVALID_INPUT));
+
+        final EncryptionOperationNotPossibleException tooShort = assertThrows(EncryptionOperationNotPossibleException.class, () -> pipeline.decrypt("0011"));
+        assertThat(ErrorTable.categorize(tooShort), is(ErrorCategory.INVALID_INPUT));
+
+        final EncryptionOperationNotPossibleException truncated = assertThrows(EncryptionOperationNotPossibleException.class,
+                () -> pipeline.decrypt(pipeline.encrypt(MESSAGE).substring(0, 30)));
+        assertThat(ErrorTable.categorize(truncated), is(ErrorCategory.INVALID_INPUT));
+    }
+}
@@ -0,0 +1,253 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static hu.blackbelt.encryption.services.impl.TestComponents.values;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Pbkdf2DigesterTest {
+
+    private static final Map<String, Object> DEFAULTS = values(
+            "digest_iterations", 1000,
+            "digester_alias", "test");
+
+    private Pbkdf2Digester digester;
+
+    @AfterEach
+    void tearDown() {
+        if (digester != null) {
+            digester.stop();
+        }
+    }
+
+    private static Pbkdf2Digester.Config config(final Map<String, Object> overrides) {
+        return TestComponents.config(Pbkdf2Digester.Config.class, DEFAULTS, overrides);
+    }
+
+    private Pbkdf2Digester start(final Map<String, Object> overrides) {
+        digester = new Pbkdf2Digester();
+        digester.start(new TestComponents.Registry().componentContext, config(overrides));
+        return digester;
+    }
+
+    @Test
+    void digestsAreSelfDescribing() {
+        start(new HashMap<>());
+
+        final String digest = digester.digest("password");
+        final String[] parts = digest.split("\\$", -1);
+
+        assertThat(parts.length, is(5));
+        assertThat(parts[1], is("pbkdf2-sha256"));
+        assertThat(parts[2], is("i=1000"));
+        assertThat(Base64.getDecoder().decode(parts[3]).length, is(Pbkdf2Digester.DEFAULT_SALT_SIZE));
+        assertThat(Base64.getDecoder().decode(parts[4]).length, is(Pbkdf2Digester.DEFAULT_HASH_SIZE / 8));
+        assertThat(digester.matches("password", digest), is(true));
+        assertThat(digester.matches("other", digest), is(false));
+        assertThat(digester.digest("password"), not(equalTo(digest)));
+    }
+
+    @Test
+    void digestsOfOldIterationsAreValidated() {
+        start(new HashMap<>());
+        final String oldDigest = digester.digest("password");
+
+        digester.update(config(values("digest_iterations", 2000)));
+        final String newDigest = digester.digest("password");
+
+        assertThat(digester.getIterations(), is(2000));
+        assertThat(oldDigest, startsWith("$pbkdf2-sha256$i=1000$"));
+        assertThat(newDigest, startsWith("$pbkdf2-sha256$i=2000$"));
+        assertThat(digester.matches("password", oldDigest), is(true));
+        assertThat(digester.matches("other", oldDigest), is(false));
+        assertThat(digester.matches("password", newDigest), is(true));
+    }
+
+    @Test
+    void digestsOfOtherAlgorithmAndHashSizeAreValidated() {
+        start(values("digest_algorithm", "PBKDF2WithHmacSHA512", "digest_hashSize", 512));
+        final String sha512Digest = digester.digest("password");
+        digester.stop();
+
+        start(values("digest_hashSize", 128));
+        final String sha256Digest = digester.digest("password");
+
+        assertThat(sha512Digest, startsWith("$pbkdf2-sha512$"));
+        assertThat(Base64.getDecoder().decode(sha256Digest.split("\\$")[4]).length, is(16));
+        assertThat(digester.matches("password", sha512Digest), is(true));
+        assertThat(digester.matches("other", sha512Digest), is(false));
+        assertThat(digester.matches("password", sha256Digest), is(true));
+    }
+
+    @Test
+    void passwordsAreNormalized() {
+        start(new HashMap<>());
+
+        assertThat(digester.matches("árvíz", digester.digest("árvíz")), is(true));
+    }
+
+    @Test
+    void nullsAreNotDigested() {
+        start(new HashMap<>());
+
+        assertThat(digester.digest(null), nullValue());
+        assertThat(digester.matches(null, null), is(true));
+        assertThat(digester.matches(null, digester.digest("password")), is(false));
+        assertThat(digester.matches("password", null), is(false));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "plain",
+            "$pbkdf2-sha256$i=1000$c2FsdA",
+            "$pbkdf2-sha256$i=1000$c2FsdA$aGFzaA$",
+            "pbkdf2-sha256$i=1000$c2FsdA$aGFzaA$x",
+            "x$pbkdf2-sha256$i=1000$c2FsdA$aGFzaA",
+            "$bcrypt$i=1000$c2FsdA$aGFzaA",
+            "$pbkdf2-sha256$1000$c2FsdA$aGFzaA",
+            "$pbkdf2-sha256$i=$c2FsdA$aGFzaA",
+            "$pbkdf2-sha256$i=abc$c2FsdA$aGFzaA",
+            "$pbkdf2-sha256$i=0$c2FsdA$aGFzaA",
+            "$pbkdf2-sha256$i=-1$c2FsdA$aGFzaA",
+            "$pbkdf2-sha256$i=1000$c2F*sdA$aGFzaA",
+            "$pbkdf2-sha256$i=1000$c2FsdA$aGF*zaA",
+            "$pbkdf2-sha256$i=1000$c2FsdA$"
+    })
+    void invalidDigestFormatsAreRejected(final String digest) {
+        start(new HashMap<>());
+
+        assertThrows(IllegalArgumentException.class, () -> digester.matches("password", digest));
+        assertThat(digester.digestValidationStats.getErrorCounter(), is(1L));
+    }
+
+    @Test
+    void digestsExceedingLimitsAreRejected() {
+        start(new HashMap<>());
+        final String[] parts = digester.digest("password").split("\\$");
+        final String salt = parts[3];
+        final String hash256 = Base64.getEncoder().withoutPadding().encodeToString(new byte[32]);
+        final String hash264 = Base64.getEncoder().withoutPadding().encodeToString(new byte[33]);
+
+        // 4 times the iterations of new digests and output length of HMAC-SHA256 by default
+        assertThat(digester.matches("password", "$pbkdf2-sha256$i=4000$" + salt + "$" + hash256), is(false));
+        assertThrows(IllegalArgumentException.class, () -> digester.matches("password", "$pbkdf2-sha256$i=4001$" + salt + "$" + hash256));
+        assertThrows(IllegalArgumentException.class, () -> digester.matches("password", "$pbkdf2-sha256$i=2147483647$" + salt + "$" + hash256));
+        assertThrows(IllegalArgumentException.class, () -> digester.matches("password", "$pbkdf2-sha256$i=1000$" + salt + "$" + hash264));
+        assertThat(digester.digestValidationStats.getErrorCounter(), is(3L));
+
+        digester.update(config(values("digest_maxIterations", 8000, "digest_maxHashSize", 512)));
+        assertThat(digester.matches("password", "$pbkdf2-sha256$i=8000$" + salt + "$" + hash264), is(false));
+        assertThrows(IllegalArgumentException.class, () -> digester.matches("password", "$pbkdf2-sha256$i=8001$" + salt + "$" + hash256));
+    }
+
+    @Test
+    void digestOfUnknownAlgorithmIsRejected() {
+        start(new HashMap<>());
+
+        assertThrows(RuntimeException.class, () -> digester.matches("password", "$pbkdf2-md5$i=1000$c2FsdA$aGFzaA"));
+    }
+
+    @Test
+    void unsupportedAlgorithmFailsActivation() {
+        assertThrows(RuntimeException.class, () -> start(values("digest_algorithm", "SHA-256")));
+        digester = null;
+    }
+
+    @Test
+    void batchesAreProcessed() {
+        start(new HashMap<>());
+
+        final String[] digests = digester.digestAll(new String[]{"first", "second", "third"});
+
+        assertThat(digester.matchesAll(new String[]{"first", "other", "third"}, digests), equalTo(new boolean[]{true, false, true}));
+        assertThat(digester.matchesAny("second", Arrays.asList(digests)), is(true));
+        assertThat(digester.matchesAny("other", Arrays.asList(digests)), is(false));
+        assertThat(digester.digestValidationStats.getRequestCounter(), is(5L));
+    }
+
+    @Test
+    void iterationsAreCalibratedInBackground() throws Exception {
+        start(values("digest_targetLatency", 5L));
+
+        final Pbkdf2Digester.Calibration calibration = digester.getCalibration();
+        assertThat(calibration, notNullValue());
+        final int calibrated = calibration.getResult().get(30, TimeUnit.SECONDS);
+
+        assertThat(digester.getIterations(), is(Math.max(1000, calibrated)));
+        assertThat(digester.matches("password", digester.digest("password")), is(true));
+    }
+
+    @Test
+    void calibrationIsRepeatedOnlyIfCalibrationSettingsChange() throws Exception {
+        start(values("digest_targetLatency", 5L));
+        final Pbkdf2Digester.Calibration calibration = digester.getCalibration();
+
+        digester.update(config(values("digest_targetLatency", 5L, "digest_iterations", 2000, "digester_slowThreshold", 100L)));
+        assertThat(digester.getCalibration(), sameInstance(calibration));
+        final int calibrated = calibration.getResult().get(30, TimeUnit.SECONDS);
+        assertThat(digester.getIterations(), is(Math.max(2000, calibrated)));
+
+        digester.update(config(values("digest_targetLatency", 5L, "digest_hashSize", 512)));
+        final Pbkdf2Digester.Calibration recalibration = digester.getCalibration();
+        assertThat(recalibration, not(sameInstance(calibration)));
+
+        digester.update(config(values("digest_targetLatency", 0L)));
+        assertThat(digester.getCalibration(), nullValue());
+        assertThat(digester.getIterations(), is(1000));
+        assertThat(recalibration.getResult().isCancelled() || recalibration.getResult().isDone(), is(true));
+    }
+
+    @Test
+    void configuredIterationsAreUsedUntilCalibrationCompletes() {
+        start(values("digest_targetLatency", 1000L, "digest_iterations", 1000));
+
+        // activation does not wait for calibration
+        assertThat(digester.getCalibration().getResult().isDone(), is(false));
+        assertThat(digester.getIterations(), is(1000));
+        assertThat(digester.digest("password"), startsWith("$pbkdf2-sha256$i=1000$"));
+
+        digester.stop();
+        assertThat(digester.getCalibration(), nullValue());
+        digester = null;
+    }
+}
@@ -0,0 +1,96 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput benchmark of encryptor pool sizes, it is not executed by unit tests.
+ *
+ * <p>Usage: <code>java -cp ... PoolSizeBenchmark [algorithm] [seconds]</code>. Decryption throughput is measured with
+ * pool size 1 and number of available processors (at least 2), using 1 to 2 &times; available processors caller threads. Results
+ * are meaningful on multi-core hardware only.</p>
+ */
+public final class PoolSizeBenchmark {
+
+    private static final String MESSAGE = "benchmark message";
+
+    private PoolSizeBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final String algorithm = args.length > 0 ? args[0] : "PBEWITHMD5ANDTRIPLEDES";
+        final long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5L;
+        final int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("algorithm=" + algorithm + ", cores=" + cores + ", duration=" + seconds + " s");
+        for (final int poolSize : new int[]{1, Math.max(2, cores)}) {
+            final TestComponents.Registry registry = new TestComponents.Registry();
+            final Map<String, Object> values = new HashMap<>();
+            values.put("encryption_algorithm", algorithm);
+            values.put("encryption_password", "benchmark");
+            values.put("encryptor_alias", "benchmark");
+            values.put("encryptor_poolSize", poolSize);
+            final StringEncryptor encryptor = new StringEncryptor();
+            encryptor.start(registry.componentContext, TestComponents.config(StringEncryptor.Config.class, values));
+            try {
+                final String encrypted = encryptor.encrypt(MESSAGE);
+                // warm-up
+                run(encryptor, encrypted, cores, Math.max(1L, seconds / 2));
+                for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+                    final double opsPerSecond = run(encryptor, encrypted, threads, seconds);
+                    System.out.println(String.format("pool=%d threads=%d: %.0f ops/s", poolSize, threads, opsPerSecond));
+                }
+            } finally {
+                encryptor.stop();
+            }
+        }
+    }
+
+    private static double run(final StringEncryptor encryptor, final String encrypted, final int threads, final long seconds) throws InterruptedException {
+        final LongAdder operations = new LongAdder();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final long startTs = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        if (!MESSAGE.equals(encryptor.decrypt(encrypted))) {
+                            throw new IllegalStateException("Decrypted message does not match the original one");
+                        }
+                        operations.increment();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        done.await();
+        return operations.sum() * 1e9 / (System.nanoTime() - startTs);
+    }
+}
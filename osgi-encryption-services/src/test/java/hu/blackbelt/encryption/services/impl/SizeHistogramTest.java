@@ -0,0 +1,121 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.SortedMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class SizeHistogramTest {
+
+    @Test
+    void bucketsAreUpperBoundInclusivePowersOfTwo() {
+        assertThat(SizeHistogram.indexOf(0L), is(0));
+        assertThat(SizeHistogram.indexOf(1L), is(0));
+        assertThat(SizeHistogram.indexOf(2L), is(1));
+        assertThat(SizeHistogram.indexOf(3L), is(2));
+        assertThat(SizeHistogram.indexOf(4L), is(2));
+        assertThat(SizeHistogram.indexOf(5L), is(3));
+        assertThat(SizeHistogram.indexOf(1024L), is(10));
+        assertThat(SizeHistogram.indexOf(1025L), is(11));
+
+        for (int i = 1; i < 63; i++) {
+            assertThat(SizeHistogram.indexOf(1L << i), is(i));
+            assertThat(SizeHistogram.indexOf((1L << i) + 1), is(i + 1));
+        }
+        // last bucket contains all sizes above 2^62
+        assertThat(SizeHistogram.indexOf(Long.MAX_VALUE), is(63));
+    }
+
+    @Test
+    void negativeSizesAreRecordedAsZero() {
+        final SizeHistogram histogram = new SizeHistogram();
+        histogram.record(-1L);
+
+        assertThat(histogram.getCounts()[0], is(1L));
+        assertThat(histogram.getMax(), is(0L));
+    }
+
+    @Test
+    void percentilesAreUpperBoundsLimitedToMax() {
+        final SizeHistogram histogram = new SizeHistogram();
+        histogram.record(100L);
+        histogram.record(1000L);
+        histogram.record(3000L);
+        histogram.record(3000L);
+
+        final long[] counts = histogram.getCounts();
+        assertThat(SizeHistogram.getValueAtPercentile(counts, 25.0, histogram.getMax()), is(128L));
+        assertThat(SizeHistogram.getValueAtPercentile(counts, 50.0, histogram.getMax()), is(1024L));
+        // bucket of 3000 is bounded by 4096, but no size above max is reported
+        assertThat(SizeHistogram.getValueAtPercentile(counts, 100.0, histogram.getMax()), is(3000L));
+        assertThat(SizeHistogram.getValueAtPercentile(new long[64], 50.0, 0L), is(0L));
+    }
+
+    @Test
+    void largestSizesAreReportedAsMax() {
+        final SizeHistogram histogram = new SizeHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertThat(SizeHistogram.getValueAtPercentile(histogram.getCounts(), 50.0, histogram.getMax()), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    void cumulativeBucketsEndAtBucketOfMax() {
+        final SizeHistogram first = new SizeHistogram();
+        first.record(1L);
+        first.record(4L);
+        final SizeHistogram second = new SizeHistogram();
+        second.record(5L);
+        first.add(second);
+
+        final SortedMap<Long, Long> buckets = SizeHistogram.getBuckets(first.getCounts(), first.getMax());
+        assertThat(buckets.keySet(), contains(1L, 2L, 4L, 8L, OperationStatsSnapshot.INFINITE_BOUND));
+        assertThat(buckets.values(), contains(1L, 1L, 2L, 3L, 3L));
+    }
+
+    @Test
+    void cumulativeBucketsOfEmptyHistogram() {
+        final SortedMap<Long, Long> buckets = SizeHistogram.getBuckets(new long[64], 0L);
+
+        assertThat(buckets.keySet(), contains(1L, OperationStatsSnapshot.INFINITE_BOUND));
+        assertThat(buckets.values(), contains(0L, 0L));
+    }
+
+    @Test
+    void cumulativeBucketsOfLargestSizes() {
+        final SizeHistogram histogram = new SizeHistogram();
+        histogram.record((1L << 62) + 1);
+
+        // the last finite bound is 2^62, larger sizes are counted by infinite bound only
+        final SortedMap<Long, Long> buckets = SizeHistogram.getBuckets(histogram.getCounts(), histogram.getMax());
+        assertThat(buckets.size(), is(64));
+        assertThat(buckets.get(1L << 62), is(0L));
+        assertThat(buckets.get(OperationStatsSnapshot.INFINITE_BOUND), is(1L));
+    }
+}
@@ -0,0 +1,172 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.metrics.OperationStats;
+import hu.blackbelt.encryption.services.metrics.SlowOperation;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+class SlowOperationDetectorTest {
+
+    private static final long THRESHOLD = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Appender keeping MDC of logged events.
+     */
+    private static final class CapturingAppender extends AppenderSkeleton {
+
+        private final List<Map<String, Object>> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void append(final LoggingEvent event) {
+            event.getMDCCopy();
+            events.add(new HashMap<>((Map<String, Object>) event.getProperties()));
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+    }
+
+    private final SlowOperationDetector detector = new SlowOperationDetector();
+
+    private final CapturingAppender appender = new CapturingAppender();
+
+    @BeforeEach
+    void setUp() {
+        Logger.getLogger(SlowOperationDetector.class).addAppender(appender);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Logger.getLogger(SlowOperationDetector.class).removeAppender(appender);
+        MDC.clear();
+    }
+
+    @Test
+    void operationsBelowThresholdAreIgnored() {
+        detector.configure("test", "algorithm", null, 10L, 1.0, 10);
+
+        detector.record(OperationStats.Type.ENCRYPTION, THRESHOLD - 1, 100L);
+        detector.record(OperationStats.Type.ENCRYPTION, THRESHOLD, "message");
+
+        final List<SlowOperation> operations = detector.getSlowOperations();
+        assertThat(operations.size(), is(1));
+        assertThat(operations.get(0).getInputSize(), is(7L));
+        assertThat(operations.get(0).getDuration(), is(THRESHOLD));
+        assertThat(operations.get(0).getAlias(), equalTo("test"));
+        assertThat(appender.events.size(), is(1));
+    }
+
+    @Test
+    void detectionIsDisabledWithoutThreshold() {
+        detector.configure("test", "algorithm", null, 0L, 1.0, 10);
+
+        detector.record(OperationStats.Type.DECRYPTION, Long.MAX_VALUE - 1, 100L);
+
+        assertThat(detector.getSlowOperations(), is(empty()));
+        assertThat(appender.events, is(empty()));
+    }
+
+    @Test
+    void ringBufferKeepsMostRecentOperations() {
+        detector.configure("test", "algorithm", null, 10L, 0.0, 3);
+
+        for (long size = 0; size < 5; size++) {
+            detector.record(OperationStats.Type.DIGEST, THRESHOLD, size);
+        }
+        assertThat(detector.getSlowOperations().stream().map(SlowOperation::getInputSize).collect(Collectors.toList()), containsInAnyOrder(2L, 3L, 4L));
+
+        // buffer is replaced only if its size is changed
+        detector.configure("other", "algorithm", null, 10L, 0.0, 3);
+        assertThat(detector.getSlowOperations().size(), is(3));
+        detector.configure("other", "algorithm", null, 10L, 0.0, 0);
+        detector.record(OperationStats.Type.DIGEST, THRESHOLD, 5L);
+        assertThat(detector.getSlowOperations(), is(empty()));
+    }
+
+    @Test
+    void loggingIsSampled() {
+        detector.configure("test", "algorithm", null, 10L, 0.0, 10);
+        for (int i = 0; i < 100; i++) {
+            detector.record(OperationStats.Type.DIGEST, THRESHOLD, 1L);
+        }
+        // operations are kept even if they are not logged
+        assertThat(appender.events, is(empty()));
+        assertThat(detector.getSlowOperations().size(), is(10));
+
+        detector.configure("test", "algorithm", null, 10L, 0.5, 10);
+        for (int i = 0; i < 1000; i++) {
+            detector.record(OperationStats.Type.DIGEST, THRESHOLD, 1L);
+        }
+        assertThat(appender.events.size(), greaterThan(350));
+        assertThat(appender.events.size(), lessThan(650));
+    }
+
+    @Test
+    void mdcOfCallerIsRestored() {
+        detector.configure("test", "algorithm", "provider", 10L, 1.0, 10);
+        MDC.put(SlowOperationDetector.MDC_ALIAS, "caller");
+
+        detector.record(OperationStats.Type.VALIDATE_DIGEST, THRESHOLD, 42L);
+
+        final Map<String, Object> mdc = appender.events.get(0);
+        assertThat(mdc.get(SlowOperationDetector.MDC_ALIAS), equalTo("test"));
+        assertThat(mdc.get(SlowOperationDetector.MDC_OPERATION), equalTo("VALIDATE_DIGEST"));
+        assertThat(mdc.get(SlowOperationDetector.MDC_PROVIDER), equalTo("provider"));
+        assertThat(mdc.get(SlowOperationDetector.MDC_INPUT_SIZE), equalTo("42"));
+        assertThat(mdc.get(SlowOperationDetector.MDC_DURATION), equalTo("10.000"));
+
+        assertThat(MDC.get(SlowOperationDetector.MDC_ALIAS), equalTo("caller"));
+        assertThat(MDC.get(SlowOperationDetector.MDC_OPERATION), nullValue());
+        assertThat(MDC.get(SlowOperationDetector.MDC_DURATION), nullValue());
+    }
+}
@@ -0,0 +1,130 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static hu.blackbelt.encryption.services.impl.TestComponents.values;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class StringDigesterTest {
+
+    private static final Map<String, Object> DEFAULTS = values(
+            "digest_algorithm", "SHA-256",
+            "digester_alias", "test");
+
+    private StringDigester digester;
+
+    @AfterEach
+    void tearDown() {
+        if (digester != null) {
+            digester.stop();
+        }
+    }
+
+    private static StringDigester.Config config(final Map<String, Object> overrides) {
+        return TestComponents.config(StringDigester.Config.class, DEFAULTS, overrides);
+    }
+
+    private StringDigester start(final Map<String, Object> overrides) {
+        digester = new StringDigester();
+        digester.start(new TestComponents.Registry().componentContext, config(overrides));
+        return digester;
+    }
+
+    private static ByteBuffer utf8(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void digestOfAsciiBytesMatchesStringDigest() {
+        start(new HashMap<>());
+        final String message = "plain ASCII message";
+
+        assertThat(digester.matches(utf8(message), digester.digest(message)), is(true));
+        assertThat(digester.matches(message, digester.digest(utf8(message))), is(true));
+    }
+
+    @Test
+    void digestOfNfcBytesMatchesStringDigest() {
+        start(new HashMap<>());
+        final String composed = "árvíztűrő tükörfúrógép";
+        assertThat(Normalizer.isNormalized(composed, Normalizer.Form.NFC), is(true));
+
+        assertThat(digester.matches(utf8(composed), digester.digest(composed)), is(true));
+        assertThat(digester.matches(composed, digester.digest(utf8(composed))), is(true));
+    }
+
+    @Test
+    void digestOfNonNfcBytesDoesNotMatchStringDigest() {
+        start(new HashMap<>());
+        final String decomposed = "a\u0301rvi\u0301z";
+        assertThat(Normalizer.isNormalized(decomposed, Normalizer.Form.NFC), is(false));
+
+        // String messages are normalized, bytes are digested as they are
+        final String stringDigest = digester.digest(decomposed);
+        assertThat(digester.matches(utf8(decomposed), stringDigest), is(false));
+        assertThat(digester.matches(utf8(Normalizer.normalize(decomposed, Normalizer.Form.NFC)), stringDigest), is(true));
+    }
+
+    @Test
+    void hexadecimalOutputMatchesStringDigest() {
+        start(values("digest_outputType", "hexadecimal", "digest_iterations", 3));
+
+        assertThat(digester.matches(utf8("message"), digester.digest("message")), is(true));
+        assertThat(digester.matches("message", digester.digest(utf8("message"))), is(true));
+    }
+
+    @Test
+    void cacheCountersAreKeptOnReconfiguration() {
+        start(values("digester_verificationCacheSize", 10));
+        final String digest = digester.digest("message");
+
+        assertThat(digester.matches("message", digest), is(true));
+        assertThat(digester.matches("message", digest), is(true));
+        assertThat(digester.matches("other", digest), is(false));
+        assertThat(digester.digestValidationStats.getCacheHits(), is(1L));
+        assertThat(digester.digestValidationStats.getCacheMisses(), is(2L));
+
+        // new cache is empty, counters of the replaced one are kept
+        digester.update(config(values("digester_verificationCacheSize", 20)));
+        assertThat(digester.matches("message", digest), is(true));
+        assertThat(digester.digestValidationStats.getCacheHits(), is(1L));
+        assertThat(digester.digestValidationStats.getCacheMisses(), is(3L));
+        assertThat(digester.matches("message", digest), is(true));
+        assertThat(digester.digestValidationStats.getCacheHits(), is(2L));
+
+        // disabled cache keeps counters too
+        digester.update(config(values("digester_verificationCacheSize", 0)));
+        assertThat(digester.matches("message", digest), is(true));
+        assertThat(digester.digestValidationStats.snapshot().getCacheHits(), is(2L));
+        assertThat(digester.digestValidationStats.snapshot().getCacheMisses(), is(3L));
+    }
+}
@@ -0,0 +1,176 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import hu.blackbelt.encryption.services.metrics.OperationStatsSnapshot;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static hu.blackbelt.encryption.services.impl.TestComponents.values;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StringEncryptorTest {
+
+    private static final String ALGORITHM = "PBEWithMD5AndDES";
+
+    private static final Map<String, Object> DEFAULTS = values(
+            "encryption_algorithm", ALGORITHM,
+            "encryption_password", "secret",
+            "encryptor_alias", "test");
+
+    private StringEncryptor encryptor;
+
+    @AfterEach
+    void tearDown() {
+        if (encryptor != null) {
+            encryptor.stop();
+        }
+    }
+
+    private static StringEncryptor.Config config(final Map<String, Object> overrides) {
+        return TestComponents.config(StringEncryptor.Config.class, DEFAULTS, overrides);
+    }
+
+    private StringEncryptor start(final Map<String, Object> overrides) {
+        encryptor = new StringEncryptor();
+        encryptor.start(new TestComponents.Registry().componentContext, config(overrides));
+        return encryptor;
+    }
+
+    @Test
+    void operationsInProgressSurviveReconfiguration() throws Exception {
+        final Map<String, Object> overrides = values(
+                "encryptor_batchParallelism", 2,
+                "encryptor_asyncVirtualThreads", false,
+                "encryptor_asyncThreads", 1);
+        start(overrides);
+
+        final String[] messages = new String[64];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = "message-" + i;
+        }
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread caller = new Thread(() -> {
+            try {
+                while (running.get()) {
+                    final List<String> decrypted = encryptor.decryptAll(encryptor.encryptAll(Arrays.asList(messages)));
+                    assertThat(decrypted, equalTo(Arrays.asList(messages)));
+                    final CompletableFuture<String> future = encryptor.encryptAsync("async");
+                    assertThat(encryptor.decrypt(future.get(10, TimeUnit.SECONDS)), equalTo("async"));
+                }
+            } catch (Throwable ex) {
+                failure.set(ex);
+            }
+        });
+        caller.start();
+
+        // executor settings are changed by every second update
+        for (int i = 0; i < 20; i++) {
+            final Map<String, Object> changed = new HashMap<>(overrides);
+            changed.put("encryptor_batchParallelism", 2 + i % 2);
+            changed.put("encryptor_asyncThreads", 1 + i % 2);
+            encryptor.update(config(changed));
+            Thread.sleep(10);
+        }
+        running.set(false);
+        caller.join(TimeUnit.SECONDS.toMillis(30));
+
+        assertThat(failure.get(), nullValue());
+        assertThat(encryptor.decrypt(encryptor.encrypt("message")), is("message"));
+    }
+
+    @Test
+    void shortDestinationBufferIsRejectedBeforeEncryption() {
+        start(new HashMap<>());
+        final ByteBuffer src = ByteBuffer.allocateDirect(20);
+        src.put(new byte[20]).flip();
+        // 8 bytes of salt and 24 bytes of padded message
+        final ByteBuffer dst = ByteBuffer.allocateDirect(31);
+
+        assertThrows(BufferOverflowException.class, () -> encryptor.encrypt(src, dst));
+
+        assertThat(src.position(), is(0));
+        assertThat(dst.position(), is(0));
+        final OperationStatsSnapshot snapshot = encryptor.encryptionStats.snapshot();
+        assertThat(snapshot.getErrorCounter(), is(1L));
+        assertThat(snapshot.getSizeCounter(), is(0L));
+        assertThat(snapshot.getPhases().isEmpty(), is(true));
+
+        final ByteBuffer exact = ByteBuffer.allocateDirect(32);
+        assertThat(encryptor.encrypt(src, exact), is(32));
+        assertThat(src.hasRemaining(), is(false));
+        exact.flip();
+        final ByteBuffer decrypted = ByteBuffer.allocate(24);
+        assertThat(encryptor.decrypt(exact, decrypted), is(20));
+        assertThat(encryptor.decryptionStats.snapshot().getInputBytes(), is(32L));
+    }
+
+    @Test
+    void buffersAreCompatibleWithBytes() {
+        start(new HashMap<>());
+        final byte[] message = "message".getBytes(StandardCharsets.UTF_8);
+
+        final ByteBuffer encrypted = ByteBuffer.allocate(64);
+        encryptor.encrypt(ByteBuffer.wrap(message), encrypted);
+        assertThat(encryptor.decrypt(Arrays.copyOf(encrypted.array(), encrypted.position())), equalTo(message));
+
+        final ByteBuffer decrypted = ByteBuffer.allocateDirect(64);
+        encryptor.decrypt(ByteBuffer.wrap(encryptor.encrypt(message)), decrypted);
+        decrypted.flip();
+        final byte[] result = new byte[decrypted.remaining()];
+        decrypted.get(result);
+        assertThat(result, equalTo(message));
+    }
+
+    @Test
+    void failedBufferDecryptionKeepsPositions() {
+        start(new HashMap<>());
+        final byte[] encrypted = encryptor.encrypt("message".getBytes(StandardCharsets.UTF_8));
+        encrypted[encrypted.length - 1] ^= 0x01;
+        final ByteBuffer src = ByteBuffer.wrap(encrypted);
+        final ByteBuffer dst = ByteBuffer.allocate(64);
+
+        assertThrows(EncryptionOperationNotPossibleException.class, () -> encryptor.decrypt(src, dst));
+
+        assertThat(src.position(), is(0));
+        assertThat(dst.position(), is(0));
+        assertThat(encryptor.decryptionStats.getErrorCounter(), is(1L));
+    }
+}
@@ -0,0 +1,168 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.ComponentContext;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal OSGi doubles for activating components outside of a framework.
+ */
+final class TestComponents {
+
+    private TestComponents() {
+    }
+
+    /**
+     * Create configuration annotation instance, attributes missing from values return their default value.
+     *
+     * @param type   configuration annotation type
+     * @param values attribute values by method name (e.g. <code>encryptor_alias</code>)
+     * @param <C>    configuration type
+     * @return configuration instance
+     */
+    static <C> C config(final Class<C> type, final Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (values.containsKey(method.getName())) {
+                return values.get(method.getName());
+            }
+            if (method.getDefaultValue() != null) {
+                return method.getDefaultValue();
+            }
+            return nullValue(method);
+        }));
+    }
+
+    /**
+     * Create configuration annotation instance from default values and test specific overrides.
+     *
+     * @param type      configuration annotation type
+     * @param defaults  attribute values shared by the tests of a component
+     * @param overrides attribute values replacing defaults
+     * @param <C>       configuration type
+     * @return configuration instance
+     */
+    static <C> C config(final Class<C> type, final Map<String, Object> defaults, final Map<String, Object> overrides) {
+        final Map<String, Object> values = new HashMap<>(defaults);
+        values.putAll(overrides);
+        return config(type, values);
+    }
+
+    /**
+     * Create mutable attribute map from alternating keys and values.
+     *
+     * @param keysAndValues attribute names followed by their values
+     * @return attribute values by name
+     */
+    static Map<String, Object> values(final Object... keysAndValues) {
+        final Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            values.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return values;
+    }
+
+    /**
+     * Registry of services registered by a component.
+     */
+    static final class Registry {
+
+        final List<Object> services = Collections.synchronizedList(new ArrayList<>());
+
+        final Map<String, Object> componentProperties = new HashMap<>();
+
+        final ComponentContext componentContext;
+
+        Registry() {
+            final BundleContext bundleContext = proxy(BundleContext.class, (method, args) -> {
+                if ("registerService".equals(method.getName())) {
+                    services.add(args[1]);
+                    return proxy(ServiceRegistration.class, (m, a) -> {
+                        if ("unregister".equals(m.getName())) {
+                            services.remove(args[1]);
+                        }
+                        return nullValue(m);
+                    });
+                }
+                return nullValue(method);
+            });
+            componentContext = proxy(ComponentContext.class, (method, args) -> {
+                if ("getBundleContext".equals(method.getName())) {
+                    return bundleContext;
+                } else if ("getProperties".equals(method.getName())) {
+                    return new Hashtable<>(componentProperties);
+                }
+                return nullValue(method);
+            });
+        }
+
+        <S> S service(final Class<S> serviceClass) {
+            synchronized (services) {
+                return services.stream().filter(serviceClass::isInstance).map(serviceClass::cast).findFirst().orElse(null);
+            }
+        }
+    }
+
+    interface Handler {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    static <T> T proxy(final Class<T> type, final Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                }
+            }
+            return handler.invoke(method, args);
+        }));
+    }
+
+    private static Object nullValue(final Method method) {
+        final Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+}
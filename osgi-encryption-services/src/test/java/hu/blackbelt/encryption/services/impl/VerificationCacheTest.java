@@ -0,0 +1,185 @@
+package hu.blackbelt.encryption.services.impl;
+
+/*-
+ * #%L
+ * OSGi encryption services
+ * %%
+ * Copyright (C) 2018 - 2023 BlackBelt Technology
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+class VerificationCacheTest {
+
+    private final AtomicInteger verifications = new AtomicInteger();
+
+    private final BiPredicate<String, String> verifier = (data, digest) -> {
+        verifications.incrementAndGet();
+        return ("digest of " + data).equals(digest);
+    };
+
+    @Test
+    void successfulValidationIsCached() {
+        final VerificationCache cache = new VerificationCache(10, 0, TimeUnit.SECONDS);
+
+        assertThat(cache.matches("a", "digest of a", verifier), is(true));
+        assertThat(cache.matches("a", "digest of a", verifier), is(true));
+
+        assertThat(verifications.get(), is(1));
+        assertThat(cache.getCache().getHits(), is(1L));
+        assertThat(cache.getCache().getMisses(), is(1L));
+        assertThat(cache.getCache().size(), is(1));
+    }
+
+    @Test
+    void mismatchIsNeverCached() {
+        final VerificationCache cache = new VerificationCache(10, 0, TimeUnit.SECONDS);
+
+        assertThat(cache.matches("a", "digest of b", verifier), is(false));
+        assertThat(cache.matches("a", "digest of b", verifier), is(false));
+
+        assertThat(verifications.get(), is(2));
+        assertThat(cache.getCache().getHits(), is(0L));
+        assertThat(cache.getCache().getMisses(), is(2L));
+        assertThat(cache.getCache().size(), is(0));
+
+        // successful validation of the same message with another digest is not affected
+        assertThat(cache.matches("a", "digest of a", verifier), is(true));
+        assertThat(cache.matches("a", "digest of b", verifier), is(false));
+        assertThat(verifications.get(), is(4));
+    }
+
+    @Test
+    void nullArgumentsAreNotCached() {
+        final VerificationCache cache = new VerificationCache(10, 0, TimeUnit.SECONDS);
+
+        assertThat(cache.matches(null, "digest of null", verifier), is(true));
+        assertThat(cache.matches(null, "digest of null", verifier), is(true));
+
+        assertThat(verifications.get(), is(2));
+        assertThat(cache.getCache().size(), is(0));
+    }
+
+    @Test
+    void validationsExpire() throws InterruptedException {
+        final VerificationCache cache = new VerificationCache(10, 50, TimeUnit.MILLISECONDS);
+
+        assertThat(cache.matches("a", "digest of a", verifier), is(true));
+        assertThat(cache.matches("b", "digest of b", verifier), is(true));
+        assertThat(cache.matches("a", "digest of a", verifier), is(true));
+        assertThat(verifications.get(), is(2));
+
+        Thread.sleep(100);
+
+        // expired entry is evicted (with all other expired entries) and validated again
+        assertThat(cache.matches("a", "digest of a", verifier), is(true));
+        assertThat(verifications.get(), is(3));
+        assertThat(cache.getCache().getEvictions(), is(2L));
+        assertThat(cache.getCache().getHits(), is(1L));
+        assertThat(cache.getCache().getMisses(), is(3L));
+        assertThat(cache.getCache().size(), is(1));
+    }
+
+    @Test
+    void leastRecentlyUsedValidationIsEvicted() {
+        final VerificationCache cache = new VerificationCache(2, 0, TimeUnit.SECONDS);
+
+        cache.matches("a", "digest of a", verifier);
+        cache.matches("b", "digest of b", verifier);
+        // a is used, so b is the least recently used one
+        cache.matches("a", "digest of a", verifier);
+        cache.matches("c", "digest of c", verifier);
+
+        assertThat(cache.getCache().getEvictions(), is(1L));
+        assertThat(cache.getCache().size(), is(2));
+        assertThat(verifications.get(), is(3));
+
+        cache.matches("a", "digest of a", verifier);
+        assertThat(verifications.get(), is(3));
+        cache.matches("b", "digest of b", verifier);
+        assertThat(verifications.get(), is(4));
+        assertThat(cache.getCache().getEvictions(), is(2L));
+        assertThat(cache.getCache().getHits(), is(2L));
+        assertThat(cache.getCache().getMisses(), is(4L));
+    }
+
+    @Test
+    void countersAreKeptWhenCacheIsReplaced() {
+        final OperationStats stats = new OperationStats(false);
+        final VerificationCache first = new VerificationCache(1, 0, TimeUnit.SECONDS);
+        stats.setCache(first.getCache());
+
+        first.matches("a", "digest of a", verifier);
+        first.matches("a", "digest of a", verifier);
+        first.matches("b", "digest of b", verifier);
+        assertCounters(stats, 1L, 2L, 1L);
+
+        final VerificationCache second = new VerificationCache(10, 0, TimeUnit.SECONDS);
+        stats.setCache(second.getCache());
+        assertCounters(stats, 1L, 2L, 1L);
+
+        // retired cache is not counted any more
+        first.matches("c", "digest of c", verifier);
+        assertCounters(stats, 1L, 2L, 1L);
+
+        second.matches("a", "digest of a", verifier);
+        second.matches("a", "digest of a", verifier);
+        assertCounters(stats, 2L, 3L, 1L);
+
+        stats.setCache(null);
+        assertCounters(stats, 2L, 3L, 1L);
+
+        stats.setCache(new VerificationCache(10, 0, TimeUnit.SECONDS).getCache());
+        assertCounters(stats, 2L, 3L, 1L);
+    }
+
+    private static void assertCounters(final OperationStats stats, final long hits, final long misses, final long evictions) {
+        assertThat(stats.getCacheHits(), is(hits));
+        assertThat(stats.getCacheMisses(), is(misses));
+        assertThat(stats.getCacheEvictions(), is(evictions));
+        assertThat(stats.snapshot().getCacheHits(), is(hits));
+        assertThat(stats.snapshot().getCacheMisses(), is(misses));
+        assertThat(stats.snapshot().getCacheEvictions(), is(evictions));
+    }
+
+    @Test
+    void cacheCountersAreMonotonicAcrossReconfiguration() {
+        final OperationStats stats = new OperationStats(false);
+        long hits = 0;
+        long misses = 0;
+        for (int i = 0; i < 3; i++) {
+            final VerificationCache cache = new VerificationCache(5, 0, TimeUnit.SECONDS);
+            stats.setCache(cache.getCache());
+            for (int j = 0; j < 20; j++) {
+                cache.matches("m" + (j % 7), "digest of m" + (j % 7), verifier);
+                assertThat(stats.getCacheHits(), greaterThanOrEqualTo(hits));
+                assertThat(stats.getCacheMisses(), greaterThanOrEqualTo(misses));
+                hits = stats.getCacheHits();
+                misses = stats.getCacheMisses();
+            }
+        }
+        assertThat(hits + misses, is(60L));
+    }
+}